@@ -148,6 +148,9 @@ public final class CentralAuthenticationServiceImpl implements CentralAuthentica
     private ContextualAuthenticationPolicyFactory<ServiceContext> serviceContextAuthenticationPolicyFactory =
             new AcceptAnyAuthenticationPolicyFactory();
 
+    /** Maximum number of services tracked by a ticket granting ticket. Zero or less means unlimited. */
+    private int maxServicesPerTicketGrantingTicket;
+
     /**
      * Build the central authentication service implementation.
      *
@@ -275,8 +278,7 @@ public final class CentralAuthenticationServiceImpl implements CentralAuthentica
         final UniqueTicketIdGenerator serviceTicketUniqueTicketIdGenerator =
                 this.uniqueTicketIdGeneratorsForService.get(uniqueTicketIdGenKey);
 
-        final List<Authentication> authentications = ticketGrantingTicket.getChainedAuthentications();
-        final String ticketPrefix = authentications.size() == 1 ? ServiceTicket.PREFIX : ServiceTicket.PROXY_TICKET_PREFIX;
+        final String ticketPrefix = authns.size() == 1 ? ServiceTicket.PREFIX : ServiceTicket.PROXY_TICKET_PREFIX;
         final String ticketId = serviceTicketUniqueTicketIdGenerator.getNewTicketId(ticketPrefix);
         final ServiceTicket serviceTicket = ticketGrantingTicket.grantServiceTicket(
                 ticketId,
@@ -286,7 +288,7 @@ public final class CentralAuthenticationServiceImpl implements CentralAuthentica
 
         this.serviceTicketRegistry.addTicket(serviceTicket);
 
-        final String principalId = authentications.get(authentications.size() - 1).getPrincipal().getId();
+        final String principalId = authns.get(authns.size() - 1).getPrincipal().getId();
         logger.info("Granted ticket [{}] for service [{}] for user [{}]",
                 serviceTicket.getId(), service.getId(), principalId);
 
@@ -434,7 +436,8 @@ public final class CentralAuthenticationServiceImpl implements CentralAuthentica
         final TicketGrantingTicket ticketGrantingTicket = new TicketGrantingTicketImpl(
             this.ticketGrantingTicketUniqueTicketIdGenerator
                 .getNewTicketId(TicketGrantingTicket.PREFIX),
-            authentication, this.ticketGrantingTicketExpirationPolicy);
+            null, authentication, this.ticketGrantingTicketExpirationPolicy,
+            this.maxServicesPerTicketGrantingTicket);
 
         this.ticketRegistry.addTicket(ticketGrantingTicket);
         return ticketGrantingTicket.getId();
@@ -483,6 +486,17 @@ public final class CentralAuthenticationServiceImpl implements CentralAuthentica
         this.serviceTicketExpirationPolicy = serviceTicketExpirationPolicy;
     }
 
+    /**
+     * Sets the maximum number of services a ticket granting ticket keeps track of for single logout.
+     * When the limit is reached, the services that were granted access first are forgotten.
+     * The limit is not stored by the JPA ticket registry, which keeps tracking every service.
+     *
+     * @param maxServicesPerTicketGrantingTicket the maximum number of services, zero or less for unlimited.
+     */
+    public void setMaxServicesPerTicketGrantingTicket(final int maxServicesPerTicketGrantingTicket) {
+        this.maxServicesPerTicketGrantingTicket = maxServicesPerTicketGrantingTicket;
+    }
+
     /**
      * @deprecated
      * Sets persistent id generator.
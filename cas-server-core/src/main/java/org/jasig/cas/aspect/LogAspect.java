@@ -20,66 +20,201 @@ package org.jasig.cas.aspect;
 
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 /**
+ * Traces and optionally profiles the public methods of CAS components.
+ * <p>
+ * Method entries and exits are logged at TRACE level by the logger of the target class.
+ * Arguments and return values are only rendered when TRACE is enabled for that class.
+ * <p>
+ * When {@link #setProfilingEnabled(boolean) profiling} is enabled, the execution time of one out of
+ * every {@link #setSamplingRate(int) sampling rate} calls is recorded in per-method
+ * {@link MethodStatistics statistics}. Profiling can be switched at runtime, for instance over JMX
+ * through {@link org.jasig.cas.aspect.jmx.LogAspectMBean}. When neither tracing nor profiling is enabled,
+ * the aspect costs a cached logger lookup and a level check per call.
+ *
  * @since 3.3.6
  */
 @Aspect
 public class LogAspect {
 
+    /** Loggers of the target classes. */
+    private final ConcurrentMap<Class<?>, Logger> loggers = new ConcurrentHashMap<Class<?>, Logger>();
+
+    /** Statistics keyed by method, or by signature for join points that are not methods. */
+    private final ConcurrentMap<Object, MethodStatistics> statistics = new ConcurrentHashMap<Object, MethodStatistics>();
+
+    /** Whether method executions are profiled. */
+    private volatile boolean profilingEnabled;
+
+    /** One out of this many calls is profiled. */
+    private volatile int samplingRate = 1;
+
     /**
-     * Added TRACE-level log entries for the executing target.
+     * Added TRACE-level log entries for the executing target, and records its execution time when profiling.
      *
      * @param proceedingJoinPoint the proceeding join point
      * @return the object
      * @throws Throwable the throwable
      */
-    @Around("(execution (public * org.jasig.cas..*.*(..))) && !(execution( * org.jasig.cas..*.set*(..)))")
+    @Around("(execution (public * org.jasig.cas..*.*(..))) && !(execution( * org.jasig.cas..*.set*(..)))"
+            + " && !within(org.jasig.cas.aspect..*)")
     public Object traceMethod(final ProceedingJoinPoint proceedingJoinPoint) throws Throwable {
-        Object returnVal = null;
         final Logger logger = this.getLog(proceedingJoinPoint);
+        final boolean trace = logger.isTraceEnabled();
+        final MethodStatistics methodStatistics = isSampled() ? getStatistics(proceedingJoinPoint) : null;
+        if (!trace && methodStatistics == null) {
+            return proceedingJoinPoint.proceed();
+        }
+
         final String methodName = proceedingJoinPoint.getSignature().getName();
+        if (trace) {
+            final Object[] args = proceedingJoinPoint.getArgs();
+            final String arguments;
+            if (args == null || args.length == 0) {
+                arguments = "";
+            } else {
+                arguments = Arrays.deepToString(args);
+            }
+            logger.trace("Entering method [{}] with arguments [{}]", methodName, arguments);
+        }
 
+        Object returnVal = null;
+        boolean failed = true;
+        final long start = System.nanoTime();
         try {
-            if (logger.isTraceEnabled()) {
-                final Object[] args = proceedingJoinPoint.getArgs();
-                final String arguments;
-                if (args == null || args.length == 0) {
-                    arguments = "";
-                } else {
-                    arguments = Arrays.deepToString(args);
-                }
-                logger.trace("Entering method [{}] with arguments [{}]", methodName, arguments);
-            }
             returnVal = proceedingJoinPoint.proceed();
+            failed = false;
             return returnVal;
         } finally {
-            logger.trace("Leaving method [{}] with return value [{}].", methodName,
+            if (methodStatistics != null) {
+                methodStatistics.record(System.nanoTime() - start, failed);
+            }
+            if (trace) {
+                logger.trace("Leaving method [{}] with return value [{}].", methodName,
                         (returnVal != null ? returnVal.toString() : "null"));
+            }
         }
     }
 
     /**
-     * Gets the logger object for the join point target.
+     * Gets the logger object for the join point target. Loggers are cached per target class.
      *
      * @param joinPoint the join point
      * @return the log
      */
     protected Logger getLog(final JoinPoint joinPoint) {
         final Object target = joinPoint.getTarget();
+        final Class<?> targetClass = target != null ? target.getClass() : getClass();
+
+        Logger logger = this.loggers.get(targetClass);
+        if (logger == null) {
+            logger = LoggerFactory.getLogger(targetClass);
+            this.loggers.putIfAbsent(targetClass, logger);
+        }
+        return logger;
+    }
+
+    /**
+     * Decides whether the current call is profiled.
+     *
+     * @return true, if the execution time of the call is to be recorded
+     */
+    private boolean isSampled() {
+        if (!this.profilingEnabled) {
+            return false;
+        }
+        final int rate = this.samplingRate;
+        return rate <= 1 || ThreadLocalRandom.current().nextInt(rate) == 0;
+    }
 
-        if (target != null) {
-            return LoggerFactory.getLogger(target.getClass());
+    /**
+     * Gets the statistics of a join point, creating them on first use.
+     *
+     * @param joinPoint the join point
+     * @return the statistics
+     */
+    private MethodStatistics getStatistics(final JoinPoint joinPoint) {
+        // join points may be created for each call, their method is not
+        final Signature signature = joinPoint.getSignature();
+        final Object key = signature instanceof MethodSignature ? ((MethodSignature) signature).getMethod()
+                : signature.toLongString();
+        MethodStatistics methodStatistics = this.statistics.get(key);
+        if (methodStatistics == null) {
+            final MethodStatistics newStatistics = new MethodStatistics(
+                    signature.getDeclaringTypeName() + '.' + signature.getName());
+            methodStatistics = this.statistics.putIfAbsent(key, newStatistics);
+            if (methodStatistics == null) {
+                methodStatistics = newStatistics;
+            }
         }
+        return methodStatistics;
+    }
 
-        return LoggerFactory.getLogger(getClass());
+    /**
+     * Gets the statistics of the profiled methods, the methods taking the most time in total first.
+     *
+     * @return the statistics
+     */
+    public List<MethodStatistics> getStatistics() {
+        final List<MethodStatistics> list = new ArrayList<MethodStatistics>(this.statistics.values());
+        Collections.sort(list, new Comparator<MethodStatistics>() {
+            @Override
+            public int compare(final MethodStatistics s1, final MethodStatistics s2) {
+                final long t1 = s1.getTotalTime();
+                final long t2 = s2.getTotalTime();
+                return t1 > t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Discards the statistics recorded so far.
+     */
+    public void resetStatistics() {
+        this.statistics.clear();
     }
 
+    public boolean isProfilingEnabled() {
+        return this.profilingEnabled;
+    }
+
+    /**
+     * Enables or disables profiling. Profiling is disabled by default.
+     *
+     * @param profilingEnabled true to record execution times
+     */
+    public void setProfilingEnabled(final boolean profilingEnabled) {
+        this.profilingEnabled = profilingEnabled;
+    }
+
+    public int getSamplingRate() {
+        return this.samplingRate;
+    }
+
+    /**
+     * Sets how many calls there are for each profiled call. Defaults to 1, which profiles every call.
+     *
+     * @param samplingRate the sampling rate
+     */
+    public void setSamplingRate(final int samplingRate) {
+        this.samplingRate = samplingRate;
+    }
 }
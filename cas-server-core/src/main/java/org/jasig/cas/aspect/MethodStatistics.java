@@ -0,0 +1,181 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.aspect;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Execution time statistics of a method. Times are recorded into a histogram of power-of-two
+ * buckets, which is lock-free and fixed in size, so that percentiles can be estimated without
+ * keeping individual samples.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class MethodStatistics {
+
+    /** Number of buckets; bucket <i>i</i> holds times of <i>i</i> significant bits, below 2<sup>i</sup> nanoseconds. */
+    private static final int BUCKET_COUNT = Long.SIZE;
+
+    /** Name of the method. */
+    private final String name;
+
+    /** Number of executions per bucket. */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    /** Number of executions. */
+    private final AtomicLong count = new AtomicLong();
+
+    /** Number of executions that threw an exception. */
+    private final AtomicLong errorCount = new AtomicLong();
+
+    /** Total execution time in nanoseconds. */
+    private final AtomicLong totalTime = new AtomicLong();
+
+    /** Longest execution time in nanoseconds. */
+    private final AtomicLong maxTime = new AtomicLong();
+
+    /**
+     * Instantiates new statistics.
+     *
+     * @param name the name of the method
+     */
+    public MethodStatistics(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records an execution of the method.
+     *
+     * @param nanos the execution time in nanoseconds
+     * @param failed true, if the method threw an exception
+     */
+    public void record(final long nanos, final boolean failed) {
+        final long time = Math.max(nanos, 0);
+        this.buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(time));
+        this.count.incrementAndGet();
+        this.totalTime.addAndGet(time);
+        if (failed) {
+            this.errorCount.incrementAndGet();
+        }
+
+        long max = this.maxTime.get();
+        while (time > max && !this.maxTime.compareAndSet(max, time)) {
+            max = this.maxTime.get();
+        }
+    }
+
+    /**
+     * Gets the name of the method.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Gets the number of recorded executions.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Gets the number of recorded executions that threw an exception.
+     *
+     * @return the error count
+     */
+    public long getErrorCount() {
+        return this.errorCount.get();
+    }
+
+    /**
+     * Gets the total time of the recorded executions.
+     *
+     * @return the total time in nanoseconds
+     */
+    public long getTotalTime() {
+        return this.totalTime.get();
+    }
+
+    /**
+     * Gets the average execution time.
+     *
+     * @return the average time in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getAverageTime() {
+        final long executions = this.count.get();
+        return executions == 0 ? 0 : this.totalTime.get() / executions;
+    }
+
+    /**
+     * Gets the longest execution time.
+     *
+     * @return the longest time in nanoseconds
+     */
+    public long getMaxTime() {
+        return this.maxTime.get();
+    }
+
+    /**
+     * Estimates an execution time percentile. The estimate is the upper bound of the histogram
+     * bucket the percentile falls in, so it is at most twice the actual value.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the time in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentile(final double percentile) {
+        final long total = this.count.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += this.buckets.get(i);
+            if (seen >= rank) {
+                return Math.min((1L << i) - 1, getMaxTime());
+            }
+        }
+        return getMaxTime();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s count=%d errors=%d avg=%dus p50=%dus p99=%dus max=%dus", this.name, getCount(),
+                getErrorCount(), micros(getAverageTime()), micros(getPercentile(50)), micros(getPercentile(99)),
+                micros(getMaxTime()));
+    }
+
+    /**
+     * Converts nanoseconds to microseconds.
+     *
+     * @param nanos the time in nanoseconds
+     * @return the time in microseconds
+     */
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.aspect;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.monitor.MetricsRegistry;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.services.ServicesManager;
+import org.perf4j.aop.Profiled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records latency, throughput and error metrics of the CAS operations tagged with {@link Profiled}
+ * into a {@link MetricsRegistry}, under the tag of the annotation. When a {@link ServicesManager} is set,
+ * operations are also recorded per registered service. The registered service is the first one the operation
+ * itself finds through a services manager, so that it is not looked up twice; only if the operation found none,
+ * it is looked up for the first {@link Service} argument of the operation. The number of services recorded is
+ * bounded by the {@link MetricsRegistry registry}.
+ * <p>
+ * Like {@link LogAspect}, this aspect is woven at compile time. The woven instance is obtained with
+ * <code>aspectOf()</code>, for instance through a Spring bean declared with <code>factory-method="aspectOf"</code>,
+ * and nothing is recorded until its registry is set. Failures to record metrics are logged and never
+ * replace the outcome of the operation.
+ *
+ * @author agent
+ * @since 4.1
+ */
+@Aspect
+public class MetricsAspect {
+
+    /** Logger instance. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsAspect.class);
+
+    /** Registry metrics are recorded into, if any. */
+    private volatile MetricsRegistry metricsRegistry;
+
+    /** Services manager used to find the registered service of a service, if any. */
+    private volatile ServicesManager servicesManager;
+
+    /** Registered service found by the outermost profiled operation running on the current thread. */
+    private final ThreadLocal<ServiceLookup> currentLookup = new ThreadLocal<ServiceLookup>();
+
+    /**
+     * Records the execution of a profiled operation.
+     *
+     * @param proceedingJoinPoint the proceeding join point
+     * @param profiled the annotation of the operation
+     * @return the result of the operation
+     * @throws Throwable if the operation failed
+     */
+    @Around("execution(* org.jasig.cas..*.*(..)) && @annotation(profiled)")
+    public Object recordOperation(final ProceedingJoinPoint proceedingJoinPoint, final Profiled profiled)
+            throws Throwable {
+        final MetricsRegistry registry = this.metricsRegistry;
+        if (registry == null) {
+            return proceedingJoinPoint.proceed();
+        }
+
+        // nested operations share the lookup of the outermost one
+        final ServiceLookup outerLookup = this.currentLookup.get();
+        final ServiceLookup lookup = outerLookup != null ? outerLookup : new ServiceLookup();
+        if (outerLookup == null) {
+            this.currentLookup.set(lookup);
+        }
+        boolean failed = true;
+        final long start = System.nanoTime();
+        try {
+            final Object returnVal = proceedingJoinPoint.proceed();
+            failed = false;
+            return returnVal;
+        } finally {
+            final long nanos = System.nanoTime() - start;
+            if (outerLookup == null) {
+                this.currentLookup.remove();
+            }
+            record(registry, profiled.tag(), lookup, proceedingJoinPoint.getArgs(), nanos, failed);
+        }
+    }
+
+    /**
+     * Remembers the registered service found by a services manager while a profiled operation runs,
+     * so that the operation is recorded for that service without looking it up again.
+     *
+     * @param registeredService the registered service found, or null
+     */
+    @AfterReturning(pointcut = "execution(* org.jasig.cas.services.ServicesManager+.findServiceBy("
+            + "org.jasig.cas.authentication.principal.Service))", returning = "registeredService")
+    public void rememberRegisteredService(final RegisteredService registeredService) {
+        final ServiceLookup lookup = this.currentLookup.get();
+        if (lookup != null && lookup.registeredService == null) {
+            lookup.registeredService = registeredService;
+        }
+    }
+
+    /**
+     * Records the execution of an operation, overall and for its registered service if any.
+     * Never throws, so that it cannot replace the outcome of the operation.
+     *
+     * @param registry the registry metrics are recorded into
+     * @param tag the tag of the operation
+     * @param lookup the registered service the operation found, if any
+     * @param args the arguments of the operation
+     * @param nanos the execution time in nanoseconds
+     * @param failed whether the operation failed
+     */
+    private void record(final MetricsRegistry registry, final String tag, final ServiceLookup lookup,
+            final Object[] args, final long nanos, final boolean failed) {
+        try {
+            registry.record(tag, nanos, failed);
+            if (this.servicesManager == null) {
+                return;
+            }
+            final RegisteredService registeredService = lookup.registeredService != null
+                    ? lookup.registeredService : findRegisteredService(args);
+            if (registeredService != null) {
+                registry.record(tag, registeredService.getName(), nanos, failed);
+            }
+        } catch (final RuntimeException e) {
+            LOGGER.warn("Failed recording metrics of operation {}", tag, e);
+        }
+    }
+
+    /**
+     * Sets the registry metrics are recorded into.
+     *
+     * @param metricsRegistry the metrics registry
+     */
+    public void setMetricsRegistry(final MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * Sets the services manager used to record operations per registered service.
+     *
+     * @param servicesManager the services manager, or null not to record metrics per service.
+     */
+    public void setServicesManager(final ServicesManager servicesManager) {
+        this.servicesManager = servicesManager;
+    }
+
+    /**
+     * Finds the registered service of the first service argument of an operation.
+     *
+     * @param args the arguments of the operation
+     * @return the registered service, or null if there is none.
+     */
+    private RegisteredService findRegisteredService(final Object[] args) {
+        final ServicesManager manager = this.servicesManager;
+        if (manager == null || args == null) {
+            return null;
+        }
+        for (final Object arg : args) {
+            if (arg instanceof Service) {
+                return manager.findServiceBy((Service) arg);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Registered service found while a profiled operation runs.
+     */
+    private static final class ServiceLookup {
+        /** The first registered service found, or null. */
+        private RegisteredService registeredService;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.aspect.jmx;
+
+import org.jasig.cas.aspect.LogAspect;
+import org.jasig.cas.aspect.MethodStatistics;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.validation.constraints.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exposes the method profiler of the {@link LogAspect} via JMX.
+ *
+ * @author agent
+ * @since 4.1
+ */
+@ManagedResource(objectName = "CAS:name=JasigCasLogAspectMBean",
+        description = "Switches method profiling on and off and reports the slowest methods")
+public final class LogAspectMBean {
+
+    @NotNull
+    private final LogAspect logAspect;
+
+    /**
+     * Instantiates a new log aspect m bean.
+     *
+     * @param logAspect the log aspect
+     */
+    public LogAspectMBean(final LogAspect logAspect) {
+        this.logAspect = logAspect;
+    }
+
+    @ManagedAttribute(description = "Whether method execution times are recorded.")
+    public boolean isProfilingEnabled() {
+        return this.logAspect.isProfilingEnabled();
+    }
+
+    /**
+     * Enables or disables profiling.
+     *
+     * @param profilingEnabled true to record execution times
+     */
+    @ManagedAttribute(description = "Whether method execution times are recorded.")
+    public void setProfilingEnabled(final boolean profilingEnabled) {
+        this.logAspect.setProfilingEnabled(profilingEnabled);
+    }
+
+    @ManagedAttribute(description = "One out of this many calls is profiled.")
+    public int getSamplingRate() {
+        return this.logAspect.getSamplingRate();
+    }
+
+    /**
+     * Sets how many calls there are for each profiled call.
+     *
+     * @param samplingRate the sampling rate
+     */
+    @ManagedAttribute(description = "One out of this many calls is profiled.")
+    public void setSamplingRate(final int samplingRate) {
+        this.logAspect.setSamplingRate(samplingRate);
+    }
+
+    /**
+     * Gets the statistics of the methods taking the most time in total.
+     *
+     * @param max the maximum number of methods to report
+     * @return the statistics as strings
+     */
+    @ManagedOperation(description = "Reports the methods taking the most time in total.")
+    @ManagedOperationParameter(name = "max", description = "the maximum number of methods to report")
+    public List<String> getSlowestMethods(final int max) {
+        final List<String> methods = new ArrayList<String>();
+        for (final MethodStatistics statistics : this.logAspect.getStatistics()) {
+            if (methods.size() >= max) {
+                break;
+            }
+            methods.add(statistics.toString());
+        }
+        return methods;
+    }
+
+    /**
+     * Discards the statistics recorded so far.
+     */
+    @ManagedOperation(description = "Discards the statistics recorded so far.")
+    public void resetStatistics() {
+        this.logAspect.resetStatistics();
+    }
+}
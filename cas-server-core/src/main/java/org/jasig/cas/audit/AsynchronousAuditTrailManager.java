@@ -0,0 +1,397 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.audit;
+
+import com.github.inspektr.audit.AuditActionContext;
+import com.github.inspektr.audit.AuditTrailManager;
+import org.jasig.cas.monitor.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records audit records off the request thread. Records are queued in a bounded buffer and handed over in
+ * batches to the delegate audit trail manager by a background writer; delegates implementing
+ * {@link BatchAuditTrailManager} record each batch at once.
+ * <p>
+ * When the buffer is full, the {@link OverflowPolicy overflow policy} tells whether the request thread waits,
+ * which is the default so that no record is lost, the oldest queued record is dropped, or the record is appended
+ * to a local spill file. Batches the delegate fails to record are spilled too, if a spill file is set. Dropped
+ * records are logged at WARN level.
+ * <p>
+ * The writer is started once the properties are set; until then and after it is stopped, records are written
+ * on the calling thread.
+ * <p>
+ * The time it takes to record batches is recorded as the <code>AUDIT_FLUSH</code> operation when a
+ * {@link MetricsRegistry} is set.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class AsynchronousAuditTrailManager implements AuditTrailManager, InitializingBean, DisposableBean {
+
+    /**
+     * What to do with a record when the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** Wait for the writer to make room. */
+        BLOCK,
+        /** Drop the oldest queued record. */
+        DROP_OLDEST,
+        /** Append the record to the spill file. */
+        SPILL
+    }
+
+    /** Default number of records the buffer holds. */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /** Default maximum number of records recorded at once. */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /** Name of the operation flushes are recorded under. */
+    private static final String FLUSH_OPERATION = "AUDIT_FLUSH";
+
+    /** Separates the fields of spilled records. */
+    private static final char SPILL_SEPARATOR = '\t';
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Audit trail manager records are handed over to. */
+    @NotNull
+    private final AuditTrailManager delegate;
+
+    /** Records waiting to be written. */
+    private final BlockingQueue<AuditActionContext> queue;
+
+    /** Background writer, once started; guarded by this. */
+    private Thread writer;
+
+    /** Number of records dropped. */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /** Number of records spilled. */
+    private final AtomicLong spilledCount = new AtomicLong();
+
+    @NotNull
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    @Min(1)
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** Local file records are appended to when they cannot be queued or written; guarded by this. */
+    private File spillFile;
+
+    /** Registry flushes are recorded into, if any. */
+    private volatile MetricsRegistry metricsRegistry;
+
+    /** Whether the writer keeps waiting for records. */
+    private volatile boolean running;
+
+    /**
+     * Instantiates a new asynchronous audit trail manager with a buffer of {@link #DEFAULT_CAPACITY} records.
+     *
+     * @param delegate the audit trail manager records are handed over to
+     */
+    public AsynchronousAuditTrailManager(final AuditTrailManager delegate) {
+        this(delegate, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Instantiates a new asynchronous audit trail manager.
+     *
+     * @param delegate the audit trail manager records are handed over to
+     * @param capacity the number of records the buffer holds
+     */
+    public AsynchronousAuditTrailManager(final AuditTrailManager delegate, final int capacity) {
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<AuditActionContext>(capacity);
+    }
+
+    /**
+     * Starts the writer.
+     */
+    @Override
+    public synchronized void afterPropertiesSet() {
+        if (this.writer != null) {
+            return;
+        }
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeRecords();
+            }
+        }, "AuditTrailWriter");
+        this.writer.setDaemon(true);
+        this.running = true;
+        this.writer.start();
+    }
+
+    @Override
+    public void record(final AuditActionContext auditActionContext) {
+        if (!this.running) {
+            // the writer is not running, so records are written on the calling thread
+            flush(Collections.singletonList(auditActionContext));
+            return;
+        }
+
+        switch (this.overflowPolicy) {
+            case DROP_OLDEST:
+                while (!this.queue.offer(auditActionContext)) {
+                    final AuditActionContext oldest = this.queue.poll();
+                    if (oldest != null) {
+                        this.droppedCount.incrementAndGet();
+                        logger.warn("Audit record buffer is full, dropped oldest audit record {}", oldest);
+                    }
+                }
+                break;
+            case SPILL:
+                if (!this.queue.offer(auditActionContext)) {
+                    spill(Collections.singletonList(auditActionContext));
+                }
+                break;
+            default:
+                try {
+                    this.queue.put(auditActionContext);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    this.droppedCount.incrementAndGet();
+                    logger.warn("Interrupted while waiting to queue audit record {}", auditActionContext);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Stops the writer once the queued records are written.
+     *
+     * @throws Exception if interrupted while waiting for the writer
+     */
+    @Override
+    public void destroy() throws Exception {
+        final Thread stopped;
+        synchronized (this) {
+            stopped = this.writer;
+            this.running = false;
+        }
+        if (stopped != null) {
+            stopped.join(TimeUnit.SECONDS.toMillis(30));
+        }
+
+        // records queued while the writer was stopping
+        final List<AuditActionContext> remaining = new ArrayList<AuditActionContext>();
+        this.queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            flush(remaining);
+        }
+    }
+
+    /**
+     * Gets the number of records waiting to be written.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    /**
+     * Gets the number of records dropped, because the buffer was full or they could not be written.
+     *
+     * @return the dropped count
+     */
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    /**
+     * Gets the number of records appended to the spill file.
+     *
+     * @return the spilled count
+     */
+    public long getSpilledCount() {
+        return this.spilledCount.get();
+    }
+
+    /**
+     * Sets what to do with records when the buffer is full, {@link OverflowPolicy#BLOCK} by default.
+     * {@link OverflowPolicy#SPILL} requires a spill file.
+     *
+     * @param overflowPolicy the overflow policy
+     */
+    public void setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Sets the maximum number of records handed over to the delegate at once.
+     *
+     * @param batchSize the batch size
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the local file records are appended to when they cannot be queued or written.
+     *
+     * @param spillFile the spill file, or null to drop such records
+     */
+    public synchronized void setSpillFile(final File spillFile) {
+        this.spillFile = spillFile;
+    }
+
+    /**
+     * Sets the registry the time it takes to record batches is recorded into.
+     *
+     * @param metricsRegistry the metrics registry
+     */
+    public void setMetricsRegistry(final MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * Hands the queued records over to the delegate, in batches, until stopped and the queue is empty.
+     * Neither interrupts nor failures to write a batch stop the writer.
+     */
+    private void writeRecords() {
+        final List<AuditActionContext> batch = new ArrayList<AuditActionContext>();
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                final AuditActionContext first = this.queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                this.queue.drainTo(batch, this.batchSize - 1);
+                flush(batch);
+            } catch (final InterruptedException e) {
+                logger.warn("Audit trail writer interrupted with {} records queued", this.queue.size());
+            } catch (final Throwable e) {
+                logger.error("Failed to write {} audit records, dropped {}", batch.size(), batch, e);
+                this.droppedCount.addAndGet(batch.size());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Hands a batch of records over to the delegate, spilling or dropping them if that fails.
+     *
+     * @param batch the records
+     */
+    private void flush(final List<AuditActionContext> batch) {
+        boolean failed = true;
+        final long start = System.nanoTime();
+        try {
+            if (this.delegate instanceof BatchAuditTrailManager) {
+                ((BatchAuditTrailManager) this.delegate).record(batch);
+            } else {
+                for (final AuditActionContext auditActionContext : batch) {
+                    this.delegate.record(auditActionContext);
+                }
+            }
+            failed = false;
+        } catch (final RuntimeException e) {
+            logger.error("Failed to record {} audit records", batch.size(), e);
+            spill(batch);
+        } finally {
+            final MetricsRegistry registry = this.metricsRegistry;
+            if (registry != null) {
+                registry.record(FLUSH_OPERATION, System.nanoTime() - start, failed);
+            }
+        }
+    }
+
+    /**
+     * Appends records to the spill file, one line per record, or drops them if there is no spill file.
+     *
+     * @param records the records
+     */
+    private synchronized void spill(final List<AuditActionContext> records) {
+        if (this.spillFile == null) {
+            this.droppedCount.addAndGet(records.size());
+            logger.warn("No spill file set, dropped {} audit records {}", records.size(), records);
+            return;
+        }
+
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(this.spillFile, true), Charset.forName("UTF-8")));
+            for (final AuditActionContext context : records) {
+                out.append(dateFormat.format(context.getWhenActionWasPerformed())).append(SPILL_SEPARATOR)
+                        .append(escape(context.getApplicationCode())).append(SPILL_SEPARATOR)
+                        .append(escape(context.getActionPerformed())).append(SPILL_SEPARATOR)
+                        .append(escape(context.getPrincipal())).append(SPILL_SEPARATOR)
+                        .append(escape(context.getResourceOperatedUpon())).append(SPILL_SEPARATOR)
+                        .append(escape(context.getClientIpAddress())).append(SPILL_SEPARATOR)
+                        .append(escape(context.getServerIpAddress())).append('\n');
+            }
+            out.flush();
+            this.spilledCount.addAndGet(records.size());
+        } catch (final IOException e) {
+            logger.error("Failed to spill {} audit records to {}, dropped {}", records.size(), this.spillFile, records, e);
+            this.droppedCount.addAndGet(records.size());
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (final IOException e) {
+                    logger.debug("Failed to close {}", this.spillFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Escapes the separators out of a spilled field.
+     *
+     * @param value the value of the field
+     * @return the escaped value
+     */
+    private static String escape(final String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+}
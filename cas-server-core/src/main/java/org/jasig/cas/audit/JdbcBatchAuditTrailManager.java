@@ -0,0 +1,123 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.audit;
+
+import com.github.inspektr.audit.AuditActionContext;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records audit records into the default Inspektr <code>COM_AUDIT_TRAIL</code> table, inserting
+ * each batch of records with a single JDBC batch.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class JdbcBatchAuditTrailManager implements BatchAuditTrailManager {
+
+    /** Default name of the table. */
+    public static final String DEFAULT_TABLE_NAME = "COM_AUDIT_TRAIL";
+
+    /** Default size of the columns holding text. */
+    public static final int DEFAULT_COLUMN_LENGTH = 100;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @NotNull
+    private String tableName = DEFAULT_TABLE_NAME;
+
+    @Min(1)
+    private int columnLength = DEFAULT_COLUMN_LENGTH;
+
+    /**
+     * Instantiates a new JDBC batch audit trail manager.
+     *
+     * @param dataSource the data source of the database holding the table
+     */
+    public JdbcBatchAuditTrailManager(final DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Override
+    public void record(final AuditActionContext auditActionContext) {
+        record(Collections.singletonList(auditActionContext));
+    }
+
+    @Override
+    public void record(final List<AuditActionContext> auditActionContexts) {
+        final String sql = "INSERT INTO " + this.tableName + " (AUD_USER, AUD_CLIENT_IP, AUD_SERVER_IP, "
+                + "AUD_RESOURCE, AUD_ACTION, APPLIC_CD, AUD_DATE) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        this.jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(final PreparedStatement ps, final int i) throws SQLException {
+                final AuditActionContext context = auditActionContexts.get(i);
+                ps.setString(1, truncate(context.getPrincipal()));
+                ps.setString(2, context.getClientIpAddress());
+                ps.setString(3, context.getServerIpAddress());
+                ps.setString(4, truncate(context.getResourceOperatedUpon()));
+                ps.setString(5, truncate(context.getActionPerformed()));
+                ps.setString(6, context.getApplicationCode());
+                ps.setTimestamp(7, new Timestamp(context.getWhenActionWasPerformed().getTime()));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return auditActionContexts.size();
+            }
+        });
+    }
+
+    /**
+     * Sets the name of the table.
+     *
+     * @param tableName the table name
+     */
+    public void setTableName(final String tableName) {
+        this.tableName = tableName;
+    }
+
+    /**
+     * Sets the size of the columns holding text; longer values are truncated.
+     *
+     * @param columnLength the column length
+     */
+    public void setColumnLength(final int columnLength) {
+        this.columnLength = columnLength;
+    }
+
+    /**
+     * Truncates a value to the column length.
+     *
+     * @param value the value
+     * @return the value, truncated if needed
+     */
+    private String truncate(final String value) {
+        return value != null && value.length() > this.columnLength ? value.substring(0, this.columnLength) : value;
+    }
+}
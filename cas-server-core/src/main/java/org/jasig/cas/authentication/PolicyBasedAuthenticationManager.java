@@ -22,6 +22,7 @@ import com.github.inspektr.audit.annotation.Audit;
 import org.jasig.cas.authentication.principal.NullPrincipal;
 import org.jasig.cas.authentication.principal.Principal;
 import org.jasig.cas.authentication.principal.PrincipalResolver;
+import org.jasig.cas.monitor.MetricsRegistry;
 import org.perf4j.aop.Profiled;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -71,6 +72,9 @@ import java.util.Map;
  */
 public class PolicyBasedAuthenticationManager implements AuthenticationManager {
 
+    /** Name of the operation handler metrics are recorded under. */
+    private static final String HANDLER_OPERATION = "AUTHENTICATE";
+
     /** Log instance for logging events, errors, warnings, etc. */
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -87,6 +91,9 @@ public class PolicyBasedAuthenticationManager implements AuthenticationManager {
     @NotNull
     private final Map<AuthenticationHandler, PrincipalResolver> handlerResolverMap;
 
+    /** Registry the latencies of authentication handlers are recorded into, if any. */
+    private MetricsRegistry metricsRegistry;
+
 
     /**
      * Creates a new authentication manager with a varargs array of authentication handlers that are attempted in the
@@ -178,6 +185,15 @@ public class PolicyBasedAuthenticationManager implements AuthenticationManager {
         this.authenticationPolicy = policy;
     }
 
+    /**
+     * Sets the registry the latency, throughput and errors of each authentication handler are recorded into.
+     *
+     * @param metricsRegistry the metrics registry, or null not to record handler metrics.
+     */
+    public void setMetricsRegistry(final MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
     /**
      * Follows the same contract as {@link AuthenticationManager#authenticate(Credential...)}.
      *
@@ -205,7 +221,7 @@ public class PolicyBasedAuthenticationManager implements AuthenticationManager {
                 if (handler.supports(credential)) {
                     found = true;
                     try {
-                        final HandlerResult result = handler.authenticate(credential);
+                        final HandlerResult result = authenticate(handler, credential);
                         builder.addSuccess(handler.getName(), result);
                         logger.info("{} successfully authenticated {}", handler.getName(), credential);
                         resolver = this.handlerResolverMap.get(handler);
@@ -253,7 +269,32 @@ public class PolicyBasedAuthenticationManager implements AuthenticationManager {
         return builder;
     }
 
-      
+    /**
+     * Authenticates a credential with a handler, recording the outcome when a metrics registry is set.
+     *
+     * @param handler the authentication handler
+     * @param credential the credential
+     * @return the result of the handler
+     * @throws GeneralSecurityException if authentication failed
+     * @throws PreventedException if the handler could not authenticate the credential
+     */
+    private HandlerResult authenticate(final AuthenticationHandler handler, final Credential credential)
+            throws GeneralSecurityException, PreventedException {
+        if (this.metricsRegistry == null) {
+            return handler.authenticate(credential);
+        }
+
+        boolean failed = true;
+        final long start = System.nanoTime();
+        try {
+            final HandlerResult result = handler.authenticate(credential);
+            failed = false;
+            return result;
+        } finally {
+            this.metricsRegistry.record(HANDLER_OPERATION, handler.getName(), System.nanoTime() - start, failed);
+        }
+    }
+
     /**
      * Resolve principal.
      *
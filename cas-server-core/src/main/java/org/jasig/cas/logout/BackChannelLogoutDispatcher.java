@@ -0,0 +1,428 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.logout;
+
+import org.jasig.cas.monitor.MetricsRegistry;
+import org.jasig.cas.util.HttpClient;
+import org.jasig.cas.util.HttpMessage;
+import org.jasig.cas.util.NonBlockingHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends back channel logout messages to service endpoints in parallel.
+ * <p>
+ * Messages are sent from a shared pool of threads. At most {@link #setMaxConcurrentRequestsPerHost(int)}
+ * messages are sent to the same host at once, the others wait in a queue of their host, so that a
+ * logout of many sessions of the same application, or many logouts at once, do not flood it.
+ * Both the queue of each host and the queue of the threads are bounded; messages that do not fit
+ * are reported as not sent right away.
+ * Each message is sent synchronously through the HTTP client, unless the client is a
+ * {@link NonBlockingHttpClient}, in which case no thread waits for the response. The outcome and
+ * latency are recorded as the {@link #METRICS_NAME} operation, if a metrics registry is set, and again
+ * qualified by the host and port of the message, as in <code>BACK_CHANNEL_LOGOUT:app.example.org:443</code>.
+ * Hosts come from the service URLs; the registry bounds the number of qualified operations it holds and
+ * records the messages of further hosts under {@link MetricsRegistry#OTHER_QUALIFIER}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class BackChannelLogoutDispatcher implements DisposableBean {
+
+    /** Name the messages are recorded under in the metrics registry. */
+    public static final String METRICS_NAME = "BACK_CHANNEL_LOGOUT";
+
+    /** Default number of threads sending messages. */
+    public static final int DEFAULT_THREADS = 20;
+
+    /** Default number of messages sent to the same host at once. */
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS_PER_HOST = 4;
+
+    /** Default number of messages waiting for their host, per host. */
+    public static final int DEFAULT_MAX_PENDING_REQUESTS_PER_HOST = 1000;
+
+    /** Default number of messages waiting for a thread. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    /** Time idle threads are kept, in seconds. */
+    private static final int KEEP_ALIVE_SECONDS = 60;
+
+    /** The logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(BackChannelLogoutDispatcher.class);
+
+    /** HTTP client sending the messages. */
+    @NotNull
+    private final HttpClient httpClient;
+
+    /** Threads sending the messages. */
+    @NotNull
+    private final ExecutorService executorService;
+
+    /** Hosts messages are being sent to, by host and port. Guarded by itself. */
+    private final Map<String, Host> hosts = new HashMap<String, Host>();
+
+    /** Number of messages sent to the same host at once. */
+    @Min(1)
+    private int maxConcurrentRequestsPerHost = DEFAULT_MAX_CONCURRENT_REQUESTS_PER_HOST;
+
+    /** Number of messages waiting for their host, per host. */
+    @Min(0)
+    private int maxPendingRequestsPerHost = DEFAULT_MAX_PENDING_REQUESTS_PER_HOST;
+
+    /** Registry recording outcome and latency of messages, if any. */
+    private MetricsRegistry metricsRegistry;
+
+    /**
+     * Instantiates a new dispatcher with {@link #DEFAULT_THREADS} threads.
+     *
+     * @param httpClient the HTTP client sending the messages
+     */
+    public BackChannelLogoutDispatcher(final HttpClient httpClient) {
+        this(httpClient, DEFAULT_THREADS);
+    }
+
+    /**
+     * Instantiates a new dispatcher with a queue of {@link #DEFAULT_QUEUE_CAPACITY} messages waiting for a thread.
+     *
+     * @param httpClient the HTTP client sending the messages
+     * @param threads the number of threads sending messages
+     */
+    public BackChannelLogoutDispatcher(final HttpClient httpClient, final int threads) {
+        this(httpClient, threads, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Instantiates a new dispatcher.
+     *
+     * @param httpClient the HTTP client sending the messages
+     * @param threads the number of threads sending messages
+     * @param queueCapacity the number of messages waiting for a thread
+     */
+    public BackChannelLogoutDispatcher(final HttpClient httpClient, final int threads, final int queueCapacity) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "BackChannelLogout-" + this.count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.httpClient = httpClient;
+        this.executorService = executor;
+    }
+
+    /**
+     * Instantiates a new dispatcher sending messages from the given executor.
+     *
+     * @param httpClient the HTTP client sending the messages
+     * @param executorService the executor sending messages
+     */
+    public BackChannelLogoutDispatcher(final HttpClient httpClient, final ExecutorService executorService) {
+        this.httpClient = httpClient;
+        this.executorService = executorService;
+    }
+
+    /**
+     * Sends a message, once fewer than the maximum number of messages are being sent to its host.
+     * The message is reported as not sent right away if the queue of its host is full.
+     *
+     * @param message the message
+     * @return a future telling whether the message was sent
+     */
+    public ListenableFuture<Boolean> send(final HttpMessage message) {
+        final Request request = new Request(hostOf(message.getUrl()), message);
+        final boolean start;
+        synchronized (this.hosts) {
+            Host host = this.hosts.get(request.host);
+            if (host == null) {
+                host = new Host();
+                this.hosts.put(request.host, host);
+            }
+            start = host.active < this.maxConcurrentRequestsPerHost;
+            if (start) {
+                host.active++;
+            } else if (host.pending.size() < this.maxPendingRequestsPerHost) {
+                host.pending.add(request);
+            } else {
+                LOGGER.warn("Logout message not sent to [{}]; too many messages are waiting for its host", message.getUrl());
+                request.future.set(false);
+                return request.future;
+            }
+        }
+        if (start) {
+            execute(request);
+        }
+        return request.future;
+    }
+
+    /**
+     * Combines the futures of messages into a future completed once all messages are processed.
+     *
+     * @param futures the futures returned by {@link #send(HttpMessage)}
+     * @return a future of the outcomes, in the order of the given futures
+     */
+    public static ListenableFuture<List<Boolean>> allOf(final List<ListenableFuture<Boolean>> futures) {
+        final SettableListenableFuture<List<Boolean>> all = new SettableListenableFuture<List<Boolean>>();
+        if (futures.isEmpty()) {
+            all.set(Collections.<Boolean>emptyList());
+            return all;
+        }
+
+        final Boolean[] results = new Boolean[futures.size()];
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+        for (int i = 0; i < results.length; i++) {
+            final int index = i;
+            futures.get(i).addCallback(new ListenableFutureCallback<Boolean>() {
+                @Override
+                public void onSuccess(final Boolean result) {
+                    results[index] = Boolean.TRUE.equals(result);
+                    if (remaining.decrementAndGet() == 0) {
+                        all.set(Arrays.asList(results));
+                    }
+                }
+
+                @Override
+                public void onFailure(final Throwable e) {
+                    onSuccess(false);
+                }
+            });
+        }
+        return all;
+    }
+
+    /**
+     * Gets the number of messages waiting for their host.
+     *
+     * @return the number of queued messages
+     */
+    public int getQueuedCount() {
+        int count = 0;
+        synchronized (this.hosts) {
+            for (final Host host : this.hosts.values()) {
+                count += host.pending.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sets the number of messages sent to the same host at once.
+     *
+     * @param maxConcurrentRequestsPerHost the number of messages
+     */
+    public void setMaxConcurrentRequestsPerHost(final int maxConcurrentRequestsPerHost) {
+        this.maxConcurrentRequestsPerHost = maxConcurrentRequestsPerHost;
+    }
+
+    /**
+     * Sets the number of messages waiting for their host, per host.
+     *
+     * @param maxPendingRequestsPerHost the number of messages
+     */
+    public void setMaxPendingRequestsPerHost(final int maxPendingRequestsPerHost) {
+        this.maxPendingRequestsPerHost = maxPendingRequestsPerHost;
+    }
+
+    /**
+     * Sets the registry recording outcome and latency of messages.
+     *
+     * @param metricsRegistry the metrics registry
+     */
+    public void setMetricsRegistry(final MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * Stops sending messages once those being sent are done; messages still waiting for their host
+     * are reported as not sent.
+     */
+    @Override
+    public void destroy() {
+        this.executorService.shutdown();
+    }
+
+    /**
+     * Hands a request, and the requests of its host if it cannot be executed, to the executor.
+     * Requests the executor rejects, because it is shut down or its queue is full, are reported as not sent.
+     *
+     * @param request the request
+     */
+    private void execute(final Request request) {
+        Request next = request;
+        while (next != null) {
+            try {
+                this.executorService.execute(next);
+                return;
+            } catch (final RejectedExecutionException e) {
+                LOGGER.warn("Logout message not sent to [{}]; the dispatcher is shut down or saturated",
+                        next.message.getUrl());
+                next.future.set(false);
+                next = release(next.host);
+            }
+        }
+    }
+
+    /**
+     * Releases the slot of a finished request of a host.
+     *
+     * @param key the host and port
+     * @return the next request of the host, which takes the slot, or null if there is none
+     */
+    private Request release(final String key) {
+        synchronized (this.hosts) {
+            final Host host = this.hosts.get(key);
+            final Request next = host.pending.poll();
+            if (next == null && --host.active == 0) {
+                this.hosts.remove(key);
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Gets the host and port of a URL, which messages are grouped by.
+     *
+     * @param url the URL
+     * @return the host and port
+     */
+    static String hostOf(final URL url) {
+        return url.getHost() + ':' + (url.getPort() != -1 ? url.getPort() : url.getDefaultPort());
+    }
+
+    /**
+     * Messages being sent to a host.
+     */
+    private static final class Host {
+
+        /** Messages waiting for a slot. */
+        private final Queue<Request> pending = new ArrayDeque<Request>();
+
+        /** Number of messages being sent. */
+        private int active;
+    }
+
+    /**
+     * A message to send.
+     */
+    private final class Request implements Runnable {
+
+        /** Host and port of the message. */
+        private final String host;
+
+        /** The message. */
+        private final HttpMessage message;
+
+        /** Future telling whether the message was sent. */
+        private final SettableListenableFuture<Boolean> future = new SettableListenableFuture<Boolean>();
+
+        /**
+         * Instantiates a new request.
+         *
+         * @param host the host and port
+         * @param message the message
+         */
+        Request(final String host, final HttpMessage message) {
+            this.host = host;
+            this.message = message;
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            if (httpClient instanceof NonBlockingHttpClient) {
+                try {
+                    // the thread is released right away, the message completes on its own
+                    ((NonBlockingHttpClient) httpClient).sendMessage(this.message).addCallback(
+                            new ListenableFutureCallback<Boolean>() {
+                                @Override
+                                public void onSuccess(final Boolean sent) {
+                                    complete(Boolean.TRUE.equals(sent), start);
+                                }
+
+                                @Override
+                                public void onFailure(final Throwable e) {
+                                    complete(false, start);
+                                }
+                            });
+                } catch (final RuntimeException e) {
+                    LOGGER.debug(e.getMessage(), e);
+                    complete(false, start);
+                }
+                return;
+            }
+
+            boolean sent = false;
+            try {
+                sent = httpClient.sendMessageToEndPoint(this.message);
+            } catch (final RuntimeException e) {
+                LOGGER.debug(e.getMessage(), e);
+            } finally {
+                complete(sent, start);
+            }
+        }
+
+        /**
+         * Records the outcome of the message and hands the slot of its host to the next message.
+         *
+         * @param sent whether the message was sent
+         * @param start the time sending started, in nanoseconds
+         */
+        private void complete(final boolean sent, final long start) {
+            if (metricsRegistry != null) {
+                final long nanos = System.nanoTime() - start;
+                metricsRegistry.record(METRICS_NAME, nanos, !sent);
+                metricsRegistry.record(METRICS_NAME, this.host, nanos, !sent);
+            }
+            if (!sent) {
+                LOGGER.warn("Logout message not sent to [{}]", this.message.getUrl());
+            }
+            this.future.set(sent);
+            final Request next = release(this.host);
+            if (next != null) {
+                execute(next);
+            }
+        }
+    }
+}
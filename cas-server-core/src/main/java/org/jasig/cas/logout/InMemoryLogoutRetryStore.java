@@ -0,0 +1,51 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.logout;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Store of logout messages to retry that is kept in memory, hence lost on restart.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class InMemoryLogoutRetryStore implements LogoutRetryStore {
+
+    /** Entries by session index. */
+    private final ConcurrentMap<String, LogoutRetryEntry> entries = new ConcurrentHashMap<String, LogoutRetryEntry>();
+
+    @Override
+    public void save(final LogoutRetryEntry entry) {
+        this.entries.put(entry.getSessionIndex(), entry);
+    }
+
+    @Override
+    public void remove(final String sessionIndex) {
+        this.entries.remove(sessionIndex);
+    }
+
+    @Override
+    public Collection<LogoutRetryEntry> load() {
+        return new ArrayList<LogoutRetryEntry>(this.entries.values());
+    }
+}
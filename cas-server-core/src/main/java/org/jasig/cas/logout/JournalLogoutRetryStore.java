@@ -0,0 +1,424 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.logout;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Store of logout messages to retry, kept in an append-only journal on the local file system.
+ * <p>
+ * Every change is appended to the journal as a line, either an entry being saved or a session index
+ * being removed, so that the store survives restarts and crashes. Entries are replayed from the
+ * journal when the store is created. Each line ends with a checksum of its fields, so that a line that
+ * was only partly written is ignored. The journal is rewritten with only the current entries once it
+ * holds {@link #setCompactionRatio(int) many more} lines than entries. Appended lines and the compacted
+ * journal are forced to the storage device before the change returns, so that they survive a crash of
+ * the host as well.
+ * <p>
+ * Logout messages carry session indexes, so the journal is only readable and writable by its owner.
+ * It should be kept in a directory that is not shared with other users either.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class JournalLogoutRetryStore implements LogoutRetryStore {
+
+    /** Default ratio of journal lines to entries that triggers a compaction. */
+    public static final int DEFAULT_COMPACTION_RATIO = 4;
+
+    /** Number of journal lines below which the journal is never compacted. */
+    private static final int MIN_LINES_TO_COMPACT = 1000;
+
+    /** Marker of lines saving an entry. */
+    private static final String SAVE = "S";
+
+    /** Marker of lines removing an entry. */
+    private static final String REMOVE = "R";
+
+    /** Separator of the fields of a line. */
+    private static final String SEPARATOR = "\t";
+
+    /** Number of fields of lines saving an entry, including the checksum. */
+    private static final int SAVE_FIELDS = 7;
+
+    /** Number of fields of lines removing an entry, including the checksum. */
+    private static final int REMOVE_FIELDS = 3;
+
+    /** Permissions of the journal. */
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    /** Journal encoding. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(JournalLogoutRetryStore.class);
+
+    /** The journal file. */
+    private final File journal;
+
+    /** Current entries by session index, in the order they were first saved. Guarded by this. */
+    private final Map<String, LogoutRetryEntry> entries = new LinkedHashMap<String, LogoutRetryEntry>();
+
+    /** Ratio of journal lines to entries that triggers a compaction. */
+    private int compactionRatio = DEFAULT_COMPACTION_RATIO;
+
+    /** Number of lines in the journal. */
+    private int lines;
+
+    /** Stream appending to the journal, which {@link #writer} writes to. */
+    private FileOutputStream stream;
+
+    /** Writer appending to the journal. */
+    private Writer writer;
+
+    /**
+     * Instantiates a new store, replaying the journal if it exists.
+     *
+     * @param journal the journal file
+     * @throws IOException if the journal cannot be read or opened for writing
+     */
+    public JournalLogoutRetryStore(final File journal) throws IOException {
+        this.journal = journal;
+        if (journal.exists()) {
+            restrictPermissions(journal);
+            replay();
+        } else {
+            create(journal);
+        }
+        open();
+        if (endsWithPartialLine()) {
+            // lines appended from now on must not be glued to it
+            this.writer.write('\n');
+            sync();
+        }
+    }
+
+    @Override
+    public synchronized void save(final LogoutRetryEntry entry) {
+        this.entries.put(entry.getSessionIndex(), entry);
+        append(lineOf(entry));
+    }
+
+    @Override
+    public synchronized void remove(final String sessionIndex) {
+        if (this.entries.remove(sessionIndex) != null) {
+            append(withChecksum(REMOVE + SEPARATOR + sessionIndex));
+        }
+    }
+
+    @Override
+    public synchronized Collection<LogoutRetryEntry> load() {
+        return new ArrayList<LogoutRetryEntry>(this.entries.values());
+    }
+
+    /**
+     * Sets the ratio of journal lines to entries that triggers a compaction of the journal.
+     *
+     * @param compactionRatio the ratio
+     */
+    public void setCompactionRatio(final int compactionRatio) {
+        this.compactionRatio = compactionRatio;
+    }
+
+    /**
+     * Closes the journal.
+     */
+    public synchronized void close() {
+        IOUtils.closeQuietly(this.writer);
+        this.writer = null;
+        this.stream = null;
+    }
+
+    /**
+     * Appends a line to the journal, compacting the journal if it has grown too large.
+     *
+     * @param line the line
+     */
+    private void append(final String line) {
+        try {
+            if (this.writer == null) {
+                throw new IOException("Journal is closed");
+            }
+            this.writer.write(line);
+            this.writer.write('\n');
+            sync();
+            this.lines++;
+            if (this.lines >= MIN_LINES_TO_COMPACT && this.lines > this.compactionRatio * this.entries.size()) {
+                compact();
+            }
+        } catch (final IOException e) {
+            LOGGER.error("Failed to write to logout retry journal {}", this.journal, e);
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the current entries, replacing the old journal once written.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    private void compact() throws IOException {
+        final File compacted = new File(this.journal.getPath() + ".compact");
+        if (!compacted.delete() && compacted.exists()) {
+            throw new IOException("Cannot delete " + compacted);
+        }
+        create(compacted);
+        final FileOutputStream compactedStream = new FileOutputStream(compacted);
+        final Writer out = new OutputStreamWriter(compactedStream, UTF8);
+        try {
+            for (final LogoutRetryEntry entry : this.entries.values()) {
+                out.write(lineOf(entry));
+                out.write('\n');
+            }
+            out.flush();
+            // the journal must not be replaced by a file whose content is not on the device yet
+            compactedStream.getChannel().force(false);
+        } finally {
+            out.close();
+        }
+
+        this.writer.close();
+        try {
+            if (!compacted.renameTo(this.journal) && !(this.journal.delete() && compacted.renameTo(this.journal))) {
+                throw new IOException("Cannot replace " + this.journal + " with " + compacted);
+            }
+            this.lines = this.entries.size();
+        } finally {
+            open();
+        }
+        syncDirectory();
+        LOGGER.debug("Compacted logout retry journal {} to {} entries", this.journal, this.lines);
+    }
+
+    /**
+     * Replays the journal into the current entries.
+     *
+     * @throws IOException if the journal cannot be read
+     */
+    private void replay() throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.journal), UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                this.lines++;
+                final String[] fields = line.split(SEPARATOR, -1);
+                try {
+                    if (!hasValidChecksum(line)) {
+                        LOGGER.warn("Ignoring partly written line {} of logout retry journal {}", this.lines, this.journal);
+                    } else if (SAVE.equals(fields[0]) && fields.length == SAVE_FIELDS) {
+                        this.entries.put(fields[1], new LogoutRetryEntry(fields[1], decode(fields[4]), decode(fields[5]),
+                                Integer.parseInt(fields[2]), Long.parseLong(fields[3])));
+                    } else if (REMOVE.equals(fields[0]) && fields.length == REMOVE_FIELDS) {
+                        this.entries.remove(fields[1]);
+                    } else {
+                        LOGGER.warn("Ignoring malformed line {} of logout retry journal {}", this.lines, this.journal);
+                    }
+                } catch (final NumberFormatException e) {
+                    LOGGER.warn("Ignoring malformed line {} of logout retry journal {}", this.lines, this.journal);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        LOGGER.info("Replayed {} logout messages to retry from {}", this.entries.size(), this.journal);
+    }
+
+    /**
+     * Tells whether the journal ends with a line that was only partly written.
+     *
+     * @return true, if the last byte of the journal is not a line terminator
+     * @throws IOException if the journal cannot be read
+     */
+    private boolean endsWithPartialLine() throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(this.journal, "r");
+        try {
+            if (file.length() == 0) {
+                return false;
+            }
+            file.seek(file.length() - 1);
+            return file.read() != '\n';
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Opens the journal for writing.
+     *
+     * @throws IOException if the journal cannot be opened
+     */
+    private void open() throws IOException {
+        this.stream = new FileOutputStream(this.journal, true);
+        this.writer = new OutputStreamWriter(this.stream, UTF8);
+    }
+
+    /**
+     * Writes what was appended to the journal through to the storage device.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    private void sync() throws IOException {
+        this.writer.flush();
+        this.stream.getChannel().force(false);
+    }
+
+    /**
+     * Writes the renaming of the compacted journal through to the storage device, where the platform allows
+     * directories to be opened. Otherwise a crash shortly after a compaction may bring back the journal as it
+     * was before the compaction.
+     */
+    private void syncDirectory() {
+        final Path directory = this.journal.getAbsoluteFile().getParentFile().toPath();
+        try {
+            final FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (final IOException e) {
+            LOGGER.debug("Cannot sync directory {} of logout retry journal", directory, e);
+        }
+    }
+
+    /**
+     * Gets the journal line saving an entry.
+     *
+     * @param entry the entry
+     * @return the line, without line terminator
+     */
+    private static String lineOf(final LogoutRetryEntry entry) {
+        return withChecksum(SAVE + SEPARATOR + entry.getSessionIndex()
+                + SEPARATOR + entry.getAttempts()
+                + SEPARATOR + entry.getNextAttemptTime()
+                + SEPARATOR + encode(entry.getUrl())
+                + SEPARATOR + encode(entry.getMessage()));
+    }
+
+    /**
+     * Appends the checksum of the fields of a line as its last field.
+     *
+     * @param fields the fields of the line
+     * @return the line, without line terminator
+     */
+    private static String withChecksum(final String fields) {
+        return fields + SEPARATOR + checksumOf(fields);
+    }
+
+    /**
+     * Tells whether the last field of a line is the checksum of the other fields.
+     *
+     * @param line the line
+     * @return true, if the line was written entirely
+     */
+    private static boolean hasValidChecksum(final String line) {
+        final int separator = line.lastIndexOf(SEPARATOR);
+        return separator > 0 && checksumOf(line.substring(0, separator)).equals(line.substring(separator + 1));
+    }
+
+    /**
+     * Computes the checksum of the fields of a line.
+     *
+     * @param fields the fields
+     * @return the hex encoded CRC-32 of the fields
+     */
+    private static String checksumOf(final String fields) {
+        final CRC32 crc = new CRC32();
+        crc.update(fields.getBytes(UTF8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Creates an empty file only readable and writable by its owner.
+     *
+     * @param file the file
+     * @throws IOException if the file cannot be created
+     */
+    private static void create(final File file) throws IOException {
+        final Path path = file.toPath();
+        if (Files.getFileStore(path.toAbsolutePath().getParent()).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } else {
+            Files.createFile(path);
+            restrictPermissions(file);
+        }
+    }
+
+    /**
+     * Makes a file only readable and writable by its owner.
+     *
+     * @param file the file
+     * @throws IOException if the permissions cannot be changed
+     */
+    private static void restrictPermissions(final File file) throws IOException {
+        final Path path = file.toPath();
+        if (Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            Files.setPosixFilePermissions(path, OWNER_ONLY);
+        } else if (!(file.setReadable(false, false) && file.setReadable(true, true)
+                && file.setWritable(false, false) && file.setWritable(true, true))) {
+            throw new IOException("Cannot restrict the permissions of " + file);
+        }
+    }
+
+    /**
+     * Encodes a value so that it fits in a single field of a line.
+     *
+     * @param value the value
+     * @return the encoded value
+     */
+    private static String encode(final String value) {
+        return Base64.encodeBase64String(value.getBytes(UTF8));
+    }
+
+    /**
+     * Decodes a value encoded by {@link #encode(String)}.
+     *
+     * @param value the encoded value
+     * @return the value
+     */
+    private static String decode(final String value) {
+        return new String(Base64.decodeBase64(value), UTF8);
+    }
+}
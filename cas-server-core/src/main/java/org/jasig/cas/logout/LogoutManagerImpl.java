@@ -31,12 +31,20 @@ import org.jasig.cas.util.HttpMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.MediaType;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
 
 import javax.validation.constraints.NotNull;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.zip.Deflater;
 
 /**
@@ -56,26 +64,46 @@ public final class LogoutManagerImpl implements LogoutManager {
     /** ASCII character set. */
     private static final Charset ASCII = Charset.forName("ASCII");
 
+    /** Default time to wait for synchronous back channel logout messages, in milliseconds. */
+    private static final long DEFAULT_BACK_CHANNEL_TIMEOUT = 10000;
+
+    /** Initial size of the buffer of deflated messages, which grows as needed. */
+    private static final int DEFLATE_BUFFER_SIZE = 512;
+
+    /** Per-thread deflater of front channel logout messages, as creating one allocates native memory. */
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater();
+        }
+    };
+
     /** The services manager. */
     @NotNull
     private final ServicesManager servicesManager;
 
-    /** An HTTP client. */
+    /** Dispatcher sending back channel logout messages. */
     @NotNull
-    private final HttpClient httpClient;
+    private final BackChannelLogoutDispatcher dispatcher;
 
     @NotNull
     private final LogoutMessageCreator logoutMessageBuilder;
     
     /** Whether single sign out is disabled or not. */
     private boolean singleLogoutCallbacksDisabled = false;
+
+    /** Queue sending undelivered back channel logout messages again, if any. */
+    private LogoutRetryQueue retryQueue;
     
     /** 
      * Whether messages to endpoints would be sent in an asynchronous fashion.
      * True by default.
      **/
     private boolean asynchronous = true;
-    
+
+    /** Time to wait for all synchronous back channel logout messages of a logout, in milliseconds. */
+    private long backChannelTimeout = DEFAULT_BACK_CHANNEL_TIMEOUT;
+
     /**
      * Build the logout manager.
      * @param servicesManager the services manager.
@@ -84,9 +112,21 @@ public final class LogoutManagerImpl implements LogoutManager {
      */
     public LogoutManagerImpl(final ServicesManager servicesManager, final HttpClient httpClient,
                              final LogoutMessageCreator logoutMessageBuilder) {
+        this(servicesManager, logoutMessageBuilder, new BackChannelLogoutDispatcher(httpClient));
+    }
+
+    /**
+     * Build the logout manager.
+     * @param servicesManager the services manager.
+     * @param logoutMessageBuilder the builder to construct logout messages.
+     * @param dispatcher the dispatcher sending back channel logout messages.
+     * @since 4.1
+     */
+    public LogoutManagerImpl(final ServicesManager servicesManager, final LogoutMessageCreator logoutMessageBuilder,
+                             final BackChannelLogoutDispatcher dispatcher) {
         this.servicesManager = servicesManager;
-        this.httpClient = httpClient;
         this.logoutMessageBuilder = logoutMessageBuilder;
+        this.dispatcher = dispatcher;
     }
 
     /**
@@ -99,6 +139,28 @@ public final class LogoutManagerImpl implements LogoutManager {
         this.asynchronous = asyncCallbacks;
     }
     
+    /**
+     * Set the time to wait for all back channel logout messages of a logout when they are sent synchronously.
+     * Messages that are not sent by then are reported as failed.
+     *
+     * @param backChannelTimeout the time in milliseconds
+     * @since 4.1
+     */
+    public void setBackChannelTimeout(final long backChannelTimeout) {
+        this.backChannelTimeout = backChannelTimeout;
+    }
+
+    /**
+     * Set the queue sending back channel logout messages again when they could not be delivered,
+     * whether they were sent synchronously or not.
+     *
+     * @param retryQueue the retry queue
+     * @since 4.1
+     */
+    public void setRetryQueue(final LogoutRetryQueue retryQueue) {
+        this.retryQueue = retryQueue;
+    }
+
     /**
      * Set if messages are sent in an asynchronous fashion.
      *
@@ -119,34 +181,84 @@ public final class LogoutManagerImpl implements LogoutManager {
      */
     @Override
     public List<LogoutRequest> performLogout(final TicketGrantingTicket ticket) {
-        final Map<String, Service> services;
-        // synchronize the retrieval of the services and their cleaning for the TGT
-        // to avoid concurrent logout mess ups
-        synchronized (ticket) {
-            services = ticket.getServices();
-            ticket.removeAllServices();
-        }
+        // the ticket is expired first: services granted access before the services are removed
+        // are notified, and service tickets granted afterwards fail validation with the ticket
         ticket.markTicketExpired();
+        final Map<String, Service> services = ticket.removeAllServices();
 
         final List<LogoutRequest> logoutRequests = new ArrayList<LogoutRequest>();
         // if SLO is not disabled
         if (!this.singleLogoutCallbacksDisabled) {
+            final Map<LogoutRequest, ListenableFuture<Boolean>> backChannelResults =
+                    new LinkedHashMap<LogoutRequest, ListenableFuture<Boolean>>();
             // through all services
             for (final String ticketId : services.keySet()) {
                 final Service service = services.get(ticketId);
                 // it's a SingleLogoutService, else ignore
                 if (service instanceof SingleLogoutService) {
-                    final LogoutRequest logoutRequest = handleLogoutForSloService((SingleLogoutService) service, ticketId);
+                    final LogoutRequest logoutRequest = handleLogoutForSloService((SingleLogoutService) service, ticketId,
+                            backChannelResults);
                     if (logoutRequest != null) {
                         logoutRequests.add(logoutRequest);
                     }
                 }
             }
+            // messages are on their way to all services at once
+            completeBackChannelLogout(backChannelResults);
         }
 
         return logoutRequests;
     }
 
+    /**
+     * Sets the status of back channel logout requests once their messages are sent, or right away
+     * if messages are sent asynchronously.
+     *
+     * @param results the back channel logout requests and the results of their messages
+     */
+    private void completeBackChannelLogout(final Map<LogoutRequest, ListenableFuture<Boolean>> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        if (!this.asynchronous) {
+            try {
+                BackChannelLogoutDispatcher.allOf(new ArrayList<ListenableFuture<Boolean>>(results.values()))
+                        .get(this.backChannelTimeout, TimeUnit.MILLISECONDS);
+            } catch (final TimeoutException e) {
+                LOGGER.warn("Logout messages not all sent within {} ms; Continuing processing...", this.backChannelTimeout);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final ExecutionException e) {
+                LOGGER.error(e.getMessage(), e);
+            }
+        }
+        for (final Map.Entry<LogoutRequest, ListenableFuture<Boolean>> entry : results.entrySet()) {
+            // asynchronous messages are deemed sent, their outcome is only logged by the dispatcher
+            final boolean sent = this.asynchronous || isSent(entry.getValue());
+            entry.getKey().setStatus(sent ? LogoutRequestStatus.SUCCESS : LogoutRequestStatus.FAILURE);
+        }
+    }
+
+    /**
+     * Tells whether a message was sent, without waiting for it.
+     *
+     * @param result the result of the message
+     * @return true, if the message was sent by now
+     */
+    private static boolean isSent(final Future<Boolean> result) {
+        if (!result.isDone()) {
+            return false;
+        }
+        try {
+            return Boolean.TRUE.equals(result.get());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (final ExecutionException e) {
+            return false;
+        }
+    }
+
     /**
      * Service supports back channel single logout?
      * Service must be found in the registry. enabled and logout type must not be {@link LogoutType#NONE}.
@@ -163,9 +275,11 @@ public final class LogoutManagerImpl implements LogoutManager {
      *
      * @param service the service
      * @param ticketId the ticket id
+     * @param backChannelResults the back channel logout requests being sent, along with the results of their messages
      * @return the logout request
      */
-    private LogoutRequest handleLogoutForSloService(final SingleLogoutService service, final String ticketId) {
+    private LogoutRequest handleLogoutForSloService(final SingleLogoutService service, final String ticketId,
+                                                    final Map<LogoutRequest, ListenableFuture<Boolean>> backChannelResults) {
         final SingleLogoutService singleLogoutService = (SingleLogoutService) service;
         if (!singleLogoutService.isLoggedOutAlready()) {
 
@@ -178,8 +292,9 @@ public final class LogoutManagerImpl implements LogoutManager {
 
                 switch (type) {
                     case BACK_CHANNEL:
-                        if (performBackChannelLogout(logoutRequest)) {
-                            logoutRequest.setStatus(LogoutRequestStatus.SUCCESS);
+                        final ListenableFuture<Boolean> result = performBackChannelLogout(logoutRequest);
+                        if (result != null) {
+                            backChannelResults.put(logoutRequest, result);
                         } else {
                             logoutRequest.setStatus(LogoutRequestStatus.FAILURE);
                             LOGGER.warn("Logout message not sent to [{}]; Continuing processing...", singleLogoutService.getId());
@@ -198,9 +313,9 @@ public final class LogoutManagerImpl implements LogoutManager {
      * Log out of a service through back channel.
      *
      * @param request the logout request.
-     * @return if the logout has been performed.
+     * @return the result of the logout message, or null if it could not be sent.
      */
-    private boolean performBackChannelLogout(final LogoutRequest request) {
+    private ListenableFuture<Boolean> performBackChannelLogout(final LogoutRequest request) {
         try {
             final String logoutRequest = this.logoutMessageBuilder.create(request);
             request.getService().setLoggedOutAlready(true);
@@ -209,11 +324,27 @@ public final class LogoutManagerImpl implements LogoutManager {
             final String originalUrl = request.getService().getOriginalUrl();        
             final LogoutHttpMessage sender = new LogoutHttpMessage(new URL(originalUrl), logoutRequest);
 
-            return this.httpClient.sendMessageToEndPoint(sender);
+            final ListenableFuture<Boolean> result = this.dispatcher.send(sender);
+            if (this.retryQueue != null) {
+                result.addCallback(new ListenableFutureCallback<Boolean>() {
+                    @Override
+                    public void onSuccess(final Boolean sent) {
+                        if (!Boolean.TRUE.equals(sent)) {
+                            retryQueue.add(request, logoutRequest);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable e) {
+                        retryQueue.add(request, logoutRequest);
+                    }
+                });
+            }
+            return result;
         } catch (final Exception e) {
             LOGGER.error(e.getMessage(), e);
         }
-        return false;
+        return null;
     }
 
     /**
@@ -224,14 +355,21 @@ public final class LogoutManagerImpl implements LogoutManager {
      */
     public String createFrontChannelLogoutMessage(final LogoutRequest logoutRequest) {
         final String logoutMessage = this.logoutMessageBuilder.create(logoutRequest);
-        final Deflater deflater = new Deflater();
+        final Deflater deflater = DEFLATER.get();
+        deflater.reset();
         deflater.setInput(logoutMessage.getBytes(ASCII));
         deflater.finish();
-        final byte[] buffer = new byte[logoutMessage.length()];
-        final int resultSize = deflater.deflate(buffer);
-        final byte[] output = new byte[resultSize];
-        System.arraycopy(buffer, 0, output, 0, resultSize);
-        return Base64.encodeBase64String(output);
+
+        // deflated data may be larger than the message, keep going until the deflater is done
+        byte[] buffer = new byte[DEFLATE_BUFFER_SIZE];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return Base64.encodeBase64String(Arrays.copyOf(buffer, length));
     }
 
     /**
@@ -248,17 +386,18 @@ public final class LogoutManagerImpl implements LogoutManager {
      * and formatting.
      * @since 4.1
      */
-    private final class LogoutHttpMessage extends HttpMessage {
+    static final class LogoutHttpMessage extends HttpMessage {
         
         /**
-         * Constructs a logout message, whose method of submission
-         * is controlled by the {@link LogoutManagerImpl#asynchronous}.
+         * Constructs a logout message. It is sent synchronously by the dispatcher's threads,
+         * whether the logout waits for it is controlled by {@link LogoutManagerImpl#asynchronous}.
+         * Also used by the {@link LogoutRetryQueue} to send the message again.
          * 
          * @param url The url to send the message to
          * @param message Message to send to the url
          */
         public LogoutHttpMessage(final URL url, final String message) {
-            super(url, message, LogoutManagerImpl.this.asynchronous);
+            super(url, message, false);
             setContentType(MediaType.APPLICATION_FORM_URLENCODED_VALUE);
         }
 
@@ -0,0 +1,108 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.logout;
+
+/**
+ * An undelivered back channel logout message, waiting to be sent again.
+ * Entries are identified by the session index of the logout message, that is
+ * the id of the service ticket the session was opened with.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class LogoutRetryEntry {
+
+    /** Session index of the logout message. */
+    private final String sessionIndex;
+
+    /** URL of the service endpoint. */
+    private final String url;
+
+    /** The logout message. */
+    private final String message;
+
+    /** Number of failed attempts to send the message. */
+    private final int attempts;
+
+    /** Time of the next attempt, in milliseconds since the epoch. */
+    private final long nextAttemptTime;
+
+    /**
+     * Instantiates a new entry.
+     *
+     * @param sessionIndex the session index of the logout message
+     * @param url the URL of the service endpoint
+     * @param message the logout message
+     * @param attempts the number of failed attempts to send the message
+     * @param nextAttemptTime the time of the next attempt
+     */
+    public LogoutRetryEntry(final String sessionIndex, final String url, final String message,
+                            final int attempts, final long nextAttemptTime) {
+        this.sessionIndex = sessionIndex;
+        this.url = url;
+        this.message = message;
+        this.attempts = attempts;
+        this.nextAttemptTime = nextAttemptTime;
+    }
+
+    /**
+     * Gets a copy of this entry after another failed attempt.
+     *
+     * @param nextAttemptTime the time of the next attempt
+     * @return the entry
+     */
+    public LogoutRetryEntry failedAgain(final long nextAttemptTime) {
+        return new LogoutRetryEntry(this.sessionIndex, this.url, this.message, this.attempts + 1, nextAttemptTime);
+    }
+
+    /**
+     * Gets a copy of this entry whose next attempt is postponed, without counting an attempt.
+     *
+     * @param nextAttemptTime the time of the next attempt
+     * @return the entry
+     */
+    public LogoutRetryEntry delayedUntil(final long nextAttemptTime) {
+        return new LogoutRetryEntry(this.sessionIndex, this.url, this.message, this.attempts, nextAttemptTime);
+    }
+
+    public String getSessionIndex() {
+        return this.sessionIndex;
+    }
+
+    public String getUrl() {
+        return this.url;
+    }
+
+    public String getMessage() {
+        return this.message;
+    }
+
+    public int getAttempts() {
+        return this.attempts;
+    }
+
+    public long getNextAttemptTime() {
+        return this.nextAttemptTime;
+    }
+
+    @Override
+    public String toString() {
+        return this.sessionIndex + " to " + this.url + " after " + this.attempts + " attempts";
+    }
+}
@@ -0,0 +1,561 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.logout;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends back channel logout messages that could not be delivered again, until they are delivered
+ * or given up on.
+ * <p>
+ * Messages are kept in a {@link LogoutRetryStore}, so that they survive restarts, and are identified by
+ * their session index: a message is only queued once. Attempts are spaced out with exponential backoff
+ * and jitter, starting at {@link #setInitialDelay(long)} and up to {@link #setMaxDelay(long)}. Messages
+ * still not delivered after {@link #setMaxAttempts(int)} attempts are moved to a bounded dead-letter list,
+ * and so are messages queued while {@link #setMaxPendingMessages(int)} messages are already waiting.
+ * Messages wait in the order of their next attempt, so that only the messages due are looked at.
+ * <p>
+ * A circuit breaker per endpoint host stops sending messages to a host that failed
+ * {@link #setFailureThreshold(int)} times in a row, for {@link #setOpenCircuitTime(long)}; then a single
+ * message is sent to probe the host. Messages held back by an open circuit do not use up their attempts.
+ * Breakers are dropped once their host succeeds, and only the {@link #setMaxCircuitBreakers(int)} most
+ * recently used ones are kept.
+ * <p>
+ * The store is written to outside of the lock of the queue.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class LogoutRetryQueue implements InitializingBean, DisposableBean {
+
+    /** Default delay before the first retry, in milliseconds. */
+    public static final long DEFAULT_INITIAL_DELAY = 5000;
+
+    /** Default maximum delay between retries, in milliseconds. */
+    public static final long DEFAULT_MAX_DELAY = 3600000;
+
+    /** Default number of attempts after which a message is given up on. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+    /** Default number of consecutive failures of a host that opens its circuit. */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /** Default time a circuit stays open, in milliseconds. */
+    public static final long DEFAULT_OPEN_CIRCUIT_TIME = 60000;
+
+    /** Default number of dead letters kept. */
+    public static final int DEFAULT_MAX_DEAD_LETTERS = 1000;
+
+    /** Default number of messages waiting to be sent again. */
+    public static final int DEFAULT_MAX_PENDING_MESSAGES = 10000;
+
+    /** Default number of hosts whose circuit breaker is kept. */
+    public static final int DEFAULT_MAX_CIRCUIT_BREAKERS = 1000;
+
+    /** Default interval between two checks for messages due, in milliseconds. */
+    public static final long DEFAULT_POLL_INTERVAL = 1000;
+
+    /** The logger. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogoutRetryQueue.class);
+
+    /** Dispatcher sending the messages. */
+    @NotNull
+    private final BackChannelLogoutDispatcher dispatcher;
+
+    /** Store of the messages. */
+    @NotNull
+    private final LogoutRetryStore store;
+
+    /** Messages by session index, including those being sent. Guarded by this. */
+    private final Map<String, LogoutRetryEntry> entries = new HashMap<String, LogoutRetryEntry>();
+
+    /** Messages waiting for their next attempt, soonest first. Guarded by this. */
+    private final Queue<LogoutRetryEntry> schedule = new PriorityQueue<LogoutRetryEntry>(16,
+            new Comparator<LogoutRetryEntry>() {
+                @Override
+                public int compare(final LogoutRetryEntry e1, final LogoutRetryEntry e2) {
+                    return Long.compare(e1.getNextAttemptTime(), e2.getNextAttemptTime());
+                }
+            });
+
+    /** Circuit breakers by host, least recently used first. Guarded by this. */
+    private final Map<String, CircuitBreaker> circuitBreakers = new LinkedHashMap<String, CircuitBreaker>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CircuitBreaker> eldest) {
+            return size() > maxCircuitBreakers;
+        }
+    };
+
+    /** Messages given up on, most recent last. Guarded by this. */
+    private final Deque<LogoutRetryEntry> deadLetters = new ArrayDeque<LogoutRetryEntry>();
+
+    /** Source of jitter. */
+    private final Random random = new Random();
+
+    @Min(0)
+    private long initialDelay = DEFAULT_INITIAL_DELAY;
+
+    @Min(0)
+    private long maxDelay = DEFAULT_MAX_DELAY;
+
+    @Min(1)
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    @Min(1)
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+    @Min(0)
+    private long openCircuitTime = DEFAULT_OPEN_CIRCUIT_TIME;
+
+    @Min(0)
+    private int maxDeadLetters = DEFAULT_MAX_DEAD_LETTERS;
+
+    @Min(1)
+    private int maxPendingMessages = DEFAULT_MAX_PENDING_MESSAGES;
+
+    @Min(1)
+    private int maxCircuitBreakers = DEFAULT_MAX_CIRCUIT_BREAKERS;
+
+    @Min(1)
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+
+    /** Executor checking for messages due. */
+    private ScheduledExecutorService executor;
+
+    /**
+     * Instantiates a new retry queue keeping messages in memory.
+     *
+     * @param dispatcher the dispatcher sending the messages
+     */
+    public LogoutRetryQueue(final BackChannelLogoutDispatcher dispatcher) {
+        this(dispatcher, new InMemoryLogoutRetryStore());
+    }
+
+    /**
+     * Instantiates a new retry queue, loading the messages of the store.
+     *
+     * @param dispatcher the dispatcher sending the messages
+     * @param store the store of the messages
+     */
+    public LogoutRetryQueue(final BackChannelLogoutDispatcher dispatcher, final LogoutRetryStore store) {
+        this.dispatcher = dispatcher;
+        this.store = store;
+        for (final LogoutRetryEntry entry : store.load()) {
+            this.entries.put(entry.getSessionIndex(), entry);
+            this.schedule.add(entry);
+        }
+    }
+
+    /**
+     * Queues a logout message that could not be delivered, unless a message with the same session index
+     * is already queued. The message is given up on right away if the queue is full.
+     *
+     * @param request the logout request
+     * @param message the logout message, as created by the {@link LogoutMessageCreator}
+     */
+    public void add(final LogoutRequest request, final String message) {
+        final String sessionIndex = request.getTicketId();
+        final LogoutRetryEntry entry;
+        synchronized (this) {
+            if (this.entries.containsKey(sessionIndex)) {
+                return;
+            }
+            entry = new LogoutRetryEntry(sessionIndex, request.getService().getOriginalUrl(), message,
+                    1, System.currentTimeMillis() + backoff(1));
+            if (this.entries.size() >= this.maxPendingMessages) {
+                LOGGER.warn("Giving up logout message {}; {} messages are waiting already", entry, this.entries.size());
+                addDeadLetter(entry);
+                return;
+            }
+            // held here until saved, so that it is not sent before
+            this.entries.put(sessionIndex, entry);
+        }
+        this.store.save(entry);
+        synchronized (this) {
+            this.schedule.add(entry);
+        }
+        LOGGER.debug("Queued logout message to [{}] to retry", request.getService().getOriginalUrl());
+    }
+
+    /**
+     * Gets the number of messages waiting to be sent again.
+     *
+     * @return the number of messages
+     */
+    public synchronized int getPendingCount() {
+        return this.entries.size();
+    }
+
+    /**
+     * Gets the messages given up on, most recent last.
+     *
+     * @return a copy of the dead letters
+     */
+    public synchronized List<LogoutRetryEntry> getDeadLetters() {
+        return new ArrayList<LogoutRetryEntry>(this.deadLetters);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        synchronized (this) {
+            if (this.executor != null) {
+                return;
+            }
+            this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "LogoutRetryQueue");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    retryDue(System.currentTimeMillis());
+                } catch (final RuntimeException e) {
+                    LOGGER.error("Failed to retry logout messages", e);
+                }
+            }
+        }, this.pollInterval, this.pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        final ScheduledExecutorService executorToStop;
+        synchronized (this) {
+            executorToStop = this.executor;
+            this.executor = null;
+        }
+        if (executorToStop != null) {
+            executorToStop.shutdown();
+        }
+    }
+
+    /**
+     * Sends the messages that are due and whose host circuit is not open. Messages of a host whose circuit
+     * is open wait until it is half open; messages of a host being probed wait for the next check.
+     *
+     * @param now the current time
+     * @return the number of messages sent
+     */
+    int retryDue(final long now) {
+        final List<LogoutRetryEntry> due = new ArrayList<LogoutRetryEntry>();
+        synchronized (this) {
+            final List<LogoutRetryEntry> heldBack = new ArrayList<LogoutRetryEntry>();
+            while (!this.schedule.isEmpty() && this.schedule.peek().getNextAttemptTime() <= now) {
+                final LogoutRetryEntry entry = this.schedule.poll();
+                final CircuitBreaker circuitBreaker = circuitBreakerOf(entry);
+                if (circuitBreaker.allows(now)) {
+                    due.add(entry);
+                } else if (circuitBreaker.openUntil > now) {
+                    heldBack.add(entry.delayedUntil(circuitBreaker.openUntil));
+                } else {
+                    heldBack.add(entry);
+                }
+            }
+            for (final LogoutRetryEntry entry : heldBack) {
+                this.entries.put(entry.getSessionIndex(), entry);
+                this.schedule.add(entry);
+            }
+        }
+        for (final LogoutRetryEntry entry : due) {
+            send(entry);
+        }
+        return due.size();
+    }
+
+    /**
+     * Sends a message again.
+     *
+     * @param entry the message
+     */
+    private void send(final LogoutRetryEntry entry) {
+        final ListenableFuture<Boolean> result;
+        try {
+            result = this.dispatcher.send(new LogoutManagerImpl.LogoutHttpMessage(new URL(entry.getUrl()), entry.getMessage()));
+        } catch (final MalformedURLException e) {
+            LOGGER.warn("Giving up logout message {}: {}", entry, e.getMessage());
+            completed(entry, false, true);
+            return;
+        }
+        result.addCallback(new ListenableFutureCallback<Boolean>() {
+            @Override
+            public void onSuccess(final Boolean sent) {
+                completed(entry, Boolean.TRUE.equals(sent), false);
+            }
+
+            @Override
+            public void onFailure(final Throwable e) {
+                completed(entry, false, false);
+            }
+        });
+    }
+
+    /**
+     * Records the outcome of an attempt.
+     *
+     * @param entry the message
+     * @param sent whether the message was sent
+     * @param giveUp whether to give up on the message if it was not sent
+     */
+    private void completed(final LogoutRetryEntry entry, final boolean sent, final boolean giveUp) {
+        final long now = System.currentTimeMillis();
+        final LogoutRetryEntry next;
+        synchronized (this) {
+            if (sent) {
+                // a closed circuit is the same as none
+                this.circuitBreakers.remove(hostOf(entry));
+                LOGGER.debug("Delivered logout message {}", entry);
+                next = null;
+            } else {
+                circuitBreakerOf(entry).recordFailure(now);
+                if (giveUp || entry.getAttempts() + 1 >= this.maxAttempts) {
+                    LOGGER.warn("Giving up logout message {}", entry);
+                    addDeadLetter(entry.failedAgain(now));
+                    next = null;
+                } else {
+                    next = entry.failedAgain(now + backoff(entry.getAttempts() + 1));
+                }
+            }
+        }
+
+        // the session index stays taken until the store is up to date
+        if (next == null) {
+            this.store.remove(entry.getSessionIndex());
+            synchronized (this) {
+                this.entries.remove(entry.getSessionIndex());
+            }
+        } else {
+            this.store.save(next);
+            synchronized (this) {
+                this.entries.put(next.getSessionIndex(), next);
+                this.schedule.add(next);
+            }
+        }
+    }
+
+    /**
+     * Adds a message given up on to the dead letters, dropping the oldest dead letters beyond the maximum.
+     *
+     * @param entry the message
+     */
+    private void addDeadLetter(final LogoutRetryEntry entry) {
+        this.deadLetters.addLast(entry);
+        while (this.deadLetters.size() > this.maxDeadLetters) {
+            this.deadLetters.removeFirst();
+        }
+    }
+
+    /**
+     * Gets the host of a message, which circuits are broken by.
+     *
+     * @param entry the message
+     * @return the host and port, or the URL if it is malformed
+     */
+    private static String hostOf(final LogoutRetryEntry entry) {
+        try {
+            return BackChannelLogoutDispatcher.hostOf(new URL(entry.getUrl()));
+        } catch (final MalformedURLException e) {
+            return entry.getUrl();
+        }
+    }
+
+    /**
+     * Gets the circuit breaker of the host of a message.
+     *
+     * @param entry the message
+     * @return the circuit breaker
+     */
+    private CircuitBreaker circuitBreakerOf(final LogoutRetryEntry entry) {
+        final String host = hostOf(entry);
+        CircuitBreaker circuitBreaker = this.circuitBreakers.get(host);
+        if (circuitBreaker == null) {
+            circuitBreaker = new CircuitBreaker();
+            this.circuitBreakers.put(host, circuitBreaker);
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * Computes the delay before the next attempt: exponential in the number of attempts made,
+     * with a random half of it taken off so that messages failed together are not retried together.
+     *
+     * @param attempts the number of attempts made
+     * @return the delay in milliseconds
+     */
+    private long backoff(final int attempts) {
+        final long delay = Math.min(this.maxDelay, this.initialDelay << Math.min(attempts - 1, 30));
+        return delay / 2 + (long) (this.random.nextDouble() * (delay / 2));
+    }
+
+    /**
+     * Sets the delay before the first retry.
+     *
+     * @param initialDelay the delay in milliseconds
+     */
+    public void setInitialDelay(final long initialDelay) {
+        this.initialDelay = initialDelay;
+    }
+
+    /**
+     * Sets the maximum delay between retries.
+     *
+     * @param maxDelay the delay in milliseconds
+     */
+    public void setMaxDelay(final long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Sets the number of attempts after which a message is given up on.
+     *
+     * @param maxAttempts the number of attempts, including the first one
+     */
+    public void setMaxAttempts(final int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Sets the number of consecutive failures of a host that opens its circuit.
+     *
+     * @param failureThreshold the number of failures
+     */
+    public void setFailureThreshold(final int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * Sets the time a circuit stays open before a message probes the host.
+     *
+     * @param openCircuitTime the time in milliseconds
+     */
+    public void setOpenCircuitTime(final long openCircuitTime) {
+        this.openCircuitTime = openCircuitTime;
+    }
+
+    /**
+     * Sets the number of dead letters kept.
+     *
+     * @param maxDeadLetters the number of dead letters
+     */
+    public void setMaxDeadLetters(final int maxDeadLetters) {
+        this.maxDeadLetters = maxDeadLetters;
+    }
+
+    /**
+     * Sets the number of messages waiting to be sent again, beyond which messages are given up on right away.
+     *
+     * @param maxPendingMessages the number of messages
+     */
+    public void setMaxPendingMessages(final int maxPendingMessages) {
+        this.maxPendingMessages = maxPendingMessages;
+    }
+
+    /**
+     * Sets the number of hosts whose circuit breaker is kept.
+     *
+     * @param maxCircuitBreakers the number of hosts
+     */
+    public void setMaxCircuitBreakers(final int maxCircuitBreakers) {
+        this.maxCircuitBreakers = maxCircuitBreakers;
+    }
+
+    /**
+     * Sets the interval between two checks for messages due.
+     *
+     * @param pollInterval the interval in milliseconds
+     */
+    public void setPollInterval(final long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Circuit breaker of a host. Guarded by the queue.
+     */
+    private final class CircuitBreaker {
+
+        /** Number of consecutive failures. */
+        private int failures;
+
+        /** Time until which the circuit is open. */
+        private long openUntil;
+
+        /** Whether a message probing the host is being sent. */
+        private boolean probing;
+
+        /**
+         * Tells whether a message may be sent to the host, and if so, whether as a probe.
+         *
+         * @param now the current time
+         * @return true, if the message may be sent
+         */
+        boolean allows(final long now) {
+            if (this.failures < failureThreshold) {
+                return true;
+            }
+            if (now < this.openUntil || this.probing) {
+                return false;
+            }
+            this.probing = true;
+            return true;
+        }
+
+        /**
+         * Records a message that could not be sent, opening the circuit once the host failed too many times.
+         *
+         * @param now the current time
+         */
+        void recordFailure(final long now) {
+            this.probing = false;
+            if (++this.failures >= failureThreshold) {
+                this.openUntil = now + openCircuitTime;
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.logout;
+
+import java.util.Collection;
+
+/**
+ * Store of the back channel logout messages waiting to be sent again, which survives restarts.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public interface LogoutRetryStore {
+
+    /**
+     * Saves an entry, replacing the entry with the same session index, if any.
+     *
+     * @param entry the entry
+     */
+    void save(LogoutRetryEntry entry);
+
+    /**
+     * Removes the entry with the given session index.
+     *
+     * @param sessionIndex the session index
+     */
+    void remove(String sessionIndex);
+
+    /**
+     * Loads all entries.
+     *
+     * @return the entries
+     */
+    Collection<LogoutRetryEntry> load();
+}
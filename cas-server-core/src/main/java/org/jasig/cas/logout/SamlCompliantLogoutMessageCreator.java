@@ -27,6 +27,9 @@ import org.slf4j.LoggerFactory;
 /**
  * A builder that uses the saml standard's <code>LogoutRequest</code> template in order
  * to build the logout request.
+ * <p>
+ * The template is split into its constant parts once, and the issue instant is formatted
+ * at most once per second and thread, as a mass logout builds many messages in a row.
  * @author Misagh Moayyed
  * @since 4.0
  * @see LogoutRequest
@@ -39,19 +42,78 @@ public final class SamlCompliantLogoutMessageCreator implements LogoutMessageCre
     /** A ticket Id generator. */
     private static final UniqueTicketIdGenerator GENERATOR = new DefaultUniqueTicketIdGenerator();
 
-    /** The logout request template. */
-    private static final String LOGOUT_REQUEST_TEMPLATE =
-            "<samlp:LogoutRequest xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" ID=\"%s\" Version=\"2.0\" "
-            + "IssueInstant=\"%s\"><saml:NameID xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\">@NOT_USED@"
-            + "</saml:NameID><samlp:SessionIndex>%s</samlp:SessionIndex></samlp:LogoutRequest>";
+    /** The logout request template, up to the ID. */
+    private static final String LOGOUT_REQUEST_START =
+            "<samlp:LogoutRequest xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" ID=\"";
+
+    /** The logout request template, from the ID to the issue instant. */
+    private static final String LOGOUT_REQUEST_ISSUE_INSTANT = "\" Version=\"2.0\" IssueInstant=\"";
+
+    /** The logout request template, from the issue instant to the session index. */
+    private static final String LOGOUT_REQUEST_SESSION_INDEX =
+            "\"><saml:NameID xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\">@NOT_USED@"
+            + "</saml:NameID><samlp:SessionIndex>";
+
+    /** The logout request template, after the session index. */
+    private static final String LOGOUT_REQUEST_END = "</samlp:SessionIndex></samlp:LogoutRequest>";
+
+    /** Length of the constant parts of the template. */
+    private static final int TEMPLATE_LENGTH = LOGOUT_REQUEST_START.length() + LOGOUT_REQUEST_ISSUE_INSTANT.length()
+            + LOGOUT_REQUEST_SESSION_INDEX.length() + LOGOUT_REQUEST_END.length();
+
+    /** The date format of issue instants, which is thread-safe. */
+    private static final ISOStandardDateFormat DATE_FORMAT = new ISOStandardDateFormat();
+
+    /** Issue instant last formatted by each thread. */
+    private static final ThreadLocal<IssueInstant> ISSUE_INSTANT = new ThreadLocal<IssueInstant>() {
+        @Override
+        protected IssueInstant initialValue() {
+            return new IssueInstant();
+        }
+    };
 
     @Override
     public String create(final LogoutRequest request) {
-        final String logoutRequest = String.format(LOGOUT_REQUEST_TEMPLATE, GENERATOR.getNewTicketId("LR"),
-                new ISOStandardDateFormat().getCurrentDateAndTime(), request.getTicketId());
-        
+        final String id = GENERATOR.getNewTicketId("LR");
+        final String issueInstant = ISSUE_INSTANT.get().format(System.currentTimeMillis());
+        final String sessionIndex = request.getTicketId();
+
+        final String logoutRequest = new StringBuilder(
+                TEMPLATE_LENGTH + id.length() + issueInstant.length() + sessionIndex.length())
+                .append(LOGOUT_REQUEST_START).append(id)
+                .append(LOGOUT_REQUEST_ISSUE_INSTANT).append(issueInstant)
+                .append(LOGOUT_REQUEST_SESSION_INDEX).append(sessionIndex)
+                .append(LOGOUT_REQUEST_END)
+                .toString();
+
         LOGGER.debug("Generated logout message: [{}]", logoutRequest);
         return logoutRequest;
     }
-    
+
+    /**
+     * The issue instant of a thread, formatted again only once the second changes.
+     */
+    private static final class IssueInstant {
+
+        /** Second of the formatted instant. */
+        private long second = -1;
+
+        /** The formatted instant. */
+        private String formatted;
+
+        /**
+         * Formats a time, to the second.
+         *
+         * @param time the time in milliseconds
+         * @return the formatted time
+         */
+        String format(final long time) {
+            final long currentSecond = time / 1000;
+            if (currentSecond != this.second) {
+                this.formatted = DATE_FORMAT.format(currentSecond * 1000);
+                this.second = currentSecond;
+            }
+            return this.formatted;
+        }
+    }
 }
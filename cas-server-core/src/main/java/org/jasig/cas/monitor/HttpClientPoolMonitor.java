@@ -0,0 +1,59 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.monitor;
+
+import org.jasig.cas.util.SimpleNonBlockingHttpClient;
+
+/**
+ * Monitors the connection pool of a {@link SimpleNonBlockingHttpClient}. The pool is deemed
+ * under pressure when requests wait for a connection, because their host or the whole pool
+ * is at its limit of connections.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class HttpClientPoolMonitor extends AbstractPoolMonitor {
+
+    /** The monitored client. */
+    private final SimpleNonBlockingHttpClient httpClient;
+
+    /**
+     * Creates a new instance that monitors the given client.
+     *
+     * @param httpClient the client to monitor
+     */
+    public HttpClientPoolMonitor(final SimpleNonBlockingHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    @Override
+    protected StatusCode checkPool() throws Exception {
+        return this.httpClient.getPendingConnections() > 0 ? StatusCode.WARN : StatusCode.OK;
+    }
+
+    @Override
+    protected int getIdleCount() {
+        return this.httpClient.getAvailableConnections();
+    }
+
+    @Override
+    protected int getActiveCount() {
+        return this.httpClient.getLeasedConnections();
+    }
+}
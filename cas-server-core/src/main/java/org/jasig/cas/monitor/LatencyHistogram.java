@@ -0,0 +1,165 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds, in the spirit of HdrHistogram. Values below 32 are counted
+ * exactly; larger values are counted in 16 linear sub-buckets per power of two, so that any
+ * reported value is within about 6% of the actual one. Recording is lock-free and the histogram
+ * has a fixed size, whatever the number or range of the recorded values.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class LatencyHistogram {
+
+    /** Number of bits of a value kept to select its sub-bucket. */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /** Number of sub-buckets per power of two. */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** Values below this limit have a bucket of their own. */
+    private static final int EXACT_LIMIT = 2 * SUB_BUCKET_COUNT;
+
+    /** Exponent of the highest bit of the smallest value that is not counted exactly. */
+    private static final int FIRST_EXPONENT = SUB_BUCKET_BITS + 1;
+
+    /** Number of buckets, enough for any positive long. */
+    private static final int BUCKET_COUNT = EXACT_LIMIT + (Long.SIZE - 1 - FIRST_EXPONENT) * SUB_BUCKET_COUNT;
+
+    /** Number of values per bucket. */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    /** Number of recorded values. */
+    private final AtomicLong count = new AtomicLong();
+
+    /** Sum of the recorded values. */
+    private final AtomicLong total = new AtomicLong();
+
+    /** Largest recorded value. */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param nanos the latency in nanoseconds; negative values are recorded as 0.
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(nanos, 0);
+        this.buckets.incrementAndGet(indexOf(value));
+        this.count.incrementAndGet();
+        this.total.addAndGet(value);
+
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Gets the mean of the recorded values.
+     *
+     * @return the mean in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getMean() {
+        final long values = this.count.get();
+        return values == 0 ? 0 : this.total.get() / values;
+    }
+
+    /**
+     * Gets the largest recorded value.
+     *
+     * @return the maximum in nanoseconds
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Gets the value below which the given percentage of the recorded values fall. The value returned
+     * is the upper bound of the bucket holding the percentile, but never more than the maximum.
+     *
+     * @param percentile the percentile, between 0 and 100, such as 99.9
+     * @return the value in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentile(final double percentile) {
+        final long[] snapshot = new long[BUCKET_COUNT];
+        long values = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = this.buckets.get(i);
+            values += snapshot[i];
+        }
+        if (values == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max((long) Math.ceil(values * percentile / 100), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Gets the bucket of a value.
+     *
+     * @param value a positive value
+     * @return the index of its bucket
+     */
+    static int indexOf(final long value) {
+        if (value < EXACT_LIMIT) {
+            return (int) value;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return EXACT_LIMIT + (exponent - FIRST_EXPONENT) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Gets the largest value counted in a bucket.
+     *
+     * @param index the index of the bucket
+     * @return the upper bound of the bucket
+     */
+    static long upperBoundOf(final int index) {
+        if (index < EXACT_LIMIT) {
+            return index;
+        }
+        final int shift = (index - EXACT_LIMIT) / SUB_BUCKET_COUNT + FIRST_EXPONENT - SUB_BUCKET_BITS;
+        final long subBucket = SUB_BUCKET_COUNT + (index - EXACT_LIMIT) % SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Holds the {@link OperationMetrics} of CAS operations by name. Operations are CAS API calls such as
+ * <code>GRANT_SERVICE_TICKET</code>, optionally qualified by the authentication handler or registered
+ * service they apply to, as in <code>GRANT_SERVICE_TICKET:Portal</code>.
+ * <p>
+ * Qualifiers usually come from configuration or requests and are not bounded, so at most
+ * {@link #setMaxQualifiedOperations(int) maxQualifiedOperations} qualified operations are held. Once
+ * that many are held, executions with a new qualifier are recorded under the {@link #OTHER_QUALIFIER}
+ * qualifier of their operation, as in <code>GRANT_SERVICE_TICKET:OTHER</code>.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class MetricsRegistry {
+
+    /** Separates an operation from its qualifier in metric names. */
+    public static final char QUALIFIER_SEPARATOR = ':';
+
+    /** Qualifier executions are recorded under once the maximum number of qualified operations is held. */
+    public static final String OTHER_QUALIFIER = "OTHER";
+
+    /** Default maximum number of qualified operations held. */
+    public static final int DEFAULT_MAX_QUALIFIED_OPERATIONS = 1000;
+
+    /** Metrics by operation name. */
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<String, OperationMetrics>();
+
+    /** Number of qualified operations held, other than those of {@link #OTHER_QUALIFIER}. */
+    private final AtomicInteger qualifiedCount = new AtomicInteger();
+
+    @Min(0)
+    private volatile int maxQualifiedOperations = DEFAULT_MAX_QUALIFIED_OPERATIONS;
+
+    /**
+     * Records an execution of an operation.
+     *
+     * @param name the name of the operation
+     * @param nanos the latency in nanoseconds
+     * @param failed true, if the operation failed
+     */
+    public void record(final String name, final long nanos, final boolean failed) {
+        getOrCreateOperation(name).record(nanos, failed);
+    }
+
+    /**
+     * Records an execution of an operation on behalf of an authentication handler or registered service.
+     * The execution is recorded under {@link #OTHER_QUALIFIER} if the qualifier is new and the maximum
+     * number of qualified operations is held.
+     *
+     * @param name the name of the operation
+     * @param qualifier the name of the handler or service
+     * @param nanos the latency in nanoseconds
+     * @param failed true, if the operation failed
+     */
+    public void record(final String name, final String qualifier, final long nanos, final boolean failed) {
+        getOrCreateQualifiedOperation(name, qualifier).record(nanos, failed);
+    }
+
+    /**
+     * Gets the metrics of an operation.
+     *
+     * @param name the name of the operation
+     * @return the metrics, or null if the operation was not recorded.
+     */
+    public OperationMetrics getOperation(final String name) {
+        return this.operations.get(name);
+    }
+
+    /**
+     * Gets the metrics of all operations recorded so far.
+     *
+     * @return the metrics, sorted by operation name
+     */
+    public List<OperationMetrics> getOperations() {
+        final List<OperationMetrics> list = new ArrayList<OperationMetrics>(this.operations.values());
+        Collections.sort(list, new Comparator<OperationMetrics>() {
+            @Override
+            public int compare(final OperationMetrics o1, final OperationMetrics o2) {
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Discards the metrics recorded so far.
+     */
+    public void reset() {
+        this.operations.clear();
+        this.qualifiedCount.set(0);
+    }
+
+    /**
+     * Sets the maximum number of qualified operations held, {@link #DEFAULT_MAX_QUALIFIED_OPERATIONS} by default.
+     * With 0, all qualified executions are recorded under {@link #OTHER_QUALIFIER}.
+     *
+     * @param maxQualifiedOperations the maximum number of qualified operations
+     */
+    public void setMaxQualifiedOperations(final int maxQualifiedOperations) {
+        this.maxQualifiedOperations = maxQualifiedOperations;
+    }
+
+    /**
+     * Gets the metrics of an operation, creating them if needed.
+     *
+     * @param name the name of the operation
+     * @return the metrics
+     */
+    private OperationMetrics getOrCreateOperation(final String name) {
+        final OperationMetrics metrics = this.operations.get(name);
+        if (metrics != null) {
+            return metrics;
+        }
+        final OperationMetrics created = new OperationMetrics(name);
+        final OperationMetrics existing = this.operations.putIfAbsent(name, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * Gets the metrics of a qualified operation, creating them if the maximum number of qualified
+     * operations is not held yet, or else gets the metrics of the {@link #OTHER_QUALIFIER} qualifier.
+     *
+     * @param name the name of the operation
+     * @param qualifier the qualifier
+     * @return the metrics
+     */
+    private OperationMetrics getOrCreateQualifiedOperation(final String name, final String qualifier) {
+        final String qualifiedName = name + QUALIFIER_SEPARATOR + qualifier;
+        final OperationMetrics metrics = this.operations.get(qualifiedName);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (this.qualifiedCount.incrementAndGet() > this.maxQualifiedOperations) {
+            this.qualifiedCount.decrementAndGet();
+            return getOrCreateOperation(name + QUALIFIER_SEPARATOR + OTHER_QUALIFIER);
+        }
+        final OperationMetrics created = new OperationMetrics(qualifiedName);
+        final OperationMetrics existing = this.operations.putIfAbsent(qualifiedName, created);
+        if (existing != null) {
+            this.qualifiedCount.decrementAndGet();
+            return existing;
+        }
+        return created;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.monitor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency, throughput and error metrics of an operation, such as granting service tickets or
+ * authenticating with a given handler. Throughput is measured over a sliding window of one-second
+ * slots. All recording is lock-free.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class OperationMetrics {
+
+    /** Length of the throughput window in seconds. */
+    private static final int WINDOW = 60;
+
+    /** Name of the operation. */
+    private final String name;
+
+    /** Latencies of the operation. */
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    /** Number of failed executions. */
+    private final AtomicLong errorCount = new AtomicLong();
+
+    /** Second each throughput slot currently counts executions for. */
+    private final AtomicLongArray slotSeconds = new AtomicLongArray(WINDOW);
+
+    /** Number of executions per throughput slot. */
+    private final AtomicLongArray slotCounts = new AtomicLongArray(WINDOW);
+
+    /**
+     * Instantiates new metrics.
+     *
+     * @param name the name of the operation
+     */
+    public OperationMetrics(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records an execution of the operation.
+     *
+     * @param nanos the latency in nanoseconds
+     * @param failed true, if the operation failed
+     */
+    public void record(final long nanos, final boolean failed) {
+        this.latencies.record(nanos);
+        if (failed) {
+            this.errorCount.incrementAndGet();
+        }
+
+        final long second = currentSecond();
+        final int slot = (int) (second % WINDOW);
+        final long slotSecond = this.slotSeconds.get(slot);
+        // the first execution of a new second takes over the slot; a few concurrent counts may be lost
+        if (slotSecond != second && this.slotSeconds.compareAndSet(slot, slotSecond, second)) {
+            this.slotCounts.set(slot, 0);
+        }
+        this.slotCounts.incrementAndGet(slot);
+    }
+
+    /**
+     * Gets the name of the operation.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Gets the number of executions.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return this.latencies.getCount();
+    }
+
+    /**
+     * Gets the number of failed executions.
+     *
+     * @return the error count
+     */
+    public long getErrorCount() {
+        return this.errorCount.get();
+    }
+
+    /**
+     * Gets the average number of executions per second over the last minute, not counting the current second.
+     *
+     * @return the throughput
+     */
+    public double getThroughput() {
+        final long now = currentSecond();
+        long executions = 0;
+        for (int i = 0; i < WINDOW; i++) {
+            final long second = this.slotSeconds.get(i);
+            if (second < now && second >= now - WINDOW) {
+                executions += this.slotCounts.get(i);
+            }
+        }
+        return (double) executions / WINDOW;
+    }
+
+    /**
+     * Gets the latency histogram of the operation.
+     *
+     * @return the latencies in nanoseconds
+     */
+    public LatencyHistogram getLatencies() {
+        return this.latencies;
+    }
+
+    /**
+     * Gets the current time in seconds.
+     *
+     * @return the second
+     */
+    private static long currentSecond() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s count=%d errors=%d rate=%.2f/s mean=%dus p50=%dus p99=%dus p999=%dus max=%dus",
+                this.name, getCount(), getErrorCount(), getThroughput(), micros(this.latencies.getMean()),
+                micros(this.latencies.getPercentile(50)), micros(this.latencies.getPercentile(99)),
+                micros(this.latencies.getPercentile(99.9)), micros(this.latencies.getMax()));
+    }
+
+    /**
+     * Converts nanoseconds to microseconds.
+     *
+     * @param nanos the time in nanoseconds
+     * @return the time in microseconds
+     */
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
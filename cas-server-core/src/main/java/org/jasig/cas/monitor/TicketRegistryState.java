@@ -18,6 +18,8 @@
  */
 package org.jasig.cas.monitor;
 
+import java.util.Map;
+
 /**
  * Describes important state information that may be optionally exposed by
  * {@link org.jasig.cas.ticket.registry.TicketRegistry} components that might
@@ -43,4 +45,12 @@ public interface TicketRegistryState {
      *         or {@link Integer#MIN_VALUE} if unknown.
      */
     int serviceTicketCount();
+
+    /**
+     * Computes the number of tickets of each type stored in the ticket registry.
+     *
+     * @return Number of tickets per type in the registry at time of invocation,
+     *         or an empty map if unknown.
+     */
+    Map<TicketType, Integer> ticketCounts();
 }
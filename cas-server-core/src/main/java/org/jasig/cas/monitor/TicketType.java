@@ -0,0 +1,84 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.monitor;
+
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+
+/**
+ * Kinds of tickets reported by {@link TicketRegistryState#ticketCounts()}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public enum TicketType {
+
+    /** Ticket-granting ticket of an SSO session. */
+    TICKET_GRANTING_TICKET,
+
+    /** Ticket-granting ticket issued to a proxy. */
+    PROXY_GRANTING_TICKET,
+
+    /** Service ticket. */
+    SERVICE_TICKET,
+
+    /** Service ticket issued to a proxy. */
+    PROXY_TICKET,
+
+    /** Any other ticket. */
+    OTHER;
+
+    /**
+     * Determines the type of the given ticket. A ticket-granting ticket is a proxy-granting ticket
+     * when it was itself granted by another ticket, and a service ticket is a proxy ticket
+     * when it was granted by a proxy-granting ticket.
+     *
+     * @param ticket the ticket
+     * @return the ticket type
+     */
+    public static TicketType of(final Ticket ticket) {
+        final TicketGrantingTicket grantingTicket = ticket.getGrantingTicket();
+        if (ticket instanceof TicketGrantingTicket) {
+            return grantingTicket == null ? TICKET_GRANTING_TICKET : PROXY_GRANTING_TICKET;
+        }
+        if (ticket instanceof ServiceTicket) {
+            return grantingTicket == null || grantingTicket.getGrantingTicket() == null ? SERVICE_TICKET : PROXY_TICKET;
+        }
+        return OTHER;
+    }
+
+    /**
+     * Is this a kind of ticket-granting ticket.
+     *
+     * @return true, if so
+     */
+    public boolean isTicketGrantingTicket() {
+        return this == TICKET_GRANTING_TICKET || this == PROXY_GRANTING_TICKET;
+    }
+
+    /**
+     * Is this a kind of service ticket.
+     *
+     * @return true, if so
+     */
+    public boolean isServiceTicket() {
+        return this == SERVICE_TICKET || this == PROXY_TICKET;
+    }
+}
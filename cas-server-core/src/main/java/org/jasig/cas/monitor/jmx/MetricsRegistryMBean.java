@@ -0,0 +1,106 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.monitor.jmx;
+
+import org.jasig.cas.monitor.MetricsRegistry;
+import org.jasig.cas.monitor.OperationMetrics;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import javax.validation.constraints.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the operation metrics of a {@link MetricsRegistry} via JMX.
+ *
+ * @author agent
+ * @since 4.1
+ */
+@ManagedResource(objectName = "CAS:name=JasigCasMetricsRegistryMBean",
+        description = "Reports latency, throughput and errors of CAS operations")
+public final class MetricsRegistryMBean {
+
+    @NotNull
+    private final MetricsRegistry metricsRegistry;
+
+    /**
+     * Instantiates a new metrics registry m bean.
+     *
+     * @param metricsRegistry the metrics registry
+     */
+    public MetricsRegistryMBean(final MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * Gets a summary of the metrics of every operation.
+     *
+     * @return the metrics as strings
+     */
+    @ManagedOperation(description = "Summarizes the metrics of every operation.")
+    public List<String> getOperations() {
+        final List<String> operations = new ArrayList<String>();
+        for (final OperationMetrics metrics : this.metricsRegistry.getOperations()) {
+            operations.add(metrics.toString());
+        }
+        return operations;
+    }
+
+    /**
+     * Gets a latency percentile of an operation.
+     *
+     * @param name the name of the operation
+     * @param percentile the percentile, such as 99.9
+     * @return the latency in microseconds, or 0 if the operation was not recorded.
+     */
+    @ManagedOperation(description = "Reports a latency percentile of an operation, in microseconds.")
+    @ManagedOperationParameters({
+            @ManagedOperationParameter(name = "name", description = "the name of the operation"),
+            @ManagedOperationParameter(name = "percentile", description = "the percentile, such as 99.9")})
+    public long getLatencyPercentile(final String name, final double percentile) {
+        final OperationMetrics metrics = this.metricsRegistry.getOperation(name);
+        return metrics == null ? 0 : TimeUnit.NANOSECONDS.toMicros(metrics.getLatencies().getPercentile(percentile));
+    }
+
+    /**
+     * Gets the number of failures of an operation.
+     *
+     * @param name the name of the operation
+     * @return the error count, or 0 if the operation was not recorded.
+     */
+    @ManagedOperation(description = "Reports the number of failures of an operation.")
+    @ManagedOperationParameter(name = "name", description = "the name of the operation")
+    public long getErrorCount(final String name) {
+        final OperationMetrics metrics = this.metricsRegistry.getOperation(name);
+        return metrics == null ? 0 : metrics.getErrorCount();
+    }
+
+    /**
+     * Discards the metrics recorded so far.
+     */
+    @ManagedOperation(description = "Discards the metrics recorded so far.")
+    public void resetMetrics() {
+        this.metricsRegistry.reset();
+    }
+}
@@ -26,9 +26,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import javax.validation.constraints.NotNull;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -50,6 +48,12 @@ public final class DefaultServicesManagerImpl implements ReloadableServicesManag
     /** Map to store all services. */
     private ConcurrentHashMap<Long, RegisteredService> services = new ConcurrentHashMap<Long, RegisteredService>();
 
+    /** Maximum number of service lookups remembered by the matching index. */
+    private int serviceLookupCacheSize = RegisteredServiceIndex.DEFAULT_CACHE_SIZE;
+
+    /** Matching index over {@link #services}, rebuilt whenever services change. */
+    private volatile RegisteredServiceIndex index;
+
     /**
      * Instantiates a new default services manager impl.
      *
@@ -92,6 +96,7 @@ public final class DefaultServicesManagerImpl implements ReloadableServicesManag
 
         this.serviceRegistryDao.delete(r);
         this.services.remove(id);
+        rebuildIndex();
 
         return r;
     }
@@ -104,15 +109,7 @@ public final class DefaultServicesManagerImpl implements ReloadableServicesManag
      */
     @Override
     public RegisteredService findServiceBy(final Service service) {
-        final Collection<RegisteredService> c = convertToTreeSet();
-
-        for (final RegisteredService r : c) {
-            if (r.matches(service)) {
-                return r;
-            }
-        }
-
-        return null;
+        return this.index.find(service);
     }
 
     @Override
@@ -126,17 +123,8 @@ public final class DefaultServicesManagerImpl implements ReloadableServicesManag
         }
     }
 
-    /**
-     * Stuff services to tree set.
-     *
-     * @return the tree set
-     */
-    protected TreeSet<RegisteredService> convertToTreeSet() {
-        return new TreeSet<RegisteredService>(this.services.values());
-    }
-
     public Collection<RegisteredService> getAllServices() {
-        return Collections.unmodifiableCollection(convertToTreeSet());
+        return this.index.getServices();
     }
 
     @Override
@@ -151,6 +139,7 @@ public final class DefaultServicesManagerImpl implements ReloadableServicesManag
     public synchronized RegisteredService save(final RegisteredService registeredService) {
         final RegisteredService r = this.serviceRegistryDao.save(registeredService);
         this.services.put(r.getId(), r);
+        rebuildIndex();
         return r;
     }
 
@@ -173,7 +162,26 @@ public final class DefaultServicesManagerImpl implements ReloadableServicesManag
         }
 
         this.services = localServices;
+        rebuildIndex();
         LOGGER.info("Loaded {} services.", this.services.size());
         
     }
+
+    /**
+     * Sets the maximum number of service lookups remembered by the matching index.
+     * A value of zero disables the lookup cache.
+     *
+     * @param serviceLookupCacheSize the cache size
+     */
+    public void setServiceLookupCacheSize(final int serviceLookupCacheSize) {
+        this.serviceLookupCacheSize = serviceLookupCacheSize;
+        rebuildIndex();
+    }
+
+    /**
+     * Rebuild the matching index from the current set of services.
+     */
+    private synchronized void rebuildIndex() {
+        this.index = new RegisteredServiceIndex(this.services.values(), this.serviceLookupCacheSize);
+    }
 }
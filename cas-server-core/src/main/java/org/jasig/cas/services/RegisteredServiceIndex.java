@@ -0,0 +1,455 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.services;
+
+import org.jasig.cas.authentication.principal.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Immutable, precompiled view of a set of registered services used to answer
+ * {@link ServicesManager#findServiceBy(Service)} without evaluating every service.
+ * <p>
+ * Services are kept in an evaluation-order snapshot. The literal scheme/host prefix of
+ * {@link RegexRegisteredService} and {@link RegisteredServiceImpl} patterns is indexed in a
+ * prefix tree so that only services that could possibly match a given service id are
+ * evaluated. Services whose pattern has no usable literal prefix, and any other
+ * {@link RegisteredService} implementation, are always evaluated. Candidates are evaluated in
+ * evaluation order with {@link RegisteredService#matches(Service)}, so the result is always
+ * identical to a sequential scan of the snapshot.
+ * <p>
+ * Recent lookups are remembered in a bounded cache keyed by service id, as long as every
+ * registered service matches on the service id alone. Once the cache is full, the least recently
+ * used entry makes room for each new one. Cache lookups hold a lock for the time of a map access only.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class RegisteredServiceIndex {
+
+    /** Default number of service ids whose lookup result is cached. */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /** Cache marker for service ids that matched no registered service. */
+    private static final int NO_MATCH = -1;
+
+    /** Number of path separators after which a regex prefix is no longer indexed, i.e. <code>scheme://host/</code>. */
+    private static final int REGEX_PREFIX_SEPARATORS = 3;
+
+    /** Number of path separators after which an ant prefix is no longer indexed, i.e. <code>scheme:/host/</code>. */
+    private static final int ANT_PREFIX_SEPARATORS = 2;
+
+    /** Upper bound on the length of an indexed prefix. */
+    private static final int MAX_PREFIX_LENGTH = 256;
+
+    /** Characters that end the literal prefix of a regular expression. */
+    private static final String REGEX_META_CHARACTERS = "[](){}|*+?^$";
+
+    /** Regular expression quantifiers, which make the preceding atom optional or repeatable. */
+    private static final String REGEX_QUANTIFIERS = "*+?{";
+
+    /** Characters that end the literal prefix of an ant pattern. */
+    private static final String ANT_META_CHARACTERS = "*?{";
+
+    /** Services in evaluation order. */
+    private final RegisteredService[] services;
+
+    /** Read-only view of {@link #services}. */
+    private final List<RegisteredService> orderedServices;
+
+    /** Prefix tree for regular expression patterns. */
+    private final Node regexIndex = new Node();
+
+    /** Prefix tree for ant patterns. */
+    private final Node antIndex = new Node();
+
+    /** Positions of services that must always be evaluated. */
+    private final int[] unindexed;
+
+    /** Whether lookup results may be cached by service id. */
+    private final boolean cacheable;
+
+    /** Cache of service id to position in {@link #services}, in access order. Guarded by its own lock. */
+    private final Map<String, Integer> cache;
+
+    /**
+     * Instantiates a new index with the {@link #DEFAULT_CACHE_SIZE default} cache size.
+     *
+     * @param registeredServices the registered services
+     */
+    public RegisteredServiceIndex(final Collection<RegisteredService> registeredServices) {
+        this(registeredServices, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Instantiates a new index.
+     *
+     * @param registeredServices the registered services
+     * @param cacheSize maximum number of cached lookup results; zero disables the cache.
+     */
+    public RegisteredServiceIndex(final Collection<RegisteredService> registeredServices, final int cacheSize) {
+        final TreeSet<RegisteredService> sorted = new TreeSet<RegisteredService>(registeredServices);
+        this.services = sorted.toArray(new RegisteredService[sorted.size()]);
+        this.orderedServices = Collections.unmodifiableList(Arrays.asList(this.services));
+
+        final List<Integer> always = new ArrayList<Integer>();
+        boolean matchesOnIdOnly = true;
+        for (int i = 0; i < this.services.length; i++) {
+            final RegisteredService r = this.services[i];
+            final Class<?> type = r.getClass();
+            boolean indexed = false;
+            if (type == RegexRegisteredService.class) {
+                indexed = this.regexIndex.insert(regexPrefix(r.getServiceId()), i);
+            } else if (type == RegisteredServiceImpl.class) {
+                indexed = this.antIndex.insert(antPrefix(r.getServiceId()), i);
+            } else {
+                matchesOnIdOnly = false;
+            }
+            if (!indexed) {
+                always.add(i);
+            }
+        }
+
+        this.unindexed = new int[always.size()];
+        for (int i = 0; i < this.unindexed.length; i++) {
+            this.unindexed[i] = always.get(i);
+        }
+        this.cacheable = matchesOnIdOnly && cacheSize > 0;
+        this.cache = !this.cacheable ? null : new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 4180215314829451613L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Integer> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Gets the registered services in evaluation order.
+     *
+     * @return read-only list of services
+     */
+    public List<RegisteredService> getServices() {
+        return this.orderedServices;
+    }
+
+    /**
+     * Finds the first registered service, in evaluation order, that matches the given service.
+     *
+     * @param service the service
+     * @return the matching registered service, or null if none matches.
+     */
+    public RegisteredService find(final Service service) {
+        final String id = service != null ? service.getId() : null;
+        if (id == null) {
+            for (final RegisteredService r : this.services) {
+                if (r.matches(service)) {
+                    return r;
+                }
+            }
+            return null;
+        }
+
+        if (this.cacheable) {
+            final Integer position;
+            synchronized (this.cache) {
+                position = this.cache.get(id);
+            }
+            if (position != null) {
+                return position == NO_MATCH ? null : this.services[position];
+            }
+        }
+
+        final BitSet candidates = new BitSet(this.services.length);
+        for (final int i : this.unindexed) {
+            candidates.set(i);
+        }
+        this.regexIndex.collect(id, true, candidates);
+        if (!this.antIndex.isEmpty()) {
+            this.antIndex.collect(normalizeAntPath(id), false, candidates);
+        }
+
+        int match = NO_MATCH;
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (this.services[i].matches(service)) {
+                match = i;
+                break;
+            }
+        }
+
+        if (this.cacheable) {
+            synchronized (this.cache) {
+                this.cache.put(id, match);
+            }
+        }
+        return match == NO_MATCH ? null : this.services[match];
+    }
+
+    /**
+     * Tells whether the lookup result of a service id is cached.
+     *
+     * @param id the service id
+     * @return true, if so
+     */
+    boolean isCached(final String id) {
+        if (!this.cacheable) {
+            return false;
+        }
+        synchronized (this.cache) {
+            return this.cache.containsKey(id);
+        }
+    }
+
+    /**
+     * Computes the literal prefix that every service id matched by the given case-insensitive
+     * regular expression must start with. The unescaped <code>.</code> is kept as a wildcard matching
+     * a single code point so that host names are indexed even when their dots are not escaped.
+     *
+     * @param pattern the pattern
+     * @return the prefix as lower case characters and {@link Node#ANY} wildcards,
+     * or null if the pattern has no usable prefix.
+     */
+    static char[] regexPrefix(final String pattern) {
+        if (pattern == null || pattern.indexOf('|') >= 0) {
+            return null;
+        }
+
+        final StringBuilder prefix = new StringBuilder();
+        int separators = 0;
+        int i = pattern.startsWith("^") ? 1 : 0;
+        while (i < pattern.length() && separators < REGEX_PREFIX_SEPARATORS && prefix.length() < MAX_PREFIX_LENGTH) {
+            char c = pattern.charAt(i);
+            if (REGEX_META_CHARACTERS.indexOf(c) >= 0) {
+                break;
+            }
+            if (c == '\\') {
+                if (i + 1 >= pattern.length() || Character.isLetterOrDigit(pattern.charAt(i + 1))) {
+                    break;
+                }
+                c = pattern.charAt(++i);
+            } else if (c == '.') {
+                c = Node.ANY;
+            }
+            if (Character.isSurrogate(c)) {
+                break;
+            }
+            if (c == '/') {
+                separators++;
+            }
+            prefix.append(Character.toLowerCase(c));
+            i++;
+        }
+
+        // a quantifier makes the last atom of the prefix optional or repeatable
+        if (i < pattern.length() && REGEX_QUANTIFIERS.indexOf(pattern.charAt(i)) >= 0 && prefix.length() > 0) {
+            prefix.setLength(prefix.length() - 1);
+        }
+        return prefix.length() > 0 ? prefix.toString().toCharArray() : null;
+    }
+
+    /**
+     * Computes the literal prefix that every normalized service id matched by the given ant
+     * pattern must start with. The prefix is made of the leading path elements of the pattern
+     * that contain no wildcards.
+     *
+     * @param pattern the pattern
+     * @return the prefix, or null if the pattern has no usable prefix.
+     * @see #normalizeAntPath(String)
+     */
+    static char[] antPrefix(final String pattern) {
+        if (pattern == null) {
+            return null;
+        }
+
+        final StringBuilder prefix = new StringBuilder();
+        int separators = 0;
+        for (final String token : StringUtils.tokenizeToStringArray(pattern.toLowerCase(), "/", true, true)) {
+            if (separators >= ANT_PREFIX_SEPARATORS || prefix.length() + token.length() >= MAX_PREFIX_LENGTH
+                    || containsAny(token, ANT_META_CHARACTERS)) {
+                break;
+            }
+            prefix.append(token).append('/');
+            separators++;
+        }
+        return prefix.length() > 0 ? prefix.toString().toCharArray() : null;
+    }
+
+    /**
+     * Normalizes a service id the way ant path matching sees it: lower case,
+     * split on <code>/</code> with empty elements dropped and surrounding whitespace trimmed.
+     *
+     * @param id the service id
+     * @return the normalized id, every path element followed by a single <code>/</code>.
+     */
+    static String normalizeAntPath(final String id) {
+        final StringBuilder path = new StringBuilder(id.length() + 1);
+        for (final String token : StringUtils.tokenizeToStringArray(id.toLowerCase(), "/", true, true)) {
+            path.append(token).append('/');
+        }
+        return path.toString();
+    }
+
+    /**
+     * Checks whether the value contains any of the given characters.
+     *
+     * @param value the value
+     * @param characters the characters
+     * @return true, if so
+     */
+    private static boolean containsAny(final String value, final String characters) {
+        for (int i = 0; i < characters.length(); i++) {
+            if (value.indexOf(characters.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Prefix tree node. Children are kept in small parallel arrays since
+     * most nodes past the scheme have a single child.
+     */
+    private static final class Node {
+
+        /** Wildcard matching any single character; a noncharacter never found in service ids. */
+        static final char ANY = '\uFFFF';
+
+        /** No positions. */
+        private static final int[] NO_POSITIONS = new int[0];
+
+        /** No child keys. */
+        private static final char[] NO_KEYS = new char[0];
+
+        /** No children. */
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        /** Child keys. */
+        private char[] keys = NO_KEYS;
+
+        /** Children, parallel to {@link #keys}. */
+        private Node[] children = NO_CHILDREN;
+
+        /** Positions of services whose prefix ends at this node. */
+        private int[] positions = NO_POSITIONS;
+
+        /**
+         * Inserts a service position under the given prefix.
+         *
+         * @param prefix the prefix, may be null.
+         * @param position the service position
+         * @return true if the position was indexed.
+         */
+        boolean insert(final char[] prefix, final int position) {
+            if (prefix == null) {
+                return false;
+            }
+            Node node = this;
+            for (final char c : prefix) {
+                Node child = node.child(c);
+                if (child == null) {
+                    child = new Node();
+                    final int size = node.keys.length;
+                    node.keys = Arrays.copyOf(node.keys, size + 1);
+                    node.children = Arrays.copyOf(node.children, size + 1);
+                    node.keys[size] = c;
+                    node.children[size] = child;
+                }
+                node = child;
+            }
+            node.positions = Arrays.copyOf(node.positions, node.positions.length + 1);
+            node.positions[node.positions.length - 1] = position;
+            return true;
+        }
+
+        /**
+         * Is this node a leaf without positions.
+         *
+         * @return true, if so
+         */
+        boolean isEmpty() {
+            return this.keys.length == 0 && this.positions.length == 0;
+        }
+
+        /**
+         * Marks the positions of every service whose prefix the given id starts with.
+         *
+         * @param id the service id
+         * @param lowerCase whether to compare the id characters in lower case
+         * @param candidates the candidate positions
+         */
+        void collect(final String id, final boolean lowerCase, final BitSet candidates) {
+            List<Node> active = Collections.singletonList(this);
+            for (int i = 0; i < id.length() && !active.isEmpty(); i += Character.charCount(id.codePointAt(i))) {
+                // prefixes hold no surrogates, so a supplementary code point only matches the wildcard
+                final boolean supplementary = Character.isSupplementaryCodePoint(id.codePointAt(i));
+                final char c = lowerCase ? Character.toLowerCase(id.charAt(i)) : id.charAt(i);
+                final List<Node> next = new ArrayList<Node>(active.size());
+                for (final Node node : active) {
+                    final Node exact = supplementary ? null : node.child(c);
+                    if (exact != null) {
+                        next.add(exact.mark(candidates));
+                    }
+                    final Node any = c == ANY ? null : node.child(ANY);
+                    if (any != null) {
+                        next.add(any.mark(candidates));
+                    }
+                }
+                active = next;
+            }
+        }
+
+        /**
+         * Marks the positions held by this node.
+         *
+         * @param candidates the candidate positions
+         * @return this node
+         */
+        private Node mark(final BitSet candidates) {
+            for (final int position : this.positions) {
+                candidates.set(position);
+            }
+            return this;
+        }
+
+        /**
+         * Finds the child for the given key.
+         *
+         * @param c the key
+         * @return the child, or null.
+         */
+        private Node child(final char c) {
+            for (int i = 0; i < this.keys.length; i++) {
+                if (this.keys[i] == c) {
+                    return this.children[i];
+                }
+            }
+            return null;
+        }
+    }
+}
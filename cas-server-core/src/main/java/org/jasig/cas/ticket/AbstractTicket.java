@@ -21,6 +21,8 @@ package org.jasig.cas.ticket;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.springframework.util.Assert;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 import javax.persistence.Column;
 import javax.persistence.Id;
 import javax.persistence.Lob;
@@ -48,6 +50,10 @@ public abstract class AbstractTicket implements Ticket, TicketState {
 
     private static final long serialVersionUID = -8506442397878267555L;
 
+    /** Increments {@link #countOfUses} without a lock. */
+    private static final AtomicIntegerFieldUpdater<AbstractTicket> COUNT_OF_USES =
+            AtomicIntegerFieldUpdater.newUpdater(AbstractTicket.class, "countOfUses");
+
     /** The ExpirationPolicy this ticket will be following. */
     @Lob
     @Column(name="EXPIRATION_POLICY", nullable=false)
@@ -64,7 +70,7 @@ public abstract class AbstractTicket implements Ticket, TicketState {
 
     /** The last time this ticket was used. */
     @Column(name="LAST_TIME_USED")
-    private long lastTimeUsed;
+    private volatile long lastTimeUsed;
 
     /** The previous last time this ticket was used. */
     @Column(name="PREVIOUS_LAST_TIME_USED")
@@ -76,7 +82,7 @@ public abstract class AbstractTicket implements Ticket, TicketState {
 
     /** The number of times this was used. */
     @Column(name="NUMBER_OF_TIMES_USED")
-    private int countOfUses;
+    private volatile int countOfUses;
 
     /**
      * Instantiates a new abstract ticket.
@@ -118,12 +124,33 @@ public abstract class AbstractTicket implements Ticket, TicketState {
      * determination of  ticket usage is left up to the implementation and
      * the specific ticket type.
      *
+     * <p>The usage count is incremented atomically, so that concurrent uses are all
+     * counted without holding a lock.
+     *
+     * @return the number of times the ticket was used before this use.
      * @see ExpirationPolicy
      */
-    protected final void updateState() {
+    protected final int updateState() {
         this.previousLastTimeUsed = this.lastTimeUsed;
         this.lastTimeUsed = System.currentTimeMillis();
-        this.countOfUses++;
+        return COUNT_OF_USES.getAndIncrement(this);
+    }
+
+    /**
+     * Restores usage state of this ticket that was recorded elsewhere, for instance
+     * by a ticket registry that stores changes to the ticket separately. The state is
+     * only restored if the ticket was used more often than the current state tells.
+     *
+     * @param countOfUses the number of times the ticket was used
+     * @param lastTimeUsed the last time the ticket was used
+     * @param previousTimeUsed the previous last time the ticket was used
+     */
+    protected final void restoreState(final int countOfUses, final long lastTimeUsed, final long previousTimeUsed) {
+        if (countOfUses > this.countOfUses) {
+            this.countOfUses = countOfUses;
+            this.lastTimeUsed = lastTimeUsed;
+            this.previousLastTimeUsed = previousTimeUsed;
+        }
     }
 
     public final int getCountOfUses() {
@@ -156,6 +183,28 @@ public abstract class AbstractTicket implements Ticket, TicketState {
         return false;
     }
 
+    /**
+     * Gets the earliest time at which this ticket may be considered expired, taking into
+     * account its granting ticket. The time is only known in advance when the expiration
+     * policies are {@link TimeBasedExpirationPolicy time based}.
+     *
+     * @return time in milliseconds since the epoch, or {@link Long#MAX_VALUE} if it cannot be determined.
+     */
+    public final long getExpirationTime() {
+        if (isExpiredInternal()) {
+            return 0;
+        }
+
+        long expirationTime = Long.MAX_VALUE;
+        if (this.expirationPolicy instanceof TimeBasedExpirationPolicy) {
+            expirationTime = ((TimeBasedExpirationPolicy) this.expirationPolicy).getExpirationTime(this);
+        }
+        if (getGrantingTicket() instanceof AbstractTicket) {
+            expirationTime = Math.min(expirationTime, ((AbstractTicket) getGrantingTicket()).getExpirationTime());
+        }
+        return expirationTime;
+    }
+
     @Override
     public final int hashCode() {
         return new HashCodeBuilder().append(this.getId()).toHashCode();
@@ -79,8 +79,10 @@ public interface TicketGrantingTicket extends Ticket {
 
     /**
      * Remove all services of the TGT (at logout).
+     *
+     * @return the map of service ticket and services that were removed.
      */
-    void removeAllServices();
+    Map<String, Service> removeAllServices();
 
     /**
      * Mark a ticket as expired.
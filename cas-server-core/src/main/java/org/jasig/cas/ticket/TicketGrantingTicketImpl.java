@@ -29,11 +29,15 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Lob;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 
 /**
@@ -42,6 +46,17 @@ import java.util.Map;
  * single-sign on access to any service that opts into single-sign on.
  * Expiration of a TicketGrantingTicket is controlled by the ExpirationPolicy
  * specified as object creation.
+ * <p>
+ * Services are tracked in the order they were granted access, so that the number of
+ * tracked services may optionally be capped, in which case the oldest services are
+ * evicted first. The map of services is never modified once published: granting a
+ * service replaces it with an updated copy by compare-and-set, so that grants do not
+ * take a lock and {@link #getServices()} returns the current map without copying it.
+ * <p>
+ * Tickets serialized by Kryo, as the memcached ticket registry does, carry the cap and a
+ * {@link LinkedHashMap} of services, which earlier versions cannot read; nodes sharing such
+ * a registry must all be upgraded at once rather than one by one. Java serialization and
+ * the JPA mapping are unchanged and tolerate tickets written by earlier versions.
  *
  * @author Scott Battaglia
  * @since 3.0
@@ -56,6 +71,11 @@ public final class TicketGrantingTicketImpl extends AbstractTicket implements Ti
     /** Logger instance. */
     private static final Logger LOGGER = LoggerFactory.getLogger(TicketGrantingTicketImpl.class);
 
+    /** Replaces {@link #services} by compare-and-set. */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<TicketGrantingTicketImpl, HashMap> SERVICES =
+            AtomicReferenceFieldUpdater.newUpdater(TicketGrantingTicketImpl.class, HashMap.class, "services");
+
     /** The authenticated object for which this ticket was generated for. */
     @Lob
     @Column(name="AUTHENTICATION", nullable=false)
@@ -63,12 +83,31 @@ public final class TicketGrantingTicketImpl extends AbstractTicket implements Ti
 
     /** Flag to enforce manual expiration. */
     @Column(name="EXPIRED", nullable=false)
-    private Boolean expired = false;
+    private volatile Boolean expired = false;
 
-    /** The services associated to this ticket. */
+    /**
+     * The services associated to this ticket, in the order they were granted access. The map is
+     * replaced rather than modified. Declared as a HashMap so that tickets stored by earlier
+     * versions can still be read.
+     */
     @Lob
     @Column(name="SERVICES_GRANTED_ACCESS_TO", nullable=false)
-    private final HashMap<String, Service> services = new HashMap<String, Service>();
+    private volatile HashMap<String, Service> services = new LinkedHashMap<String, Service>();
+
+    /**
+     * Maximum number of services tracked by this ticket. Zero or less means unlimited.
+     * It is not mapped to a column so that the JPA schema is unchanged; tickets read back
+     * from a JPA registry, like tickets serialized by earlier versions, are not capped.
+     * Earlier versions cannot read Kryo encoded tickets that carry this field.
+     */
+    @Transient
+    private int maxServices;
+
+    /** Chain of authentications from this ticket up to the root, computed on first use. */
+    private transient volatile List<Authentication> chainedAuthentications;
+
+    /** The root ticket granting ticket, resolved on first use. */
+    private transient volatile TicketGrantingTicket root;
 
     @Lob
     @Column(name="SUPPLEMENTAL_AUTHENTICATIONS", nullable=false)
@@ -93,11 +132,30 @@ public final class TicketGrantingTicketImpl extends AbstractTicket implements Ti
     public TicketGrantingTicketImpl(final String id,
         final TicketGrantingTicket ticketGrantingTicket,
         final Authentication authentication, final ExpirationPolicy policy) {
+        this(id, ticketGrantingTicket, authentication, policy, 0);
+    }
+
+    /**
+     * Constructs a new TicketGrantingTicket that tracks at most <code>maxServices</code>
+     * services. Once the limit is reached, the services that were granted access first
+     * are forgotten and will not be notified at logout.
+     *
+     * @param id the id of the Ticket
+     * @param ticketGrantingTicket the parent ticket
+     * @param authentication the Authentication request for this ticket
+     * @param policy the expiration policy for this ticket.
+     * @param maxServices the maximum number of services to track, zero or less for unlimited.
+     */
+    public TicketGrantingTicketImpl(final String id,
+        final TicketGrantingTicket ticketGrantingTicket,
+        final Authentication authentication, final ExpirationPolicy policy,
+        final int maxServices) {
         super(id, ticketGrantingTicket, policy);
 
         Assert.notNull(authentication, "authentication cannot be null");
 
         this.authentication = authentication;
+        this.maxServices = maxServices;
     }
 
     /**
@@ -127,45 +185,101 @@ public final class TicketGrantingTicketImpl extends AbstractTicket implements Ti
      * ticket will be considered used. The state update subsequently may
      * impact the ticket expiration policy in that, depending on the policy
      * configuration, the ticket may be considered expired.
+     * <p>No lock is held: the ticket state is updated atomically and the service is
+     * added to a copy of the services that replaces them by compare-and-set.
      */
     @Override
-    public synchronized ServiceTicket grantServiceTicket(final String id,
+    public ServiceTicket grantServiceTicket(final String id,
         final Service service, final ExpirationPolicy expirationPolicy,
         final boolean credentialsProvided) {
+        final int previousUses = updateState();
         final ServiceTicket serviceTicket = new ServiceTicketImpl(id, this,
-            service, this.getCountOfUses() == 0 || credentialsProvided,
-            expirationPolicy);
-
-        updateState();
+                service, previousUses == 0 || credentialsProvided,
+                expirationPolicy);
 
         final List<Authentication> authentications = getChainedAuthentications();
         service.setPrincipal(authentications.get(authentications.size()-1).getPrincipal());
 
-        this.services.put(id, service);
+        trackService(id, service);
 
         return serviceTicket;
     }
 
+    /**
+     * Restores a service grant that was recorded apart from this ticket, for instance by
+     * a distributed ticket registry that stores each grant separately instead of the whole
+     * ticket. The ticket state is restored as it was right after the grant, unless the
+     * current state is more recent. A grant of a service ticket this ticket already tracks
+     * is not tracked again, so restoring it twice has no further effect.
+     *
+     * @param id the id of the granted service ticket
+     * @param service the service the ticket was granted for
+     * @param countOfUses the number of times this ticket was used after the grant
+     * @param lastTimeUsed the last time this ticket was used after the grant
+     * @param previousTimeUsed the previous last time this ticket was used after the grant
+     */
+    public void restoreServiceGrant(final String id, final Service service,
+        final int countOfUses, final long lastTimeUsed, final long previousTimeUsed) {
+        restoreState(countOfUses, lastTimeUsed, previousTimeUsed);
+        if (!this.services.containsKey(id)) {
+            trackService(id, service);
+        }
+    }
+
+    /**
+     * Tracks a service this ticket granted access to, evicting the oldest services if needed.
+     * The services are replaced by an updated copy, retrying if they were replaced meanwhile.
+     *
+     * @param id the id of the service ticket
+     * @param service the service
+     */
+    private void trackService(final String id, final Service service) {
+        HashMap<String, Service> current;
+        LinkedHashMap<String, Service> updated;
+        int evicted;
+        do {
+            current = this.services;
+            updated = new LinkedHashMap<String, Service>(current);
+            updated.put(id, service);
+            evicted = 0;
+            if (this.maxServices > 0) {
+                final Iterator<String> oldest = updated.keySet().iterator();
+                while (updated.size() > this.maxServices) {
+                    oldest.next();
+                    oldest.remove();
+                    evicted++;
+                }
+            }
+        } while (!SERVICES.compareAndSet(this, current, updated));
+
+        if (evicted > 0) {
+            LOGGER.debug("Evicted {} services of ticket [{}] as the ticket exceeds {} services",
+                    evicted, getId(), this.maxServices);
+        }
+    }
+
     /**
      * Gets an immutable map of service ticket and services accessed by this ticket-granting ticket.
+     * The map is a view of the current services, which are never modified once published, so it
+     * is not copied.
      *
      * @return an immutable map of service ticket and services accessed by this ticket-granting ticket.
     */
     @Override
-    public synchronized Map<String, Service> getServices() {
-        final Map<String, Service> map = new HashMap<String, Service>(services.size());
-        for (final String ticket : services.keySet()) {
-            map.put(ticket, services.get(ticket));
-        }
-        return Collections.unmodifiableMap(map);
+    public Map<String, Service> getServices() {
+        return Collections.unmodifiableMap(this.services);
     }
 
     /**
-     * Remove all services of the TGT (at logout).
+     * Remove all services of the TGT (at logout). The services are swapped for an empty map
+     * atomically, so every service is returned by exactly one call even with concurrent grants.
+     *
+     * @return the services that were removed, keyed by service ticket id.
      */
     @Override
-    public void removeAllServices() {
-        services.clear();
+    @SuppressWarnings("unchecked")
+    public Map<String, Service> removeAllServices() {
+        return SERVICES.getAndSet(this, new LinkedHashMap<String, Service>());
     }
 
     /**
@@ -184,15 +298,24 @@ public final class TicketGrantingTicketImpl extends AbstractTicket implements Ti
         this.expired = true;
     }
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc}
+     * <p>The chain of granting tickets cannot change once the ticket is created,
+     * so the root is only looked up once.
+     */
     @Override
     public TicketGrantingTicket getRoot() {
-        TicketGrantingTicket current = this;
+        TicketGrantingTicket current = this.root;
+        if (current != null) {
+            return current;
+        }
+        current = this;
         TicketGrantingTicket parent = current.getGrantingTicket();
         while (parent != null) {
             current = parent;
             parent = current.getGrantingTicket();
         }
+        this.root = current;
         return current;
     }
 
@@ -212,19 +335,30 @@ public final class TicketGrantingTicketImpl extends AbstractTicket implements Ti
         return this.supplementalAuthentications;
     }
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc}
+     * <p>The chain cannot change once the ticket is created, so it is computed once
+     * and the same immutable list is returned afterwards. The cached chain is not
+     * serialized and is computed again after the ticket is read back from a registry.
+     */
     @Override
     public List<Authentication> getChainedAuthentications() {
-        final List<Authentication> list = new ArrayList<Authentication>();
-
-        list.add(getAuthentication());
+        List<Authentication> chain = this.chainedAuthentications;
+        if (chain != null) {
+            return chain;
+        }
 
         if (getGrantingTicket() == null) {
-            return Collections.unmodifiableList(list);
+            chain = Collections.singletonList(getAuthentication());
+        } else {
+            final List<Authentication> parentChain = getGrantingTicket().getChainedAuthentications();
+            final List<Authentication> list = new ArrayList<Authentication>(parentChain.size() + 1);
+            list.add(getAuthentication());
+            list.addAll(parentChain);
+            chain = Collections.unmodifiableList(list);
         }
-
-        list.addAll(getGrantingTicket().getChainedAuthentications());
-        return Collections.unmodifiableList(list);
+        this.chainedAuthentications = chain;
+        return chain;
     }
 
     /** {@inheritDoc} */
@@ -0,0 +1,39 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.ticket;
+
+/**
+ * Expiration policy whose decision is driven by the passage of time, and that is
+ * therefore able to tell in advance when a ticket will expire. Ticket registries
+ * use this to find expired tickets without having to examine every ticket.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public interface TimeBasedExpirationPolicy extends ExpirationPolicy {
+
+    /**
+     * Gets the earliest time at which a ticket with the given state would be considered
+     * expired by this policy, assuming the ticket is not used again in the meantime.
+     *
+     * @param ticketState The snapshot of the current ticket state
+     * @return time in milliseconds since the epoch, or {@link Long#MAX_VALUE} if the ticket never expires.
+     */
+    long getExpirationTime(TicketState ticketState);
+}
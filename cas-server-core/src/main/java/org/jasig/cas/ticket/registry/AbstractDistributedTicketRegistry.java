@@ -18,24 +18,89 @@
  */
 package org.jasig.cas.ticket.registry;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
 import org.jasig.cas.authentication.Authentication;
 import org.jasig.cas.authentication.principal.Service;
 import org.jasig.cas.ticket.ExpirationPolicy;
 import org.jasig.cas.ticket.ServiceTicket;
 import org.jasig.cas.ticket.Ticket;
 import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
  * Abstract Implementation that handles some of the commonalities between
  * distributed ticket registries.
+ * <p>
+ * Tickets are written back to the registry each time their state changes. Registries may
+ * optionally defer these updates with a {@link #setWriteBehindDelay(long) write-behind delay}:
+ * updates are then queued, repeated updates to the same ticket are coalesced and the queue is
+ * flushed in batches by a background thread. Tickets read from this node see their pending
+ * updates. When the number of queued tickets reaches {@link #setMaxPendingUpdates(int)},
+ * further updates are written synchronously by the calling thread.
+ * <p>
+ * A flush writes a copy of each ticket taken under the lock of the ticket, so that request
+ * threads changing the ticket meanwhile neither disturb nor partially appear in the written
+ * state. Updates that cannot be written stay pending and are retried by the next flush.
+ * <p>
+ * Write-behind is only suitable for cache based registries. Registries that update tickets
+ * within the caller's transaction should keep updating tickets synchronously.
  *
  * @author Scott Battaglia
  * @since 3.1
  */
-public abstract class AbstractDistributedTicketRegistry extends AbstractTicketRegistry {
+public abstract class AbstractDistributedTicketRegistry extends AbstractTicketRegistry implements DisposableBean {
+
+    /** Default maximum number of tickets with pending updates. */
+    public static final int DEFAULT_MAX_PENDING_UPDATES = 10000;
+
+    /** Pending updates keyed by ticket id. */
+    private final ConcurrentMap<String, PendingUpdate> pendingUpdates = new ConcurrentHashMap<String, PendingUpdate>();
+
+    /** Lock held while pending updates are written to the registry. */
+    private final Object flushLock = new Object();
+
+    /** Ids of the tickets being written by the flush in progress, if any. */
+    private volatile Set<String> flushingTicketIds = Collections.emptySet();
+
+    /** Number of updates requested by tickets. */
+    private final AtomicLong updateRequestCount = new AtomicLong();
+
+    /** Number of updates written to the registry. */
+    private final AtomicLong updateCount = new AtomicLong();
+
+    /** Number of write-behind flushes. */
+    private final AtomicLong flushCount = new AtomicLong();
+
+    /** Total time spent flushing pending updates, in nanoseconds. */
+    private final AtomicLong flushTime = new AtomicLong();
+
+    /** Delay in milliseconds between flushes of pending updates. Zero or less to update synchronously. */
+    private long writeBehindDelay;
+
+    /** Maximum number of tickets with pending updates. */
+    private int maxPendingUpdates = DEFAULT_MAX_PENDING_UPDATES;
+
+    /** Executor flushing pending updates, if write-behind is enabled. */
+    private volatile ScheduledExecutorService writeBehindExecutor;
+
+    /** Near cache in front of this registry, if any. */
+    private NearCacheTicketRegistry nearCache;
 
     /**
      * Update the received ticket.
@@ -44,6 +109,30 @@ public abstract class AbstractDistributedTicketRegistry extends AbstractTicketRe
      */
     protected abstract void updateTicket(final Ticket ticket);
 
+    /**
+     * Update a ticket granting ticket that has just granted a service ticket. The default
+     * implementation updates the whole ticket; registries may store the grant on its own instead.
+     *
+     * @param ticket the ticket granting ticket
+     * @param serviceTicket the service ticket that was granted
+     */
+    protected void updateTicketGrantingTicket(final TicketGrantingTicket ticket, final ServiceTicket serviceTicket) {
+        requestUpdate(ticket);
+    }
+
+    /**
+     * Update the received tickets at once when pending updates are flushed.
+     * The default implementation updates each ticket in turn; registries that support
+     * pipelined or bulk operations should override it.
+     *
+     * @param tickets the tickets
+     */
+    protected void updateTickets(final Collection<Ticket> tickets) {
+        for (final Ticket ticket : tickets) {
+            updateTicket(ticket);
+        }
+    }
+
     /**
      * Whether or not a callback to the TGT is required when checking for expiration.
      *
@@ -62,11 +151,335 @@ public abstract class AbstractDistributedTicketRegistry extends AbstractTicketRe
             return null;
         }
 
-        if (ticket instanceof TicketGrantingTicket) {
-            return new TicketGrantingTicketDelegator(this, (TicketGrantingTicket) ticket, needsCallback());
+        // this node must see its own updates that are not written yet
+        final PendingUpdate pendingUpdate = this.pendingUpdates.get(ticket.getId());
+        final Ticket current = pendingUpdate != null ? pendingUpdate.getTicket() : ticket;
+
+        if (current instanceof TicketGrantingTicket) {
+            return new TicketGrantingTicketDelegator(this, (TicketGrantingTicket) current, needsCallback());
+        }
+
+        return new ServiceTicketDelegator(this, (ServiceTicket) current, needsCallback());
+    }
+
+    /**
+     * Sets the near cache in front of this registry. Granting tickets are then looked up
+     * through the near cache, which is told about changes to the tickets of this registry.
+     *
+     * @param nearCache the near cache
+     */
+    void setNearCache(final NearCacheTicketRegistry nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    /**
+     * Looks up the granting ticket of a ticket, through the near cache if there is one.
+     *
+     * @param ticketId the id of the granting ticket
+     * @return the granting ticket, or null if it no longer exists.
+     */
+    private TicketGrantingTicket getGrantingTicket(final String ticketId) {
+        return (TicketGrantingTicket) (this.nearCache != null ? this.nearCache.getGrantingTicket(ticketId) : getTicket(ticketId));
+    }
+
+    /**
+     * Tells the near cache, if any, that the state of a ticket has changed.
+     *
+     * @param ticket the proxied ticket instance
+     */
+    private void ticketChanged(final Ticket ticket) {
+        if (this.nearCache != null) {
+            this.nearCache.ticketChanged(ticket);
+        }
+    }
+
+    /**
+     * Discards the pending update of a ticket, if any. Registries must call this method
+     * before a ticket is deleted, so that the ticket is not written back by a later flush.
+     * If the flush in progress is writing the ticket, this method waits for it to complete,
+     * so that the ticket is deleted after it was written and is not brought back.
+     *
+     * @param ticketId the ticket id
+     */
+    protected final void discardPendingUpdate(final String ticketId) {
+        this.pendingUpdates.remove(ticketId);
+        if (this.flushingTicketIds.contains(ticketId)) {
+            synchronized (this.flushLock) {
+                logger.debug("Waited for the flush writing ticket {} before deleting it", ticketId);
+            }
+        }
+    }
+
+    /**
+     * Requests an update of a ticket whose state has changed. The ticket is updated
+     * right away unless write-behind is enabled and the queue of pending updates is not full.
+     *
+     * @param ticket the ticket
+     */
+    private void requestUpdate(final Ticket ticket) {
+        this.updateRequestCount.incrementAndGet();
+        if (this.writeBehindExecutor != null) {
+            final String ticketId = ticket.getId();
+            if (this.pendingUpdates.containsKey(ticketId) || this.pendingUpdates.size() < this.maxPendingUpdates) {
+                this.pendingUpdates.put(ticketId, new PendingUpdate(ticket));
+                return;
+            }
+            logger.debug("{} updates are pending. Updating ticket {} synchronously", this.maxPendingUpdates, ticketId);
+        }
+        this.updateCount.incrementAndGet();
+        updateTicket(ticket);
+    }
+
+    /**
+     * Writes all pending updates to the registry.
+     */
+    protected final void flushPendingUpdates() {
+        if (this.pendingUpdates.isEmpty()) {
+            return;
+        }
+
+        synchronized (this.flushLock) {
+            flushPendingUpdatesLocked();
+        }
+    }
+
+    /**
+     * Writes all pending updates to the registry while holding {@link #flushLock}.
+     */
+    private void flushPendingUpdatesLocked() {
+        final long start = System.nanoTime();
+        final List<PendingUpdate> snapshot = new ArrayList<PendingUpdate>(this.pendingUpdates.values());
+        final Set<String> ticketIds = new HashSet<String>(snapshot.size() * 2);
+        for (final PendingUpdate pendingUpdate : snapshot) {
+            ticketIds.add(pendingUpdate.getTicket().getId());
+        }
+        this.flushingTicketIds = ticketIds;
+
+        // tickets deleted before the ids were published are left out; tickets deleted
+        // afterwards wait in discardPendingUpdate until this flush completes
+        final List<PendingUpdate> batch = new ArrayList<PendingUpdate>(snapshot.size());
+        final List<Ticket> tickets = new ArrayList<Ticket>(snapshot.size());
+        List<PendingUpdate> written = batch;
+        try {
+            for (final PendingUpdate pendingUpdate : snapshot) {
+                if (this.pendingUpdates.get(pendingUpdate.getTicket().getId()) == pendingUpdate) {
+                    final Ticket copy = copyOf(pendingUpdate);
+                    if (copy != null) {
+                        batch.add(pendingUpdate);
+                        tickets.add(copy);
+                    }
+                }
+            }
+
+            try {
+                updateTickets(tickets);
+            } catch (final RuntimeException e) {
+                logger.error("Failed updating {} tickets at once, updating them one by one", tickets.size(), e);
+                written = updateEach(batch, tickets);
+            }
+        } finally {
+            this.flushingTicketIds = Collections.emptySet();
+        }
+
+        // updates requested while flushing, and updates that failed, stay pending until the next flush
+        for (final PendingUpdate pendingUpdate : written) {
+            this.pendingUpdates.remove(pendingUpdate.getTicket().getId(), pendingUpdate);
+        }
+
+        final long duration = System.nanoTime() - start;
+        this.updateCount.addAndGet(written.size());
+        this.flushCount.incrementAndGet();
+        this.flushTime.addAndGet(duration);
+        logger.debug("Flushed {} of {} ticket updates in {} ms", written.size(), snapshot.size(),
+                TimeUnit.NANOSECONDS.toMillis(duration));
+    }
+
+    /**
+     * Copies the ticket of a pending update while holding the lock of the ticket, so that the
+     * copy is not changed by request threads while it is written.
+     *
+     * @param pendingUpdate the pending update
+     * @return the copy, or null if the ticket cannot be copied and the update is discarded.
+     */
+    private Ticket copyOf(final PendingUpdate pendingUpdate) {
+        final Ticket ticket = pendingUpdate.getTicket();
+        try {
+            synchronized (ticket) {
+                return SerializationUtils.clone(ticket);
+            }
+        } catch (final SerializationException e) {
+            logger.error("Cannot copy ticket {}, discarding its update", ticket.getId(), e);
+            this.pendingUpdates.remove(ticket.getId(), pendingUpdate);
+            return null;
+        }
+    }
+
+    /**
+     * Updates tickets one at a time, after updating them at once failed.
+     *
+     * @param batch the pending updates
+     * @param tickets the copies of their tickets to write, in the same order
+     * @return the pending updates that were written
+     */
+    private List<PendingUpdate> updateEach(final List<PendingUpdate> batch, final List<Ticket> tickets) {
+        final List<PendingUpdate> written = new ArrayList<PendingUpdate>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                updateTicket(tickets.get(i));
+                written.add(batch.get(i));
+            } catch (final RuntimeException e) {
+                logger.error("Failed updating ticket {}, it will be retried by the next flush",
+                        tickets.get(i).getId(), e);
+            }
         }
+        return written;
+    }
 
-        return new ServiceTicketDelegator(this, (ServiceTicket) ticket, needsCallback());
+    /**
+     * Sets the delay between flushes of pending updates and enables write-behind.
+     * Zero or less, the default, updates tickets synchronously. Changing the delay once
+     * write-behind is enabled stops the write-behind thread and writes all pending updates
+     * before the new delay applies.
+     *
+     * @param writeBehindDelay the delay in milliseconds
+     */
+    public final synchronized void setWriteBehindDelay(final long writeBehindDelay) {
+        try {
+            stopWriteBehind();
+        } catch (final InterruptedException e) {
+            logger.warn("Interrupted while stopping the write-behind thread");
+            Thread.currentThread().interrupt();
+        }
+        this.writeBehindDelay = writeBehindDelay;
+        if (writeBehindDelay > 0) {
+            final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r,
+                            AbstractDistributedTicketRegistry.this.getClass().getSimpleName() + "-write-behind");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushPendingUpdates();
+                }
+            }, writeBehindDelay, writeBehindDelay, TimeUnit.MILLISECONDS);
+            this.writeBehindExecutor = executor;
+        }
+    }
+
+    /**
+     * Stops the write-behind thread, if any, and writes all pending updates.
+     *
+     * @throws InterruptedException if interrupted while waiting for the write-behind thread
+     */
+    private synchronized void stopWriteBehind() throws InterruptedException {
+        final ScheduledExecutorService executor = this.writeBehindExecutor;
+        this.writeBehindExecutor = null;
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(this.writeBehindDelay, TimeUnit.MILLISECONDS);
+        }
+        flushPendingUpdates();
+    }
+
+    /**
+     * Sets the maximum number of tickets with pending updates.
+     * Once reached, updates of other tickets are written synchronously.
+     *
+     * @param maxPendingUpdates the maximum number of tickets
+     */
+    public final void setMaxPendingUpdates(final int maxPendingUpdates) {
+        this.maxPendingUpdates = maxPendingUpdates;
+    }
+
+    /**
+     * Gets the number of tickets with pending updates.
+     *
+     * @return the number of pending updates
+     */
+    public final int getPendingUpdateCount() {
+        return this.pendingUpdates.size();
+    }
+
+    /**
+     * Gets the number of updates requested by tickets since the registry was created.
+     *
+     * @return the number of update requests
+     */
+    public final long getUpdateRequestCount() {
+        return this.updateRequestCount.get();
+    }
+
+    /**
+     * Gets the number of updates written to the registry since the registry was created.
+     *
+     * @return the number of updates
+     */
+    public final long getUpdateCount() {
+        return this.updateCount.get();
+    }
+
+    /**
+     * Gets the ratio of requested updates to updates written to the registry.
+     * A ratio above 1 means updates are being coalesced.
+     *
+     * @return the coalescing ratio, or 1 if nothing was written yet.
+     */
+    public final double getCoalescingRatio() {
+        final long written = this.updateCount.get();
+        return written == 0 ? 1 : (double) (this.updateRequestCount.get() - getPendingUpdateCount()) / written;
+    }
+
+    /**
+     * Gets the average time it takes to flush pending updates.
+     *
+     * @return the average flush latency in milliseconds
+     */
+    public final double getAverageFlushLatency() {
+        final long flushes = this.flushCount.get();
+        return flushes == 0 ? 0 : (double) this.flushTime.get() / flushes / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Stops the write-behind thread and writes all pending updates.
+     *
+     * @throws Exception if the write-behind thread cannot be stopped
+     */
+    @Override
+    public void destroy() throws Exception {
+        stopWriteBehind();
+    }
+
+    /**
+     * A requested update of a ticket. Each request is a distinct instance so that a flush only
+     * discards the updates it has written.
+     */
+    private static final class PendingUpdate {
+
+        /** The ticket to write. */
+        private final Ticket ticket;
+
+        /**
+         * Instantiates a new pending update.
+         *
+         * @param ticket the ticket
+         */
+        PendingUpdate(final Ticket ticket) {
+            this.ticket = ticket;
+        }
+
+        /**
+         * Gets the ticket to write.
+         *
+         * @return the ticket
+         */
+        Ticket getTicket() {
+            return this.ticket;
+        }
     }
 
     private static class TicketDelegator<T extends Ticket> implements Ticket {
@@ -98,13 +511,23 @@ public abstract class AbstractDistributedTicketRegistry extends AbstractTicketRe
          * Update ticket by the delegated registry.
          */
         protected void updateTicket() {
-            this.ticketRegistry.updateTicket(this.ticket);
+            this.ticketRegistry.requestUpdate(this.ticket);
+            this.ticketRegistry.ticketChanged(this);
         }
 
         protected T getTicket() {
             return this.ticket;
         }
 
+        /**
+         * Gets the registry the ticket belongs to.
+         *
+         * @return the ticket registry
+         */
+        protected AbstractDistributedTicketRegistry getTicketRegistry() {
+            return this.ticketRegistry;
+        }
+
         public final String getId() {
             return this.ticket.getId();
         }
@@ -128,7 +551,7 @@ public abstract class AbstractDistributedTicketRegistry extends AbstractTicketRe
                 return old;
             }
 
-            return this.ticketRegistry.getTicket(old.getId(), Ticket.class);
+            return this.ticketRegistry.getGrantingTicket(old.getId());
         }
 
         public final long getCreationTime() {
@@ -226,7 +649,8 @@ public abstract class AbstractDistributedTicketRegistry extends AbstractTicketRe
                 final ExpirationPolicy expirationPolicy, final boolean credentialsProvided) {
             final ServiceTicket t = this.getTicket().grantServiceTicket(id, service,
                     expirationPolicy, credentialsProvided);
-            updateTicket();
+            getTicketRegistry().updateTicketGrantingTicket(getTicket(), t);
+            getTicketRegistry().ticketChanged(this);
             return t;
         }
 
@@ -257,8 +681,8 @@ public abstract class AbstractDistributedTicketRegistry extends AbstractTicketRe
         }
 
         @Override
-        public void removeAllServices() {
-            this.getTicket().removeAllServices();
+        public Map<String, Service> removeAllServices() {
+            return this.getTicket().removeAllServices();
         }
     }
 }
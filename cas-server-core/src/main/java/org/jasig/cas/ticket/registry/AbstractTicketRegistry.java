@@ -19,11 +19,15 @@
 package org.jasig.cas.ticket.registry;
 
 import org.jasig.cas.monitor.TicketRegistryState;
+import org.jasig.cas.monitor.TicketType;
 import org.jasig.cas.ticket.Ticket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 
+import java.util.Collections;
+import java.util.Map;
+
 /**
  * @author Scott Battaglia
  * @since 3.0.4
@@ -75,4 +79,11 @@ public abstract class AbstractTicketRegistry implements TicketRegistry, TicketRe
                 this.getClass().getName(), Integer.MIN_VALUE);
       return Integer.MIN_VALUE;
     }
+
+    @Override
+    public Map<TicketType, Integer> ticketCounts() {
+      logger.debug("ticketCounts() operation is not implemented by the ticket registry instance {}. Returning unknown.",
+                this.getClass().getName());
+      return Collections.emptyMap();
+    }
 }
@@ -18,27 +18,48 @@
  */
 package org.jasig.cas.ticket.registry;
 
-import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.monitor.TicketType;
+import org.jasig.cas.ticket.AbstractTicket;
 import org.jasig.cas.ticket.Ticket;
-import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.support.TicketCounter;
+import org.jasig.cas.ticket.registry.support.TicketExpirationIndex;
 import org.springframework.util.Assert;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation of the TicketRegistry that is backed by a ConcurrentHashMap.
+ * <p>
+ * Tickets are also indexed by the time at which they may expire, so that expired
+ * tickets can be found without scanning the whole registry. A ticket whose expiration time
+ * cannot be determined in advance is checked at least once every
+ * {@link #setMaxExpirationCheckInterval(long) maxExpirationCheckInterval}.
  *
  * @author Scott Battaglia
  * @since 3.0
  */
-public final class DefaultTicketRegistry extends AbstractTicketRegistry  {
+public final class DefaultTicketRegistry extends AbstractTicketRegistry implements ExpirationIndexedTicketRegistry {
+
+    /** Default maximum time between two expiration checks of the same ticket. */
+    private static final long DEFAULT_MAX_EXPIRATION_CHECK_INTERVAL = TimeUnit.HOURS.toMillis(1);
 
     /** A HashMap to contain the tickets. */
     private final Map<String, Ticket> cache;
 
+    /** Running count of tickets per type. */
+    private final TicketCounter ticketCounter = new TicketCounter();
+
+    /** Ticket ids indexed by expiration time. */
+    private final TicketExpirationIndex expirationIndex = new TicketExpirationIndex();
+
+    /** Maximum time between two expiration checks of the same ticket. */
+    private long maxExpirationCheckInterval = DEFAULT_MAX_EXPIRATION_CHECK_INTERVAL;
+
     /**
      * Instantiates a new default ticket registry.
      */
@@ -72,7 +93,12 @@ public final class DefaultTicketRegistry extends AbstractTicketRegistry  {
         Assert.notNull(ticket, "ticket cannot be null");
 
         logger.debug("Added ticket [{}] to registry.", ticket.getId());
-        this.cache.put(ticket.getId(), ticket);
+        final Ticket previous = this.cache.put(ticket.getId(), ticket);
+        if (previous != null) {
+            this.ticketCounter.decrement(previous);
+        }
+        this.ticketCounter.increment(ticket);
+        indexExpiration(ticket, System.currentTimeMillis());
     }
 
     @Override
@@ -97,7 +123,12 @@ public final class DefaultTicketRegistry extends AbstractTicketRegistry  {
             return false;
         }
         logger.debug("Removing ticket [{}] from registry", ticketId);
-        return (this.cache.remove(ticketId) != null);
+        final Ticket ticket = this.cache.remove(ticketId);
+        if (ticket == null) {
+            return false;
+        }
+        this.ticketCounter.decrement(ticket);
+        return true;
     }
 
     public Collection<Ticket> getTickets() {
@@ -105,24 +136,71 @@ public final class DefaultTicketRegistry extends AbstractTicketRegistry  {
     }
 
     @Override
-    public int sessionCount() {
-        int count = 0;
-        for (Ticket t : this.cache.values()) {
-            if (t instanceof TicketGrantingTicket) {
-                count++;
+    public Collection<Ticket> getExpiredTickets(final int maxTickets) {
+        final long now = System.currentTimeMillis();
+        final Map<String, Ticket> expired = new LinkedHashMap<String, Ticket>();
+
+        while (expired.size() < maxTickets) {
+            final Collection<String> ticketIds = this.expirationIndex.pollDue(now, maxTickets - expired.size());
+            if (ticketIds.isEmpty()) {
+                break;
             }
+            for (final String ticketId : ticketIds) {
+                final Ticket ticket = this.cache.get(ticketId);
+                if (ticket == null || expired.containsKey(ticketId)) {
+                    continue;
+                }
+                if (ticket.isExpired()) {
+                    expired.put(ticketId, ticket);
+                }
+                // expired tickets stay indexed until they are deleted, in case deleting them fails; the
+                // others are not due yet, because they were used since being indexed or their expiration is unknown
+                indexExpiration(ticket, now + this.expirationIndex.getResolution());
+            }
+        }
+
+        logger.debug("{} expired tickets found in the expiration index.", expired.size());
+        return expired.values();
+    }
+
+    /**
+     * Sets the maximum time between two expiration checks of the same ticket. This bounds how late
+     * a ticket is found to be expired when its expiration cannot be determined in advance, for
+     * instance when it is expired explicitly or through its granting ticket.
+     *
+     * @param maxExpirationCheckInterval the interval in milliseconds
+     */
+    public void setMaxExpirationCheckInterval(final long maxExpirationCheckInterval) {
+        this.maxExpirationCheckInterval = maxExpirationCheckInterval;
+    }
+
+    /**
+     * Index the ticket under the time at which it may expire.
+     *
+     * @param ticket the ticket
+     * @param notBefore the earliest time at which the ticket should be checked again
+     */
+    private void indexExpiration(final Ticket ticket, final long notBefore) {
+        final long latest = System.currentTimeMillis() + this.maxExpirationCheckInterval;
+        long expirationTime = notBefore;
+        if (ticket instanceof AbstractTicket) {
+            expirationTime = Math.max(notBefore, Math.min(latest, ((AbstractTicket) ticket).getExpirationTime()));
         }
-        return count;
+        this.expirationIndex.add(ticket.getId(), expirationTime);
+    }
+
+    @Override
+    public int sessionCount() {
+        return this.ticketCounter.getTicketGrantingTicketCount();
     }
 
     @Override
     public int serviceTicketCount() {
-        int count = 0;
-        for (Ticket t : this.cache.values()) {
-            if (t instanceof ServiceTicket) {
-                count++;
-            }
-        }
-        return count;
+        return this.ticketCounter.getServiceTicketCount();
+    }
+
+    @Override
+    public Map<TicketType, Integer> ticketCounts() {
+        return this.ticketCounter.getCounts();
     }
 }
@@ -0,0 +1,44 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.ticket.registry;
+
+import java.util.Collection;
+
+import org.jasig.cas.ticket.Ticket;
+
+/**
+ * Ticket registry that indexes its tickets by expiration time, so that
+ * expired tickets can be found without examining every ticket in the registry.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public interface ExpirationIndexedTicketRegistry extends TicketRegistry {
+
+    /**
+     * Retrieve tickets that are expired, visiting only tickets that were due to expire.
+     * Tickets are not removed from the registry; callers are expected to delete
+     * them before asking for the next batch. A returned ticket stays indexed until it is
+     * deleted, so a ticket that could not be deleted is returned again by a later cleanup.
+     *
+     * @param maxTickets the maximum number of tickets to return.
+     * @return collection of expired tickets, empty when no more expired tickets are known.
+     */
+    Collection<Ticket> getExpiredTickets(int maxTickets);
+}
@@ -0,0 +1,345 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.ticket.registry;
+
+import org.jasig.cas.monitor.TicketRegistryState;
+import org.jasig.cas.monitor.TicketType;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.support.TicketInvalidationChannel;
+import org.springframework.util.Assert;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ticket registry that keeps ticket granting tickets read from another registry in a local cache
+ * for a short time. It is meant to sit in front of a distributed registry, where validating a
+ * service ticket would otherwise fetch the ticket granting ticket over the network every time
+ * the service ticket looks up its granting ticket.
+ * <p>
+ * When placed in front of an {@link AbstractDistributedTicketRegistry}, service tickets look up their
+ * granting ticket through this cache, and cached tickets are refreshed whenever this node changes them.
+ * Changes made by other nodes are only seen once the cached copy expires, unless the nodes share an
+ * {@link #setInvalidationChannel(TicketInvalidationChannel) invalidation channel}, through which
+ * changed and deleted tickets are discarded from the caches of the other nodes.
+ * <p>
+ * Only these granting ticket lookups are answered from the cache. Tickets looked up directly through
+ * {@link #getTicket(String)}, which may then be changed and written back, are always read from the
+ * other registry, so that a stale copy never overwrites changes made by other nodes.
+ * When the cache is full, the least recently used ticket is discarded.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class NearCacheTicketRegistry extends AbstractTicketRegistry {
+
+    /** Default time in milliseconds tickets are cached for. */
+    public static final long DEFAULT_TIME_TO_LIVE = 2000;
+
+    /** Default maximum number of cached tickets. */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** The registry tickets are stored in. */
+    private final TicketRegistry delegate;
+
+    /** Cached tickets keyed by id, in access order. Guarded by its own lock. */
+    private final Map<String, CachedTicket> cache = new LinkedHashMap<String, CachedTicket>(16, 0.75f, true) {
+        private static final long serialVersionUID = -3197316011397291262L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CachedTicket> eldest) {
+            return size() > NearCacheTicketRegistry.this.maxSize;
+        }
+    };
+
+    /** Number of tickets changed, deleted or invalidated, used to avoid caching tickets read while they were changing. */
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /** Number of lookups answered from the cache. */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /** Number of lookups answered by the delegate registry. */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /** Receiver of invalidations published by other nodes. */
+    private final TicketInvalidationChannel.Listener listener = new TicketInvalidationChannel.Listener() {
+        @Override
+        public void invalidate(final String ticketId) {
+            evict(ticketId);
+        }
+    };
+
+    /** Time in nanoseconds tickets are cached for. */
+    private long timeToLive = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIME_TO_LIVE);
+
+    /** Maximum number of cached tickets. */
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    /** Channel changes are published to, if any. */
+    private TicketInvalidationChannel invalidationChannel;
+
+    /**
+     * Instantiates a new near cache.
+     *
+     * @param delegate the registry tickets are stored in
+     */
+    public NearCacheTicketRegistry(final TicketRegistry delegate) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        this.delegate = delegate;
+        if (delegate instanceof AbstractDistributedTicketRegistry) {
+            ((AbstractDistributedTicketRegistry) delegate).setNearCache(this);
+        }
+    }
+
+    @Override
+    public void addTicket(final Ticket ticket) {
+        this.delegate.addTicket(ticket);
+        synchronized (this.cache) {
+            this.cache.remove(ticket.getId());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The ticket is always read from the other registry, as it may be changed and written back.
+     * Ticket granting tickets read this way replace their cached copy.
+     */
+    @Override
+    public Ticket getTicket(final String ticketId) {
+        if (ticketId == null) {
+            return null;
+        }
+        return load(ticketId);
+    }
+
+    /**
+     * Looks up the granting ticket of a service ticket, from the cache if a fresh copy is there.
+     * The ticket must only be used to check the state of the service ticket and must not be changed.
+     *
+     * @param ticketId the id of the ticket granting ticket
+     * @return the ticket, or null if it does not exist
+     */
+    Ticket getGrantingTicket(final String ticketId) {
+        synchronized (this.cache) {
+            final CachedTicket cached = this.cache.get(ticketId);
+            if (cached != null) {
+                if (cached.isFresh(System.nanoTime())) {
+                    this.hitCount.incrementAndGet();
+                    return cached.getTicket();
+                }
+                this.cache.remove(ticketId);
+            }
+        }
+        return load(ticketId);
+    }
+
+    /**
+     * Reads a ticket from the other registry and caches it if it is a ticket granting ticket.
+     *
+     * @param ticketId the ticket id
+     * @return the ticket, or null if it does not exist
+     */
+    private Ticket load(final String ticketId) {
+        this.missCount.incrementAndGet();
+        final long invalidations = this.invalidationCount.get();
+        final Ticket ticket = this.delegate.getTicket(ticketId);
+        if (ticket instanceof TicketGrantingTicket) {
+            synchronized (this.cache) {
+                // a ticket invalidated while it was being read may be stale
+                if (this.invalidationCount.get() == invalidations) {
+                    this.cache.put(ticketId, newEntry(ticket));
+                }
+            }
+        }
+        return ticket;
+    }
+
+    @Override
+    public boolean deleteTicket(final String ticketId) {
+        evict(ticketId);
+        publish(ticketId);
+        return this.delegate.deleteTicket(ticketId);
+    }
+
+    @Override
+    public Collection<Ticket> getTickets() {
+        return this.delegate.getTickets();
+    }
+
+    /**
+     * Refreshes the cached copy of a ticket that was changed on this node, and discards
+     * the copies held by other nodes.
+     *
+     * @param ticket the ticket, as returned by the delegate registry
+     */
+    void ticketChanged(final Ticket ticket) {
+        if (ticket instanceof TicketGrantingTicket) {
+            synchronized (this.cache) {
+                // keeps a concurrent load from caching the copy it read before the change
+                this.invalidationCount.incrementAndGet();
+                this.cache.put(ticket.getId(), newEntry(ticket));
+            }
+            publish(ticket.getId());
+        }
+    }
+
+    /**
+     * Creates a cache entry for a ticket. Adding it discards the least recently used entry if the cache is full.
+     *
+     * @param ticket the ticket
+     * @return the entry
+     */
+    private CachedTicket newEntry(final Ticket ticket) {
+        return new CachedTicket(ticket, System.nanoTime() + this.timeToLive);
+    }
+
+    /**
+     * Discards the cached copy of a ticket.
+     *
+     * @param ticketId the ticket id
+     */
+    private void evict(final String ticketId) {
+        synchronized (this.cache) {
+            this.invalidationCount.incrementAndGet();
+            this.cache.remove(ticketId);
+        }
+    }
+
+    /**
+     * Tells other nodes to discard their copy of a ticket.
+     *
+     * @param ticketId the ticket id
+     */
+    private void publish(final String ticketId) {
+        if (this.invalidationChannel != null) {
+            this.invalidationChannel.publish(this.listener, ticketId);
+        }
+    }
+
+    /**
+     * Sets the time tickets are cached for. This is the longest time changes made by other nodes
+     * may go unnoticed when there is no invalidation channel.
+     *
+     * @param timeToLive the time in milliseconds
+     */
+    public void setTimeToLive(final long timeToLive) {
+        this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+    }
+
+    /**
+     * Sets the maximum number of cached tickets.
+     *
+     * @param maxSize the maximum number of tickets
+     */
+    public void setMaxSize(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Sets the channel through which this node and the others discard tickets changed or deleted elsewhere.
+     *
+     * @param invalidationChannel the invalidation channel
+     */
+    public void setInvalidationChannel(final TicketInvalidationChannel invalidationChannel) {
+        this.invalidationChannel = invalidationChannel;
+        invalidationChannel.subscribe(this.listener);
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Gets the number of lookups answered by the delegate registry.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    @Override
+    public int sessionCount() {
+        return this.delegate instanceof TicketRegistryState
+                ? ((TicketRegistryState) this.delegate).sessionCount() : super.sessionCount();
+    }
+
+    @Override
+    public int serviceTicketCount() {
+        return this.delegate instanceof TicketRegistryState
+                ? ((TicketRegistryState) this.delegate).serviceTicketCount() : super.serviceTicketCount();
+    }
+
+    @Override
+    public Map<TicketType, Integer> ticketCounts() {
+        return this.delegate instanceof TicketRegistryState
+                ? ((TicketRegistryState) this.delegate).ticketCounts() : super.ticketCounts();
+    }
+
+    /**
+     * A cached ticket along with the time it expires from the cache.
+     */
+    private static final class CachedTicket {
+
+        /** The ticket. */
+        private final Ticket ticket;
+
+        /** Time in nanoseconds at which the entry expires. */
+        private final long expiresAt;
+
+        /**
+         * Instantiates a new cached ticket.
+         *
+         * @param ticket the ticket
+         * @param expiresAt time in nanoseconds at which the entry expires
+         */
+        CachedTicket(final Ticket ticket, final long expiresAt) {
+            this.ticket = ticket;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Gets the ticket.
+         *
+         * @return the ticket
+         */
+        Ticket getTicket() {
+            return this.ticket;
+        }
+
+        /**
+         * Tells whether the entry may still be used.
+         *
+         * @param now the current time in nanoseconds
+         * @return true, if the entry has not expired
+         */
+        boolean isFresh(final long now) {
+            return now - this.expiresAt < 0;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.util.List;
 import org.jasig.cas.logout.LogoutManager;
 import org.jasig.cas.ticket.Ticket;
 import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.ExpirationIndexedTicketRegistry;
 import org.jasig.cas.ticket.registry.RegistryCleaner;
 import org.jasig.cas.ticket.registry.TicketRegistry;
 import org.slf4j.Logger;
@@ -50,6 +51,11 @@ import javax.validation.constraints.NotNull;
  * should be used with {@link org.jasig.cas.ticket.registry.JpaTicketRegistry}
  * in a clustered CAS environment.
  * </p>
+ * <p>
+ * Registries that implement {@link ExpirationIndexedTicketRegistry} are not scanned; only
+ * the tickets that were due to expire are visited, and they are removed in batches of
+ * {@link #setBatchSize(int) batchSize} tickets.
+ * </p>
  * <p>The following property is required.</p>
  * <ul>
  * <li>ticketRegistry - CAS ticket registry.</li>
@@ -64,6 +70,9 @@ import javax.validation.constraints.NotNull;
  */
 public final class DefaultTicketRegistryCleaner implements RegistryCleaner {
 
+    /** Default number of expired tickets removed per batch. */
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
     /** The Commons Logging instance. */
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -79,6 +88,9 @@ public final class DefaultTicketRegistryCleaner implements RegistryCleaner {
     @NotNull
     private LogoutManager logoutManager;
 
+    /** Maximum number of expired tickets fetched from an indexed registry at once. */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
     /**
      * Instantiates a new default ticket registry cleaner.
      *
@@ -102,6 +114,7 @@ public final class DefaultTicketRegistryCleaner implements RegistryCleaner {
             final LockingStrategy lockingStrategy) {
         this.logoutManager = logoutManager;
         this.ticketRegistry = ticketRegistry;
+        this.lock = lockingStrategy;
     }
     
     /**
@@ -116,21 +129,10 @@ public final class DefaultTicketRegistryCleaner implements RegistryCleaner {
         }
         logger.debug("Acquired lock.  Proceeding with cleanup.");
         try {
-            final List<Ticket> ticketsToRemove = new ArrayList<Ticket>();
-            final Collection<Ticket> ticketsInCache;
-            ticketsInCache = this.ticketRegistry.getTickets();
-            for (final Ticket ticket : ticketsInCache) {
-                if (ticket.isExpired()) {
-                    ticketsToRemove.add(ticket);
-                }
-            }
-
-            logger.info("{} expired tickets found to be removed.", ticketsToRemove.size());
-            for (final Ticket ticket : ticketsToRemove) {
-                if (ticket instanceof TicketGrantingTicket) {
-                    this.logoutManager.performLogout((TicketGrantingTicket) ticket);
-                }
-                this.ticketRegistry.deleteTicket(ticket.getId());
+            if (this.ticketRegistry instanceof ExpirationIndexedTicketRegistry) {
+                cleanIndexed((ExpirationIndexedTicketRegistry) this.ticketRegistry);
+            } else {
+                cleanAll();
             }
         } finally {
             logger.debug("Releasing ticket cleanup lock.");
@@ -140,6 +142,63 @@ public final class DefaultTicketRegistryCleaner implements RegistryCleaner {
         logger.info("Finished ticket cleanup.");
     }
 
+    /**
+     * Scan the entire registry for expired tickets and remove them.
+     */
+    private void cleanAll() {
+        final List<Ticket> ticketsToRemove = new ArrayList<Ticket>();
+        final Collection<Ticket> ticketsInCache;
+        ticketsInCache = this.ticketRegistry.getTickets();
+        for (final Ticket ticket : ticketsInCache) {
+            if (ticket.isExpired()) {
+                ticketsToRemove.add(ticket);
+            }
+        }
+
+        logger.info("{} expired tickets found to be removed.", ticketsToRemove.size());
+        removeTickets(ticketsToRemove);
+    }
+
+    /**
+     * Remove the expired tickets known to the registry expiration index, one batch at a time.
+     *
+     * @param registry the indexed registry
+     */
+    private void cleanIndexed(final ExpirationIndexedTicketRegistry registry) {
+        int count = 0;
+        Collection<Ticket> ticketsToRemove = registry.getExpiredTickets(this.batchSize);
+        while (!ticketsToRemove.isEmpty()) {
+            removeTickets(ticketsToRemove);
+            count += ticketsToRemove.size();
+            ticketsToRemove = registry.getExpiredTickets(this.batchSize);
+        }
+        logger.info("{} expired tickets removed.", count);
+    }
+
+    /**
+     * Remove the tickets from the registry, logging out of services for ticket-granting tickets.
+     *
+     * @param ticketsToRemove the tickets to remove
+     */
+    private void removeTickets(final Collection<Ticket> ticketsToRemove) {
+        for (final Ticket ticket : ticketsToRemove) {
+            if (ticket instanceof TicketGrantingTicket) {
+                this.logoutManager.performLogout((TicketGrantingTicket) ticket);
+            }
+            this.ticketRegistry.deleteTicket(ticket.getId());
+        }
+    }
+
+    /**
+     * Sets the maximum number of expired tickets fetched at once from a registry
+     * that implements {@link ExpirationIndexedTicketRegistry}.
+     *
+     * @param batchSize the batch size
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
     /**
      * @param ticketRegistry The ticketRegistry to set.
      * @deprecated As of 4.1. Consider using constructors instead.
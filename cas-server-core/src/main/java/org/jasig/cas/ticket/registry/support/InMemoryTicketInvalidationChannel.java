@@ -0,0 +1,49 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.ticket.registry.support;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Invalidation channel between listeners of the same JVM. Invalidations are delivered
+ * synchronously by the publishing thread. Mostly useful for testing.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class InMemoryTicketInvalidationChannel implements TicketInvalidationChannel {
+
+    /** Subscribed listeners. */
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    @Override
+    public void subscribe(final Listener listener) {
+        this.listeners.add(listener);
+    }
+
+    @Override
+    public void publish(final Listener source, final String ticketId) {
+        for (final Listener listener : this.listeners) {
+            if (listener != source) {
+                listener.invalidate(ticketId);
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.ticket.registry.support;
+
+import org.jasig.cas.monitor.TicketType;
+import org.jasig.cas.ticket.Ticket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses serialized tickets before they are stored by distributed ticket registries.
+ * <p>
+ * Compressed payloads start with a format byte followed by the uncompressed length and the
+ * deflated data, so that payloads stored without compression can still be told apart and read.
+ * Payloads smaller than the {@link #setThreshold(int) threshold}, or that would not get smaller,
+ * are stored as they are. Deflate is used at its fastest level, optionally primed with a
+ * {@link #setDictionary(String) dictionary} of strings that are common to many tickets, such as
+ * principal attribute names and values. Every node reading the payloads must use the same dictionary.
+ * <p>
+ * Compression ratio and encoding and decoding times are recorded per {@link TicketType}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class TicketCompressor {
+
+    /** Default size in bytes below which payloads are not compressed. */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    /** Format of payloads stored as they are. */
+    private static final byte RAW = 0;
+
+    /** Format of deflated payloads. */
+    private static final byte DEFLATED = 1;
+
+    /** Format of payloads deflated with the dictionary. */
+    private static final byte DEFLATED_WITH_DICTIONARY = 2;
+
+    /** Size of the header of compressed payloads: format byte and uncompressed length. */
+    private static final int HEADER_SIZE = 5;
+
+    /** Per-thread deflater, as creating one allocates native memory. */
+    private final ThreadLocal<Deflater> deflater = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+    };
+
+    /** Per-thread inflater. */
+    private final ThreadLocal<Inflater> inflater = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    /** Statistics per ticket type; the map itself is never modified after construction. */
+    private final Map<TicketType, Statistics> statistics = new EnumMap<TicketType, Statistics>(TicketType.class);
+
+    /** Size in bytes below which payloads are not compressed. */
+    private int threshold = DEFAULT_THRESHOLD;
+
+    /** Preset dictionary, if any. */
+    private byte[] dictionary;
+
+    /**
+     * Instantiates a new compressor.
+     */
+    public TicketCompressor() {
+        for (final TicketType type : TicketType.values()) {
+            this.statistics.put(type, new Statistics());
+        }
+    }
+
+    /**
+     * Compresses a serialized object.
+     *
+     * @param data the serialized object
+     * @param value the object, used to record statistics per ticket type
+     * @return the payload to store, starting with its format byte
+     */
+    public byte[] compress(final byte[] data, final Object value) {
+        if (data.length < this.threshold) {
+            return raw(data);
+        }
+
+        final long start = System.nanoTime();
+        final Deflater def = this.deflater.get();
+        def.reset();
+        final byte format;
+        if (this.dictionary != null) {
+            def.setDictionary(this.dictionary);
+            format = DEFLATED_WITH_DICTIONARY;
+        } else {
+            format = DEFLATED;
+        }
+        def.setInput(data);
+        def.finish();
+
+        // compressed payloads larger than the data are useless
+        final byte[] buffer = new byte[data.length];
+        buffer[0] = format;
+        ByteBuffer.wrap(buffer, 1, 4).putInt(data.length);
+        int length = HEADER_SIZE;
+        while (!def.finished() && length < buffer.length) {
+            length += def.deflate(buffer, length, buffer.length - length);
+        }
+        if (!def.finished()) {
+            return raw(data);
+        }
+
+        this.statistics.get(typeOf(value)).recordEncode(data.length, length, System.nanoTime() - start);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Decompresses a payload produced by {@link #compress(byte[], Object)}.
+     *
+     * @param payload the stored payload
+     * @return the serialized object
+     * @throws IllegalArgumentException if the payload cannot be decompressed
+     */
+    public byte[] decompress(final byte[] payload) {
+        final byte format = payload[0];
+        if (format == RAW) {
+            return Arrays.copyOfRange(payload, 1, payload.length);
+        }
+        if (format != DEFLATED && format != DEFLATED_WITH_DICTIONARY) {
+            throw new IllegalArgumentException("Unknown payload format " + format);
+        }
+
+        final byte[] data = new byte[ByteBuffer.wrap(payload, 1, 4).getInt()];
+        final Inflater inf = this.inflater.get();
+        inf.reset();
+        inf.setInput(payload, HEADER_SIZE, payload.length - HEADER_SIZE);
+        try {
+            int length = 0;
+            while (length < data.length) {
+                final int n = inf.inflate(data, length, data.length - length);
+                if (n == 0 && inf.needsDictionary()) {
+                    if (this.dictionary == null) {
+                        throw new IllegalArgumentException("Payload was compressed with a dictionary but none is set");
+                    }
+                    inf.setDictionary(this.dictionary);
+                } else if (n == 0 && (inf.finished() || inf.needsInput())) {
+                    throw new IllegalArgumentException("Payload is truncated");
+                }
+                length += n;
+            }
+        } catch (final DataFormatException e) {
+            throw new IllegalArgumentException("Payload cannot be decompressed", e);
+        }
+        return data;
+    }
+
+    /**
+     * Tells whether a payload is compressed.
+     *
+     * @param payload the stored payload
+     * @return true, if the payload was compressed
+     */
+    public boolean isCompressed(final byte[] payload) {
+        return payload.length > 0 && payload[0] != RAW;
+    }
+
+    /**
+     * Records the time it took to decode a compressed payload, including deserialization.
+     *
+     * @param value the decoded object
+     * @param nanos the time in nanoseconds
+     */
+    public void recordDecode(final Object value, final long nanos) {
+        this.statistics.get(typeOf(value)).recordDecode(nanos);
+    }
+
+    /**
+     * Gets the compression statistics of each ticket type.
+     *
+     * @return an unmodifiable map of statistics per ticket type
+     */
+    public Map<TicketType, Statistics> getStatistics() {
+        return Collections.unmodifiableMap(this.statistics);
+    }
+
+    /**
+     * Sets the size below which payloads are not compressed.
+     *
+     * @param threshold the size in bytes
+     */
+    public void setThreshold(final int threshold) {
+        this.threshold = Math.max(threshold, HEADER_SIZE);
+    }
+
+    /**
+     * Sets the dictionary deflate is primed with, such as a list of frequent attribute names and values.
+     * Strings that occur most often should come last.
+     *
+     * @param dictionary the dictionary, or null for none
+     */
+    public void setDictionary(final String dictionary) {
+        this.dictionary = dictionary != null ? dictionary.getBytes(Charset.forName("UTF-8")) : null;
+    }
+
+    /**
+     * Frames data that is stored without compression.
+     *
+     * @param data the serialized object
+     * @return the payload
+     */
+    private static byte[] raw(final byte[] data) {
+        final byte[] payload = new byte[data.length + 1];
+        payload[0] = RAW;
+        System.arraycopy(data, 0, payload, 1, data.length);
+        return payload;
+    }
+
+    /**
+     * Gets the ticket type statistics of a value are recorded under.
+     *
+     * @param value the value
+     * @return the ticket type
+     */
+    private static TicketType typeOf(final Object value) {
+        return value instanceof Ticket ? TicketType.of((Ticket) value) : TicketType.OTHER;
+    }
+
+    /**
+     * Compression statistics of a ticket type.
+     */
+    public static final class Statistics {
+
+        /** Number of payloads compressed. */
+        private final AtomicLong encodeCount = new AtomicLong();
+
+        /** Total size of the payloads before compression. */
+        private final AtomicLong uncompressedBytes = new AtomicLong();
+
+        /** Total size of the payloads after compression. */
+        private final AtomicLong compressedBytes = new AtomicLong();
+
+        /** Total time spent compressing, in nanoseconds. */
+        private final AtomicLong encodeTime = new AtomicLong();
+
+        /** Number of compressed payloads decoded. */
+        private final AtomicLong decodeCount = new AtomicLong();
+
+        /** Total time spent decoding, in nanoseconds. */
+        private final AtomicLong decodeTime = new AtomicLong();
+
+        /**
+         * Records a compressed payload.
+         *
+         * @param uncompressed size before compression
+         * @param compressed size after compression
+         * @param nanos time it took
+         */
+        private void recordEncode(final int uncompressed, final int compressed, final long nanos) {
+            this.encodeCount.incrementAndGet();
+            this.uncompressedBytes.addAndGet(uncompressed);
+            this.compressedBytes.addAndGet(compressed);
+            this.encodeTime.addAndGet(nanos);
+        }
+
+        /**
+         * Records a decoded payload.
+         *
+         * @param nanos time it took
+         */
+        private void recordDecode(final long nanos) {
+            this.decodeCount.incrementAndGet();
+            this.decodeTime.addAndGet(nanos);
+        }
+
+        /**
+         * Gets the number of payloads compressed.
+         *
+         * @return the count
+         */
+        public long getEncodeCount() {
+            return this.encodeCount.get();
+        }
+
+        /**
+         * Gets the ratio of uncompressed to compressed sizes.
+         *
+         * @return the compression ratio, or 1 if nothing was compressed.
+         */
+        public double getCompressionRatio() {
+            final long compressed = this.compressedBytes.get();
+            return compressed == 0 ? 1 : (double) this.uncompressedBytes.get() / compressed;
+        }
+
+        /**
+         * Gets the average time it takes to compress a payload.
+         *
+         * @return the time in microseconds
+         */
+        public double getAverageEncodeTime() {
+            return average(this.encodeTime.get(), this.encodeCount.get());
+        }
+
+        /**
+         * Gets the average time it takes to decode a compressed payload.
+         *
+         * @return the time in microseconds
+         */
+        public double getAverageDecodeTime() {
+            return average(this.decodeTime.get(), this.decodeCount.get());
+        }
+
+        /**
+         * Computes an average time in microseconds.
+         *
+         * @param nanos total time in nanoseconds
+         * @param count number of operations
+         * @return the average
+         */
+        private static double average(final long nanos, final long count) {
+            return count == 0 ? 0 : (double) nanos / count / TimeUnit.MICROSECONDS.toNanos(1);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.ticket.registry.support;
+
+import org.jasig.cas.monitor.TicketType;
+import org.jasig.cas.ticket.Ticket;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe running count of tickets per {@link TicketType}, maintained by ticket registries
+ * as tickets are added and removed so that counts can be reported without scanning the registry.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class TicketCounter {
+
+    /** Counters per ticket type; the map itself is never modified after construction. */
+    private final Map<TicketType, AtomicLong> counters = new EnumMap<TicketType, AtomicLong>(TicketType.class);
+
+    /**
+     * Instantiates a new counter with all counts at zero.
+     */
+    public TicketCounter() {
+        for (final TicketType type : TicketType.values()) {
+            this.counters.put(type, new AtomicLong());
+        }
+    }
+
+    /**
+     * Count a ticket that was added to the registry.
+     *
+     * @param ticket the ticket
+     */
+    public void increment(final Ticket ticket) {
+        this.counters.get(TicketType.of(ticket)).incrementAndGet();
+    }
+
+    /**
+     * Count a ticket that was removed from the registry.
+     *
+     * @param ticket the ticket
+     */
+    public void decrement(final Ticket ticket) {
+        this.counters.get(TicketType.of(ticket)).decrementAndGet();
+    }
+
+    /**
+     * Gets the number of ticket-granting tickets, proxy-granting tickets included.
+     *
+     * @return the count
+     */
+    public int getTicketGrantingTicketCount() {
+        return toInt(get(TicketType.TICKET_GRANTING_TICKET) + get(TicketType.PROXY_GRANTING_TICKET));
+    }
+
+    /**
+     * Gets the number of service tickets, proxy tickets included.
+     *
+     * @return the count
+     */
+    public int getServiceTicketCount() {
+        return toInt(get(TicketType.SERVICE_TICKET) + get(TicketType.PROXY_TICKET));
+    }
+
+    /**
+     * Gets the count of every ticket type.
+     *
+     * @return read-only map of counts
+     */
+    public Map<TicketType, Integer> getCounts() {
+        final Map<TicketType, Integer> counts = new EnumMap<TicketType, Integer>(TicketType.class);
+        for (final TicketType type : TicketType.values()) {
+            counts.put(type, toInt(get(type)));
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * Gets the count of a ticket type.
+     *
+     * @param type the ticket type
+     * @return the count
+     */
+    private long get(final TicketType type) {
+        return this.counters.get(type).get();
+    }
+
+    /**
+     * Narrow a count to an int, saturating on overflow.
+     *
+     * @param count the count
+     * @return the count as an int
+     */
+    private static int toInt(final long count) {
+        return (int) Math.min(Integer.MAX_VALUE, count);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.ticket.registry.support;
+
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Time-bucketed index of ticket ids keyed by the time at which the ticket may expire.
+ * Tickets are grouped into buckets of a fixed time resolution so that expired tickets
+ * can be found by visiting only the buckets that are due, instead of every ticket.
+ * <p>
+ * The index only holds ticket ids and entries are never removed eagerly: a ticket that
+ * is deleted from the registry stays in its bucket until the bucket is due, and an id may be
+ * indexed more than once. Callers are expected to look the ticket up again and check whether
+ * it actually is expired when its id is returned from {@link #pollDue(long, int)}.
+ * <p>
+ * All operations are thread-safe and lock-free.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class TicketExpirationIndex {
+
+    /** Default bucket resolution in milliseconds. */
+    public static final long DEFAULT_RESOLUTION = 1000;
+
+    /** Width of a bucket in milliseconds. */
+    private final long resolution;
+
+    /** Buckets of ticket ids, keyed by bucket number. */
+    private final ConcurrentNavigableMap<Long, Queue<String>> buckets = new ConcurrentSkipListMap<Long, Queue<String>>();
+
+    /**
+     * Instantiates a new index with the {@link #DEFAULT_RESOLUTION default} resolution.
+     */
+    public TicketExpirationIndex() {
+        this(DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * Instantiates a new index.
+     *
+     * @param resolution width of a bucket in milliseconds
+     */
+    public TicketExpirationIndex(final long resolution) {
+        Assert.isTrue(resolution > 0, "resolution must be greater than 0.");
+        this.resolution = resolution;
+    }
+
+    /**
+     * Indexes a ticket id under the given expiration time.
+     *
+     * @param ticketId the ticket id
+     * @param expirationTime time in milliseconds since the epoch at which the ticket may expire
+     */
+    public void add(final String ticketId, final long expirationTime) {
+        final Long bucket = expirationTime / this.resolution;
+        while (true) {
+            Queue<String> queue = this.buckets.get(bucket);
+            if (queue == null) {
+                final Queue<String> newQueue = new ConcurrentLinkedQueue<String>();
+                queue = this.buckets.putIfAbsent(bucket, newQueue);
+                if (queue == null) {
+                    queue = newQueue;
+                }
+            }
+            queue.offer(ticketId);
+            // the bucket may have been drained and discarded concurrently
+            if (this.buckets.get(bucket) == queue) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes and returns up to <code>maxTicketIds</code> ticket ids from the buckets
+     * that are due at the given time, oldest buckets first.
+     *
+     * @param now time in milliseconds since the epoch
+     * @param maxTicketIds maximum number of ticket ids to return
+     * @return the ticket ids, never null.
+     */
+    public List<String> pollDue(final long now, final int maxTicketIds) {
+        final List<String> ticketIds = new ArrayList<String>(Math.min(maxTicketIds, 1024));
+        final Long due = now / this.resolution;
+
+        while (ticketIds.size() < maxTicketIds) {
+            final Map.Entry<Long, Queue<String>> entry = this.buckets.firstEntry();
+            if (entry == null || entry.getKey() > due) {
+                break;
+            }
+
+            final Queue<String> queue = entry.getValue();
+            String ticketId = queue.poll();
+            while (ticketId != null) {
+                ticketIds.add(ticketId);
+                if (ticketIds.size() >= maxTicketIds) {
+                    break;
+                }
+                ticketId = queue.poll();
+            }
+
+            if (queue.isEmpty() && this.buckets.remove(entry.getKey(), queue)) {
+                // ids offered while the bucket was being discarded are moved to a new bucket
+                ticketId = queue.poll();
+                while (ticketId != null) {
+                    add(ticketId, entry.getKey() * this.resolution);
+                    ticketId = queue.poll();
+                }
+            }
+        }
+        return ticketIds;
+    }
+
+    /**
+     * Gets the width of a bucket.
+     *
+     * @return the resolution in milliseconds
+     */
+    public long getResolution() {
+        return this.resolution;
+    }
+
+    /**
+     * Gets the number of non-empty buckets.
+     *
+     * @return the number of buckets
+     */
+    public int getBucketCount() {
+        return this.buckets.size();
+    }
+}
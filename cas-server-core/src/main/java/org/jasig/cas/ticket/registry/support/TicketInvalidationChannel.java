@@ -0,0 +1,57 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.ticket.registry.support;
+
+/**
+ * Channel through which nodes of a cluster tell each other that tickets they may
+ * hold in a local cache have changed or were deleted.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public interface TicketInvalidationChannel {
+
+    /**
+     * Registers a listener for invalidations published by other listeners.
+     *
+     * @param listener the listener
+     */
+    void subscribe(Listener listener);
+
+    /**
+     * Publishes the invalidation of a ticket to every listener but the one publishing it.
+     *
+     * @param source the listener publishing the invalidation
+     * @param ticketId the id of the ticket
+     */
+    void publish(Listener source, String ticketId);
+
+    /**
+     * Receiver of ticket invalidations.
+     */
+    interface Listener {
+
+        /**
+         * Discards the local copy of a ticket, if any.
+         *
+         * @param ticketId the id of the ticket
+         */
+        void invalidate(String ticketId);
+    }
+}
@@ -18,8 +18,8 @@
  */
 package org.jasig.cas.ticket.support;
 
-import org.jasig.cas.ticket.ExpirationPolicy;
 import org.jasig.cas.ticket.TicketState;
+import org.jasig.cas.ticket.TimeBasedExpirationPolicy;
 
 import java.util.concurrent.TimeUnit;
 
@@ -30,7 +30,7 @@ import java.util.concurrent.TimeUnit;
  * @author Andrew Feller
  * @since 3.1.2
  */
-public final class HardTimeoutExpirationPolicy implements ExpirationPolicy {
+public final class HardTimeoutExpirationPolicy implements TimeBasedExpirationPolicy {
 
     /** Serialization support. */
     private static final long serialVersionUID = 6728077010285422290L;
@@ -67,4 +67,12 @@ public final class HardTimeoutExpirationPolicy implements ExpirationPolicy {
         return (ticketState == null)
                 || (System.currentTimeMillis() - ticketState.getCreationTime() >= this.timeToKillInMilliSeconds);
     }
+
+    @Override
+    public long getExpirationTime(final TicketState ticketState) {
+        if (ticketState == null) {
+            return 0;
+        }
+        return ticketState.getCreationTime() + this.timeToKillInMilliSeconds;
+    }
 }
@@ -18,8 +18,8 @@
  */
 package org.jasig.cas.ticket.support;
 
-import org.jasig.cas.ticket.ExpirationPolicy;
 import org.jasig.cas.ticket.TicketState;
+import org.jasig.cas.ticket.TimeBasedExpirationPolicy;
 import org.springframework.util.Assert;
 
 import java.util.concurrent.TimeUnit;
@@ -31,7 +31,7 @@ import java.util.concurrent.TimeUnit;
  * @author Scott Battaglia
  * @since 3.0
  */
-public final class MultiTimeUseOrTimeoutExpirationPolicy implements ExpirationPolicy {
+public final class MultiTimeUseOrTimeoutExpirationPolicy implements TimeBasedExpirationPolicy {
 
     /** Serialization support. */
     private static final long serialVersionUID = -5704993954986738308L;
@@ -82,4 +82,12 @@ public final class MultiTimeUseOrTimeoutExpirationPolicy implements ExpirationPo
             || (ticketState.getCountOfUses() >= this.numberOfUses)
             || (System.currentTimeMillis() - ticketState.getLastTimeUsed() >= this.timeToKillInMilliSeconds);
     }
+
+    @Override
+    public long getExpirationTime(final TicketState ticketState) {
+        if (ticketState == null || ticketState.getCountOfUses() >= this.numberOfUses) {
+            return 0;
+        }
+        return ticketState.getLastTimeUsed() + this.timeToKillInMilliSeconds;
+    }
 }
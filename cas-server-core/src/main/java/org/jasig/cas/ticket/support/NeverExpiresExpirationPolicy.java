@@ -18,8 +18,8 @@
  */
 package org.jasig.cas.ticket.support;
 
-import org.jasig.cas.ticket.ExpirationPolicy;
 import org.jasig.cas.ticket.TicketState;
+import org.jasig.cas.ticket.TimeBasedExpirationPolicy;
 
 /**
  * NeverExpiresExpirationPolicy always answers false when asked if a Ticket is
@@ -30,7 +30,7 @@ import org.jasig.cas.ticket.TicketState;
 
  * @since 3.0
  */
-public final class NeverExpiresExpirationPolicy implements ExpirationPolicy {
+public final class NeverExpiresExpirationPolicy implements TimeBasedExpirationPolicy {
 
     /** Serializable Unique ID. */
     private static final long serialVersionUID = 3833747698242303540L;
@@ -39,4 +39,9 @@ public final class NeverExpiresExpirationPolicy implements ExpirationPolicy {
     public boolean isExpired(final TicketState ticketState) {
         return false;
     }
+
+    @Override
+    public long getExpirationTime(final TicketState ticketState) {
+        return Long.MAX_VALUE;
+    }
 }
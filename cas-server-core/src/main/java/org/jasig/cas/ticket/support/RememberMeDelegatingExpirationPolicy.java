@@ -21,6 +21,7 @@ package org.jasig.cas.ticket.support;
 import org.jasig.cas.authentication.RememberMeCredential;
 import org.jasig.cas.ticket.ExpirationPolicy;
 import org.jasig.cas.ticket.TicketState;
+import org.jasig.cas.ticket.TimeBasedExpirationPolicy;
 
 import javax.validation.constraints.NotNull;
 
@@ -32,7 +33,7 @@ import javax.validation.constraints.NotNull;
  * @since 3.2.1
  *
  */
-public final class RememberMeDelegatingExpirationPolicy implements ExpirationPolicy {
+public final class RememberMeDelegatingExpirationPolicy implements TimeBasedExpirationPolicy {
 
     /** Serialization support. */
     private static final long serialVersionUID = -2735975347698196127L;
@@ -55,6 +56,19 @@ public final class RememberMeDelegatingExpirationPolicy implements ExpirationPol
         return this.rememberMeExpirationPolicy.isExpired(ticketState);
     }
 
+    @Override
+    public long getExpirationTime(final TicketState ticketState) {
+        final Boolean b = (Boolean) ticketState.getAuthentication().getAttributes().
+                get(RememberMeCredential.AUTHENTICATION_ATTRIBUTE_REMEMBER_ME);
+        final ExpirationPolicy policy = b == null || b.equals(Boolean.FALSE)
+                ? this.sessionExpirationPolicy : this.rememberMeExpirationPolicy;
+
+        if (policy instanceof TimeBasedExpirationPolicy) {
+            return ((TimeBasedExpirationPolicy) policy).getExpirationTime(ticketState);
+        }
+        return Long.MAX_VALUE;
+    }
+
     public void setRememberMeExpirationPolicy(
         final ExpirationPolicy rememberMeExpirationPolicy) {
         this.rememberMeExpirationPolicy = rememberMeExpirationPolicy;
@@ -18,8 +18,8 @@
  */
 package org.jasig.cas.ticket.support;
 
-import org.jasig.cas.ticket.ExpirationPolicy;
 import org.jasig.cas.ticket.TicketState;
+import org.jasig.cas.ticket.TimeBasedExpirationPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,7 +32,7 @@ import org.slf4j.LoggerFactory;
 
  * @since 3.0.5
  */
-public final class ThrottledUseAndTimeoutExpirationPolicy implements ExpirationPolicy {
+public final class ThrottledUseAndTimeoutExpirationPolicy implements TimeBasedExpirationPolicy {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ThrottledUseAndTimeoutExpirationPolicy.class);
 
@@ -75,4 +75,13 @@ public final class ThrottledUseAndTimeoutExpirationPolicy implements ExpirationP
 
         return false;
     }
+
+    @Override
+    public long getExpirationTime(final TicketState ticketState) {
+        if (ticketState.getCountOfUses() > 0
+            && (System.currentTimeMillis() - ticketState.getLastTimeUsed() <= this.timeInBetweenUsesInMilliSeconds)) {
+            return ticketState.getLastTimeUsed();
+        }
+        return ticketState.getLastTimeUsed() + this.timeToKillInMilliSeconds;
+    }
 }
@@ -18,8 +18,8 @@
  */
 package org.jasig.cas.ticket.support;
 
-import org.jasig.cas.ticket.ExpirationPolicy;
 import org.jasig.cas.ticket.TicketState;
+import org.jasig.cas.ticket.TimeBasedExpirationPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
@@ -34,7 +34,7 @@ import java.util.concurrent.TimeUnit;
  * @author William G. Thompson, Jr.
  * @since 3.4.10
  */
-public final class TicketGrantingTicketExpirationPolicy implements ExpirationPolicy, InitializingBean {
+public final class TicketGrantingTicketExpirationPolicy implements TimeBasedExpirationPolicy, InitializingBean {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TicketGrantingTicketExpirationPolicy.class);
 
@@ -138,4 +138,9 @@ public final class TicketGrantingTicketExpirationPolicy implements ExpirationPol
         return false;
     }
 
+    @Override
+    public long getExpirationTime(final TicketState ticketState) {
+        return Math.min(ticketState.getCreationTime() + this.maxTimeToLiveInMilliSeconds,
+                ticketState.getLastTimeUsed() + this.timeToKillInMilliSeconds);
+    }
 }
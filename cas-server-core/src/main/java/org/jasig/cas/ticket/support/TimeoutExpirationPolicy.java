@@ -18,8 +18,8 @@
  */
 package org.jasig.cas.ticket.support;
 
-import org.jasig.cas.ticket.ExpirationPolicy;
 import org.jasig.cas.ticket.TicketState;
+import org.jasig.cas.ticket.TimeBasedExpirationPolicy;
 
 import java.util.concurrent.TimeUnit;
 
@@ -34,7 +34,7 @@ import java.util.concurrent.TimeUnit;
 
  * @since 3.0
  */
-public final class TimeoutExpirationPolicy implements ExpirationPolicy {
+public final class TimeoutExpirationPolicy implements TimeBasedExpirationPolicy {
 
     /** Serialization support. */
     private static final long serialVersionUID = -7636642464326939536L;
@@ -72,4 +72,12 @@ public final class TimeoutExpirationPolicy implements ExpirationPolicy {
         return (ticketState == null)
             || (System.currentTimeMillis() - ticketState.getLastTimeUsed() >= this.timeToKillInMilliSeconds);
     }
+
+    @Override
+    public long getExpirationTime(final TicketState ticketState) {
+        if (ticketState == null) {
+            return 0;
+        }
+        return ticketState.getLastTimeUsed() + this.timeToKillInMilliSeconds;
+    }
 }
@@ -72,13 +72,14 @@ public class HttpMessage {
     public HttpMessage(final URL url, final String message, final boolean async) {
         this.url = url;
         this.message = message;
+        this.asynchronous = async;
     }
     
     protected boolean isAsynchronous() {
         return this.asynchronous;
     }
 
-    protected final URL getUrl() {
+    public final URL getUrl() {
         return this.url;
     }
     
@@ -0,0 +1,49 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.util;
+
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.net.URL;
+
+/**
+ * A HTTP client whose calls also come in a non-blocking variant: they return at once, without
+ * holding a thread while the request is outstanding, and complete a future with the outcome.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public interface NonBlockingHttpClient extends HttpClient {
+
+    /**
+     * Sends a message to a particular endpoint without waiting for the response.
+     *
+     * @param message The message that should be sent to the http endpoint
+     * @return a future telling whether the endpoint accepted the message
+     */
+    ListenableFuture<Boolean> sendMessage(HttpMessage message);
+
+    /**
+     * Calls a url without waiting for the response, to ensure that the url is reachable.
+     *
+     * @param url the url to call
+     * @return a future telling whether the url is valid
+     */
+    ListenableFuture<Boolean> validateEndPoint(URL url);
+}
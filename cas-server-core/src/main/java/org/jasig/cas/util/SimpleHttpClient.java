@@ -172,6 +172,12 @@ public final class SimpleHttpClient implements HttpClient, Serializable, Disposa
 
     private CloseableHttpClient httpClient = null;
 
+    /**
+     * Executes messages on the executor service. It is shared by all messages, as closing it
+     * would also close the http client and shut down the executor service.
+     */
+    private FutureRequestExecutionService requestExecutionService = null;
+
     /**
      * Instantiates a new Simple http client.
      */
@@ -334,9 +340,8 @@ public final class SimpleHttpClient implements HttpClient, Serializable, Disposa
 
     @Override
     public boolean sendMessageToEndPoint(@NotNull final HttpMessage message) {
-        Assert.notNull(this.httpClient);
+        Assert.notNull(this.requestExecutionService);
 
-        FutureRequestExecutionService service = null;
         try {
             final HttpPost request = new HttpPost(message.getUrl().toURI());
             request.addHeader("Content-Type", message.getContentType());
@@ -344,9 +349,7 @@ public final class SimpleHttpClient implements HttpClient, Serializable, Disposa
             final StringEntity entity = new StringEntity(message.getMessage(), ContentType.create(message.getContentType()));
             request.setEntity(entity);
 
-            service = new FutureRequestExecutionService(this.httpClient, executorService);
-
-            final HttpRequestFutureTask<String> task = service.execute(request,
+            final HttpRequestFutureTask<String> task = this.requestExecutionService.execute(request,
                     HttpClientContext.create(), new BasicResponseHandler());
 
             if (message.isAsynchronous()) {
@@ -357,8 +360,6 @@ public final class SimpleHttpClient implements HttpClient, Serializable, Disposa
         } catch (final Exception e) {
             LOGGER.trace(e.getMessage(), e);
             return false;
-        } finally {
-            IOUtils.closeQuietly(service);
         }
     }
         
@@ -550,6 +551,7 @@ public final class SimpleHttpClient implements HttpClient, Serializable, Disposa
 
 
             this.httpClient = builder.build();
+            this.requestExecutionService = new FutureRequestExecutionService(this.httpClient, this.executorService);
         } catch (final Exception e) {
             LOGGER.error(e.getMessage(), e);
         }
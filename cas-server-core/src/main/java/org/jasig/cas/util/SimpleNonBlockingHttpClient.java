@@ -0,0 +1,413 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLContexts;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import javax.net.ssl.SSLContext;
+import javax.validation.constraints.NotNull;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A HTTP client built on non-blocking I/O: a few I/O dispatch threads serve all connections, so
+ * outstanding requests do not hold a thread each. Calls of the {@link HttpClient} interface wait
+ * for the outcome of their non-blocking variant, except for asynchronous messages.
+ * <p>
+ * Futures are completed on a few callback threads rather than on the I/O dispatch threads, so that
+ * callbacks registered on them, which may block, do not stall the other connections.
+ * <p>
+ * Connections are pooled, with a limit per host as well as in total. Statistics of the pool are
+ * available, for instance to a {@link org.jasig.cas.monitor.HttpClientPoolMonitor}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class SimpleNonBlockingHttpClient implements NonBlockingHttpClient, DisposableBean {
+
+    /** The default status codes we accept. */
+    private static final int[] DEFAULT_ACCEPTABLE_CODES = new int[] {
+        HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_NOT_MODIFIED,
+        HttpURLConnection.HTTP_MOVED_TEMP, HttpURLConnection.HTTP_MOVED_PERM,
+        HttpURLConnection.HTTP_ACCEPTED};
+
+    /** Default number of I/O dispatch threads. */
+    private static final int DEFAULT_IO_THREADS = 2;
+
+    private static final int MAX_POOLED_CONNECTIONS = 100;
+
+    private static final int MAX_CONNECTIONS_PER_ROUTE = 10;
+
+    private static final int DEFAULT_TIMEOUT = 5000;
+
+    /** Number of threads completing futures. */
+    private static final int CALLBACK_THREADS = 2;
+
+    /** Number of completions waiting for a callback thread, beyond which futures are completed on the I/O thread. */
+    private static final int CALLBACK_QUEUE_CAPACITY = 10000;
+
+    /** Time idle callback threads are kept, in seconds. */
+    private static final int KEEP_ALIVE_SECONDS = 60;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SimpleNonBlockingHttpClient.class);
+
+    /** List of HTTP status codes considered valid by {@link #isValidEndPoint(URL)}. */
+    @NotNull
+    private final int[] acceptableCodes;
+
+    /** Pool of connections. */
+    private final PoolingNHttpClientConnectionManager connectionManager;
+
+    /** The client. */
+    private final CloseableHttpAsyncClient httpClient;
+
+    /** Threads completing the futures of requests. */
+    private final ThreadPoolExecutor callbackExecutor;
+
+    /**
+     * Instantiates a new client with default settings.
+     */
+    public SimpleNonBlockingHttpClient() {
+        this(DEFAULT_TIMEOUT, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Instantiates a new client.
+     *
+     * @param readTimeout the read timeout
+     * @param connectionTimeout the connection timeout
+     */
+    public SimpleNonBlockingHttpClient(final int readTimeout, final int connectionTimeout) {
+        this(true, readTimeout, connectionTimeout);
+    }
+
+    /**
+     * Instantiates a new client.
+     *
+     * @param redirectsEnabled the redirects enabled
+     * @param readTimeout the read timeout
+     * @param connectionTimeout the connection timeout
+     */
+    public SimpleNonBlockingHttpClient(final boolean redirectsEnabled, final int readTimeout, final int connectionTimeout) {
+        this(DEFAULT_ACCEPTABLE_CODES, readTimeout, connectionTimeout, redirectsEnabled, SSLContexts.createDefault(),
+                SSLConnectionSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER, DEFAULT_IO_THREADS,
+                MAX_POOLED_CONNECTIONS, MAX_CONNECTIONS_PER_ROUTE);
+    }
+
+    /**
+     * Instantiates a new client.
+     *
+     * @param acceptableCodes the acceptable codes
+     * @param readTimeout the read timeout
+     * @param connectionTimeout the connection timeout
+     * @param redirectsEnabled the redirects enabled
+     * @param sslContext the ssl context
+     * @param hostnameVerifier the hostname verifier
+     * @param ioThreads the number of I/O dispatch threads
+     * @param maxConnections the max connections
+     * @param maxConnectionsPerRoute the max connections per route
+     */
+    public SimpleNonBlockingHttpClient(final int[] acceptableCodes, final int readTimeout, final int connectionTimeout,
+                                       final boolean redirectsEnabled, final SSLContext sslContext,
+                                       final X509HostnameVerifier hostnameVerifier, final int ioThreads,
+                                       final int maxConnections, final int maxConnectionsPerRoute) {
+        this.acceptableCodes = acceptableCodes;
+
+        final IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreads)
+                .setConnectTimeout(connectionTimeout)
+                .setSoTimeout(readTimeout)
+                .build();
+        final Registry<SchemeIOSessionStrategy> registry = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .register("https", new SSLIOSessionStrategy(sslContext, hostnameVerifier))
+                .build();
+        try {
+            this.connectionManager = new PoolingNHttpClientConnectionManager(
+                    new DefaultConnectingIOReactor(ioReactorConfig), registry);
+        } catch (final IOReactorException e) {
+            throw new IllegalStateException("Cannot create the I/O reactor of the http client", e);
+        }
+        this.connectionManager.setMaxTotal(maxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setSocketTimeout(readTimeout)
+                .setConnectTimeout(connectionTimeout)
+                .setConnectionRequestTimeout(connectionTimeout)
+                .setRedirectsEnabled(redirectsEnabled)
+                .setCircularRedirectsAllowed(redirectsEnabled)
+                .build();
+        this.httpClient = HttpAsyncClients.custom()
+                .setConnectionManager(this.connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setRedirectStrategy(new DefaultRedirectStrategy())
+                .useSystemProperties()
+                .build();
+
+        this.callbackExecutor = new ThreadPoolExecutor(CALLBACK_THREADS, CALLBACK_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(CALLBACK_QUEUE_CAPACITY), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "HttpClientCallback-" + this.count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.callbackExecutor.allowCoreThreadTimeOut(true);
+        this.httpClient.start();
+    }
+
+    @Override
+    public ListenableFuture<Boolean> sendMessage(@NotNull final HttpMessage message) {
+        final HttpPost request;
+        try {
+            request = new HttpPost(message.getUrl().toURI());
+        } catch (final Exception e) {
+            LOGGER.trace(e.getMessage(), e);
+            return completed(false);
+        }
+        request.addHeader("Content-Type", message.getContentType());
+        request.setEntity(new StringEntity(message.getMessage(), ContentType.create(message.getContentType())));
+
+        // as with blocking clients, any status below 300 means the message was accepted
+        return execute(request, null);
+    }
+
+    @Override
+    public ListenableFuture<Boolean> validateEndPoint(final URL url) {
+        final HttpGet request;
+        try {
+            request = new HttpGet(url.toURI());
+        } catch (final Exception e) {
+            LOGGER.error(e.getMessage(), e);
+            return completed(false);
+        }
+        return execute(request, this.acceptableCodes);
+    }
+
+    @Override
+    public boolean sendMessageToEndPoint(final HttpMessage message) {
+        final ListenableFuture<Boolean> result = sendMessage(message);
+        return message.isAsynchronous() || waitFor(result);
+    }
+
+    @Override
+    public boolean isValidEndPoint(final String url) {
+        try {
+            return isValidEndPoint(new URL(url));
+        } catch (final MalformedURLException e) {
+            LOGGER.error(e.getMessage(), e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isValidEndPoint(final URL url) {
+        return waitFor(validateEndPoint(url));
+    }
+
+    /**
+     * Gets the number of connections in use.
+     *
+     * @return the number of connections
+     */
+    public int getLeasedConnections() {
+        return this.connectionManager.getTotalStats().getLeased();
+    }
+
+    /**
+     * Gets the number of idle connections kept open.
+     *
+     * @return the number of connections
+     */
+    public int getAvailableConnections() {
+        return this.connectionManager.getTotalStats().getAvailable();
+    }
+
+    /**
+     * Gets the number of requests waiting for a connection, because their host or the pool is at its limit.
+     *
+     * @return the number of requests
+     */
+    public int getPendingConnections() {
+        return this.connectionManager.getTotalStats().getPending();
+    }
+
+    /**
+     * Gets the maximum number of connections.
+     *
+     * @return the number of connections
+     */
+    public int getMaxConnections() {
+        return this.connectionManager.getTotalStats().getMax();
+    }
+
+    /**
+     * Shuts down the I/O dispatch threads and closes all connections, then stops the callback threads
+     * once the pending futures are completed.
+     */
+    @Override
+    public void destroy() {
+        IOUtils.closeQuietly(this.httpClient);
+        this.callbackExecutor.shutdown();
+    }
+
+    /**
+     * Executes a request.
+     *
+     * @param request the request
+     * @param codes the status codes meaning success, or null for any status below 300
+     * @return a future telling whether the request succeeded
+     */
+    private ListenableFuture<Boolean> execute(final HttpUriRequest request, final int[] codes) {
+        final SettableListenableFuture<Boolean> result = new SettableListenableFuture<Boolean>();
+        this.httpClient.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(final HttpResponse response) {
+                final int code = response.getStatusLine().getStatusCode();
+                EntityUtils.consumeQuietly(response.getEntity());
+                final boolean success = codes == null ? code < HttpURLConnection.HTTP_MULT_CHOICE : contains(codes, code);
+                if (!success) {
+                    LOGGER.debug("Response code {} from {} is not acceptable", code, request.getURI());
+                }
+                complete(result, success);
+            }
+
+            @Override
+            public void failed(final Exception e) {
+                LOGGER.debug("Request to {} failed: {}", request.getURI(), e.getMessage());
+                complete(result, false);
+            }
+
+            @Override
+            public void cancelled() {
+                complete(result, false);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Completes the future of a request on a callback thread, or on the calling thread if the callback
+     * threads are saturated or stopped.
+     *
+     * @param result the future of the request
+     * @param outcome whether the request succeeded
+     */
+    private void complete(final SettableListenableFuture<Boolean> result, final boolean outcome) {
+        try {
+            this.callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    result.set(outcome);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            LOGGER.debug("Completing request on the I/O thread; callback threads are saturated or stopped");
+            result.set(outcome);
+        }
+    }
+
+    /**
+     * Waits for the outcome of a request.
+     *
+     * @param result the future of the request
+     * @return the outcome, or false if the thread was interrupted
+     */
+    private static boolean waitFor(final ListenableFuture<Boolean> result) {
+        try {
+            return result.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (final ExecutionException e) {
+            LOGGER.trace(e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Gets a future completed with the given outcome.
+     *
+     * @param outcome the outcome
+     * @return the future
+     */
+    private static ListenableFuture<Boolean> completed(final boolean outcome) {
+        final SettableListenableFuture<Boolean> result = new SettableListenableFuture<Boolean>();
+        result.set(outcome);
+        return result;
+    }
+
+    /**
+     * Tells whether a status code is one of the given ones.
+     *
+     * @param codes the codes
+     * @param code the code
+     * @return true, if it is
+     */
+    private static boolean contains(final int[] codes, final int code) {
+        for (final int acceptableCode : codes) {
+            if (acceptableCode == code) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
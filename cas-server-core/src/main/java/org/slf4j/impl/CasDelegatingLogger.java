@@ -19,7 +19,6 @@
 
 package org.slf4j.impl;
 
-import org.apache.commons.lang3.StringUtils;
 import org.jasig.cas.ticket.TicketGrantingTicket;
 import org.slf4j.Logger;
 import org.slf4j.Marker;
@@ -28,8 +27,6 @@ import org.slf4j.helpers.MarkerIgnoringBase;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * The CAS logger wrapper, which uses a substitute logger to route the logs.
@@ -37,6 +34,9 @@ import java.util.regex.Pattern;
  * sent to the logging engine (log4j, etc) and serves to manipulate
  * logging messages if needed, such as removing sensitive ticket id from
  * the log message.
+ * <p>
+ * Messages and arguments are only examined once the delegate is known to log them at the
+ * requested level, so that disabled log statements cost no more than the level check.
  * @author Misagh Moayyed
  * @since 4.1
  */
@@ -44,9 +44,8 @@ public final class CasDelegatingLogger extends MarkerIgnoringBase implements Ser
 
     private static final long serialVersionUID = 6182834493563598289L;
 
-    private static final Pattern TICKET_ID_PATTERN = Pattern.compile("(" + TicketGrantingTicket.PREFIX + "|"
-            + TicketGrantingTicket.PROXY_GRANTING_TICKET_PREFIX
-            + ")(-)*(\\w)*(-)*(\\w)*");
+    /** Length of the ticket granting ticket prefixes. */
+    private static final int PREFIX_LENGTH = TicketGrantingTicket.PREFIX.length();
 
     /**
      * Specifies the ending tail length of the ticket id that would still be visible in the output
@@ -76,6 +75,7 @@ public final class CasDelegatingLogger extends MarkerIgnoringBase implements Ser
 
     /**
      * Manipulate the log arguments. For now, removes ticket ids from the log.
+     * Arguments are only converted to strings here, once the log level is known to be enabled.
      * @param args log args
      * @return sanitized arguments
      */
@@ -89,26 +89,85 @@ public final class CasDelegatingLogger extends MarkerIgnoringBase implements Ser
     }
 
     /**
-     * Remove ticket id from the log message.
+     * Remove ticket ids from the log message in a single pass. A ticket id starts with one of the
+     * ticket granting ticket prefixes, followed by dashes and word characters; all but its
+     * {@link #VISIBLE_ID_TAIL_LENGTH last characters} are replaced by stars.
      *
      * @param msg the message
-     * @return the modified message with tgt id removed
+     * @return the modified message with tgt id removed, or the message itself if it holds no ticket id.
      */
-    private String removeTicketId(final String msg) {
-        final StringBuilder builder = new StringBuilder(msg.length());
+    static String removeTicketId(final String msg) {
+        if (msg == null) {
+            return null;
+        }
 
-        String modifiedMessage = msg;
+        StringBuilder builder = null;
+        int copied = 0;
+        int i = 0;
+        while (i <= msg.length() - PREFIX_LENGTH) {
+            if (!isTicketIdPrefix(msg, i)) {
+                i++;
+                continue;
+            }
 
-        final Matcher matcher = TICKET_ID_PATTERN.matcher(msg);
-        while (matcher.find()) {
-            final String match = matcher.group();
-            final String newId = matcher.group(1) + "-"
-                    + StringUtils.repeat("*", match.length() - VISIBLE_ID_TAIL_LENGTH)
-                    + StringUtils.right(match, VISIBLE_ID_TAIL_LENGTH);
+            int end = i + PREFIX_LENGTH;
+            end = skip(msg, end, false);
+            end = skip(msg, end, true);
+            end = skip(msg, end, false);
+            end = skip(msg, end, true);
 
-            modifiedMessage = modifiedMessage.replaceAll(match, newId);
+            if (builder == null) {
+                builder = new StringBuilder(msg.length() + PREFIX_LENGTH + 1);
+            }
+            builder.append(msg, copied, i).append(msg, i, i + PREFIX_LENGTH).append('-');
+            final int length = end - i;
+            for (int j = VISIBLE_ID_TAIL_LENGTH; j < length; j++) {
+                builder.append('*');
+            }
+            builder.append(msg, Math.max(i, end - VISIBLE_ID_TAIL_LENGTH), end);
+            copied = end;
+            i = end;
         }
-        return modifiedMessage;
+
+        if (builder == null) {
+            return msg;
+        }
+        return builder.append(msg, copied, msg.length()).toString();
+    }
+
+    /**
+     * Tells whether a ticket granting ticket prefix starts at the given index.
+     *
+     * @param msg the message
+     * @param index the index
+     * @return true, if the characters at the index are a ticket id prefix
+     */
+    private static boolean isTicketIdPrefix(final String msg, final int index) {
+        return msg.startsWith(TicketGrantingTicket.PREFIX, index)
+                || msg.startsWith(TicketGrantingTicket.PROXY_GRANTING_TICKET_PREFIX, index);
+    }
+
+    /**
+     * Skips a run of dashes or of word characters.
+     *
+     * @param msg the message
+     * @param start index of the first character of the run
+     * @param wordCharacters true to skip word characters, false to skip dashes
+     * @return index of the first character after the run
+     */
+    private static int skip(final String msg, final int start, final boolean wordCharacters) {
+        int index = start;
+        while (index < msg.length()) {
+            final char c = msg.charAt(index);
+            final boolean matches = wordCharacters
+                    ? c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    : c == '-';
+            if (!matches) {
+                break;
+            }
+            index++;
+        }
+        return index;
     }
 
     /**
@@ -121,7 +180,7 @@ public final class CasDelegatingLogger extends MarkerIgnoringBase implements Ser
     private String getExceptionToLog(final String msg, final Throwable t) {
         final StringWriter sW = new StringWriter();
         final PrintWriter w = new PrintWriter(sW);
-        w.println(manipulateLogMessage(msg));
+        w.println(msg);
         t.printStackTrace(w);
 
         final String log = sW.getBuffer().toString();
@@ -133,52 +192,72 @@ public final class CasDelegatingLogger extends MarkerIgnoringBase implements Ser
     */
     @Override
     public void trace(final String format, final Object arg) {
-        delegate.trace(manipulateLogMessage(format), manipulateLogArguments(arg));
+        if (delegate.isTraceEnabled()) {
+            delegate.trace(manipulateLogMessage(format), manipulateLogArguments(arg));
+        }
     }
 
     @Override
     public void trace(final String format, final Object arg1, final Object arg2) {
-        delegate.trace(manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        if (delegate.isTraceEnabled()) {
+            delegate.trace(manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        }
     }
 
     @Override
     public void trace(final String format, final Object... arguments) {
-        delegate.trace(manipulateLogMessage(format), manipulateLogArguments(arguments));
+        if (delegate.isTraceEnabled()) {
+            delegate.trace(manipulateLogMessage(format), manipulateLogArguments(arguments));
+        }
     }
 
     @Override
     public void trace(final String msg, final Throwable t) {
-        delegate.trace(getExceptionToLog(msg, t));
+        if (delegate.isTraceEnabled()) {
+            delegate.trace(getExceptionToLog(msg, t));
+        }
     }
 
     @Override
     public void trace(final Marker marker, final String msg) {
-        delegate.trace(marker, manipulateLogMessage(msg));
+        if (delegate.isTraceEnabled(marker)) {
+            delegate.trace(marker, manipulateLogMessage(msg));
+        }
     }
 
     @Override
     public void trace(final Marker marker, final String format, final Object arg) {
-        delegate.trace(marker, manipulateLogMessage(format), manipulateLogArguments(arg));
+        if (delegate.isTraceEnabled(marker)) {
+            delegate.trace(marker, manipulateLogMessage(format), manipulateLogArguments(arg));
+        }
     }
 
     @Override
     public void trace(final Marker marker, final String format, final Object arg1, final Object arg2) {
-        delegate.trace(marker, manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        if (delegate.isTraceEnabled(marker)) {
+            delegate.trace(marker, manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        }
     }
 
     @Override
     public void trace(final Marker marker, final String format, final Object... arguments) {
-        delegate.trace(marker, manipulateLogMessage(format), manipulateLogArguments(arguments));
+        if (delegate.isTraceEnabled(marker)) {
+            delegate.trace(marker, manipulateLogMessage(format), manipulateLogArguments(arguments));
+        }
     }
 
     @Override
     public void trace(final Marker marker, final String msg, final Throwable t) {
-        delegate.trace(marker, getExceptionToLog(msg, t));
+        if (delegate.isTraceEnabled(marker)) {
+            delegate.trace(marker, getExceptionToLog(msg, t));
+        }
     }
 
     @Override
     public void trace(final String msg) {
-        delegate.trace(manipulateLogMessage(msg));
+        if (delegate.isTraceEnabled()) {
+            delegate.trace(manipulateLogMessage(msg));
+        }
     }
 
     @Override
@@ -197,52 +276,72 @@ public final class CasDelegatingLogger extends MarkerIgnoringBase implements Ser
 
     @Override
     public void debug(final String format, final Object arg) {
-        delegate.debug(manipulateLogMessage(format), manipulateLogArguments(arg));
+        if (delegate.isDebugEnabled()) {
+            delegate.debug(manipulateLogMessage(format), manipulateLogArguments(arg));
+        }
     }
 
     @Override
     public void debug(final String format, final Object arg1, final Object arg2) {
-        delegate.debug(manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        if (delegate.isDebugEnabled()) {
+            delegate.debug(manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        }
     }
 
     @Override
     public void debug(final String format, final Object... arguments) {
-        delegate.debug(manipulateLogMessage(format), manipulateLogArguments(arguments));
+        if (delegate.isDebugEnabled()) {
+            delegate.debug(manipulateLogMessage(format), manipulateLogArguments(arguments));
+        }
     }
 
     @Override
     public void debug(final String msg, final Throwable t) {
-        delegate.debug(getExceptionToLog(msg, t));
+        if (delegate.isDebugEnabled()) {
+            delegate.debug(getExceptionToLog(msg, t));
+        }
     }
 
     @Override
     public void debug(final Marker marker, final String msg) {
-        delegate.debug(marker, manipulateLogMessage(msg));
+        if (delegate.isDebugEnabled(marker)) {
+            delegate.debug(marker, manipulateLogMessage(msg));
+        }
     }
 
     @Override
     public void debug(final Marker marker, final String format, final Object arg) {
-        delegate.debug(marker, manipulateLogMessage(format), manipulateLogArguments(arg));
+        if (delegate.isDebugEnabled(marker)) {
+            delegate.debug(marker, manipulateLogMessage(format), manipulateLogArguments(arg));
+        }
     }
 
     @Override
     public void debug(final Marker marker, final String format, final Object arg1, final Object arg2) {
-        delegate.debug(marker, manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        if (delegate.isDebugEnabled(marker)) {
+            delegate.debug(marker, manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        }
     }
 
     @Override
     public void debug(final Marker marker, final String format, final Object... arguments) {
-        delegate.debug(marker, manipulateLogMessage(format), manipulateLogArguments(arguments));
+        if (delegate.isDebugEnabled(marker)) {
+            delegate.debug(marker, manipulateLogMessage(format), manipulateLogArguments(arguments));
+        }
     }
 
     @Override
     public void debug(final Marker marker, final String msg, final Throwable t) {
-        delegate.debug(marker, getExceptionToLog(msg, t));
+        if (delegate.isDebugEnabled(marker)) {
+            delegate.debug(marker, getExceptionToLog(msg, t));
+        }
     }
 
     @Override
     public void debug(final String msg) {
-        delegate.debug(manipulateLogMessage(msg));
+        if (delegate.isDebugEnabled()) {
+            delegate.debug(manipulateLogMessage(msg));
+        }
     }
 
     /*
@@ -256,52 +355,72 @@ public final class CasDelegatingLogger extends MarkerIgnoringBase implements Ser
 
     @Override
     public void info(final String format, final Object arg) {
-        delegate.info(manipulateLogMessage(format), manipulateLogArguments(arg));
+        if (delegate.isInfoEnabled()) {
+            delegate.info(manipulateLogMessage(format), manipulateLogArguments(arg));
+        }
     }
 
     @Override
     public void info(final String format, final Object arg1, final Object arg2) {
-        delegate.info(manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        if (delegate.isInfoEnabled()) {
+            delegate.info(manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        }
     }
 
     @Override
     public void info(final String format, final Object... arguments) {
-        delegate.info(manipulateLogMessage(format), manipulateLogArguments(arguments));
+        if (delegate.isInfoEnabled()) {
+            delegate.info(manipulateLogMessage(format), manipulateLogArguments(arguments));
+        }
     }
 
     @Override
     public void info(final String msg, final Throwable t) {
-        delegate.info(getExceptionToLog(msg, t));
+        if (delegate.isInfoEnabled()) {
+            delegate.info(getExceptionToLog(msg, t));
+        }
     }
 
     @Override
     public void info(final Marker marker, final String msg) {
-        delegate.info(marker, manipulateLogMessage(msg));
+        if (delegate.isInfoEnabled(marker)) {
+            delegate.info(marker, manipulateLogMessage(msg));
+        }
     }
 
     @Override
     public void info(final Marker marker, final String format, final Object arg) {
-        delegate.info(marker, manipulateLogMessage(format), manipulateLogArguments(arg));
+        if (delegate.isInfoEnabled(marker)) {
+            delegate.info(marker, manipulateLogMessage(format), manipulateLogArguments(arg));
+        }
     }
 
     @Override
     public void info(final Marker marker, final String format, final Object arg1, final Object arg2) {
-        delegate.info(marker, manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        if (delegate.isInfoEnabled(marker)) {
+            delegate.info(marker, manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        }
     }
 
     @Override
     public void info(final Marker marker, final String format, final Object... arguments) {
-        delegate.info(marker, manipulateLogMessage(format), manipulateLogArguments(arguments));
+        if (delegate.isInfoEnabled(marker)) {
+            delegate.info(marker, manipulateLogMessage(format), manipulateLogArguments(arguments));
+        }
     }
 
     @Override
     public void info(final Marker marker, final String msg, final Throwable t) {
-        delegate.info(marker, getExceptionToLog(msg, t));
+        if (delegate.isInfoEnabled(marker)) {
+            delegate.info(marker, getExceptionToLog(msg, t));
+        }
     }
 
     @Override
     public void info(final String msg) {
-        delegate.info(manipulateLogMessage(msg));
+        if (delegate.isInfoEnabled()) {
+            delegate.info(manipulateLogMessage(msg));
+        }
     }
 
     /*
@@ -315,52 +434,72 @@ public final class CasDelegatingLogger extends MarkerIgnoringBase implements Ser
 
     @Override
     public void warn(final String format, final Object arg) {
-        delegate.warn(manipulateLogMessage(format), manipulateLogArguments(arg));
+        if (delegate.isWarnEnabled()) {
+            delegate.warn(manipulateLogMessage(format), manipulateLogArguments(arg));
+        }
     }
 
     @Override
     public void warn(final String format, final Object arg1, final Object arg2) {
-        delegate.warn(manipulateLogMessage(format),  manipulateLogArguments(arg1, arg2));
+        if (delegate.isWarnEnabled()) {
+            delegate.warn(manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        }
     }
 
     @Override
     public void warn(final String format, final Object... arguments) {
-        delegate.warn(manipulateLogMessage(format), manipulateLogArguments(arguments));
+        if (delegate.isWarnEnabled()) {
+            delegate.warn(manipulateLogMessage(format), manipulateLogArguments(arguments));
+        }
     }
 
     @Override
     public void warn(final String msg, final Throwable t) {
-        delegate.warn(getExceptionToLog(msg, t));
+        if (delegate.isWarnEnabled()) {
+            delegate.warn(getExceptionToLog(msg, t));
+        }
     }
 
     @Override
     public void warn(final Marker marker, final String msg) {
-        delegate.warn(marker, manipulateLogMessage(msg));
+        if (delegate.isWarnEnabled(marker)) {
+            delegate.warn(marker, manipulateLogMessage(msg));
+        }
     }
 
     @Override
     public void warn(final Marker marker, final String format, final Object arg) {
-        delegate.warn(marker, manipulateLogMessage(format), manipulateLogArguments(arg));
+        if (delegate.isWarnEnabled(marker)) {
+            delegate.warn(marker, manipulateLogMessage(format), manipulateLogArguments(arg));
+        }
     }
 
     @Override
     public void warn(final Marker marker, final String format, final Object arg1, final Object arg2) {
-        delegate.warn(marker, manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        if (delegate.isWarnEnabled(marker)) {
+            delegate.warn(marker, manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        }
     }
 
     @Override
     public void warn(final Marker marker, final String format, final Object... arguments) {
-        delegate.warn(marker, manipulateLogMessage(format), manipulateLogArguments(arguments));
+        if (delegate.isWarnEnabled(marker)) {
+            delegate.warn(marker, manipulateLogMessage(format), manipulateLogArguments(arguments));
+        }
     }
 
     @Override
     public void warn(final Marker marker, final String msg, final Throwable t) {
-        delegate.warn(marker, getExceptionToLog(msg, t));
+        if (delegate.isWarnEnabled(marker)) {
+            delegate.warn(marker, getExceptionToLog(msg, t));
+        }
     }
 
     @Override
     public void warn(final String msg) {
-        delegate.warn(manipulateLogMessage(msg));
+        if (delegate.isWarnEnabled()) {
+            delegate.warn(manipulateLogMessage(msg));
+        }
     }
 
     /*
@@ -374,52 +513,72 @@ public final class CasDelegatingLogger extends MarkerIgnoringBase implements Ser
 
     @Override
     public void error(final String format, final Object arg) {
-        delegate.error(manipulateLogMessage(format), manipulateLogArguments(arg));
+        if (delegate.isErrorEnabled()) {
+            delegate.error(manipulateLogMessage(format), manipulateLogArguments(arg));
+        }
     }
 
     @Override
     public void error(final String format, final Object arg1, final Object arg2) {
-        delegate.error(manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        if (delegate.isErrorEnabled()) {
+            delegate.error(manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        }
     }
 
     @Override
     public void error(final String format, final Object... arguments) {
-        delegate.error(manipulateLogMessage(format), manipulateLogArguments(arguments));
+        if (delegate.isErrorEnabled()) {
+            delegate.error(manipulateLogMessage(format), manipulateLogArguments(arguments));
+        }
     }
 
     @Override
     public void error(final String msg, final Throwable t) {
-        delegate.error(getExceptionToLog(msg, t));
+        if (delegate.isErrorEnabled()) {
+            delegate.error(getExceptionToLog(msg, t));
+        }
     }
 
     @Override
     public void error(final Marker marker, final String msg) {
-        delegate.error(marker, manipulateLogMessage(msg));
+        if (delegate.isErrorEnabled(marker)) {
+            delegate.error(marker, manipulateLogMessage(msg));
+        }
     }
 
     @Override
     public void error(final Marker marker, final String format, final Object arg) {
-        delegate.error(marker, manipulateLogMessage(format), manipulateLogArguments(arg));
+        if (delegate.isErrorEnabled(marker)) {
+            delegate.error(marker, manipulateLogMessage(format), manipulateLogArguments(arg));
+        }
     }
 
     @Override
     public void error(final Marker marker, final String format, final Object arg1, final Object arg2) {
-        delegate.error(marker, manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        if (delegate.isErrorEnabled(marker)) {
+            delegate.error(marker, manipulateLogMessage(format), manipulateLogArguments(arg1, arg2));
+        }
     }
 
     @Override
     public void error(final Marker marker, final String format, final Object... arguments) {
-        delegate.error(marker, manipulateLogMessage(format), manipulateLogArguments(arguments));
+        if (delegate.isErrorEnabled(marker)) {
+            delegate.error(marker, manipulateLogMessage(format), manipulateLogArguments(arguments));
+        }
     }
 
     @Override
     public void error(final Marker marker, final String msg, final Throwable t) {
-        delegate.error(marker, getExceptionToLog(msg, t));
+        if (delegate.isErrorEnabled(marker)) {
+            delegate.error(marker, getExceptionToLog(msg, t));
+        }
     }
 
     @Override
     public void error(final String msg) {
-        delegate.error(manipulateLogMessage(msg));
+        if (delegate.isErrorEnabled()) {
+            delegate.error(manipulateLogMessage(msg));
+        }
     }
 
     @Override
@@ -0,0 +1,145 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.aspect;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.jasig.cas.aspect.jmx.LogAspectMBean;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for {@link LogAspect}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class LogAspectTests {
+
+    private final LogAspect logAspect = new LogAspect();
+
+    @Test
+    public void verifyReturnValueIsNotRenderedWhenTracingIsOff() throws Throwable {
+        final CountingReturnValue returnValue = new CountingReturnValue();
+        final ProceedingJoinPoint joinPoint = newJoinPoint("toString", returnValue);
+
+        assertSame(returnValue, this.logAspect.traceMethod(joinPoint));
+        assertEquals(0, returnValue.count);
+        assertTrue(this.logAspect.getStatistics().isEmpty());
+    }
+
+    @Test
+    public void verifyProfiling() throws Throwable {
+        this.logAspect.setProfilingEnabled(true);
+        final ProceedingJoinPoint toStringMethod = newJoinPoint("toString", null);
+        final ProceedingJoinPoint hashCodeMethod = newJoinPoint("hashCode", null);
+        for (int i = 0; i < 3; i++) {
+            this.logAspect.traceMethod(toStringMethod);
+        }
+        this.logAspect.traceMethod(hashCodeMethod);
+
+        final ProceedingJoinPoint failing = newJoinPoint("hashCode", null);
+        when(failing.proceed()).thenThrow(new IllegalStateException());
+        try {
+            this.logAspect.traceMethod(failing);
+            fail("Should have thrown IllegalStateException");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+
+        final List<MethodStatistics> statistics = this.logAspect.getStatistics();
+        assertEquals(2, statistics.size());
+        for (final MethodStatistics methodStatistics : statistics) {
+            if (methodStatistics.getName().endsWith(".toString")) {
+                assertEquals(3, methodStatistics.getCount());
+            } else {
+                assertEquals(2, methodStatistics.getCount());
+                assertEquals(1, methodStatistics.getErrorCount());
+            }
+        }
+
+        this.logAspect.resetStatistics();
+        this.logAspect.setProfilingEnabled(false);
+        this.logAspect.traceMethod(toStringMethod);
+        assertTrue(this.logAspect.getStatistics().isEmpty());
+    }
+
+    @Test
+    public void verifyProfilingIsSwitchedThroughMBean() throws Throwable {
+        final LogAspectMBean mbean = new LogAspectMBean(this.logAspect);
+        final ProceedingJoinPoint toStringMethod = newJoinPoint("toString", null);
+        assertFalse(mbean.isProfilingEnabled());
+
+        mbean.setProfilingEnabled(true);
+        this.logAspect.traceMethod(toStringMethod);
+        assertTrue(this.logAspect.isProfilingEnabled());
+        assertEquals(1, mbean.getSlowestMethods(10).size());
+
+        mbean.setProfilingEnabled(false);
+        mbean.resetStatistics();
+        this.logAspect.traceMethod(toStringMethod);
+        assertTrue(mbean.getSlowestMethods(10).isEmpty());
+    }
+
+    @Test
+    public void verifyPercentiles() {
+        final MethodStatistics statistics = new MethodStatistics("method");
+        assertEquals(0, statistics.getPercentile(99));
+        for (int i = 1; i <= 100; i++) {
+            statistics.record(i * 1000, false);
+        }
+
+        assertEquals(100, statistics.getCount());
+        assertEquals(50500, statistics.getAverageTime());
+        assertEquals(100000, statistics.getMaxTime());
+        final long median = statistics.getPercentile(50);
+        assertTrue(median >= 50000 && median < 100000);
+        assertEquals(100000, statistics.getPercentile(100));
+    }
+
+    private ProceedingJoinPoint newJoinPoint(final String methodName, final Object returnValue) throws Throwable {
+        final Method method = Object.class.getMethod(methodName);
+        final MethodSignature signature = mock(MethodSignature.class);
+        when(signature.getName()).thenReturn(methodName);
+        when(signature.getDeclaringTypeName()).thenReturn(method.getDeclaringClass().getName());
+        when(signature.getMethod()).thenReturn(method);
+
+        final ProceedingJoinPoint joinPoint = mock(ProceedingJoinPoint.class);
+        when(joinPoint.getSignature()).thenReturn(signature);
+        when(joinPoint.getTarget()).thenReturn(this);
+        when(joinPoint.proceed()).thenReturn(returnValue);
+        return joinPoint;
+    }
+
+    private static class CountingReturnValue {
+
+        private int count;
+
+        @Override
+        public String toString() {
+            this.count++;
+            return super.toString();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.aspect;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.monitor.MetricsRegistry;
+import org.jasig.cas.monitor.OperationMetrics;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.services.ServicesManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.perf4j.aop.Profiled;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for {@link MetricsAspect}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class MetricsAspectTests {
+
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+    private final MetricsAspect metricsAspect = new MetricsAspect();
+
+    @Before
+    public void setUp() {
+        this.metricsAspect.setMetricsRegistry(this.metricsRegistry);
+    }
+
+    @Test
+    public void verifyOperationIsRecorded() throws Throwable {
+        final ProceedingJoinPoint joinPoint = mock(ProceedingJoinPoint.class);
+        when(joinPoint.proceed()).thenReturn("ST-1");
+        assertEquals("ST-1", this.metricsAspect.recordOperation(joinPoint, newProfiled("GRANT_SERVICE_TICKET")));
+
+        when(joinPoint.proceed()).thenThrow(new IllegalStateException());
+        try {
+            this.metricsAspect.recordOperation(joinPoint, newProfiled("GRANT_SERVICE_TICKET"));
+            fail("Should have thrown IllegalStateException");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+
+        final OperationMetrics metrics = this.metricsRegistry.getOperation("GRANT_SERVICE_TICKET");
+        assertEquals(2, metrics.getCount());
+        assertEquals(1, metrics.getErrorCount());
+        assertEquals(1, this.metricsRegistry.getOperations().size());
+    }
+
+    @Test
+    public void verifyOperationIsRecordedPerRegisteredService() throws Throwable {
+        final Service service = mock(Service.class);
+        final RegisteredService registeredService = mock(RegisteredService.class);
+        when(registeredService.getName()).thenReturn("Portal");
+        final ServicesManager servicesManager = mock(ServicesManager.class);
+        when(servicesManager.findServiceBy(service)).thenReturn(registeredService);
+        this.metricsAspect.setServicesManager(servicesManager);
+
+        final ProceedingJoinPoint joinPoint = mock(ProceedingJoinPoint.class);
+        when(joinPoint.getArgs()).thenReturn(new Object[] {"ST-1", service});
+        this.metricsAspect.recordOperation(joinPoint, newProfiled("VALIDATE_SERVICE_TICKET"));
+
+        assertEquals(1, this.metricsRegistry.getOperation("VALIDATE_SERVICE_TICKET").getCount());
+        assertEquals(1, this.metricsRegistry.getOperation("VALIDATE_SERVICE_TICKET:Portal").getCount());
+    }
+
+    @Test
+    public void verifyRegisteredServiceFoundByOperationIsReused() throws Throwable {
+        final Service service = mock(Service.class);
+        final RegisteredService registeredService = mock(RegisteredService.class);
+        when(registeredService.getName()).thenReturn("Portal");
+        final ServicesManager servicesManager = mock(ServicesManager.class);
+        this.metricsAspect.setServicesManager(servicesManager);
+
+        final ProceedingJoinPoint inner = mock(ProceedingJoinPoint.class);
+        when(inner.getArgs()).thenReturn(new Object[] {"TGT-1", service, null});
+        when(inner.proceed()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) {
+                metricsAspect.rememberRegisteredService(registeredService);
+                return "ST-1";
+            }
+        });
+        final ProceedingJoinPoint outer = mock(ProceedingJoinPoint.class);
+        when(outer.getArgs()).thenReturn(new Object[] {"TGT-1", service});
+        when(outer.proceed()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                return metricsAspect.recordOperation(inner, newProfiled("GRANT_SERVICE_TICKET"));
+            }
+        });
+        assertEquals("ST-1", this.metricsAspect.recordOperation(outer, newProfiled("GRANT_SERVICE_TICKET")));
+
+        assertEquals(2, this.metricsRegistry.getOperation("GRANT_SERVICE_TICKET").getCount());
+        assertEquals(2, this.metricsRegistry.getOperation("GRANT_SERVICE_TICKET:Portal").getCount());
+        verify(servicesManager, never()).findServiceBy(service);
+    }
+
+    @Test
+    public void verifyRecordingFailureDoesNotReplaceOutcome() throws Throwable {
+        final Service service = mock(Service.class);
+        final ServicesManager servicesManager = mock(ServicesManager.class);
+        when(servicesManager.findServiceBy(service)).thenThrow(new IllegalArgumentException());
+        this.metricsAspect.setServicesManager(servicesManager);
+
+        final ProceedingJoinPoint joinPoint = mock(ProceedingJoinPoint.class);
+        when(joinPoint.getArgs()).thenReturn(new Object[] {"ST-1", service});
+        when(joinPoint.proceed()).thenReturn("valid");
+        assertEquals("valid", this.metricsAspect.recordOperation(joinPoint, newProfiled("VALIDATE_SERVICE_TICKET")));
+
+        when(joinPoint.proceed()).thenThrow(new IllegalStateException());
+        try {
+            this.metricsAspect.recordOperation(joinPoint, newProfiled("VALIDATE_SERVICE_TICKET"));
+            fail("Should have thrown IllegalStateException");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+        assertEquals(2, this.metricsRegistry.getOperation("VALIDATE_SERVICE_TICKET").getCount());
+    }
+
+    @Test
+    public void verifyNothingIsRecordedWithoutRegistry() throws Throwable {
+        final MetricsAspect unconfigured = new MetricsAspect();
+        final ProceedingJoinPoint joinPoint = mock(ProceedingJoinPoint.class);
+        when(joinPoint.proceed()).thenReturn("ST-1");
+        assertEquals("ST-1", unconfigured.recordOperation(joinPoint, newProfiled("GRANT_SERVICE_TICKET")));
+    }
+
+    private static Profiled newProfiled(final String tag) {
+        final Profiled profiled = mock(Profiled.class);
+        when(profiled.tag()).thenReturn(tag);
+        return profiled;
+    }
+}
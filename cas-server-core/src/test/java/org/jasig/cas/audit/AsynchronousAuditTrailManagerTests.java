@@ -0,0 +1,228 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.audit;
+
+import com.github.inspektr.audit.AuditActionContext;
+import com.github.inspektr.audit.AuditTrailManager;
+import org.jasig.cas.monitor.MetricsRegistry;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link AsynchronousAuditTrailManager}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class AsynchronousAuditTrailManagerTests {
+
+    @Test
+    public void verifyRecordsAreWrittenInBatches() throws Exception {
+        final RecordingAuditTrailManager delegate = new RecordingAuditTrailManager();
+        final AsynchronousAuditTrailManager manager = new AsynchronousAuditTrailManager(delegate);
+        final MetricsRegistry metricsRegistry = new MetricsRegistry();
+        manager.setMetricsRegistry(metricsRegistry);
+        manager.afterPropertiesSet();
+        for (int i = 0; i < 250; i++) {
+            manager.record(newRecord("user" + i));
+        }
+        manager.destroy();
+
+        assertEquals(250, delegate.records.size());
+        assertEquals("user0", delegate.records.get(0).getPrincipal());
+        assertEquals("user249", delegate.records.get(249).getPrincipal());
+        assertTrue(delegate.batches >= 3);
+        assertEquals(0, manager.getQueueDepth());
+        assertEquals(delegate.batches, metricsRegistry.getOperation("AUDIT_FLUSH").getCount());
+
+        // records made after the writer stopped are written right away
+        manager.record(newRecord("late"));
+        assertEquals(251, delegate.records.size());
+    }
+
+    @Test
+    public void verifyRecordsWaitForRoomByDefault() throws Exception {
+        final RecordingAuditTrailManager delegate = new RecordingAuditTrailManager();
+        final AsynchronousAuditTrailManager manager = new AsynchronousAuditTrailManager(delegate, 2);
+        manager.afterPropertiesSet();
+        delegate.block();
+        fillWhileWriterIsBlocked(manager, delegate, 3);
+
+        final Thread waiting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                manager.record(newRecord("user3"));
+            }
+        });
+        waiting.start();
+        waiting.join(200);
+        assertTrue(waiting.isAlive());
+        assertEquals(2, manager.getQueueDepth());
+
+        delegate.unblock();
+        waiting.join(5000);
+        manager.destroy();
+        assertEquals(0, manager.getDroppedCount());
+        assertEquals(4, delegate.records.size());
+        assertEquals("user3", delegate.records.get(3).getPrincipal());
+    }
+
+    @Test
+    public void verifyOldestRecordsAreDropped() throws Exception {
+        final RecordingAuditTrailManager delegate = new RecordingAuditTrailManager();
+        final AsynchronousAuditTrailManager manager = new AsynchronousAuditTrailManager(delegate, 2);
+        manager.setOverflowPolicy(AsynchronousAuditTrailManager.OverflowPolicy.DROP_OLDEST);
+        manager.afterPropertiesSet();
+        delegate.block();
+        fillWhileWriterIsBlocked(manager, delegate, 5);
+
+        assertEquals(2, manager.getQueueDepth());
+        assertEquals(2, manager.getDroppedCount());
+        delegate.unblock();
+        manager.destroy();
+        assertEquals(3, delegate.records.size());
+        assertEquals("user4", delegate.records.get(2).getPrincipal());
+    }
+
+    @Test
+    public void verifyRecordsAreSpilled() throws Exception {
+        final File spillFile = File.createTempFile("audit", ".spill");
+        spillFile.deleteOnExit();
+        final RecordingAuditTrailManager delegate = new RecordingAuditTrailManager();
+        final AsynchronousAuditTrailManager manager = new AsynchronousAuditTrailManager(delegate, 2);
+        manager.setOverflowPolicy(AsynchronousAuditTrailManager.OverflowPolicy.SPILL);
+        manager.setSpillFile(spillFile);
+        manager.afterPropertiesSet();
+        delegate.block();
+        fillWhileWriterIsBlocked(manager, delegate, 5);
+
+        assertEquals(2, manager.getSpilledCount());
+        final BufferedReader reader = new BufferedReader(new FileReader(spillFile));
+        try {
+            assertTrue(reader.readLine().contains("\tuser3\t"));
+            assertTrue(reader.readLine().contains("\tuser4\t"));
+            assertNull(reader.readLine());
+        } finally {
+            reader.close();
+        }
+        delegate.unblock();
+        manager.destroy();
+        assertEquals(3, delegate.records.size());
+    }
+
+    @Test
+    public void verifyWriterSurvivesInterruptsAndErrors() throws Exception {
+        final RecordingAuditTrailManager delegate = new RecordingAuditTrailManager() {
+            @Override
+            public void record(final List<AuditActionContext> auditActionContexts) {
+                if ("user0".equals(auditActionContexts.get(0).getPrincipal())) {
+                    Thread.currentThread().interrupt();
+                    throw new AssertionError("write failed");
+                }
+                super.record(auditActionContexts);
+            }
+        };
+        final AsynchronousAuditTrailManager manager = new AsynchronousAuditTrailManager(delegate);
+        manager.afterPropertiesSet();
+        manager.record(newRecord("user0"));
+        while (manager.getDroppedCount() == 0) {
+            Thread.sleep(10);
+        }
+        manager.record(newRecord("user1"));
+        assertTrue(delegate.writing.await(5, TimeUnit.SECONDS));
+        manager.destroy();
+
+        assertEquals(1, delegate.records.size());
+        assertEquals("user1", delegate.records.get(0).getPrincipal());
+    }
+
+    @Test
+    public void verifyRecordsAreWrittenOnCallingThreadBeforeStart() throws Exception {
+        final RecordingAuditTrailManager delegate = new RecordingAuditTrailManager();
+        final AsynchronousAuditTrailManager manager = new AsynchronousAuditTrailManager(delegate);
+        manager.record(newRecord("early"));
+        assertEquals(1, delegate.records.size());
+        manager.destroy();
+    }
+
+    /**
+     * Records a first record the writer blocks on, then more records.
+     */
+    private static void fillWhileWriterIsBlocked(final AsynchronousAuditTrailManager manager,
+            final RecordingAuditTrailManager delegate, final int count) throws InterruptedException {
+        manager.record(newRecord("user0"));
+        assertTrue(delegate.writing.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < count; i++) {
+            manager.record(newRecord("user" + i));
+        }
+    }
+
+    private static AuditActionContext newRecord(final String principal) {
+        return new AuditActionContext(principal, "resource", "AUTHENTICATION_SUCCESS", "CAS", new Date(),
+                "1.2.3.4", "5.6.7.8", null);
+    }
+
+    private static class RecordingAuditTrailManager implements BatchAuditTrailManager {
+
+        private final List<AuditActionContext> records = Collections.synchronizedList(
+                new ArrayList<AuditActionContext>());
+
+        private final CountDownLatch writing = new CountDownLatch(1);
+
+        private CountDownLatch blocked = new CountDownLatch(0);
+
+        private volatile int batches;
+
+        void block() {
+            this.blocked = new CountDownLatch(1);
+        }
+
+        void unblock() {
+            this.blocked.countDown();
+        }
+
+        @Override
+        public void record(final AuditActionContext auditActionContext) {
+            record(Collections.singletonList(auditActionContext));
+        }
+
+        @Override
+        public void record(final List<AuditActionContext> auditActionContexts) {
+            this.writing.countDown();
+            try {
+                this.blocked.await();
+            } catch (final InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            this.batches++;
+            this.records.addAll(auditActionContexts);
+        }
+    }
+}
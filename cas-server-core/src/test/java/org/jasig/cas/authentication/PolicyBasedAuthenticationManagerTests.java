@@ -21,6 +21,8 @@ package org.jasig.cas.authentication;
 import javax.security.auth.login.FailedLoginException;
 
 import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.monitor.MetricsRegistry;
+import org.jasig.cas.monitor.OperationMetrics;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -126,6 +128,23 @@ public class PolicyBasedAuthenticationManagerTests {
         assertEquals(2, auth.getCredentials().size());
     }
 
+    @Test
+    public void testAuthenticateRecordsHandlerMetrics() throws Exception {
+        final PolicyBasedAuthenticationManager manager = new PolicyBasedAuthenticationManager(
+                newMockHandler("HandlerA", false),
+                newMockHandler("HandlerB", true));
+        final MetricsRegistry metricsRegistry = new MetricsRegistry();
+        manager.setMetricsRegistry(metricsRegistry);
+        manager.authenticate(mock(Credential.class));
+
+        final OperationMetrics handlerA = metricsRegistry.getOperation("AUTHENTICATE:HandlerA");
+        assertEquals(1, handlerA.getCount());
+        assertEquals(1, handlerA.getErrorCount());
+        final OperationMetrics handlerB = metricsRegistry.getOperation("AUTHENTICATE:HandlerB");
+        assertEquals(1, handlerB.getCount());
+        assertEquals(0, handlerB.getErrorCount());
+    }
+
     /**
      * Creates a new mock authentication handler that either successfully validates all credentials or fails to
      * validate all credentials.
@@ -0,0 +1,323 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.logout;
+
+import org.jasig.cas.monitor.MetricsRegistry;
+import org.jasig.cas.util.HttpClient;
+import org.jasig.cas.util.HttpMessage;
+import org.jasig.cas.util.NonBlockingHttpClient;
+import org.junit.Test;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link BackChannelLogoutDispatcher}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class BackChannelLogoutDispatcherTests {
+
+    @Test
+    public void verifyConcurrencyIsBoundedPerHost() throws Exception {
+        final BlockingHttpClient client = new BlockingHttpClient();
+        final BackChannelLogoutDispatcher dispatcher = new BackChannelLogoutDispatcher(client, 10);
+        dispatcher.setMaxConcurrentRequestsPerHost(2);
+
+        final List<ListenableFuture<Boolean>> futures = new ArrayList<ListenableFuture<Boolean>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(dispatcher.send(newMessage("http://app1.example.org/logout")));
+            futures.add(dispatcher.send(newMessage("http://app2.example.org:8080/logout")));
+        }
+        final ListenableFuture<List<Boolean>> all = BackChannelLogoutDispatcher.allOf(futures);
+        assertTrue(client.started.await(5, TimeUnit.SECONDS));
+        assertEquals(16, dispatcher.getQueuedCount());
+        assertFalse(all.isDone());
+
+        client.release.countDown();
+        final List<Boolean> results = all.get(5, TimeUnit.SECONDS);
+        assertEquals(20, results.size());
+        assertFalse(results.contains(false));
+        assertEquals(2, client.maxActive.get("app1.example.org:80").get());
+        assertEquals(2, client.maxActive.get("app2.example.org:8080").get());
+        assertEquals(0, dispatcher.getQueuedCount());
+        dispatcher.destroy();
+    }
+
+    @Test
+    public void verifyOutcomeIsRecorded() throws Exception {
+        final MetricsRegistry metricsRegistry = new MetricsRegistry();
+        final BackChannelLogoutDispatcher dispatcher = new BackChannelLogoutDispatcher(new HttpClient() {
+            @Override
+            public boolean sendMessageToEndPoint(final HttpMessage message) {
+                if (message.getUrl().getHost().startsWith("down")) {
+                    throw new IllegalStateException("Connection refused");
+                }
+                return true;
+            }
+
+            @Override
+            public boolean isValidEndPoint(final String url) {
+                return true;
+            }
+
+            @Override
+            public boolean isValidEndPoint(final URL url) {
+                return true;
+            }
+        }, 2);
+        dispatcher.setMetricsRegistry(metricsRegistry);
+
+        final List<Boolean> results = BackChannelLogoutDispatcher.allOf(Arrays.asList(
+                dispatcher.send(newMessage("https://up.example.org/logout")),
+                dispatcher.send(newMessage("https://down.example.org/logout")),
+                dispatcher.send(newMessage("https://up.example.org/logout")))).get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(true, false, true), results);
+        assertEquals(3, metricsRegistry.getOperation("BACK_CHANNEL_LOGOUT").getCount());
+        assertEquals(1, metricsRegistry.getOperation("BACK_CHANNEL_LOGOUT").getErrorCount());
+        assertEquals(2, metricsRegistry.getOperation("BACK_CHANNEL_LOGOUT:up.example.org:443").getCount());
+        assertEquals(0, metricsRegistry.getOperation("BACK_CHANNEL_LOGOUT:up.example.org:443").getErrorCount());
+        assertEquals(1, metricsRegistry.getOperation("BACK_CHANNEL_LOGOUT:down.example.org:443").getErrorCount());
+        assertEquals(3, metricsRegistry.getOperations().size());
+        dispatcher.destroy();
+    }
+
+    @Test
+    public void verifyHostMetricsAreBounded() throws Exception {
+        final MetricsRegistry metricsRegistry = new MetricsRegistry();
+        metricsRegistry.setMaxQualifiedOperations(1);
+        final BackChannelLogoutDispatcher dispatcher = new BackChannelLogoutDispatcher(new HttpClient() {
+            @Override
+            public boolean sendMessageToEndPoint(final HttpMessage message) {
+                return true;
+            }
+
+            @Override
+            public boolean isValidEndPoint(final String url) {
+                return true;
+            }
+
+            @Override
+            public boolean isValidEndPoint(final URL url) {
+                return true;
+            }
+        }, 2);
+        dispatcher.setMetricsRegistry(metricsRegistry);
+
+        dispatcher.send(newMessage("https://one.example.org/logout")).get(5, TimeUnit.SECONDS);
+        BackChannelLogoutDispatcher.allOf(Arrays.asList(
+                dispatcher.send(newMessage("https://two.example.org/logout")),
+                dispatcher.send(newMessage("https://three.example.org/logout")))).get(5, TimeUnit.SECONDS);
+        assertEquals(3, metricsRegistry.getOperation("BACK_CHANNEL_LOGOUT").getCount());
+        assertEquals(1, metricsRegistry.getOperation("BACK_CHANNEL_LOGOUT:one.example.org:443").getCount());
+        assertEquals(2, metricsRegistry.getOperation("BACK_CHANNEL_LOGOUT:OTHER").getCount());
+        assertEquals(3, metricsRegistry.getOperations().size());
+        dispatcher.destroy();
+    }
+
+    @Test
+    public void verifyNonBlockingClientDoesNotHoldThreads() throws Exception {
+        final BlockingQueue<SettableListenableFuture<Boolean>> pending = new LinkedBlockingQueue<SettableListenableFuture<Boolean>>();
+        final BackChannelLogoutDispatcher dispatcher = new BackChannelLogoutDispatcher(new PendingHttpClient(pending), 1);
+        dispatcher.setMaxConcurrentRequestsPerHost(1);
+
+        final List<ListenableFuture<Boolean>> futures = new ArrayList<ListenableFuture<Boolean>>();
+        futures.add(dispatcher.send(newMessage("http://app1.example.org/logout")));
+        futures.add(dispatcher.send(newMessage("http://app2.example.org/logout")));
+        futures.add(dispatcher.send(newMessage("http://app2.example.org/logout")));
+
+        // a single thread starts a message to each host, the second message to app2 waits for the first one
+        final SettableListenableFuture<Boolean> first = pending.poll(5, TimeUnit.SECONDS);
+        final SettableListenableFuture<Boolean> second = pending.poll(5, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(1, dispatcher.getQueuedCount());
+
+        first.set(true);
+        second.set(false);
+        final SettableListenableFuture<Boolean> third = pending.poll(5, TimeUnit.SECONDS);
+        assertNotNull(third);
+        third.set(true);
+        final List<Boolean> results = BackChannelLogoutDispatcher.allOf(futures).get(5, TimeUnit.SECONDS);
+        assertEquals(2, Collections.frequency(results, true));
+        assertEquals(0, dispatcher.getQueuedCount());
+        dispatcher.destroy();
+    }
+
+    @Test
+    public void verifyFullHostQueueRefusesMessages() throws Exception {
+        final BlockingHttpClient client = new BlockingHttpClient();
+        final BackChannelLogoutDispatcher dispatcher = new BackChannelLogoutDispatcher(client, 4);
+        dispatcher.setMaxConcurrentRequestsPerHost(4);
+        dispatcher.setMaxPendingRequestsPerHost(1);
+
+        final List<ListenableFuture<Boolean>> futures = new ArrayList<ListenableFuture<Boolean>>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(dispatcher.send(newMessage("http://app1.example.org/logout")));
+        }
+        final ListenableFuture<Boolean> refused = dispatcher.send(newMessage("http://app1.example.org/logout"));
+        assertTrue(refused.isDone());
+        assertFalse(refused.get());
+        assertEquals(1, dispatcher.getQueuedCount());
+
+        client.release.countDown();
+        assertFalse(BackChannelLogoutDispatcher.allOf(futures).get(5, TimeUnit.SECONDS).contains(false));
+        dispatcher.destroy();
+    }
+
+    @Test
+    public void verifyFullThreadQueueRefusesMessages() throws Exception {
+        final BlockingHttpClient client = new BlockingHttpClient();
+        final BackChannelLogoutDispatcher dispatcher = new BackChannelLogoutDispatcher(client, 1, 1);
+
+        final List<ListenableFuture<Boolean>> futures = new ArrayList<ListenableFuture<Boolean>>();
+        futures.add(dispatcher.send(newMessage("http://app1.example.org/logout")));
+        while (client.started.getCount() == 4) {
+            Thread.sleep(10);
+        }
+        futures.add(dispatcher.send(newMessage("http://app2.example.org/logout")));
+        final ListenableFuture<Boolean> refused = dispatcher.send(newMessage("http://app3.example.org/logout"));
+        assertTrue(refused.isDone());
+        assertFalse(refused.get());
+
+        client.release.countDown();
+        assertFalse(BackChannelLogoutDispatcher.allOf(futures).get(5, TimeUnit.SECONDS).contains(false));
+        dispatcher.destroy();
+    }
+
+    @Test
+    public void verifyMessagesAreNotSentOnceDestroyed() throws Exception {
+        final BlockingHttpClient client = new BlockingHttpClient();
+        client.release.countDown();
+        final BackChannelLogoutDispatcher dispatcher = new BackChannelLogoutDispatcher(client, 1);
+        dispatcher.destroy();
+        assertFalse(dispatcher.send(newMessage("http://app1.example.org/logout")).get(5, TimeUnit.SECONDS));
+        assertEquals(0, dispatcher.getQueuedCount());
+    }
+
+    @Test
+    public void verifyNothingToWaitFor() throws Exception {
+        final List<ListenableFuture<Boolean>> futures = new ArrayList<ListenableFuture<Boolean>>();
+        assertTrue(BackChannelLogoutDispatcher.allOf(futures).get().isEmpty());
+    }
+
+    private static HttpMessage newMessage(final String url) throws Exception {
+        return new HttpMessage(new URL(url), "logoutRequest", false);
+    }
+
+    /**
+     * Non-blocking client handing out the futures of its messages, to be completed by the test.
+     */
+    private static final class PendingHttpClient implements NonBlockingHttpClient {
+
+        private final BlockingQueue<SettableListenableFuture<Boolean>> pending;
+
+        PendingHttpClient(final BlockingQueue<SettableListenableFuture<Boolean>> pending) {
+            this.pending = pending;
+        }
+
+        @Override
+        public ListenableFuture<Boolean> sendMessage(final HttpMessage message) {
+            final SettableListenableFuture<Boolean> result = new SettableListenableFuture<Boolean>();
+            this.pending.add(result);
+            return result;
+        }
+
+        @Override
+        public ListenableFuture<Boolean> validateEndPoint(final URL url) {
+            final SettableListenableFuture<Boolean> result = new SettableListenableFuture<Boolean>();
+            result.set(true);
+            return result;
+        }
+
+        @Override
+        public boolean sendMessageToEndPoint(final HttpMessage message) {
+            throw new UnsupportedOperationException("Messages should not be sent synchronously");
+        }
+
+        @Override
+        public boolean isValidEndPoint(final String url) {
+            return true;
+        }
+
+        @Override
+        public boolean isValidEndPoint(final URL url) {
+            return true;
+        }
+    }
+
+    /**
+     * Client holding messages until released, keeping track of the messages sent at once per host.
+     */
+    private static final class BlockingHttpClient implements HttpClient {
+
+        private final CountDownLatch started = new CountDownLatch(4);
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private final ConcurrentMap<String, AtomicInteger> active = new ConcurrentHashMap<String, AtomicInteger>();
+
+        private final ConcurrentMap<String, AtomicInteger> maxActive = new ConcurrentHashMap<String, AtomicInteger>();
+
+        @Override
+        public boolean sendMessageToEndPoint(final HttpMessage message) {
+            final String host = message.getUrl().getHost() + ':'
+                    + (message.getUrl().getPort() != -1 ? message.getUrl().getPort() : message.getUrl().getDefaultPort());
+            this.active.putIfAbsent(host, new AtomicInteger());
+            this.maxActive.putIfAbsent(host, new AtomicInteger());
+            final int count = this.active.get(host).incrementAndGet();
+            synchronized (this.maxActive) {
+                this.maxActive.get(host).set(Math.max(count, this.maxActive.get(host).get()));
+            }
+            this.started.countDown();
+            try {
+                return this.release.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                return false;
+            } finally {
+                this.active.get(host).decrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean isValidEndPoint(final String url) {
+            return true;
+        }
+
+        @Override
+        public boolean isValidEndPoint(final URL url) {
+            return true;
+        }
+    }
+}
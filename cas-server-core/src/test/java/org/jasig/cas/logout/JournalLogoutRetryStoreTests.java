@@ -0,0 +1,140 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.logout;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link JournalLogoutRetryStore}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class JournalLogoutRetryStoreTests {
+
+    private static final String URL = "https://app.example.org/logout";
+
+    private static final String MESSAGE = "<samlp:LogoutRequest ID=\"LR-1\">\n\t<samlp:SessionIndex>ST-1</samlp:SessionIndex>";
+
+    private File journal;
+
+    @Before
+    public void setUp() throws Exception {
+        this.journal = File.createTempFile("logout", ".journal");
+        this.journal.delete();
+    }
+
+    @After
+    public void tearDown() {
+        this.journal.delete();
+    }
+
+    @Test
+    public void verifyEntriesAreReplayed() throws Exception {
+        final JournalLogoutRetryStore store = new JournalLogoutRetryStore(this.journal);
+        store.save(new LogoutRetryEntry("ST-1", URL, MESSAGE, 1, 1000));
+        store.save(new LogoutRetryEntry("ST-2", URL, MESSAGE, 1, 1000));
+        store.save(new LogoutRetryEntry("ST-1", URL, MESSAGE, 2, 2000));
+        store.remove("ST-2");
+        store.close();
+
+        // a line only partly written before a crash is ignored
+        final OutputStream out = new FileOutputStream(this.journal, true);
+        out.write("S\tST-3\t1".getBytes(Charset.forName("UTF-8")));
+        out.close();
+
+        final Collection<LogoutRetryEntry> entries = new JournalLogoutRetryStore(this.journal).load();
+        assertEquals(1, entries.size());
+        final LogoutRetryEntry entry = entries.iterator().next();
+        assertEquals("ST-1", entry.getSessionIndex());
+        assertEquals(URL, entry.getUrl());
+        assertEquals(MESSAGE, entry.getMessage());
+        assertEquals(2, entry.getAttempts());
+        assertEquals(2000, entry.getNextAttemptTime());
+    }
+
+    @Test
+    public void verifyTornLineWithAllFieldsIsIgnored() throws Exception {
+        final JournalLogoutRetryStore store = new JournalLogoutRetryStore(this.journal);
+        store.save(new LogoutRetryEntry("ST-1", URL, MESSAGE, 1, 1000));
+        store.close();
+
+        // the message was cut short, but every field separator was written
+        final OutputStream out = new FileOutputStream(this.journal, true);
+        out.write("S\tST-2\t1\t1000\taHR0cHM6Ly9\tPHNhbW".getBytes(Charset.forName("UTF-8")));
+        out.close();
+
+        final JournalLogoutRetryStore reopened = new JournalLogoutRetryStore(this.journal);
+        assertEquals(1, reopened.load().size());
+
+        // lines written after the torn line are not glued to it
+        reopened.save(new LogoutRetryEntry("ST-3", URL, MESSAGE, 1, 1000));
+        reopened.close();
+        assertEquals(2, new JournalLogoutRetryStore(this.journal).load().size());
+    }
+
+    @Test
+    public void verifyJournalIsOnlyAccessibleByOwner() throws Exception {
+        new JournalLogoutRetryStore(this.journal).close();
+        final Path path = this.journal.toPath();
+        if (Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(path));
+        }
+    }
+
+    @Test
+    public void verifyJournalIsCompacted() throws Exception {
+        final JournalLogoutRetryStore store = new JournalLogoutRetryStore(this.journal);
+        store.save(new LogoutRetryEntry("ST-0", URL, MESSAGE, 1, 1000));
+        for (int i = 1; i <= 1000; i++) {
+            store.save(new LogoutRetryEntry("ST-" + i, URL, MESSAGE, 1, 1000));
+            store.remove("ST-" + i);
+        }
+        store.save(new LogoutRetryEntry("ST-1001", URL, MESSAGE, 1, 1000));
+        store.close();
+
+        // 2002 lines were written, the journal was compacted along the way
+        final BufferedReader reader = new BufferedReader(new FileReader(this.journal));
+        int lines = 0;
+        while (reader.readLine() != null) {
+            lines++;
+        }
+        reader.close();
+        assertTrue(lines < 1000);
+
+        final Collection<LogoutRetryEntry> entries = new JournalLogoutRetryStore(this.journal).load();
+        assertEquals(2, entries.size());
+    }
+}
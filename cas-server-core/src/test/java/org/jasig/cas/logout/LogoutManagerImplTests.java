@@ -30,10 +30,19 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+
+import org.apache.commons.codec.binary.Base64;
 
 import java.net.URL;
 
@@ -54,6 +63,8 @@ public class LogoutManagerImplTests {
 
     private LogoutManagerImpl logoutManager;
 
+    private HttpClient client;
+
     private TicketGrantingTicket tgt;
 
     private Map<String, Service> services;
@@ -65,18 +76,18 @@ public class LogoutManagerImplTests {
     @Before
     public void setUp() {
 
-        final HttpClient client = mock(HttpClient.class);
-        when(client.isValidEndPoint(any(String.class))).thenReturn(true);
-        when(client.isValidEndPoint(any(URL.class))).thenReturn(true);
-        when(client.sendMessageToEndPoint(any(HttpMessage.class))).thenReturn(true);
+        this.client = mock(HttpClient.class);
+        when(this.client.isValidEndPoint(any(String.class))).thenReturn(true);
+        when(this.client.isValidEndPoint(any(URL.class))).thenReturn(true);
+        when(this.client.sendMessageToEndPoint(any(HttpMessage.class))).thenReturn(true);
 
         final ServicesManager servicesManager = mock(ServicesManager.class);
-        this.logoutManager = new LogoutManagerImpl(servicesManager, client, new SamlCompliantLogoutMessageCreator());
+        this.logoutManager = new LogoutManagerImpl(servicesManager, this.client, new SamlCompliantLogoutMessageCreator());
         this.tgt = mock(TicketGrantingTicket.class);
         this.services = new HashMap<String, Service>();
         this.simpleWebApplicationServiceImpl = new SimpleWebApplicationServiceImpl(URL);
         this.services.put(ID, this.simpleWebApplicationServiceImpl);
-        when(this.tgt.getServices()).thenReturn(this.services);
+        when(this.tgt.removeAllServices()).thenReturn(this.services);
         this.registeredService = new RegisteredServiceImpl();
         when(servicesManager.findServiceBy(this.simpleWebApplicationServiceImpl)).thenReturn(this.registeredService);
     }
@@ -150,4 +161,64 @@ public class LogoutManagerImplTests {
         final Collection<LogoutRequest> logoutRequests = this.logoutManager.performLogout(tgt);
         assertEquals(1, logoutRequests.size());
     }
+
+    @Test
+    public void testSynchronousLogoutFailure() {
+        this.registeredService.setLogoutType(LogoutType.BACK_CHANNEL);
+        this.logoutManager.setAsynchronous(false);
+        when(this.client.sendMessageToEndPoint(any(HttpMessage.class))).thenReturn(false);
+        final Collection<LogoutRequest> logoutRequests = this.logoutManager.performLogout(tgt);
+        assertEquals(1, logoutRequests.size());
+        assertEquals(LogoutRequestStatus.FAILURE, logoutRequests.iterator().next().getStatus());
+    }
+
+    @Test
+    public void testSynchronousLogoutTimeout() {
+        this.registeredService.setLogoutType(LogoutType.BACK_CHANNEL);
+        this.logoutManager.setAsynchronous(false);
+        this.logoutManager.setBackChannelTimeout(100);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(this.client.sendMessageToEndPoint(any(HttpMessage.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(final InvocationOnMock invocation) throws Throwable {
+                return release.await(5, TimeUnit.SECONDS);
+            }
+        });
+        try {
+            final Collection<LogoutRequest> logoutRequests = this.logoutManager.performLogout(tgt);
+            assertEquals(1, logoutRequests.size());
+            assertEquals(LogoutRequestStatus.FAILURE, logoutRequests.iterator().next().getStatus());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testFrontChannelLogoutMessageLargerOnceDeflated() throws Exception {
+        // random characters do not compress, the deflated message is larger than the message
+        final Random random = new Random(0);
+        final StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            message.append((char) ('!' + random.nextInt(90)));
+        }
+        final LogoutManagerImpl manager = new LogoutManagerImpl(mock(ServicesManager.class), this.client,
+                new LogoutMessageCreator() {
+                    @Override
+                    public String create(final LogoutRequest request) {
+                        return message.toString();
+                    }
+                });
+
+        final LogoutRequest request = new LogoutRequest(ID, this.simpleWebApplicationServiceImpl);
+        for (int i = 0; i < 2; i++) {
+            final byte[] deflated = Base64.decodeBase64(manager.createFrontChannelLogoutMessage(request));
+            final Inflater inflater = new Inflater();
+            inflater.setInput(deflated);
+            final byte[] inflated = new byte[message.length()];
+            assertEquals(message.length(), inflater.inflate(inflated));
+            assertTrue(inflater.finished());
+            inflater.end();
+            assertEquals(message.toString(), new String(inflated, Charset.forName("ASCII")));
+        }
+    }
 }
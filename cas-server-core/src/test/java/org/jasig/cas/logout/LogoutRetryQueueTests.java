@@ -0,0 +1,259 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.logout;
+
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.util.HttpClient;
+import org.jasig.cas.util.HttpMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link LogoutRetryQueue}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class LogoutRetryQueueTests {
+
+    private static final String URL1 = "https://app1.example.org/logout";
+
+    private static final String URL2 = "https://app2.example.org/logout";
+
+    private FailingHttpClient client;
+
+    private LogoutRetryStore store;
+
+    private LogoutRetryQueue queue;
+
+    @Before
+    public void setUp() {
+        this.client = new FailingHttpClient();
+        this.store = new InMemoryLogoutRetryStore();
+        this.queue = new LogoutRetryQueue(new BackChannelLogoutDispatcher(this.client, new DirectExecutorService()), this.store);
+        this.queue.setInitialDelay(0);
+        this.queue.setMaxDelay(0);
+    }
+
+    @Test
+    public void verifyMessageIsRetriedUntilDelivered() {
+        this.client.failures = 2;
+        this.queue.add(newRequest("ST-1", URL1), "message");
+        this.queue.add(newRequest("ST-1", URL1), "message");
+        assertEquals(1, this.queue.getPendingCount());
+        assertEquals(1, this.store.load().size());
+
+        assertEquals(1, this.queue.retryDue(System.currentTimeMillis()));
+        assertEquals(1, this.queue.retryDue(System.currentTimeMillis()));
+        assertEquals(3, this.store.load().iterator().next().getAttempts());
+        assertEquals(1, this.queue.retryDue(System.currentTimeMillis()));
+        assertEquals(3, this.client.calls.get());
+        assertEquals(0, this.queue.getPendingCount());
+        assertTrue(this.store.load().isEmpty());
+        assertTrue(this.queue.getDeadLetters().isEmpty());
+    }
+
+    @Test
+    public void verifyMessageIsGivenUp() {
+        this.client.failures = Integer.MAX_VALUE;
+        this.queue.setMaxAttempts(3);
+        this.queue.add(newRequest("ST-1", URL1), "message");
+        this.queue.retryDue(System.currentTimeMillis());
+        this.queue.retryDue(System.currentTimeMillis());
+        assertEquals(0, this.queue.retryDue(System.currentTimeMillis()));
+
+        assertEquals(2, this.client.calls.get());
+        assertEquals(0, this.queue.getPendingCount());
+        final List<LogoutRetryEntry> deadLetters = this.queue.getDeadLetters();
+        assertEquals(1, deadLetters.size());
+        assertEquals("ST-1", deadLetters.get(0).getSessionIndex());
+        assertEquals(3, deadLetters.get(0).getAttempts());
+    }
+
+    @Test
+    public void verifyMessagesAreDelayed() {
+        this.queue.setInitialDelay(60000);
+        this.queue.setMaxDelay(60000);
+        this.queue.add(newRequest("ST-1", URL1), "message");
+        assertEquals(0, this.queue.retryDue(System.currentTimeMillis()));
+        assertEquals(1, this.queue.retryDue(System.currentTimeMillis() + 60000));
+    }
+
+    @Test
+    public void verifyCircuitOpensPerHost() {
+        this.client.failures = Integer.MAX_VALUE;
+        this.queue.setFailureThreshold(2);
+        this.queue.setOpenCircuitTime(60000);
+        this.queue.add(newRequest("ST-1", URL1), "message");
+        this.queue.add(newRequest("ST-2", URL1), "message");
+        this.queue.add(newRequest("ST-3", URL1), "message");
+        this.queue.add(newRequest("ST-4", URL2), "message");
+
+        // the circuit of the first host opens after its failures
+        assertEquals(4, this.queue.retryDue(System.currentTimeMillis()));
+        assertEquals(1, this.queue.retryDue(System.currentTimeMillis()));
+
+        // then a single message probes the host
+        this.client.failures = 0;
+        assertEquals(2, this.queue.retryDue(System.currentTimeMillis() + 60000));
+        assertEquals(2, this.queue.getPendingCount());
+        assertEquals(2, this.queue.retryDue(System.currentTimeMillis() + 60000));
+        assertEquals(0, this.queue.getPendingCount());
+    }
+
+    @Test
+    public void verifyMessagesAreLoadedFromStore() {
+        this.store.save(new LogoutRetryEntry("ST-1", URL1, "message", 1, 0));
+        final LogoutRetryQueue reloaded = new LogoutRetryQueue(
+                new BackChannelLogoutDispatcher(this.client, new DirectExecutorService()), this.store);
+        assertEquals(1, reloaded.getPendingCount());
+        assertEquals(1, reloaded.retryDue(System.currentTimeMillis()));
+        assertEquals(URL1, this.client.lastUrl.toExternalForm());
+        assertTrue(this.store.load().isEmpty());
+    }
+
+    @Test
+    public void verifyMessagesBeyondCapacityAreGivenUp() {
+        this.queue.setMaxPendingMessages(2);
+        this.queue.add(newRequest("ST-1", URL1), "message");
+        this.queue.add(newRequest("ST-2", URL1), "message");
+        this.queue.add(newRequest("ST-3", URL1), "message");
+
+        assertEquals(2, this.queue.getPendingCount());
+        assertEquals(2, this.store.load().size());
+        assertEquals(1, this.queue.getDeadLetters().size());
+        assertEquals("ST-3", this.queue.getDeadLetters().get(0).getSessionIndex());
+    }
+
+    @Test
+    public void verifyStoreIsWrittenOutsideLock() {
+        final LogoutRetryQueue[] holder = new LogoutRetryQueue[1];
+        final LogoutRetryStore lockCheckingStore = new LogoutRetryStore() {
+            @Override
+            public void save(final LogoutRetryEntry entry) {
+                assertFalse(Thread.holdsLock(holder[0]));
+                store.save(entry);
+            }
+
+            @Override
+            public void remove(final String sessionIndex) {
+                assertFalse(Thread.holdsLock(holder[0]));
+                store.remove(sessionIndex);
+            }
+
+            @Override
+            public Collection<LogoutRetryEntry> load() {
+                return store.load();
+            }
+        };
+        holder[0] = new LogoutRetryQueue(new BackChannelLogoutDispatcher(this.client, new DirectExecutorService()),
+                lockCheckingStore);
+        holder[0].setInitialDelay(0);
+        holder[0].setMaxDelay(0);
+        this.client.failures = 1;
+        holder[0].add(newRequest("ST-1", URL1), "message");
+        holder[0].retryDue(System.currentTimeMillis());
+        holder[0].retryDue(System.currentTimeMillis());
+
+        assertEquals(0, holder[0].getPendingCount());
+        assertTrue(lockCheckingStore.load().isEmpty());
+    }
+
+    private static LogoutRequest newRequest(final String ticketId, final String url) {
+        return new LogoutRequest(ticketId, new SimpleWebApplicationServiceImpl(url));
+    }
+
+    /**
+     * Client failing a given number of times before sending messages.
+     */
+    private static final class FailingHttpClient implements HttpClient {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private volatile int failures;
+
+        private volatile URL lastUrl;
+
+        @Override
+        public boolean sendMessageToEndPoint(final HttpMessage message) {
+            this.calls.incrementAndGet();
+            this.lastUrl = message.getUrl();
+            return this.failures-- <= 0;
+        }
+
+        @Override
+        public boolean isValidEndPoint(final String url) {
+            return true;
+        }
+
+        @Override
+        public boolean isValidEndPoint(final URL url) {
+            return true;
+        }
+    }
+
+    /**
+     * Executor running tasks in the calling thread.
+     */
+    private static final class DirectExecutorService extends AbstractExecutorService {
+
+        private boolean shutdown;
+
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            this.shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            this.shutdown = true;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return this.shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return this.shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+            return true;
+        }
+    }
+}
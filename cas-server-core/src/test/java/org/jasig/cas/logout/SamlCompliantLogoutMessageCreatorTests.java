@@ -58,4 +58,19 @@ public class SamlCompliantLogoutMessageCreatorTests {
         
         assertEquals(list.item(0).getTextContent(), request.getTicketId());
     }
+
+    @Test
+    public void testMessagesHaveDistinctIds() throws Exception {
+        final SingleLogoutService service = mock(SingleLogoutService.class);
+        final String first = builder.create(new LogoutRequest("TICKET-1", service));
+        final String second = builder.create(new LogoutRequest("TICKET-2", service));
+
+        final DocumentBuilder documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        final Document firstDocument = documentBuilder.parse(new ByteArrayInputStream(first.getBytes()));
+        final Document secondDocument = documentBuilder.parse(new ByteArrayInputStream(second.getBytes()));
+        assertFalse(firstDocument.getDocumentElement().getAttribute("ID").equals(
+                secondDocument.getDocumentElement().getAttribute("ID")));
+        assertTrue(firstDocument.getDocumentElement().getAttribute("IssueInstant").matches(
+                "\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}Z"));
+    }
 }
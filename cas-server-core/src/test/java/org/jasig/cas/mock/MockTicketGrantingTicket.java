@@ -120,7 +120,8 @@ public class MockTicketGrantingTicket implements TicketGrantingTicket {
     }
 
     @Override
-    public void removeAllServices() {
+    public Map<String, Service> removeAllServices() {
+        return Collections.emptyMap();
     }
 
     @Override
@@ -0,0 +1,74 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.monitor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link LatencyHistogram}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class LatencyHistogramTests {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void verifyBucketsCoverAllValues() {
+        int previous = -1;
+        for (long value = 0; value < 100000; value++) {
+            final int index = LatencyHistogram.indexOf(value);
+            assertTrue(index == previous || index == previous + 1);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(index));
+            previous = index;
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void verifyPercentilesAreWithinPrecision() {
+        for (long i = 1; i <= 100000; i++) {
+            this.histogram.record(i * 1000);
+        }
+        assertEquals(100000, this.histogram.getCount());
+        assertEquals(100000000, this.histogram.getMax());
+        assertEquals(50000500, this.histogram.getMean());
+        assertWithin(50000000, this.histogram.getPercentile(50));
+        assertWithin(99000000, this.histogram.getPercentile(99));
+        assertWithin(99900000, this.histogram.getPercentile(99.9));
+        assertEquals(100000000, this.histogram.getPercentile(100));
+    }
+
+    @Test
+    public void verifyEmptyHistogram() {
+        assertEquals(0, this.histogram.getPercentile(99));
+        assertEquals(0, this.histogram.getMean());
+        this.histogram.record(-5);
+        assertEquals(0, this.histogram.getPercentile(99));
+        assertEquals(1, this.histogram.getCount());
+    }
+
+    private static void assertWithin(final long expected, final long actual) {
+        assertTrue(actual + " is not close to " + expected,
+                actual >= expected && actual <= expected + expected / 16);
+    }
+}
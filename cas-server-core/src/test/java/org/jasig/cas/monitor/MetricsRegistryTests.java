@@ -0,0 +1,57 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.monitor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link MetricsRegistry}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class MetricsRegistryTests {
+
+    @Test
+    public void verifyQualifiedOperationsAreBounded() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.setMaxQualifiedOperations(2);
+        registry.record("GRANT_SERVICE_TICKET", "Portal", 10, false);
+        registry.record("GRANT_SERVICE_TICKET", "Mail", 10, false);
+        registry.record("GRANT_SERVICE_TICKET", "Wiki", 10, true);
+        registry.record("VALIDATE_SERVICE_TICKET", "Blog", 10, false);
+        registry.record("GRANT_SERVICE_TICKET", "Portal", 10, false);
+        registry.record("GRANT_SERVICE_TICKET", 10, false);
+
+        assertEquals(2, registry.getOperation("GRANT_SERVICE_TICKET:Portal").getCount());
+        assertEquals(1, registry.getOperation("GRANT_SERVICE_TICKET:Mail").getCount());
+        assertNull(registry.getOperation("GRANT_SERVICE_TICKET:Wiki"));
+        assertNull(registry.getOperation("VALIDATE_SERVICE_TICKET:Blog"));
+        assertEquals(1, registry.getOperation("GRANT_SERVICE_TICKET:OTHER").getErrorCount());
+        assertEquals(1, registry.getOperation("VALIDATE_SERVICE_TICKET:OTHER").getCount());
+        assertEquals(1, registry.getOperation("GRANT_SERVICE_TICKET").getCount());
+        assertEquals(5, registry.getOperations().size());
+
+        registry.reset();
+        registry.record("GRANT_SERVICE_TICKET", "Wiki", 10, false);
+        assertEquals(1, registry.getOperation("GRANT_SERVICE_TICKET:Wiki").getCount());
+    }
+}
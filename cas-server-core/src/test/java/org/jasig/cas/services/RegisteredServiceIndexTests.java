@@ -0,0 +1,185 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.services;
+
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.mock.MockService;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link RegisteredServiceIndex}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class RegisteredServiceIndexTests {
+
+    private static final String[] SERVICE_IDS = {
+        "https://www.example.com/.*",
+        "https://www\\.example\\.org/app/.*",
+        "https?://.*\\.example\\.net/.*",
+        "(https|imaps)://mail.example.com/.*",
+        "https://a.example.com/x|https://b.example.com/.*",
+        "https://host1?.example.edu/.*",
+        "HTTPS://UPPER.example.com:8443/.*",
+        "^https://anchored.example.com/.*",
+        "https://.*",
+        "https://**.example.com/**",
+        "https://ant.example.com/**",
+        "serviceId",
+    };
+
+    private static final String[] IDS_TO_MATCH = {
+        "https://www.example.com/app",
+        "https://wwwXexample.com/app",
+        "https://www\uD83D\uDE00example.com/app",
+        "https://www.example.org/app/page",
+        "https://www.example.org/other",
+        "http://host.example.net/",
+        "imaps://mail.example.com/inbox",
+        "https://a.example.com/x",
+        "https://b.example.com/y",
+        "https://host.example.edu/",
+        "https://host1.example.edu/",
+        "https://upper.EXAMPLE.com:8443/path",
+        "https://anchored.example.com/",
+        "https://ant.example.com/path",
+        "https:/ant.example.com//path",
+        "https://any.example.com/",
+        "http://nomatch.example.com/",
+        "serviceid",
+        "",
+    };
+
+    @Test
+    public void verifyFirstMatchIsSameAsSequentialScan() {
+        for (int cacheSize : new int[] {0, 5}) {
+            final List<RegisteredService> services = newServices();
+            final RegisteredServiceIndex index = new RegisteredServiceIndex(services, cacheSize);
+            for (int round = 0; round < 2; round++) {
+                for (final String id : IDS_TO_MATCH) {
+                    final Service service = new MockService(id);
+                    assertSame(id, scan(index.getServices(), service), index.find(service));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void verifyEvaluationOrderIsHonored() {
+        final RegexRegisteredService catchAll = newRegexService(1, "https://.*", 0);
+        final RegexRegisteredService specific = newRegexService(2, "https://www.example.com/.*", 1);
+        final RegisteredServiceIndex index = new RegisteredServiceIndex(
+                Arrays.<RegisteredService>asList(specific, catchAll));
+
+        assertSame(catchAll, index.find(new MockService("https://www.example.com/app")));
+        assertEquals(Arrays.<RegisteredService>asList(catchAll, specific), index.getServices());
+    }
+
+    @Test
+    public void verifyNoMatch() {
+        final RegisteredServiceIndex index = new RegisteredServiceIndex(newServices());
+        assertNull(index.find(new MockService("ftp://nothing.example.com/")));
+        assertNull(index.find(new MockService("ftp://nothing.example.com/")));
+        assertNull(index.find(null));
+    }
+
+    @Test
+    public void verifyLeastRecentlyUsedLookupIsEvicted() {
+        final RegexRegisteredService service = newRegexService(1, "https://.*", 0);
+        final RegisteredServiceIndex index = new RegisteredServiceIndex(Arrays.<RegisteredService>asList(service), 2);
+        index.find(new MockService("https://a.example.com/"));
+        index.find(new MockService("https://b.example.com/"));
+        index.find(new MockService("https://a.example.com/"));
+        index.find(new MockService("https://c.example.com/"));
+
+        assertTrue(index.isCached("https://a.example.com/"));
+        assertFalse(index.isCached("https://b.example.com/"));
+        assertTrue(index.isCached("https://c.example.com/"));
+    }
+
+    @Test
+    public void verifySupplementaryCodePointMatchesWildcard() {
+        final RegexRegisteredService service = newRegexService(1, "https://www.example.com/.*", 0);
+        final RegisteredServiceIndex index = new RegisteredServiceIndex(Arrays.<RegisteredService>asList(service));
+        assertSame(service, index.find(new MockService("https://www\uD83D\uDE00example.com/app")));
+    }
+
+    @Test
+    public void verifyRegexPrefix() {
+        assertEquals("https://www\uFFFFexample\uFFFFcom/",
+                new String(RegisteredServiceIndex.regexPrefix("https://www.example.com/.*")));
+        assertEquals("https://www.example.org/",
+                new String(RegisteredServiceIndex.regexPrefix("^https://www\\.example\\.org/app/.*")));
+        assertEquals("http", new String(RegisteredServiceIndex.regexPrefix("https?://.*")));
+        assertNull(RegisteredServiceIndex.regexPrefix("(https|imaps)://.*"));
+        assertNull(RegisteredServiceIndex.regexPrefix("https://a.com/.*|https://b.com/.*"));
+    }
+
+    @Test
+    public void verifyAntPrefix() {
+        assertEquals("https:/ant.example.com/",
+                new String(RegisteredServiceIndex.antPrefix("https://ANT.example.com/**")));
+        assertEquals("https:/", new String(RegisteredServiceIndex.antPrefix("https://*.example.com/**")));
+        assertEquals("https:/ant.example.com/path/",
+                RegisteredServiceIndex.normalizeAntPath("https:/ant.example.com//path"));
+    }
+
+    private static RegisteredService scan(final List<RegisteredService> services, final Service service) {
+        for (final RegisteredService r : services) {
+            if (r.matches(service)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    private static List<RegisteredService> newServices() {
+        final List<RegisteredService> services = new ArrayList<RegisteredService>();
+        for (int i = 0; i < SERVICE_IDS.length; i++) {
+            final String id = SERVICE_IDS[i];
+            if (id.contains("**") || !id.contains("/")) {
+                final RegisteredServiceImpl r = new RegisteredServiceImpl();
+                r.setId(i);
+                r.setName("ant" + i);
+                r.setServiceId(id);
+                r.setEvaluationOrder(i);
+                services.add(r);
+            } else {
+                services.add(newRegexService(i, id, i));
+            }
+        }
+        return services;
+    }
+
+    private static RegexRegisteredService newRegexService(final long id, final String serviceId, final int order) {
+        final RegexRegisteredService r = new RegexRegisteredService();
+        r.setId(id);
+        r.setName("regex" + id);
+        r.setServiceId(serviceId);
+        r.setEvaluationOrder(order);
+        return r;
+    }
+}
@@ -20,12 +20,17 @@ package org.jasig.cas.ticket;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.apache.commons.lang3.SerializationUtils;
 import org.jasig.cas.TestUtils;
 import org.jasig.cas.authentication.Authentication;
 import org.jasig.cas.authentication.principal.Service;
@@ -101,6 +106,26 @@ public class TicketGrantingTicketImplTests {
         assertEquals(principals, t.getChainedAuthentications());
     }
 
+    @Test
+    public void testChainedAuthenticationsAreComputedOnce() {
+        final Authentication authentication = TestUtils.getAuthentication();
+        final Authentication authentication1 = TestUtils.getAuthentication("test1");
+        final TicketGrantingTicketImpl t1 = new TicketGrantingTicketImpl("test1", null,
+            authentication1, new NeverExpiresExpirationPolicy());
+        final TicketGrantingTicketImpl t = new TicketGrantingTicketImpl("test", t1,
+            authentication, new NeverExpiresExpirationPolicy());
+
+        final List<Authentication> chain = t.getChainedAuthentications();
+        assertSame(chain, t.getChainedAuthentications());
+        assertSame(t1, t.getRoot());
+        assertSame(t1, t.getRoot());
+
+        final TicketGrantingTicketImpl copy = (TicketGrantingTicketImpl) SerializationUtils.deserialize(
+                SerializationUtils.serialize(t));
+        assertEquals(chain, copy.getChainedAuthentications());
+        assertEquals(t1.getId(), copy.getRoot().getId());
+    }
+
     @Test
     public void testCheckCreationTime() {
         final Authentication authentication = TestUtils.getAuthentication();
@@ -172,6 +197,128 @@ public class TicketGrantingTicketImplTests {
         assertEquals(0, services.size());
     }
 
+    @Test
+    public void testRemoveAllServicesReturnsRemovedServices() {
+        final MockService testService = new MockService("test");
+        final TicketGrantingTicket t = new TicketGrantingTicketImpl("test", null,
+            TestUtils.getAuthentication(), new NeverExpiresExpirationPolicy());
+        t.grantServiceTicket("ST-1", testService, new NeverExpiresExpirationPolicy(), false);
+        t.grantServiceTicket("ST-2", testService, new NeverExpiresExpirationPolicy(), false);
+        final Map<String, Service> view = t.getServices();
+
+        final Map<String, Service> removed = t.removeAllServices();
+        assertEquals(2, removed.size());
+        assertEquals(testService, removed.get("ST-1"));
+        assertEquals(2, view.size());
+        assertEquals(0, t.getServices().size());
+        assertEquals(0, t.removeAllServices().size());
+    }
+
+    @Test
+    public void testMaxServicesEvictsOldestFirst() {
+        final MockService testService = new MockService("test");
+        final TicketGrantingTicket t = new TicketGrantingTicketImpl("test", null,
+            TestUtils.getAuthentication(), new NeverExpiresExpirationPolicy(), 2);
+        t.grantServiceTicket("ST-1", testService, new NeverExpiresExpirationPolicy(), false);
+        t.grantServiceTicket("ST-2", testService, new NeverExpiresExpirationPolicy(), false);
+        t.grantServiceTicket("ST-3", testService, new NeverExpiresExpirationPolicy(), false);
+
+        final Map<String, Service> services = t.getServices();
+        assertEquals(2, services.size());
+        assertFalse(services.containsKey("ST-1"));
+        assertTrue(services.containsKey("ST-2"));
+        assertTrue(services.containsKey("ST-3"));
+        assertEquals(3, t.getCountOfUses());
+    }
+
+    @Test
+    public void testRestoringTrackedServiceGrantHasNoEffect() {
+        final MockService testService = new MockService("test");
+        final TicketGrantingTicketImpl t = new TicketGrantingTicketImpl("test", null,
+            TestUtils.getAuthentication(), new NeverExpiresExpirationPolicy(), 2);
+        t.restoreServiceGrant("ST-1", testService, 1, 1000, 0);
+        t.restoreServiceGrant("ST-2", testService, 2, 2000, 1000);
+        t.restoreServiceGrant("ST-1", testService, 1, 1000, 0);
+
+        final Map<String, Service> services = t.getServices();
+        assertEquals(2, services.size());
+        assertEquals("ST-1", services.keySet().iterator().next());
+        assertEquals(2, t.getCountOfUses());
+        assertEquals(2000, t.getLastTimeUsed());
+    }
+
+    @Test
+    public void testConcurrentGrantsAreAllTracked() throws Exception {
+        final MockService testService = new MockService("test");
+        final TicketGrantingTicket t = new TicketGrantingTicketImpl("test", null,
+            TestUtils.getAuthentication(), new NeverExpiresExpirationPolicy());
+        final int threads = 4;
+        final int grants = 500;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < grants; j++) {
+                        t.grantServiceTicket("ST-" + thread + '-' + j, testService,
+                                new NeverExpiresExpirationPolicy(), false);
+                    }
+                }
+            }));
+        }
+        for (final Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(threads * grants, t.getServices().size());
+        assertEquals(threads * grants, t.getCountOfUses());
+    }
+
+    @Test
+    public void testConcurrentLogoutReturnsEveryServiceOnce() throws Exception {
+        final MockService testService = new MockService("test");
+        final TicketGrantingTicket t = new TicketGrantingTicketImpl("test", null,
+            TestUtils.getAuthentication(), new NeverExpiresExpirationPolicy());
+        final int grants = 2000;
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Future<?> future = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (int j = 0; j < grants; j++) {
+                    t.grantServiceTicket("ST-" + j, testService, new NeverExpiresExpirationPolicy(), false);
+                }
+            }
+        });
+        int removed = 0;
+        while (!future.isDone()) {
+            removed += t.removeAllServices().size();
+        }
+        future.get();
+        executor.shutdown();
+
+        assertEquals(grants, removed + t.removeAllServices().size());
+    }
+
+    @Test
+    public void testServicesAndCapSurviveSerialization() {
+        final MockService testService = new MockService("test");
+        final TicketGrantingTicketImpl t = new TicketGrantingTicketImpl("test", null,
+            TestUtils.getAuthentication(), new NeverExpiresExpirationPolicy(), 2);
+        t.grantServiceTicket("ST-1", testService, new NeverExpiresExpirationPolicy(), false);
+        t.grantServiceTicket("ST-2", testService, new NeverExpiresExpirationPolicy(), false);
+
+        final TicketGrantingTicket read = (TicketGrantingTicket) SerializationUtils.deserialize(
+                SerializationUtils.serialize(t));
+
+        read.grantServiceTicket("ST-3", testService, new NeverExpiresExpirationPolicy(), false);
+        final Map<String, Service> services = read.getServices();
+        assertEquals(2, services.size());
+        assertFalse(services.containsKey("ST-1"));
+    }
+
     @Test
     public void testWebApplicationExpire() {
         final MockService testService = new MockService("test");
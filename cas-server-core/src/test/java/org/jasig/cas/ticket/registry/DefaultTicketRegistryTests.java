@@ -18,6 +18,20 @@
  */
 package org.jasig.cas.ticket.registry;
 
+import org.jasig.cas.TestUtils;
+import org.jasig.cas.monitor.TicketType;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.support.TicketExpirationIndex;
+import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy;
+import org.jasig.cas.ticket.support.TimeoutExpirationPolicy;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Map;
+
 import static org.junit.Assert.*;
 
 /**
@@ -36,4 +50,97 @@ public class DefaultTicketRegistryTests extends AbstractTicketRegistryTests {
     public void testOtherConstructor() {
         assertNotNull(new DefaultTicketRegistry(10, 10F, 5));
     }
+
+    @Test
+    public void verifyExpiredTicketsAreFoundThroughIndex() throws Exception {
+        final DefaultTicketRegistry registry = new DefaultTicketRegistry();
+        final TicketGrantingTicket expired = new TicketGrantingTicketImpl("TGT-1", TestUtils.getAuthentication(),
+                new TimeoutExpirationPolicy(1));
+        final TicketGrantingTicket active = new TicketGrantingTicketImpl("TGT-2", TestUtils.getAuthentication(),
+                new NeverExpiresExpirationPolicy());
+        final ServiceTicket child = expired.grantServiceTicket("ST-1", TestUtils.getService(),
+                new NeverExpiresExpirationPolicy(), false);
+        registry.addTicket(expired);
+        registry.addTicket(active);
+        registry.addTicket(child);
+
+        Thread.sleep(10);
+        final Collection<Ticket> tickets = registry.getExpiredTickets(10);
+        assertEquals(2, tickets.size());
+        assertTrue(tickets.contains(expired));
+        assertTrue(tickets.contains(child));
+
+        registry.deleteTicket(expired.getId());
+        registry.deleteTicket(child.getId());
+        assertTrue(registry.getExpiredTickets(10).isEmpty());
+        assertEquals(1, registry.getTickets().size());
+    }
+
+    @Test
+    public void verifyExpiredTicketsAreReturnedInBatches() throws Exception {
+        final DefaultTicketRegistry registry = new DefaultTicketRegistry();
+        for (int i = 0; i < 5; i++) {
+            final TicketGrantingTicket ticket = new TicketGrantingTicketImpl("TGT-" + i, TestUtils.getAuthentication(),
+                    new NeverExpiresExpirationPolicy());
+            ticket.markTicketExpired();
+            registry.addTicket(ticket);
+        }
+
+        final Collection<Ticket> batch = registry.getExpiredTickets(3);
+        assertEquals(3, batch.size());
+        for (final Ticket ticket : batch) {
+            registry.deleteTicket(ticket.getId());
+        }
+        assertEquals(2, registry.getExpiredTickets(3).size());
+    }
+
+    @Test
+    public void verifyUndeletedExpiredTicketIsFoundAgain() throws Exception {
+        final DefaultTicketRegistry registry = new DefaultTicketRegistry();
+        final TicketGrantingTicket ticket = new TicketGrantingTicketImpl("TGT-1", TestUtils.getAuthentication(),
+                new NeverExpiresExpirationPolicy());
+        ticket.markTicketExpired();
+        registry.addTicket(ticket);
+
+        assertEquals(1, registry.getExpiredTickets(10).size());
+        // the ticket is not deleted, as if its logout had failed
+        assertTrue(registry.getExpiredTickets(10).isEmpty());
+        Thread.sleep(TicketExpirationIndex.DEFAULT_RESOLUTION + 10);
+        assertEquals(1, registry.getExpiredTickets(10).size());
+    }
+
+    @Test
+    public void verifyTicketCountsPerType() throws Exception {
+        final DefaultTicketRegistry registry = new DefaultTicketRegistry();
+        final TicketGrantingTicket tgt = new TicketGrantingTicketImpl("TGT-1", TestUtils.getAuthentication(),
+                new NeverExpiresExpirationPolicy());
+        final ServiceTicket st = tgt.grantServiceTicket("ST-1", TestUtils.getService(),
+                new NeverExpiresExpirationPolicy(), false);
+        final TicketGrantingTicket pgt = st.grantTicketGrantingTicket("PGT-1", TestUtils.getAuthentication(),
+                new NeverExpiresExpirationPolicy());
+        final ServiceTicket pt = pgt.grantServiceTicket("PT-1", TestUtils.getService(),
+                new NeverExpiresExpirationPolicy(), false);
+        registry.addTicket(tgt);
+        registry.addTicket(st);
+        registry.addTicket(pgt);
+        registry.addTicket(pt);
+        registry.addTicket(pt);
+
+        Map<TicketType, Integer> counts = registry.ticketCounts();
+        assertEquals(1, counts.get(TicketType.TICKET_GRANTING_TICKET).intValue());
+        assertEquals(1, counts.get(TicketType.PROXY_GRANTING_TICKET).intValue());
+        assertEquals(1, counts.get(TicketType.SERVICE_TICKET).intValue());
+        assertEquals(1, counts.get(TicketType.PROXY_TICKET).intValue());
+        assertEquals(2, registry.sessionCount());
+        assertEquals(2, registry.serviceTicketCount());
+
+        registry.deleteTicket(st.getId());
+        registry.deleteTicket(st.getId());
+        registry.deleteTicket(pt.getId());
+        counts = registry.ticketCounts();
+        assertEquals(0, counts.get(TicketType.SERVICE_TICKET).intValue());
+        assertEquals(0, counts.get(TicketType.PROXY_TICKET).intValue());
+        assertEquals(2, registry.sessionCount());
+        assertEquals(0, registry.serviceTicketCount());
+    }
 }
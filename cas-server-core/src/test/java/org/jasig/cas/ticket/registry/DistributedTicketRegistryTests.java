@@ -21,8 +21,9 @@ package org.jasig.cas.ticket.registry;
 import static org.junit.Assert.*;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 import org.jasig.cas.TestUtils;
 import org.jasig.cas.ticket.ServiceTicket;
@@ -109,6 +110,147 @@ public class DistributedTicketRegistryTests {
         assertTrue(t.isExpired());
     }
 
+    @Test
+    public void testWriteBehindCoalescesUpdates() throws Exception {
+        this.ticketRegistry.setWriteBehindDelay(60000);
+        final TicketGrantingTicket t = new TicketGrantingTicketImpl("test", TestUtils.getAuthentication(),
+                new NeverExpiresExpirationPolicy());
+        this.ticketRegistry.addTicket(t);
+        final TicketGrantingTicket returned = (TicketGrantingTicket) this.ticketRegistry.getTicket("test");
+        for (int i = 0; i < 3; i++) {
+            returned.grantServiceTicket("ST-" + i, TestUtils.getService(), new NeverExpiresExpirationPolicy(), false);
+        }
+
+        assertFalse(this.wasTicketUpdated);
+        assertEquals(1, this.ticketRegistry.getPendingUpdateCount());
+        assertEquals(3, this.ticketRegistry.getUpdateRequestCount());
+        assertEquals(3, ((TicketGrantingTicket) this.ticketRegistry.getTicket("test")).getServices().size());
+
+        this.ticketRegistry.flushPendingUpdates();
+        assertTrue(this.wasTicketUpdated);
+        assertEquals(0, this.ticketRegistry.getPendingUpdateCount());
+        assertEquals(1, this.ticketRegistry.getUpdateCount());
+        assertEquals(3.0, this.ticketRegistry.getCoalescingRatio(), 0.0);
+
+        returned.markTicketExpired();
+        assertEquals(1, this.ticketRegistry.getPendingUpdateCount());
+        this.ticketRegistry.deleteTicket("test");
+        assertEquals(0, this.ticketRegistry.getPendingUpdateCount());
+        this.ticketRegistry.destroy();
+    }
+
+    @Test
+    public void testWriteBehindQueueIsBounded() throws Exception {
+        this.ticketRegistry.setWriteBehindDelay(60000);
+        this.ticketRegistry.setMaxPendingUpdates(1);
+        for (int i = 0; i < 2; i++) {
+            this.ticketRegistry.addTicket(new TicketGrantingTicketImpl("TGT-" + i, TestUtils.getAuthentication(),
+                    new NeverExpiresExpirationPolicy()));
+            ((TicketGrantingTicket) this.ticketRegistry.getTicket("TGT-" + i)).markTicketExpired();
+        }
+
+        assertEquals(1, this.ticketRegistry.getPendingUpdateCount());
+        assertEquals(1, this.ticketRegistry.getUpdateCount());
+        assertTrue(this.wasTicketUpdated);
+        this.ticketRegistry.destroy();
+        assertEquals(0, this.ticketRegistry.getPendingUpdateCount());
+    }
+
+    @Test
+    public void testDisablingWriteBehindFlushesPendingUpdates() throws Exception {
+        this.ticketRegistry.setWriteBehindDelay(60000);
+        this.ticketRegistry.addTicket(new TicketGrantingTicketImpl("test", TestUtils.getAuthentication(),
+                new NeverExpiresExpirationPolicy()));
+        ((TicketGrantingTicket) this.ticketRegistry.getTicket("test")).markTicketExpired();
+        assertEquals(1, this.ticketRegistry.getPendingUpdateCount());
+
+        this.ticketRegistry.setWriteBehindDelay(0);
+        assertEquals(0, this.ticketRegistry.getPendingUpdateCount());
+        assertTrue(this.wasTicketUpdated);
+
+        this.wasTicketUpdated = false;
+        ((TicketGrantingTicket) this.ticketRegistry.getTicket("test")).markTicketExpired();
+        assertTrue(this.wasTicketUpdated);
+        assertEquals(0, this.ticketRegistry.getPendingUpdateCount());
+    }
+
+    @Test
+    public void testTicketDeletedDuringFlushIsNotWrittenBack() throws Exception {
+        this.ticketRegistry.setWriteBehindDelay(60000);
+        this.ticketRegistry.addTicket(new TicketGrantingTicketImpl("test", TestUtils.getAuthentication(),
+                new NeverExpiresExpirationPolicy()));
+        ((TicketGrantingTicket) this.ticketRegistry.getTicket("test")).markTicketExpired();
+
+        final CountDownLatch updateStarted = new CountDownLatch(1);
+        final CountDownLatch releaseUpdate = new CountDownLatch(1);
+        this.ticketRegistry.updateStarted = updateStarted;
+        this.ticketRegistry.releaseUpdate = releaseUpdate;
+        final Thread flush = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ticketRegistry.flushPendingUpdates();
+            }
+        });
+        flush.start();
+        updateStarted.await();
+
+        final Thread delete = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ticketRegistry.deleteTicket("test");
+            }
+        });
+        delete.start();
+        // the delete either completes or waits for the flush
+        while (delete.isAlive() && delete.getState() != Thread.State.BLOCKED) {
+            Thread.sleep(1);
+        }
+        releaseUpdate.countDown();
+        flush.join();
+        delete.join();
+
+        assertNull(this.ticketRegistry.getTicket("test"));
+        this.ticketRegistry.destroy();
+    }
+
+    @Test
+    public void testFailedUpdatesAreRetried() throws Exception {
+        this.ticketRegistry.setWriteBehindDelay(60000);
+        this.ticketRegistry.addTicket(new TicketGrantingTicketImpl("test", TestUtils.getAuthentication(),
+                new NeverExpiresExpirationPolicy()));
+        ((TicketGrantingTicket) this.ticketRegistry.getTicket("test")).markTicketExpired();
+
+        this.ticketRegistry.failUpdates = true;
+        this.ticketRegistry.flushPendingUpdates();
+        assertEquals(1, this.ticketRegistry.getPendingUpdateCount());
+        assertEquals(0, this.ticketRegistry.getUpdateCount());
+
+        this.ticketRegistry.failUpdates = false;
+        this.ticketRegistry.flushPendingUpdates();
+        assertEquals(0, this.ticketRegistry.getPendingUpdateCount());
+        assertEquals(1, this.ticketRegistry.getUpdateCount());
+        assertTrue(this.ticketRegistry.getTicket("test").isExpired());
+        this.ticketRegistry.destroy();
+    }
+
+    @Test
+    public void testFlushWritesCopyOfTicket() throws Exception {
+        this.ticketRegistry.setWriteBehindDelay(60000);
+        final TicketGrantingTicket t = new TicketGrantingTicketImpl("test", TestUtils.getAuthentication(),
+                new NeverExpiresExpirationPolicy());
+        this.ticketRegistry.addTicket(t);
+        final TicketGrantingTicket returned = (TicketGrantingTicket) this.ticketRegistry.getTicket("test");
+        returned.grantServiceTicket("ST-1", TestUtils.getService(), new NeverExpiresExpirationPolicy(), false);
+        this.ticketRegistry.flushPendingUpdates();
+
+        // the written copy does not see changes made after the flush
+        t.grantServiceTicket("ST-2", TestUtils.getService(), new NeverExpiresExpirationPolicy(), false);
+        final Ticket written = this.ticketRegistry.tickets.get("test");
+        assertNotSame(t, written);
+        assertEquals(1, ((TicketGrantingTicket) written).getServices().size());
+        this.ticketRegistry.destroy();
+    }
+
     @Test
     public void testTicketDoesntExist() {
         assertNull(this.ticketRegistry.getTicket("fdfas"));
@@ -116,10 +258,28 @@ public class DistributedTicketRegistryTests {
 
     protected class TestDistributedTicketRegistry extends AbstractDistributedTicketRegistry {
 
-        private Map<String, Ticket> tickets = new HashMap<String, Ticket>();
+        private Map<String, Ticket> tickets = new ConcurrentHashMap<String, Ticket>();
+
+        private volatile CountDownLatch updateStarted;
+
+        private volatile CountDownLatch releaseUpdate;
+
+        private volatile boolean failUpdates;
 
         protected void updateTicket(final Ticket ticket) {
+            if (this.failUpdates) {
+                throw new IllegalStateException("Registry unavailable");
+            }
             DistributedTicketRegistryTests.this.wasTicketUpdated = true;
+            if (this.updateStarted != null) {
+                this.updateStarted.countDown();
+                try {
+                    this.releaseUpdate.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            this.tickets.put(ticket.getId(), ticket);
         }
 
         public void addTicket(final Ticket ticket) {
@@ -127,6 +287,7 @@ public class DistributedTicketRegistryTests {
         }
 
         public boolean deleteTicket(final String ticketId) {
+            discardPendingUpdate(ticketId);
             return this.tickets.remove(ticketId) != null;
         }
 
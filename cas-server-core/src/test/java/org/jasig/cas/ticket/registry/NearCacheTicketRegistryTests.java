@@ -0,0 +1,202 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.ticket.registry;
+
+import org.jasig.cas.TestUtils;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.support.InMemoryTicketInvalidationChannel;
+import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link NearCacheTicketRegistry}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class NearCacheTicketRegistryTests {
+
+    private static final String TGT_ID = "TGT-1";
+
+    private static final String ST_ID = "ST-1";
+
+    private CountingTicketRegistry remoteRegistry;
+
+    private NearCacheTicketRegistry ticketRegistry;
+
+    @Before
+    public void setUp() {
+        this.remoteRegistry = new CountingTicketRegistry(new ConcurrentHashMap<String, Ticket>());
+        this.ticketRegistry = new NearCacheTicketRegistry(this.remoteRegistry);
+        this.ticketRegistry.addTicket(new TicketGrantingTicketImpl(TGT_ID, TestUtils.getAuthentication(),
+                new NeverExpiresExpirationPolicy()));
+    }
+
+    @Test
+    public void verifyServiceTicketValidationFetchesOnlyTheServiceTicket() {
+        final TicketGrantingTicket tgt = this.ticketRegistry.getTicket(TGT_ID, TicketGrantingTicket.class);
+        this.ticketRegistry.addTicket(tgt.grantServiceTicket(ST_ID, TestUtils.getService(),
+                new NeverExpiresExpirationPolicy(), false));
+        this.remoteRegistry.getCount = 0;
+
+        final ServiceTicket st = this.ticketRegistry.getTicket(ST_ID, ServiceTicket.class);
+        assertFalse(st.isExpired());
+        assertTrue(st.isValidFor(TestUtils.getService()));
+        assertEquals(TestUtils.getAuthentication(), st.getGrantingTicket().getAuthentication());
+        assertEquals(1, st.getGrantingTicket().getServices().size());
+        assertEquals(1, this.remoteRegistry.getCount);
+    }
+
+    @Test
+    public void verifyDeleteInvalidatesOtherNodes() {
+        final NearCacheTicketRegistry otherNode = new NearCacheTicketRegistry(
+                new CountingTicketRegistry(this.remoteRegistry.tickets));
+        final InMemoryTicketInvalidationChannel channel = new InMemoryTicketInvalidationChannel();
+        this.ticketRegistry.setInvalidationChannel(channel);
+        otherNode.setInvalidationChannel(channel);
+
+        assertNotNull(this.ticketRegistry.getTicket(TGT_ID));
+        assertNotNull(otherNode.getTicket(TGT_ID));
+        assertEquals(1, otherNode.getMissCount());
+
+        assertTrue(otherNode.deleteTicket(TGT_ID));
+        assertNull(this.ticketRegistry.getTicket(TGT_ID));
+    }
+
+    @Test
+    public void verifyChangesInvalidateOtherNodes() {
+        final NearCacheTicketRegistry otherNode = new NearCacheTicketRegistry(
+                new CountingTicketRegistry(this.remoteRegistry.tickets));
+        final InMemoryTicketInvalidationChannel channel = new InMemoryTicketInvalidationChannel();
+        this.ticketRegistry.setInvalidationChannel(channel);
+        otherNode.setInvalidationChannel(channel);
+        final Ticket cached = otherNode.getGrantingTicket(TGT_ID);
+
+        assertSame(cached, otherNode.getGrantingTicket(TGT_ID));
+
+        ((TicketGrantingTicket) this.ticketRegistry.getTicket(TGT_ID)).markTicketExpired();
+        final Ticket reloaded = otherNode.getGrantingTicket(TGT_ID);
+        assertNotSame(cached, reloaded);
+        assertTrue(reloaded.isExpired());
+        assertEquals(2, otherNode.getMissCount());
+    }
+
+    @Test
+    public void verifyDirectLookupsAreNeverStale() {
+        assertNotNull(this.ticketRegistry.getGrantingTicket(TGT_ID));
+        final TicketGrantingTicket changed = new TicketGrantingTicketImpl(TGT_ID, TestUtils.getAuthentication(),
+                new NeverExpiresExpirationPolicy());
+        changed.markTicketExpired();
+        // changed by another node, without an invalidation channel
+        this.remoteRegistry.tickets.put(TGT_ID, changed);
+
+        assertFalse(this.ticketRegistry.getGrantingTicket(TGT_ID).isExpired());
+        assertTrue(this.ticketRegistry.getTicket(TGT_ID).isExpired());
+        assertTrue(this.ticketRegistry.getGrantingTicket(TGT_ID).isExpired());
+    }
+
+    @Test
+    public void verifyTimeToLive() {
+        this.ticketRegistry.setTimeToLive(0);
+        this.ticketRegistry.getGrantingTicket(TGT_ID);
+        this.ticketRegistry.getGrantingTicket(TGT_ID);
+        assertEquals(0, this.ticketRegistry.getHitCount());
+        assertEquals(2, this.remoteRegistry.getCount);
+    }
+
+    @Test
+    public void verifyMaxSize() {
+        this.ticketRegistry.setMaxSize(0);
+        this.ticketRegistry.getGrantingTicket(TGT_ID);
+        this.ticketRegistry.getGrantingTicket(TGT_ID);
+        assertEquals(2, this.ticketRegistry.getMissCount());
+    }
+
+    @Test
+    public void verifyLeastRecentlyUsedTicketIsDiscarded() {
+        this.ticketRegistry.setMaxSize(2);
+        for (int i = 2; i <= 3; i++) {
+            this.ticketRegistry.addTicket(new TicketGrantingTicketImpl("TGT-" + i, TestUtils.getAuthentication(),
+                    new NeverExpiresExpirationPolicy()));
+        }
+        this.ticketRegistry.getGrantingTicket(TGT_ID);
+        this.ticketRegistry.getGrantingTicket("TGT-2");
+        this.ticketRegistry.getGrantingTicket(TGT_ID);
+        this.ticketRegistry.getGrantingTicket("TGT-3");
+        this.remoteRegistry.getCount = 0;
+
+        this.ticketRegistry.getGrantingTicket(TGT_ID);
+        this.ticketRegistry.getGrantingTicket("TGT-3");
+        assertEquals(0, this.remoteRegistry.getCount);
+        this.ticketRegistry.getGrantingTicket("TGT-2");
+        assertEquals(1, this.remoteRegistry.getCount);
+    }
+
+    private static class CountingTicketRegistry extends AbstractDistributedTicketRegistry {
+
+        private final Map<String, Ticket> tickets;
+
+        private int getCount;
+
+        CountingTicketRegistry(final Map<String, Ticket> tickets) {
+            this.tickets = tickets;
+        }
+
+        @Override
+        protected void updateTicket(final Ticket ticket) {
+            // tickets are stored by reference
+        }
+
+        @Override
+        protected boolean needsCallback() {
+            return true;
+        }
+
+        @Override
+        public void addTicket(final Ticket ticket) {
+            this.tickets.put(ticket.getId(), ticket);
+        }
+
+        @Override
+        public Ticket getTicket(final String ticketId) {
+            this.getCount++;
+            return getProxiedTicketInstance(this.tickets.get(ticketId));
+        }
+
+        @Override
+        public boolean deleteTicket(final String ticketId) {
+            return this.tickets.remove(ticketId) != null;
+        }
+
+        @Override
+        public Collection<Ticket> getTickets() {
+            return this.tickets.values();
+        }
+    }
+}
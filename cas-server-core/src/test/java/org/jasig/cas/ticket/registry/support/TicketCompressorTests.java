@@ -0,0 +1,113 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.ticket.registry.support;
+
+import org.jasig.cas.monitor.TicketType;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link TicketCompressor}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class TicketCompressorTests {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void verifySmallPayloadsAreNotCompressed() {
+        final TicketCompressor compressor = new TicketCompressor();
+        final byte[] data = "TGT-1-cas1".getBytes(UTF8);
+
+        final byte[] payload = compressor.compress(data, null);
+        assertFalse(compressor.isCompressed(payload));
+        assertArrayEquals(data, compressor.decompress(payload));
+        assertEquals(0, compressor.getStatistics().get(TicketType.OTHER).getEncodeCount());
+    }
+
+    @Test
+    public void verifyCompressDecompress() {
+        final TicketCompressor compressor = new TicketCompressor();
+        final byte[] data = repeat("urn:oid:1.3.6.1.4.1.5923.1.1.1.7=https://www.example.com/entitlement;", 100);
+
+        final byte[] payload = compressor.compress(data, null);
+        assertTrue(compressor.isCompressed(payload));
+        assertTrue(payload.length < data.length);
+        assertArrayEquals(data, compressor.decompress(payload));
+
+        final TicketCompressor.Statistics statistics = compressor.getStatistics().get(TicketType.OTHER);
+        assertEquals(1, statistics.getEncodeCount());
+        assertTrue(statistics.getCompressionRatio() > 1);
+    }
+
+    @Test
+    public void verifyIncompressiblePayloadsAreStoredAsTheyAre() {
+        final TicketCompressor compressor = new TicketCompressor();
+        compressor.setThreshold(0);
+        final byte[] data = new byte[2048];
+        new Random(42).nextBytes(data);
+
+        final byte[] payload = compressor.compress(data, null);
+        assertFalse(compressor.isCompressed(payload));
+        assertArrayEquals(data, compressor.decompress(payload));
+    }
+
+    @Test
+    public void verifyDictionary() {
+        final String dictionary = "memberOf=cn=staff,ou=groups,dc=example,dc=edu;eduPersonAffiliation=";
+        final TicketCompressor compressor = new TicketCompressor();
+        compressor.setThreshold(0);
+        compressor.setDictionary(dictionary);
+        final byte[] data = repeat(dictionary, 3);
+
+        final byte[] payload = compressor.compress(data, null);
+        assertTrue(compressor.isCompressed(payload));
+        assertTrue(payload.length < new TicketCompressor().compress(data, null).length);
+        assertArrayEquals(data, compressor.decompress(payload));
+
+        try {
+            new TicketCompressor().decompress(payload);
+            fail("Should have thrown IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verifyTruncatedPayload() {
+        final TicketCompressor compressor = new TicketCompressor();
+        final byte[] payload = compressor.compress(repeat("ST-1-", 1000), null);
+        compressor.decompress(Arrays.copyOf(payload, payload.length / 2));
+    }
+
+    private static byte[] repeat(final String s, final int count) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString().getBytes(UTF8);
+    }
+}
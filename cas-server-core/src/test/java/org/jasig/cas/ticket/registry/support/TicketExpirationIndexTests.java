@@ -0,0 +1,65 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.ticket.registry.support;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link TicketExpirationIndex}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class TicketExpirationIndexTests {
+
+    @Test
+    public void verifyOnlyDueBucketsArePolled() {
+        final TicketExpirationIndex index = new TicketExpirationIndex(100);
+        index.add("TGT-3", 350);
+        index.add("TGT-1", 50);
+        index.add("TGT-2", 150);
+
+        assertEquals(Arrays.asList("TGT-1"), index.pollDue(0, 10));
+        assertTrue(index.pollDue(99, 10).isEmpty());
+        assertEquals(Arrays.asList("TGT-2"), index.pollDue(250, 10));
+        assertEquals(1, index.getBucketCount());
+        assertEquals(Arrays.asList("TGT-3"), index.pollDue(1000, 10));
+        assertEquals(0, index.getBucketCount());
+    }
+
+    @Test
+    public void verifyPollIsBounded() {
+        final TicketExpirationIndex index = new TicketExpirationIndex();
+        for (int i = 0; i < 25; i++) {
+            index.add("ST-" + i, i);
+        }
+
+        final List<String> first = index.pollDue(1000, 10);
+        assertEquals(10, first.size());
+        assertEquals("ST-0", first.get(0));
+        assertEquals(10, index.pollDue(1000, 10).size());
+        assertEquals(5, index.pollDue(1000, 10).size());
+        assertTrue(index.pollDue(1000, 10).isEmpty());
+    }
+}
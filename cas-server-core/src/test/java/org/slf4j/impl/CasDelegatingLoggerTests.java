@@ -0,0 +1,82 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.slf4j.impl;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for {@link CasDelegatingLogger}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class CasDelegatingLoggerTests {
+
+    private static final String ID = "TGT-1-B0tjWgMIhUU4kgCZdXbxnWccTFYpTbRbArjaoutXnlNMbIShEu-cas";
+
+    private static final String MASKED_ID = "TGT-**********************************************nlNMbIShEu-cas";
+
+    @Test
+    public void verifyDisabledLevelDoesNotTouchArguments() {
+        final Logger delegate = mock(Logger.class);
+        final CountingArgument argument = new CountingArgument();
+        final CasDelegatingLogger logger = new CasDelegatingLogger(delegate);
+
+        logger.debug("Ticket {}", argument);
+        logger.debug("Tickets {} {} {}", argument, argument, argument);
+        verify(delegate, never()).debug(anyString(), any(Object[].class));
+        assertEquals(0, argument.count);
+    }
+
+    @Test
+    public void verifyEnabledLevelMasksArguments() {
+        final Logger delegate = mock(Logger.class);
+        when(delegate.isInfoEnabled()).thenReturn(true);
+        final CasDelegatingLogger logger = new CasDelegatingLogger(delegate);
+
+        logger.info("Ticket {} for " + ID, ID);
+        verify(delegate).info("Ticket {} for " + MASKED_ID, new Object[] {MASKED_ID});
+    }
+
+    @Test
+    public void verifyTicketIdsAreMasked() {
+        assertEquals("Here is one " + MASKED_ID + " and here is another " + MASKED_ID.replace("TGT", "PGT") + ".",
+                CasDelegatingLogger.removeTicketId("Here is one " + ID + " and here is another "
+                        + ID.replace("TGT", "PGT") + "."));
+        assertNull(CasDelegatingLogger.removeTicketId(null));
+
+        final String message = "No ticket id in here";
+        assertSame(message, CasDelegatingLogger.removeTicketId(message));
+    }
+
+    private static class CountingArgument {
+
+        private int count;
+
+        @Override
+        public String toString() {
+            this.count++;
+            return ID;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.util.Map;
 import javax.validation.constraints.NotNull;
 
 import org.jasig.cas.monitor.TicketRegistryState;
+import org.jasig.cas.monitor.TicketType;
 import org.jasig.cas.ticket.Ticket;
 import org.jasig.cas.ticket.TicketGrantingTicket;
 import org.jasig.cas.ticket.registry.AbstractTicketRegistry;
@@ -114,4 +115,14 @@ public final class TicketRegistryDecorator extends AbstractTicketRegistry {
                 this.ticketRegistry.getClass().getName());
         return super.serviceTicketCount();
     }
+
+    @Override
+    public Map<TicketType, Integer> ticketCounts() {
+        if (this.ticketRegistry instanceof TicketRegistryState) {
+            return ((TicketRegistryState) this.ticketRegistry).ticketCounts();
+        }
+        logger.debug("Ticket registry {} does not report the ticketCounts() operation of the registry state.",
+                this.ticketRegistry.getClass().getName());
+        return super.ticketCounts();
+    }
 }
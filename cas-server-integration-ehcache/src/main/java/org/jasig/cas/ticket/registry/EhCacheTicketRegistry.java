@@ -25,10 +25,12 @@ import net.sf.ehcache.Element;
 import net.sf.ehcache.config.CacheConfiguration;
 
 import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.SerializationUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jasig.cas.ticket.ServiceTicket;
 import org.jasig.cas.ticket.Ticket;
 import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.support.TicketCompressor;
 import org.springframework.beans.BeanInstantiationException;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.core.style.ToStringCreator;
@@ -44,6 +46,12 @@ import org.springframework.core.style.ToStringCreator;
  * <li>Monitoring : follow separately the number of TGT and ST.</li>
  * </ul>
  * </p>
+ * <p>
+ * Tickets may optionally be stored {@link #setCompressor(TicketCompressor) compressed} to reduce the
+ * amount of data replicated between nodes or written to disk, at the cost of deserializing tickets on every read.
+ * Tickets too small to be compressed are still stored as they are. As a deserialized ticket holds its own copy
+ * of its granting ticket, granting tickets are then looked up in the registry when checking for expiration.
+ * </p>
  *
  * @author <a href="mailto:cleclerc@xebia.fr">Cyrille Le Clerc</a>
  * @author Adam Rybicki
@@ -58,6 +66,12 @@ public final class EhCacheTicketRegistry extends AbstractDistributedTicketRegist
     /** @see #setSupportRegistryState(boolean)*/
     private boolean supportRegistryState = true;
 
+    /** @see #setCompressor(TicketCompressor) */
+    private TicketCompressor compressor;
+
+    /** Decompressor of tickets stored compressed, by this node or by others. */
+    private TicketCompressor decompressor = new TicketCompressor();
+
     /**
      * Instantiates a new EhCache ticket registry.
      */
@@ -92,7 +106,7 @@ public final class EhCacheTicketRegistry extends AbstractDistributedTicketRegist
 
     @Override
     public void addTicket(final Ticket ticket) {
-        final Element element = new Element(ticket.getId(), ticket);
+        final Element element = new Element(ticket.getId(), encode(ticket));
         if (ticket instanceof ServiceTicket) {
             logger.debug("Adding service ticket {} to the cache", ticket.getId(), this.serviceTicketsCache.getName());
             this.serviceTicketsCache.put(element);
@@ -110,6 +124,7 @@ public final class EhCacheTicketRegistry extends AbstractDistributedTicketRegist
         if (StringUtils.isBlank(ticketId)) {
             return false;
         }
+        discardPendingUpdate(ticketId);
         return this.serviceTicketsCache.remove(ticketId) || this.ticketGrantingTicketsCache.remove(ticketId);
     }
 
@@ -123,7 +138,7 @@ public final class EhCacheTicketRegistry extends AbstractDistributedTicketRegist
         if (element == null) {
             element = this.ticketGrantingTicketsCache.get(ticketId);
         }
-        return element == null ? null : getProxiedTicketInstance((Ticket) element.getObjectValue());
+        return element == null ? null : getProxiedTicketInstance(decode(element));
     }
 
     @Override
@@ -136,11 +151,11 @@ public final class EhCacheTicketRegistry extends AbstractDistributedTicketRegist
         final Collection<Ticket> allTickets = new HashSet<Ticket>(serviceTickets.size() + tgtTicketsTickets.size());
 
         for (final Element ticket : serviceTickets) {
-            allTickets.add((Ticket) ticket.getObjectValue());
+            allTickets.add(decode(ticket));
         }
 
         for (final Element ticket : tgtTicketsTickets) {
-            allTickets.add((Ticket) ticket.getObjectValue());
+            allTickets.add(decode(ticket));
         }
 
         return allTickets;
@@ -154,6 +169,19 @@ public final class EhCacheTicketRegistry extends AbstractDistributedTicketRegist
         this.ticketGrantingTicketsCache = ticketGrantingTicketsCache;
     }
 
+    /**
+     * Sets the compressor tickets are stored with. Tickets are stored as they are by default.
+     * Tickets stored before compression was turned on can still be read.
+     *
+     * @param compressor the compressor, or null to turn compression off
+     */
+    public void setCompressor(final TicketCompressor compressor) {
+        this.compressor = compressor;
+        if (compressor != null) {
+            this.decompressor = compressor;
+        }
+    }
+
     @Override
     public String toString() {
         return new ToStringCreator(this).append("ticketGrantingTicketsCache", this.ticketGrantingTicketsCache)
@@ -165,9 +193,45 @@ public final class EhCacheTicketRegistry extends AbstractDistributedTicketRegist
         addTicket(ticket);
     }
 
+    /**
+     * {@inheritDoc}
+     * Tickets stored compressed hold a copy of their granting ticket as it was when they were stored,
+     * so the granting ticket is then looked up in the registry instead.
+     */
     @Override
     protected boolean needsCallback() {
-        return false;
+        return this.compressor != null;
+    }
+
+    /**
+     * Encodes a ticket into the value of a cache element.
+     *
+     * @param ticket the ticket
+     * @return the compressed serialized form of the ticket if it was compressed, the ticket itself otherwise
+     */
+    private Object encode(final Ticket ticket) {
+        if (this.compressor == null) {
+            return ticket;
+        }
+        final byte[] payload = this.compressor.compress(SerializationUtils.serialize(ticket), ticket);
+        return this.compressor.isCompressed(payload) ? payload : ticket;
+    }
+
+    /**
+     * Decodes the ticket held by a cache element.
+     *
+     * @param element the element
+     * @return the ticket
+     */
+    private Ticket decode(final Element element) {
+        final Object value = element.getObjectValue();
+        if (!(value instanceof byte[])) {
+            return (Ticket) value;
+        }
+        final long start = System.nanoTime();
+        final Ticket ticket = (Ticket) SerializationUtils.deserialize(this.decompressor.decompress((byte[]) value));
+        this.decompressor.recordDecode(ticket, System.nanoTime() - start);
+        return ticket;
     }
 
     /**
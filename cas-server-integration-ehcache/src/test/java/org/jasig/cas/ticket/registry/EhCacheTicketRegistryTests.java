@@ -22,6 +22,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 
+import net.sf.ehcache.Cache;
+
 import org.jasig.cas.TestUtils;
 import org.jasig.cas.authentication.principal.Service;
 import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
@@ -29,6 +31,7 @@ import org.jasig.cas.ticket.ServiceTicket;
 import org.jasig.cas.ticket.Ticket;
 import org.jasig.cas.ticket.TicketGrantingTicket;
 import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.support.TicketCompressor;
 import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy;
 import org.junit.Before;
 import org.junit.Test;
@@ -242,6 +245,26 @@ public final class EhCacheTicketRegistryTests implements ApplicationContextAware
         }
     }
 
+    @Test
+    public void testCompressedServiceTicketExpiresWithGrantingTicket() {
+        final EhCacheTicketRegistry registry = new EhCacheTicketRegistry(
+                this.applicationContext.getBean("serviceTicketsCache", Cache.class),
+                this.applicationContext.getBean("ticketGrantingTicketsCache", Cache.class));
+        final TicketCompressor compressor = new TicketCompressor();
+        compressor.setThreshold(0);
+        registry.setCompressor(compressor);
+        registry.addTicket(new TicketGrantingTicketImpl("TGT-compressed", TestUtils.getAuthentication(),
+                new NeverExpiresExpirationPolicy()));
+        final TicketGrantingTicket tgt = (TicketGrantingTicket) registry.getTicket("TGT-compressed");
+        registry.addTicket(tgt.grantServiceTicket("ST-compressed", getService(), new NeverExpiresExpirationPolicy(), false));
+        assertFalse(registry.getTicket("ST-compressed").isExpired());
+
+        ((TicketGrantingTicket) registry.getTicket("TGT-compressed")).markTicketExpired();
+        assertTrue(registry.getTicket("ST-compressed").isExpired());
+        registry.deleteTicket("ST-compressed");
+        registry.deleteTicket("TGT-compressed");
+    }
+
     @Override
     public void setApplicationContext(final ApplicationContext applicationContext) {
         this.applicationContext = applicationContext;
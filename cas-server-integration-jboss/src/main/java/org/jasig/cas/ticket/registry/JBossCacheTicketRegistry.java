@@ -75,6 +75,7 @@ public final class JBossCacheTicketRegistry extends AbstractDistributedTicketReg
     public boolean deleteTicket(final String ticketId) {
         try {
             logger.debug("Removing ticket from registry for: ", ticketId);
+            discardPendingUpdate(ticketId);
             return this.cache.remove(FQN_TICKET, ticketId) != null;
         } catch (final CacheException e) {
             logger.error(e.getMessage(), e);
@@ -18,24 +18,48 @@
  */
 package org.jasig.cas.ticket.registry;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
 
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import net.spy.memcached.AddrUtil;
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.CASValue;
+import net.spy.memcached.CachedData;
 import net.spy.memcached.MemcachedClient;
 import net.spy.memcached.MemcachedClientIF;
+import net.spy.memcached.transcoders.Transcoder;
 
 import org.jasig.cas.ticket.ServiceTicket;
 import org.jasig.cas.ticket.Ticket;
 import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.support.ServiceGrant;
 import org.springframework.beans.factory.DisposableBean;
 
 /**
  * Key-value ticket registry implementation that stores tickets in memcached keyed on the ticket ID.
+ * <p>
+ * When {@link #setServiceGrantsAsDeltas(boolean) enabled}, service tickets granted by a ticket granting
+ * ticket are not written by replacing the whole ticket granting ticket. Each grant is instead appended
+ * as a small {@link ServiceGrant} record to a second key, and the records are applied to the ticket
+ * granting ticket when it is read. The size of a write then no longer grows with the number of
+ * services accessed during the session. The ticket and its grants are fetched with a single
+ * multi-get, expire together, and once more than {@link #setMaxServiceGrants(int) maxServiceGrants}
+ * records are read, they are folded into the ticket granting ticket and the records are cleared.
+ * Folding writes the ticket granting ticket with a compare-and-set on its own key, so a ticket
+ * changed or expired by another node in the meantime is never overwritten by the folded copy.
  *
  * @author Scott Battaglia
  * @author Marvin S. Addison
@@ -43,6 +67,18 @@ import org.springframework.beans.factory.DisposableBean;
  */
 public final class MemCacheTicketRegistry extends AbstractDistributedTicketRegistry implements DisposableBean {
 
+    /** Suffix of the key holding the service grants of a ticket granting ticket. */
+    private static final String SERVICE_GRANTS_KEY_SUFFIX = "-GRANTS";
+
+    /** Default number of service grant records read before they are folded into the ticket granting ticket. */
+    public static final int DEFAULT_MAX_SERVICE_GRANTS = 50;
+
+    /** Transcoder storing service grant records as they are, so that they can be appended. */
+    private static final Transcoder<byte[]> RAW_TRANSCODER = new RawTranscoder();
+
+    /** Transcoder returning values as they were stored, so that values of different kinds can be fetched at once. */
+    private static final Transcoder<CachedData> CACHED_DATA_TRANSCODER = new CachedDataTranscoder();
+
     /** Memcached client. */
     @NotNull
     private final MemcachedClientIF client;
@@ -59,6 +95,13 @@ public final class MemCacheTicketRegistry extends AbstractDistributedTicketRegis
     @Min(0)
     private final int stTimeout;
 
+    /** Whether service grants are appended as records instead of replacing the ticket granting ticket. */
+    private boolean serviceGrantsAsDeltas;
+
+    /** Number of service grant records read before they are folded into the ticket granting ticket. */
+    @Min(1)
+    private int maxServiceGrants = DEFAULT_MAX_SERVICE_GRANTS;
+
 
     /**
      * Creates a new instance that stores tickets in the given memcached hosts.
@@ -113,7 +156,63 @@ final int serviceTicketTimeOut) {
     protected void updateTicket(final Ticket ticket) {
         logger.debug("Updating ticket {}", ticket);
         try {
-            if (!this.client.replace(ticket.getId(), getTimeout(ticket), ticket).get()) {
+            waitForUpdate(ticket, this.client.replace(ticket.getId(), getTimeout(ticket), ticket));
+            touchServiceGrants(ticket);
+        } catch (final Exception e) {
+            logger.error("Failed updating {}", ticket, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * All replace operations are issued before waiting for any of them, so that they are
+     * pipelined by the memcached client.
+     */
+    @Override
+    protected void updateTickets(final Collection<Ticket> tickets) {
+        logger.debug("Updating {} tickets", tickets.size());
+        final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(tickets.size());
+        for (final Ticket ticket : tickets) {
+            try {
+                futures.add(this.client.replace(ticket.getId(), getTimeout(ticket), ticket));
+                touchServiceGrants(ticket);
+            } catch (final Exception e) {
+                logger.error("Failed updating {}", ticket, e);
+                futures.add(null);
+            }
+        }
+
+        int i = 0;
+        for (final Ticket ticket : tickets) {
+            final Future<Boolean> future = futures.get(i++);
+            if (future != null) {
+                waitForUpdate(ticket, future);
+            }
+        }
+    }
+
+    /**
+     * Resets the expiration of the service grants of a ticket granting ticket along with the ticket,
+     * so that the grants do not expire before the ticket.
+     *
+     * @param ticket the updated ticket
+     */
+    private void touchServiceGrants(final Ticket ticket) {
+        if (this.serviceGrantsAsDeltas && ticket instanceof TicketGrantingTicket) {
+            // no need to wait, the key may not exist yet
+            this.client.touch(getServiceGrantsKey(ticket.getId()), this.tgtTimeout);
+        }
+    }
+
+    /**
+     * Waits for the result of an update operation and logs failures.
+     *
+     * @param ticket the updated ticket
+     * @param future the result of the replace operation
+     */
+    private void waitForUpdate(final Ticket ticket, final Future<Boolean> future) {
+        try {
+            if (!future.get()) {
                 logger.error("Failed updating {}", ticket);
             }
         } catch (final InterruptedException e) {
@@ -124,6 +223,37 @@ final int serviceTicketTimeOut) {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * When service grants are stored as deltas, only a record of the grant is appended
+     * to the key holding the grants of the ticket granting ticket.
+     */
+    @Override
+    protected void updateTicketGrantingTicket(final TicketGrantingTicket ticket, final ServiceTicket serviceTicket) {
+        if (!this.serviceGrantsAsDeltas || !(ticket instanceof TicketGrantingTicketImpl)) {
+            super.updateTicketGrantingTicket(ticket, serviceTicket);
+            return;
+        }
+
+        logger.debug("Recording grant of {} by {}", serviceTicket, ticket);
+        final String key = getServiceGrantsKey(ticket.getId());
+        try {
+            final byte[] record = encodeServiceGrant(
+                    new ServiceGrant(serviceTicket.getId(), serviceTicket.getService(), (TicketGrantingTicketImpl) ticket));
+            // append only succeeds once the key exists; add only succeeds for the first grant
+            if (!this.client.append(0, key, record, RAW_TRANSCODER).get()
+                    && !this.client.add(key, this.tgtTimeout, record, RAW_TRANSCODER).get()
+                    && !this.client.append(0, key, record, RAW_TRANSCODER).get()) {
+                logger.error("Failed recording grant of {} by {}", serviceTicket, ticket);
+            }
+        } catch (final InterruptedException e) {
+            logger.warn("Interrupted while waiting for response to async append operation for ticket {}. "
+                    + "Cannot determine whether update was successful.", ticket);
+        } catch (final Exception e) {
+            logger.error("Failed recording grant of {} by {}", serviceTicket, ticket, e);
+        }
+    }
+
     @Override
     public void addTicket(final Ticket ticket) {
         logger.debug("Adding ticket {}", ticket);
@@ -141,7 +271,12 @@ final int serviceTicketTimeOut) {
     @Override
     public boolean deleteTicket(final String ticketId) {
         logger.debug("Deleting ticket {}", ticketId);
+        discardPendingUpdate(ticketId);
         try {
+            if (this.serviceGrantsAsDeltas) {
+                // no need to wait, the grants are never read without the ticket
+                this.client.delete(getServiceGrantsKey(ticketId));
+            }
             return this.client.delete(ticketId).get();
         } catch (final Exception e) {
             logger.error("Failed deleting {}", ticketId, e);
@@ -151,7 +286,7 @@ final int serviceTicketTimeOut) {
     @Override
     public Ticket getTicket(final String ticketId) {
         try {
-            final Ticket t = (Ticket) this.client.get(ticketId);
+            final Ticket t = this.serviceGrantsAsDeltas ? getTicketWithServiceGrants(ticketId) : (Ticket) this.client.get(ticketId);
             if (t != null) {
                 return getProxiedTicketInstance(t);
             }
@@ -173,11 +308,13 @@ final int serviceTicketTimeOut) {
     }
 
     /**
-     * Destroy the client and shut down.
+     * Write pending updates, destroy the client and shut down.
      *
      * @throws Exception the exception
      */
+    @Override
     public void destroy() throws Exception {
+        super.destroy();
         this.client.shutdown();
     }
 
@@ -188,11 +325,192 @@ final int serviceTicketTimeOut) {
     @Deprecated
     public void setSynchronizeUpdatesToRegistry(final boolean sync) {}
 
+    /**
+     * Sets whether service grants are stored as separate records instead of replacing the ticket
+     * granting ticket. All nodes sharing the memcached servers must use the same setting.
+     *
+     * @param serviceGrantsAsDeltas true to append service grants as records
+     */
+    public void setServiceGrantsAsDeltas(final boolean serviceGrantsAsDeltas) {
+        this.serviceGrantsAsDeltas = serviceGrantsAsDeltas;
+    }
+
     @Override
     protected boolean needsCallback() {
         return true;
     }
 
+    /**
+     * Sets the number of service grant records read before they are folded into the ticket granting
+     * ticket and cleared. Only applies when service grants are stored as separate records.
+     *
+     * @param maxServiceGrants the number of records, {@link #DEFAULT_MAX_SERVICE_GRANTS} by default
+     */
+    public void setMaxServiceGrants(final int maxServiceGrants) {
+        this.maxServiceGrants = maxServiceGrants;
+    }
+
+    /**
+     * Fetches a ticket and the service grants recorded for it with a single multi-get,
+     * and applies the grants if the ticket is a ticket granting ticket.
+     *
+     * @param ticketId the ticket id
+     * @return the ticket, or null if it does not exist
+     * @throws Exception if the ticket or its grants cannot be read
+     */
+    private Ticket getTicketWithServiceGrants(final String ticketId) throws Exception {
+        final String key = getServiceGrantsKey(ticketId);
+        final Map<String, CachedData> values = this.client.getBulk(Arrays.asList(ticketId, key), CACHED_DATA_TRANSCODER);
+        final CachedData data = values.get(ticketId);
+        if (data == null) {
+            return null;
+        }
+
+        final Ticket ticket = (Ticket) this.client.getTranscoder().decode(data);
+        final CachedData records = values.get(key);
+        if (records != null && ticket instanceof TicketGrantingTicketImpl) {
+            final TicketGrantingTicketImpl ticketGrantingTicket = (TicketGrantingTicketImpl) ticket;
+            if (applyServiceGrants(ticketGrantingTicket, records.getData()) > this.maxServiceGrants) {
+                compactServiceGrants(ticketId);
+            }
+        }
+        return ticket;
+    }
+
+    /**
+     * Applies the service grants recorded for a ticket granting ticket. Records are applied in
+     * the order they were appended; records of service tickets the ticket still tracks are skipped.
+     *
+     * @param ticket the ticket granting ticket read from memcached
+     * @param records the records of the grants
+     * @return the number of records applied
+     * @throws IOException if the records cannot be read
+     */
+    private int applyServiceGrants(final TicketGrantingTicketImpl ticket, final byte[] records) throws IOException {
+        final Transcoder<Object> transcoder = this.client.getTranscoder();
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(records));
+        int count = 0;
+        while (in.available() > 0) {
+            final int flags = in.readInt();
+            final byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            final ServiceGrant grant = (ServiceGrant) transcoder.decode(new CachedData(flags, data, transcoder.getMaxSize()));
+            grant.applyTo(ticket);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Folds the service grants recorded for a ticket granting ticket into the ticket and removes
+     * the folded records. The ticket is read again and written back with a compare-and-set, so
+     * nothing is written if the ticket was changed, expired or deleted meanwhile; the records are
+     * then left for a later read to fold.
+     * <p>
+     * The ticket and its records live under two keys and cannot be written at once. Should the
+     * records not be removed after the ticket was written, for instance because the node stops in
+     * between, they are applied again by later reads. That only has an effect for services the
+     * ticket no longer tracks because of its cap on services, which are then tracked again.
+     *
+     * @param ticketId the ticket granting ticket id
+     * @throws Exception if the ticket or its grants cannot be written
+     */
+    private void compactServiceGrants(final String ticketId) throws Exception {
+        final String key = getServiceGrantsKey(ticketId);
+        final CASValue<Object> current = this.client.gets(ticketId);
+        final CASValue<byte[]> records = this.client.gets(key, RAW_TRANSCODER);
+        if (current == null || records == null || !(current.getValue() instanceof TicketGrantingTicketImpl)) {
+            return;
+        }
+
+        final TicketGrantingTicketImpl ticket = (TicketGrantingTicketImpl) current.getValue();
+        if (ticket.isExpired()) {
+            logger.debug("Not folding service grants of expired ticket {}", ticket);
+            return;
+        }
+        applyServiceGrants(ticket, records.getValue());
+        final CASResponse response = this.client.cas(ticketId, current.getCas(), this.tgtTimeout, ticket,
+                this.client.getTranscoder());
+        if (response != CASResponse.OK) {
+            logger.debug("Ticket {} was changed while folding its service grants: {}", ticket, response);
+            return;
+        }
+        removeServiceGrants(key, records);
+    }
+
+    /**
+     * Removes service grant records that were folded into their ticket granting ticket. Records
+     * are only ever appended, so records appended after the folded ones were read are kept by
+     * cutting the folded records off the front, retrying until no record is appended meanwhile.
+     * Nothing is removed if the records were replaced by another node folding them.
+     *
+     * @param key the key holding the service grants
+     * @param folded the records that were folded
+     * @throws Exception if the records cannot be written
+     */
+    private void removeServiceGrants(final String key, final CASValue<byte[]> folded) throws Exception {
+        final int length = folded.getValue().length;
+        CASValue<byte[]> records = folded;
+        while (records != null && startsWith(records.getValue(), folded.getValue())) {
+            final byte[] remaining = Arrays.copyOfRange(records.getValue(), length, records.getValue().length);
+            final CASResponse response = this.client.cas(key, records.getCas(), this.tgtTimeout, remaining, RAW_TRANSCODER);
+            if (response != CASResponse.EXISTS) {
+                logger.debug("Removed folded service grants under {}: {}", key, response);
+                return;
+            }
+            records = this.client.gets(key, RAW_TRANSCODER);
+        }
+        logger.debug("Service grants under {} were removed or folded by another node", key);
+    }
+
+    /**
+     * Tells whether a byte array starts with the given bytes.
+     *
+     * @param value the byte array
+     * @param prefix the bytes
+     * @return true if the array starts with the bytes
+     */
+    private static boolean startsWith(final byte[] value, final byte[] prefix) {
+        if (value.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (value[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encodes a service grant with the transcoder of the client, framed so that
+     * records appended one after the other can be read back.
+     *
+     * @param grant the service grant
+     * @return the framed record
+     * @throws IOException if the record cannot be written
+     */
+    private byte[] encodeServiceGrant(final ServiceGrant grant) throws IOException {
+        final CachedData data = this.client.getTranscoder().encode(grant);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.getData().length + 8);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(data.getFlags());
+        out.writeInt(data.getData().length);
+        out.write(data.getData());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Gets the key holding the service grants of a ticket granting ticket.
+     *
+     * @param ticketId the ticket granting ticket id
+     * @return the key
+     */
+    private static String getServiceGrantsKey(final String ticketId) {
+        return ticketId + SERVICE_GRANTS_KEY_SUFFIX;
+    }
+
     /**
      * Gets the timeout value for the ticket.
      *
@@ -207,4 +525,56 @@ final int serviceTicketTimeOut) {
         }
         throw new IllegalArgumentException("Invalid ticket type");
     }
+
+    /**
+     * Transcoder that returns stored values without decoding them. It is only used to read values.
+     */
+    private static final class CachedDataTranscoder implements Transcoder<CachedData> {
+
+        @Override
+        public boolean asyncDecode(final CachedData d) {
+            return false;
+        }
+
+        @Override
+        public CachedData encode(final CachedData o) {
+            return o;
+        }
+
+        @Override
+        public CachedData decode(final CachedData d) {
+            return d;
+        }
+
+        @Override
+        public int getMaxSize() {
+            return CachedData.MAX_SIZE;
+        }
+    }
+
+    /**
+     * Transcoder that stores bytes without any encoding nor flags.
+     */
+    private static final class RawTranscoder implements Transcoder<byte[]> {
+
+        @Override
+        public boolean asyncDecode(final CachedData d) {
+            return false;
+        }
+
+        @Override
+        public CachedData encode(final byte[] o) {
+            return new CachedData(0, o, getMaxSize());
+        }
+
+        @Override
+        public byte[] decode(final CachedData d) {
+            return d.getData();
+        }
+
+        @Override
+        public int getMaxSize() {
+            return CachedData.MAX_SIZE;
+        }
+    }
 }
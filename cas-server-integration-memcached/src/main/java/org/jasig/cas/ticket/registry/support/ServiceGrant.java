@@ -0,0 +1,103 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.ticket.registry.support;
+
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+
+import java.io.Serializable;
+
+/**
+ * Record of a service ticket granted by a ticket granting ticket, along with the state of the
+ * ticket granting ticket right after the grant. Registries store these records apart from the
+ * ticket granting ticket so that a grant does not require writing the whole ticket again.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class ServiceGrant implements Serializable {
+
+    /** Unique id for serialization. */
+    private static final long serialVersionUID = -2384930151376482409L;
+
+    /** Id of the granted service ticket. */
+    private String serviceTicketId;
+
+    /** Service the ticket was granted for. */
+    private Service service;
+
+    /** Number of times the ticket granting ticket was used. */
+    private int countOfUses;
+
+    /** Last time the ticket granting ticket was used. */
+    private long lastTimeUsed;
+
+    /** Previous last time the ticket granting ticket was used. */
+    private long previousTimeUsed;
+
+    /**
+     * Instantiates a new service grant for serialization.
+     */
+    public ServiceGrant() {
+        // nothing to do
+    }
+
+    /**
+     * Instantiates a new service grant.
+     *
+     * @param serviceTicketId the id of the granted service ticket
+     * @param service the service the ticket was granted for
+     * @param ticket the ticket granting ticket, right after the grant
+     */
+    public ServiceGrant(final String serviceTicketId, final Service service, final TicketGrantingTicketImpl ticket) {
+        this.serviceTicketId = serviceTicketId;
+        this.service = service;
+        this.countOfUses = ticket.getCountOfUses();
+        this.lastTimeUsed = ticket.getLastTimeUsed();
+        this.previousTimeUsed = ticket.getPreviousTimeUsed();
+    }
+
+    /**
+     * Applies this grant to a ticket granting ticket read back from the registry.
+     *
+     * @param ticket the ticket granting ticket
+     */
+    public void applyTo(final TicketGrantingTicketImpl ticket) {
+        ticket.restoreServiceGrant(this.serviceTicketId, this.service,
+                this.countOfUses, this.lastTimeUsed, this.previousTimeUsed);
+    }
+
+    /**
+     * Gets the id of the granted service ticket.
+     *
+     * @return the service ticket id
+     */
+    public String getServiceTicketId() {
+        return this.serviceTicketId;
+    }
+
+    /**
+     * Gets the service the ticket was granted for.
+     *
+     * @return the service
+     */
+    public Service getService() {
+        return this.service;
+    }
+}
@@ -33,6 +33,8 @@ import org.jasig.cas.services.RegexRegisteredService;
 import org.jasig.cas.services.RegisteredServiceImpl;
 import org.jasig.cas.ticket.ServiceTicketImpl;
 import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.support.ServiceGrant;
+import org.jasig.cas.ticket.registry.support.TicketCompressor;
 import org.jasig.cas.ticket.registry.support.kryo.serial.RegisteredServiceSerializer;
 import org.jasig.cas.ticket.registry.support.kryo.serial.SimpleWebApplicationServiceSerializer;
 import org.jasig.cas.ticket.registry.support.kryo.serial.URLSerializer;
@@ -52,16 +54,42 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * {@link net.spy.memcached.MemcachedClient} transcoder implementation based on Kryo fast serialization framework
  * suited for efficient serialization of tickets.
+ * <p>
+ * Objects are encoded into a per-thread buffer provided by the Kryo context. The buffer is sized from the
+ * largest encoding seen so far for the type of the object, so that tickets which outgrow the initial
+ * buffer size are not serialized more than once on every encode.
+ * <p>
+ * Encoded objects may optionally be {@link #setCompressor(TicketCompressor) compressed}. Compressed data is
+ * marked with the {@link #COMPRESSED_FLAG} flag of the cached data, so that data stored before compression
+ * was turned on, or by nodes that do not compress, can still be decoded.
+ * <p>
+ * The encoding of ticket granting tickets changed in 4.1: they carry a cap on their services, tracked in a
+ * {@link LinkedHashMap}, and service grants may be stored as {@link ServiceGrant} records. Earlier versions
+ * cannot decode these, and this version cannot decode their ticket granting tickets, so the nodes of a
+ * cluster sharing a registry must all be upgraded at once, starting from an empty cache, rather than in a
+ * rolling upgrade.
  *
  * @author Marvin S. Addison
  */
 public class KryoTranscoder implements Transcoder<Object> {
 
+    /** Flag of cached data holding compressed objects; same value as the spymemcached serializing transcoder. */
+    public static final int COMPRESSED_FLAG = 2;
+
+    /**
+     * Decay of the estimated encoded size of a type towards smaller sizes, as a power of two:
+     * each smaller object closes an eighth of the gap.
+     */
+    private static final int ENCODED_SIZE_DECAY_SHIFT = 3;
+
     /** Kryo serializer. */
     private final Kryo kryo = new Kryo();
 
@@ -74,6 +102,14 @@ public class KryoTranscoder implements Transcoder<Object> {
     /** Map of class to serializer that handles it. */
     private Map<Class<?>, Serializer> serializerMap;
 
+    /** Estimated encoded size of each type, following the largest recent sizes. */
+    private final ConcurrentMap<Class<?>, Integer> encodedSizes = new ConcurrentHashMap<Class<?>, Integer>();
+
+    /** Compressor of encoded objects, if any. */
+    private TicketCompressor compressor;
+
+    /** Decompressor of data compressed by other nodes when compression is turned off here. */
+    private TicketCompressor decompressor = new TicketCompressor();
 
     /**
      * Creates a Kryo-based transcoder.
@@ -95,6 +131,18 @@ public class KryoTranscoder implements Transcoder<Object> {
         this.serializerMap = map;
     }
 
+    /**
+     * Sets the compressor of encoded objects. Objects are not compressed by default.
+     *
+     * @param compressor the compressor, or null to turn compression off
+     */
+    public void setCompressor(final TicketCompressor compressor) {
+        this.compressor = compressor;
+        if (compressor != null) {
+            this.decompressor = compressor;
+        }
+    }
+
     /**
      * Initialize and register classes with kryo.
      */
@@ -120,6 +168,10 @@ public class KryoTranscoder implements Transcoder<Object> {
         kryo.register(URL.class, new URLSerializer(kryo));
         kryo.register(RegisteredServiceImpl.class, new RegisteredServiceSerializer(kryo));
         kryo.register(RegexRegisteredService.class, new RegisteredServiceSerializer(kryo));
+        kryo.register(ServiceGrant.class);
+        // Types are registered with sequential ids: append new types here so that the ids of
+        // the types above, and the data other nodes encoded with them, do not change
+        kryo.register(LinkedHashMap.class);
 
         // Register other types
         if (serializerMap != null) {
@@ -146,12 +198,24 @@ public class KryoTranscoder implements Transcoder<Object> {
     @Override
     public CachedData encode(final Object o) {
         final byte[] bytes = encodeToBytes(o);
+        if (this.compressor != null) {
+            final byte[] compressed = this.compressor.compress(bytes, o);
+            if (this.compressor.isCompressed(compressed)) {
+                return new CachedData(COMPRESSED_FLAG, compressed, compressed.length);
+            }
+        }
         return new CachedData(0, bytes, bytes.length);
     }
 
     @Override
     public Object decode(final CachedData d) {
-        return kryo.readClassAndObject(ByteBuffer.wrap(d.getData()));
+        if ((d.getFlags() & COMPRESSED_FLAG) == 0) {
+            return kryo.readClassAndObject(ByteBuffer.wrap(d.getData()));
+        }
+        final long start = System.nanoTime();
+        final Object o = kryo.readClassAndObject(ByteBuffer.wrap(this.decompressor.decompress(d.getData())));
+        this.decompressor.recordDecode(o, System.nanoTime() - start);
+        return o;
     }
 
 
@@ -176,35 +240,56 @@ public class KryoTranscoder implements Transcoder<Object> {
 
 
     /**
-     * Encodes the given object using registered Kryo serializers.  Provides explicit buffer overflow protection, but
-     * careful buffer sizing should be employed to reduce the need for this facility.
+     * Encodes the given object using registered Kryo serializers. The buffer starts at the estimated size
+     * of the type of the object and doubles on overflow, so that the object is rarely serialized twice.
+     * The estimate jumps to larger sizes right away and decays towards smaller ones, so that a single
+     * large object does not size every later buffer.
      *
      * @param o Object to encode.
      *
      * @return Encoded bytes.
      */
     private byte[] encodeToBytes(final Object o) {
-        int factor = 1;
-        byte[] result = null;
-        ByteBuffer buffer = Kryo.getContext().getBuffer(bufferSize * factor);
-        while (result == null) {
+        final Class<?> type = o != null ? o.getClass() : Void.class;
+        final Integer encodedSize = this.encodedSizes.get(type);
+        int size = encodedSize != null ? Math.max(encodedSize, bufferSize) : bufferSize;
+        while (true) {
+            final ByteBuffer buffer = Kryo.getContext().getBuffer(size);
+            buffer.clear();
             try {
                 kryo.writeClassAndObject(buffer, o);
-                result = new byte[buffer.flip().limit()];
+                final byte[] result = new byte[buffer.flip().limit()];
                 buffer.get(result);
+                final int estimate = estimateEncodedSize(encodedSize, result.length);
+                if (encodedSize == null || estimate != encodedSize) {
+                    this.encodedSizes.put(type, estimate);
+                }
+                return result;
             } catch (final SerializationException e) {
                 Throwable rootCause = e;
                 while (rootCause.getCause() != null) {
                     rootCause = rootCause.getCause();
                 }
-                if (rootCause instanceof BufferOverflowException) {
-                    buffer = ByteBuffer.allocate(bufferSize * ++factor);
-                    logger.warn("Buffer overflow while encoding {}", o);
-                } else {
+                if (!(rootCause instanceof BufferOverflowException)) {
                     throw e;
                 }
+                size = Math.max(size, buffer.capacity()) * 2;
+                logger.debug("Buffer overflow while encoding {}. Retrying with {} bytes", o, size);
             }
         }
-        return result;
+    }
+
+    /**
+     * Updates the estimated encoded size of a type with the size of an encoded object.
+     *
+     * @param estimate the current estimate, or null if there is none yet
+     * @param encodedSize the size of the encoded object
+     * @return the new estimate
+     */
+    private static int estimateEncodedSize(final Integer estimate, final int encodedSize) {
+        if (estimate == null || encodedSize >= estimate) {
+            return encodedSize;
+        }
+        return estimate - ((estimate - encodedSize) >> ENCODED_SIZE_DECAY_SHIFT);
     }
 }
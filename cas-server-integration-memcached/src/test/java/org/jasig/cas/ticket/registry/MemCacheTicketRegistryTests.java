@@ -23,7 +23,13 @@ import java.util.Arrays;
 import java.util.Collection;
 
 import org.apache.commons.io.IOUtils;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
 import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy;
 import org.junit.Assert;
 import org.junit.Assume;
 import org.junit.Before;
@@ -109,6 +115,47 @@ public class MemCacheTicketRegistryTests {
         Assert.assertNull((ServiceTicket) registry.getTicket(id));
     }
 
+    @Test
+    public void testServiceGrantsAsDeltas() throws Exception {
+        registry.setServiceGrantsAsDeltas(true);
+        final String id = "TGT-1234567890ABCDEFGHIJKL-deltas";
+        final Authentication authentication = mock(Authentication.class, withSettings().serializable());
+        when(authentication.getPrincipal()).thenReturn(new SimplePrincipal("user"));
+        registry.addTicket(new TicketGrantingTicketImpl(id, authentication, new NeverExpiresExpirationPolicy()));
+        for (int i = 0; i < 3; i++) {
+            final TicketGrantingTicket ticket = (TicketGrantingTicket) registry.getTicket(id);
+            ticket.grantServiceTicket("ST-" + i + "-deltas", new SimpleWebApplicationServiceImpl("https://example.com/" + i),
+                    new NeverExpiresExpirationPolicy(), false);
+        }
+
+        final TicketGrantingTicket ticketFromRegistry = (TicketGrantingTicket) registry.getTicket(id);
+        Assert.assertEquals(3, ticketFromRegistry.getServices().size());
+        Assert.assertEquals(3, ticketFromRegistry.getCountOfUses());
+        registry.deleteTicket(id);
+        Assert.assertNull(registry.getTicket(id));
+    }
+
+    @Test
+    public void testServiceGrantsAreFolded() throws Exception {
+        registry.setServiceGrantsAsDeltas(true);
+        registry.setMaxServiceGrants(2);
+        final String id = "TGT-1234567890ABCDEFGHIJKL-folded";
+        final Authentication authentication = mock(Authentication.class, withSettings().serializable());
+        when(authentication.getPrincipal()).thenReturn(new SimplePrincipal("user"));
+        registry.addTicket(new TicketGrantingTicketImpl(id, authentication, new NeverExpiresExpirationPolicy()));
+        for (int i = 0; i < 5; i++) {
+            final TicketGrantingTicket ticket = (TicketGrantingTicket) registry.getTicket(id);
+            ticket.grantServiceTicket("ST-" + i + "-folded", new SimpleWebApplicationServiceImpl("https://example.com/" + i),
+                    new NeverExpiresExpirationPolicy(), false);
+        }
+
+        final TicketGrantingTicket ticketFromRegistry = (TicketGrantingTicket) registry.getTicket(id);
+        Assert.assertEquals(5, ticketFromRegistry.getServices().size());
+        Assert.assertEquals(5, ticketFromRegistry.getCountOfUses());
+        registry.deleteTicket(id);
+        Assert.assertNull(registry.getTicket(id));
+    }
+
     private boolean isMemcachedListening() {
         Socket socket = null;
         try {
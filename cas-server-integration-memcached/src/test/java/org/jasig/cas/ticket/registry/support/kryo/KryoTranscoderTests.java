@@ -20,6 +20,7 @@ package org.jasig.cas.ticket.registry.support.kryo;
 
 import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.serialize.FieldSerializer;
+import net.spy.memcached.CachedData;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.jasig.cas.authentication.Authentication;
 import org.jasig.cas.authentication.AuthenticationBuilder;
@@ -37,6 +38,7 @@ import org.jasig.cas.services.RegisteredServiceImpl;
 import org.jasig.cas.ticket.ExpirationPolicy;
 import org.jasig.cas.ticket.ServiceTicket;
 import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.support.TicketCompressor;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -53,6 +55,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Unit test for {@link KryoTranscoder} class.
@@ -108,6 +111,39 @@ public class KryoTranscoderTests {
         internalProxyTest("https://localhost:8080/path/file.html?p1=v1&p2=v2#fragment");
     }
 
+    @Test
+    public void testEncodeDecodeLargeObjects() throws Exception {
+        for (final int size : new int[] {10, 1000, 100000}) {
+            final ArrayList<String> expected = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                expected.add(ST_ID + i);
+            }
+            assertEquals(expected, transcoder.decode(transcoder.encode(expected)));
+            // the second encode starts with a buffer large enough
+            assertEquals(expected, transcoder.decode(transcoder.encode(expected)));
+        }
+    }
+
+    @Test
+    public void testEncodeDecodeCompressed() throws Exception {
+        final ArrayList<String> expected = new ArrayList<String>(1000);
+        for (int i = 0; i < 1000; i++) {
+            expected.add(ST_ID + i);
+        }
+        final byte[] uncompressed = transcoder.encode(expected).getData();
+
+        transcoder.setCompressor(new TicketCompressor());
+        final CachedData compressed = transcoder.encode(expected);
+        assertEquals(KryoTranscoder.COMPRESSED_FLAG, compressed.getFlags());
+        assertTrue(compressed.getData().length < uncompressed.length);
+        assertEquals(expected, transcoder.decode(compressed));
+
+        // data stored without compression is still readable, and the other way around
+        assertEquals(expected, transcoder.decode(new CachedData(0, uncompressed, uncompressed.length)));
+        transcoder.setCompressor(null);
+        assertEquals(expected, transcoder.decode(compressed));
+    }
+
     private void internalProxyTest(final String proxyUrl) throws MalformedURLException {
         final RegisteredServiceImpl svc = new RegisteredServiceImpl();
         svc.setServiceId("https://some.app.edu");
@@ -242,7 +278,9 @@ public class KryoTranscoderTests {
         }
 
         @Override
-        public void removeAllServices() {}
+        public Map<String, Service> removeAllServices() {
+            return Collections.emptyMap();
+        }
 
         @Override
         public void markTicketExpired() {}
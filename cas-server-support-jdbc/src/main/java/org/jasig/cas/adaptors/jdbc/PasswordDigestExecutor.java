@@ -0,0 +1,131 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.cas.adaptors.jdbc;
+
+import org.jasig.cas.authentication.PreventedException;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes password digests on a fixed number of dedicated threads, so that the CPU spent on
+ * iterated hashing does not grow with the number of request threads.
+ *
+ * <p>
+ * At most <code>queueCapacity</code> digests wait for a thread. Logins arriving while the queue is
+ * full are refused with a {@link PreventedException} instead of piling up behind it.
+ * </p>
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class PasswordDigestExecutor implements DisposableBean {
+
+    /** Default number of digests waiting for a thread. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 100;
+
+    /** Time idle threads are kept, in seconds. */
+    private static final int KEEP_ALIVE_SECONDS = 60;
+
+    /** Threads computing the digests. */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Instantiates a new executor with one thread per processor and a queue of {@link #DEFAULT_QUEUE_CAPACITY} digests.
+     */
+    public PasswordDigestExecutor() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Instantiates a new executor.
+     *
+     * @param threads the number of threads computing digests
+     * @param queueCapacity the number of digests waiting for a thread
+     */
+    public PasswordDigestExecutor(final int threads, final int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "PasswordDigest-" + this.count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Computes a digest on one of the threads and waits for it.
+     *
+     * @param digest the digest computation
+     * @return the digest
+     * @throws PreventedException if the queue is full, the executor is shut down or the caller is interrupted
+     */
+    public String digest(final Callable<String> digest) throws PreventedException {
+        final Future<String> future;
+        try {
+            future = this.executor.submit(digest);
+        } catch (final RejectedExecutionException e) {
+            throw new PreventedException("Too many passwords waiting to be verified", e);
+        }
+
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PreventedException("Interrupted while waiting for password verification", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new PreventedException("Password verification failed", e.getCause());
+        }
+    }
+
+    /**
+     * Gets the number of digests waiting for a thread.
+     *
+     * @return the queue depth
+     */
+    public int getQueuedCount() {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * Stops the threads once the queued digests are computed.
+     */
+    @Override
+    public void destroy() {
+        this.executor.shutdown();
+    }
+}
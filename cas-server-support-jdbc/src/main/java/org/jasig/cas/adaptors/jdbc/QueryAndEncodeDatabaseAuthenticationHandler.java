@@ -19,11 +19,8 @@
 
 package org.jasig.cas.adaptors.jdbc;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.shiro.crypto.hash.ConfigurableHashService;
-import org.apache.shiro.crypto.hash.DefaultHashService;
-import org.apache.shiro.crypto.hash.HashRequest;
-import org.apache.shiro.util.ByteSource;
 import org.jasig.cas.authentication.HandlerResult;
 import org.jasig.cas.authentication.PreventedException;
 import org.jasig.cas.authentication.UsernamePasswordCredential;
@@ -35,8 +32,12 @@ import javax.security.auth.login.AccountNotFoundException;
 import javax.security.auth.login.FailedLoginException;
 import javax.sql.DataSource;
 import javax.validation.constraints.NotNull;
+import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * A JDBC querying handler that will pull back the password and
@@ -52,6 +53,12 @@ import java.util.Map;
  * of private and public salts does nto meet your needs, a extension can be developed
  * to specify alternative methods of encoding and digestion of the encoded password.
  * </p>
+ *
+ * <p>
+ * Digests are computed with a message digest kept per thread and compared in constant time.
+ * Iterated hashing is CPU bound; set a {@link PasswordDigestExecutor} to compute digests on a
+ * bounded number of threads rather than on the request threads.
+ * </p>
  * @author Misagh Moayyed
  * @author Charles Hasegawa (mailto:chasegawa@unicon.net)
  */
@@ -61,6 +68,8 @@ public class QueryAndEncodeDatabaseAuthenticationHandler extends AbstractJdbcUse
     private static final String DEFAULT_SALT_FIELD = "salt";
     private static final String DEFAULT_NUM_ITERATIONS_FIELD = "numIterations";
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     /**
      * The Algorithm name.
      */
@@ -101,6 +110,24 @@ public class QueryAndEncodeDatabaseAuthenticationHandler extends AbstractJdbcUse
      */
     protected String staticSalt = null;
 
+    /** Bytes of the static salt, empty if there is none. */
+    private byte[] staticSaltBytes = new byte[0];
+
+    /** Executor computing the digests, or null to compute them on the calling thread. */
+    private PasswordDigestExecutor digestExecutor;
+
+    /** Message digest of each thread; {@link MessageDigest#digest(byte[])} resets it after use. */
+    private final ThreadLocal<MessageDigest> messageDigests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance(algorithmName);
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("Unsupported digest algorithm " + algorithmName, e);
+            }
+        }
+    };
+
     /**
      * Instantiates a new Query and encode database authentication handler.
      *
@@ -127,9 +154,11 @@ public class QueryAndEncodeDatabaseAuthenticationHandler extends AbstractJdbcUse
 
         try {
             final Map<String, Object> values = getJdbcTemplate().queryForMap(this.sql, username);
-            final String digestedPassword = digestEncodedPassword(encodedPsw, values);
+            final String digestedPassword = digest(encodedPsw, values);
+            final Object storedPassword = values.get(this.passwordFieldName);
 
-            if (!values.get(this.passwordFieldName).equals(digestedPassword)) {
+            if (digestedPassword == null || storedPassword == null
+                    || !MessageDigest.isEqual(digestedPassword.getBytes(UTF8), storedPassword.toString().getBytes(UTF8))) {
                 throw new FailedLoginException("Password does not match value on record.");
             }
             return createHandlerResult(transformedCredential, new SimplePrincipal(username), null);
@@ -147,37 +176,80 @@ public class QueryAndEncodeDatabaseAuthenticationHandler extends AbstractJdbcUse
     }
 
     /**
-     * Digest encoded password.
+     * Digests the encoded password on the digest executor, if any, or else on the calling thread.
      *
      * @param encodedPassword the encoded password
      * @param values the values retrieved from database
      * @return the digested password
+     * @throws PreventedException if the digest executor cannot take the password
      */
-    protected String digestEncodedPassword(final String encodedPassword, final Map<String, Object> values) {
-        final ConfigurableHashService hashService = new DefaultHashService();
+    private String digest(final String encodedPassword, final Map<String, Object> values) throws PreventedException {
+        if (this.digestExecutor == null) {
+            return digestEncodedPassword(encodedPassword, values);
+        }
+        return this.digestExecutor.digest(new Callable<String>() {
+            @Override
+            public String call() {
+                return digestEncodedPassword(encodedPassword, values);
+            }
+        });
+    }
 
-        if (StringUtils.isNotBlank(this.staticSalt)) {
-            hashService.setPrivateSalt(ByteSource.Util.bytes(this.staticSalt));
+    /**
+     * Digest encoded password. The digest is the one {@link org.apache.shiro.crypto.hash.DefaultHashService}
+     * computes from the static salt followed by the salt of the user.
+     * <p>
+     * A user with a null or empty salt is rejected when a static salt is set: the hash service then
+     * adds a random public salt, so no digest on record could match. Without a static salt, such a user
+     * is digested without salt, as the hash service does.
+     *
+     * @param encodedPassword the encoded password
+     * @param values the values retrieved from database
+     * @return the digested password, or null if the password is empty or cannot match
+     */
+    protected String digestEncodedPassword(final String encodedPassword, final Map<String, Object> values) {
+        if (!values.containsKey(this.saltFieldName)) {
+            throw new RuntimeException("Specified field name for salt does not exist in the results");
+        }
+        if (StringUtils.isEmpty(encodedPassword)) {
+            return null;
         }
-        hashService.setHashAlgorithmName(this.algorithmName);
 
-        Long numOfIterations = this.numberOfIterations;
-        if (values.containsKey(this.numberOfIterationsFieldName)) {
-            final String longAsStr = values.get(this.numberOfIterationsFieldName).toString();
-            numOfIterations = Long.valueOf(longAsStr);
+        final long numOfIterations = getNumberOfIterations(values);
+        final Object dynaSalt = values.get(this.saltFieldName);
+        final boolean hasDynaSalt = dynaSalt != null && !dynaSalt.toString().isEmpty();
+        if (this.staticSaltBytes.length > 0 && !hasDynaSalt) {
+            logger.warn("Empty salt on record along with a static salt; the password cannot match");
+            return null;
         }
 
-        hashService.setHashIterations(numOfIterations.intValue());
-        if (!values.containsKey(this.saltFieldName)) {
-            throw new RuntimeException("Specified field name for salt does not exist in the results");
+        final MessageDigest messageDigest = this.messageDigests.get();
+        messageDigest.update(this.staticSaltBytes);
+        if (hasDynaSalt) {
+            messageDigest.update(dynaSalt.toString().getBytes(UTF8));
         }
+        byte[] hashed = messageDigest.digest(encodedPassword.getBytes(UTF8));
+        for (long i = 1; i < numOfIterations; i++) {
+            hashed = messageDigest.digest(hashed);
+        }
+        return Hex.encodeHexString(hashed);
+    }
 
-        final String dynaSalt = values.get(this.saltFieldName).toString();
-        final HashRequest request = new HashRequest.Builder()
-                                    .setSalt(dynaSalt)
-                                    .setSource(encodedPassword)
-                                    .build();
-        return hashService.computeHash(request).toHex();
+    /**
+     * Gets the number of iterations of the user, or the configured number if the results have none.
+     *
+     * @param values the values retrieved from database
+     * @return the number of iterations
+     */
+    private long getNumberOfIterations(final Map<String, Object> values) {
+        final Object value = values.get(this.numberOfIterationsFieldName);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value != null) {
+            return Long.parseLong(value.toString().trim());
+        }
+        return this.numberOfIterations;
     }
 
     /**
@@ -199,6 +271,7 @@ public class QueryAndEncodeDatabaseAuthenticationHandler extends AbstractJdbcUse
      */
     public final void setStaticSalt(final String staticSalt) {
         this.staticSalt = staticSalt;
+        this.staticSaltBytes = StringUtils.isNotBlank(staticSalt) ? staticSalt.getBytes(UTF8) : new byte[0];
     }
 
     /**
@@ -237,4 +310,13 @@ public class QueryAndEncodeDatabaseAuthenticationHandler extends AbstractJdbcUse
         this.numberOfIterations = numberOfIterations;
     }
 
+    /**
+     * Sets the executor computing the digests. By default they are computed on the calling thread.
+     *
+     * @param digestExecutor the digest executor
+     */
+    public final void setDigestExecutor(final PasswordDigestExecutor digestExecutor) {
+        this.digestExecutor = digestExecutor;
+    }
+
 }
@@ -37,6 +37,10 @@ import org.springframework.transaction.annotation.Transactional;
 /**
  * JPA implementation of a CAS {@link TicketRegistry}. This implementation of
  * ticket registry is suitable for HA environments.
+ * <p>
+ * Since the database is shared by every node, ticket counts are obtained from count queries.
+ * Their results are reused for {@link #setCountCacheInterval(long) countCacheInterval} milliseconds
+ * so that frequent monitoring requests do not each hit the database.
  *
  * @author Scott Battaglia
  * @author Marvin S. Addison
@@ -46,6 +50,9 @@ import org.springframework.transaction.annotation.Transactional;
  */
 public final class JpaTicketRegistry extends AbstractDistributedTicketRegistry {
 
+    /** Default time during which ticket counts are reused, in milliseconds. */
+    private static final long DEFAULT_COUNT_CACHE_INTERVAL = 10000;
+
     @NotNull
     @PersistenceContext
     private EntityManager entityManager;
@@ -53,6 +60,15 @@ public final class JpaTicketRegistry extends AbstractDistributedTicketRegistry {
     @NotNull
     private String ticketGrantingTicketPrefix = "TGT";
 
+    /** Time during which ticket counts are reused, in milliseconds. */
+    private long countCacheInterval = DEFAULT_COUNT_CACHE_INTERVAL;
+
+    /** Most recent ticket counts. */
+    private volatile TicketCounts ticketCounts;
+
+    /** Guards the refresh of {@link #ticketCounts}. */
+    private final Object ticketCountsLock = new Object();
+
     @Override
     protected void updateTicket(final Ticket ticket) {
         entityManager.merge(ticket);
@@ -116,11 +132,12 @@ public final class JpaTicketRegistry extends AbstractDistributedTicketRegistry {
     }
 
     /**
-     * Removes the ticket.
+     * Removes the ticket, discarding its pending update if any.
      *
      * @param ticket the ticket
      */
     private void removeTicket(final Ticket ticket) {
+        discardPendingUpdate(ticket.getId());
         try {
             if (logger.isDebugEnabled()) {
                 final Date creationDate = new Date(ticket.getCreationTime());
@@ -178,6 +195,16 @@ public final class JpaTicketRegistry extends AbstractDistributedTicketRegistry {
         this.ticketGrantingTicketPrefix = ticketGrantingTicketPrefix;
     }
 
+    /**
+     * Sets the time during which ticket counts are reused before the database is queried again.
+     * A value of zero queries the database every time.
+     *
+     * @param countCacheInterval the interval in milliseconds
+     */
+    public void setCountCacheInterval(final long countCacheInterval) {
+        this.countCacheInterval = countCacheInterval;
+    }
+
     @Override
     protected boolean needsCallback() {
         return false;
@@ -186,14 +213,37 @@ public final class JpaTicketRegistry extends AbstractDistributedTicketRegistry {
     @Transactional(readOnly=true)
     @Override
     public int sessionCount() {
-        return countToInt(entityManager.createQuery(
-                "select count(t) from TicketGrantingTicketImpl t").getSingleResult());
+        return getTicketCounts().sessionCount;
     }
 
     @Transactional(readOnly=true)
     @Override
     public int serviceTicketCount() {
-        return countToInt(entityManager.createQuery("select count(t) from ServiceTicketImpl t").getSingleResult());
+        return getTicketCounts().serviceTicketCount;
+    }
+
+    /**
+     * Gets the ticket counts, querying the database only if the last counts are older
+     * than the count cache interval.
+     *
+     * @return the ticket counts
+     */
+    private TicketCounts getTicketCounts() {
+        TicketCounts counts = this.ticketCounts;
+        if (counts == null || System.currentTimeMillis() - counts.time >= this.countCacheInterval) {
+            synchronized (this.ticketCountsLock) {
+                counts = this.ticketCounts;
+                if (counts == null || System.currentTimeMillis() - counts.time >= this.countCacheInterval) {
+                    counts = new TicketCounts(
+                            countToInt(entityManager.createQuery(
+                                    "select count(t) from TicketGrantingTicketImpl t").getSingleResult()),
+                            countToInt(entityManager.createQuery(
+                                    "select count(t) from ServiceTicketImpl t").getSingleResult()));
+                    this.ticketCounts = counts;
+                }
+            }
+        }
+        return counts;
     }
 
     /**
@@ -214,4 +264,30 @@ public final class JpaTicketRegistry extends AbstractDistributedTicketRegistry {
         }
         return intval;
     }
+
+    /**
+     * Ticket counts obtained at a point in time.
+     */
+    private static final class TicketCounts {
+
+        /** Number of ticket-granting tickets. */
+        private final int sessionCount;
+
+        /** Number of service tickets. */
+        private final int serviceTicketCount;
+
+        /** Time at which the counts were obtained. */
+        private final long time = System.currentTimeMillis();
+
+        /**
+         * Instantiates new ticket counts.
+         *
+         * @param sessionCount the number of ticket-granting tickets
+         * @param serviceTicketCount the number of service tickets
+         */
+        TicketCounts(final int sessionCount, final int serviceTicketCount) {
+            this.sessionCount = sessionCount;
+            this.serviceTicketCount = serviceTicketCount;
+        }
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.cas.adaptors.jdbc;
+
+import org.jasig.cas.authentication.PreventedException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link PasswordDigestExecutor}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class PasswordDigestExecutorTests {
+
+    private final PasswordDigestExecutor executor = new PasswordDigestExecutor(1, 1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        this.release.countDown();
+        this.executor.destroy();
+    }
+
+    @Test
+    public void verifyDigestIsReturned() throws Exception {
+        assertEquals("digest", this.executor.digest(new Callable<String>() {
+            @Override
+            public String call() {
+                return "digest";
+            }
+        }));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void verifyRuntimeExceptionIsRethrown() throws Exception {
+        this.executor.digest(new Callable<String>() {
+            @Override
+            public String call() {
+                throw new IllegalStateException();
+            }
+        });
+    }
+
+    @Test
+    public void verifyFullQueueRefusesDigests() throws Exception {
+        // one digest occupies the thread and one the queue
+        for (int i = 0; i < 2; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        executor.digest(new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                release.await();
+                                return "";
+                            }
+                        });
+                    } catch (final PreventedException e) {
+                        fail(e.getMessage());
+                    }
+                }
+            }).start();
+        }
+        while (this.executor.getQueuedCount() < 1) {
+            Thread.sleep(10);
+        }
+
+        try {
+            this.executor.digest(new Callable<String>() {
+                @Override
+                public String call() {
+                    return "";
+                }
+            });
+            fail("Digest accepted with a full queue");
+        } catch (final PreventedException e) {
+            assertEquals(1, this.executor.getQueuedCount());
+        }
+    }
+}
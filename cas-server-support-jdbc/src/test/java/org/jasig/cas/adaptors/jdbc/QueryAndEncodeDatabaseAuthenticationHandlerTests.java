@@ -46,6 +46,8 @@ import javax.security.auth.login.FailedLoginException;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -164,6 +166,67 @@ public class QueryAndEncodeDatabaseAuthenticationHandlerTests {
         assertEquals(r.getPrincipal().getId(), "user1");
     }
 
+    @Test
+    public void testAuthenticationSuccessfulWithDigestExecutor() throws Exception {
+        final QueryAndEncodeDatabaseAuthenticationHandler q =
+                new QueryAndEncodeDatabaseAuthenticationHandler(this.dataSource, buildSql(),
+                        ALG_NAME);
+        q.setNumberOfIterationsFieldName("numIterations");
+        q.setStaticSalt(STATIC_SALT);
+        final PasswordDigestExecutor executor = new PasswordDigestExecutor(1, 1);
+        q.setDigestExecutor(executor);
+
+        try {
+            final HandlerResult r = q.authenticateUsernamePasswordInternal(
+                    TestUtils.getCredentialsWithSameUsernameAndPassword("user2"));
+            assertEquals(r.getPrincipal().getId(), "user2");
+        } finally {
+            executor.destroy();
+        }
+    }
+
+    @Test(expected = FailedLoginException.class)
+    public void testAuthenticationFailsWithWrongPassword() throws Exception {
+        final QueryAndEncodeDatabaseAuthenticationHandler q =
+                new QueryAndEncodeDatabaseAuthenticationHandler(this.dataSource, buildSql(),
+                        ALG_NAME);
+        q.setNumberOfIterationsFieldName("numIterations");
+        q.setStaticSalt(STATIC_SALT);
+        q.authenticateUsernamePasswordInternal(
+                TestUtils.getCredentialsWithDifferentUsernameAndPassword("user3", "user4"));
+    }
+
+    @Test
+    public void testEmptySaltIsRejectedWithStaticSalt() throws Exception {
+        final QueryAndEncodeDatabaseAuthenticationHandler q =
+                new QueryAndEncodeDatabaseAuthenticationHandler(this.dataSource, buildSql(),
+                        ALG_NAME);
+        q.setStaticSalt(STATIC_SALT);
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put("salt", "");
+        assertNull(q.digestEncodedPassword("user5", values));
+        values.put("salt", null);
+        assertNull(q.digestEncodedPassword("user5", values));
+    }
+
+    @Test
+    public void testEmptySaltWithoutStaticSaltIsUnsalted() throws Exception {
+        final QueryAndEncodeDatabaseAuthenticationHandler q =
+                new QueryAndEncodeDatabaseAuthenticationHandler(this.dataSource, buildSql(),
+                        ALG_NAME);
+        q.setNumberOfIterations(NUM_ITERATIONS);
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put("salt", "");
+
+        final DefaultHashService hash = new DefaultHashService();
+        hash.setHashIterations(NUM_ITERATIONS);
+        hash.setGeneratePublicSalt(false);
+        hash.setHashAlgorithmName(ALG_NAME);
+        final String expected = hash.computeHash(new HashRequest.Builder()
+                .setSource("user5").setSalt("").setIterations(NUM_ITERATIONS).build()).toHex();
+        assertEquals(expected, q.digestEncodedPassword("user5", values));
+    }
+
     private String buildSql(final String where) {
         return String.format(SQL, where);
     }
@@ -36,7 +36,7 @@ import org.slf4j.LoggerFactory;
  * @since 3.4.6
  *
  */
-public abstract class AbstractCRLRevocationChecker implements RevocationChecker {
+public abstract class AbstractCRLRevocationChecker implements ExpiringRevocationChecker {
     /** Logger instance. **/
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -72,6 +72,16 @@ public abstract class AbstractCRLRevocationChecker implements RevocationChecker
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * The outcome of a check holds until the nextUpdate time of the CRL of the certificate.
+     */
+    @Override
+    public long getStatusExpiration(final X509Certificate cert) {
+        final X509CRL crl = getCRL(cert);
+        return crl != null && crl.getNextUpdate() != null ? crl.getNextUpdate().getTime() : -1;
+    }
+
     /**
      * Sets the policy to apply when CRL data is unavailable.
      *
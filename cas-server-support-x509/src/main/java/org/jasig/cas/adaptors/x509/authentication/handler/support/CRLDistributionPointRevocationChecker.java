@@ -27,7 +27,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.jasig.cas.adaptors.x509.util.CertUtils;
-import org.springframework.core.io.UrlResource;
+import org.springframework.beans.factory.DisposableBean;
 
 import edu.vt.middleware.crypt.x509.ExtensionReader;
 import edu.vt.middleware.crypt.x509.types.DistributionPoint;
@@ -36,7 +36,6 @@ import edu.vt.middleware.crypt.x509.types.GeneralName;
 import edu.vt.middleware.crypt.x509.types.GeneralNameList;
 
 import net.sf.ehcache.Cache;
-import net.sf.ehcache.Element;
 
 
 /**
@@ -47,15 +46,18 @@ import net.sf.ehcache.Element;
  * implementation.  This implementation caches CRL resources fetched from remote
  * URLs to improve performance by avoiding CRL fetching on every revocation
  * check.
+ * <p>
+ * Cached CRLs are refreshed in the background by a {@link RefreshingCRLCache},
+ * and concurrent checks needing a CRL that is not cached share a single fetch.
  *
  * @author Marvin S. Addison
  * @since 3.4.6
  *
  */
-public class CRLDistributionPointRevocationChecker extends AbstractCRLRevocationChecker {
+public class CRLDistributionPointRevocationChecker extends AbstractCRLRevocationChecker implements DisposableBean {
 
     /** CRL cache. */
-    private final Cache crlCache;
+    private final RefreshingCRLCache crlCache;
 
 
     /**
@@ -64,12 +66,29 @@ public class CRLDistributionPointRevocationChecker extends AbstractCRLRevocation
      * @param crlCache Cache for CRL data.
      */
     public CRLDistributionPointRevocationChecker(final Cache crlCache) {
+        this(new RefreshingCRLCache(crlCache));
+    }
+
+    /**
+     * Creates a new instance that uses the given refreshing cache for CRL caching.
+     *
+     * @param crlCache Refreshing cache for CRL data.
+     */
+    public CRLDistributionPointRevocationChecker(final RefreshingCRLCache crlCache) {
         if (crlCache == null) {
             throw new IllegalArgumentException("Cache cannot be null.");
         }
         this.crlCache = crlCache;
     }
 
+    /**
+     * Stops refreshing cached CRLs.
+     */
+    @Override
+    public void destroy() {
+        this.crlCache.destroy();
+    }
+
     /**
      * {@inheritDoc}
      * @see AbstractCRLRevocationChecker#getCRL(X509Certificate)
@@ -81,26 +100,19 @@ public class CRLDistributionPointRevocationChecker extends AbstractCRLRevocation
                 "Distribution points for %s: %s.",
                 CertUtils.toString(cert), Arrays.asList(urls)));
 
-        Element item;
+        X509CRL crl;
         for (URL url : urls) {
-            item = this.crlCache.get(url);
-            if (item != null) {
+            crl = this.crlCache.getCached(url);
+            if (crl != null) {
                 logger.debug("Found CRL in cache for {}", CertUtils.toString(cert));
-                return (X509CRL) item.getObjectValue();
+                return crl;
             }
         }
 
         // Try all distribution points and stop at first fetch that succeeds
-        X509CRL crl = null;
+        crl = null;
         for (int i = 0; i < urls.length && crl == null; i++) {
-            logger.info("Attempting to fetch CRL at {}", urls[i]);
-            try {
-                crl = CertUtils.fetchCRL(new UrlResource(urls[i]));
-                logger.info("Success. Caching fetched CRL.");
-                this.crlCache.put(new Element(urls[i], crl));
-            } catch (final Exception e) {
-                logger.error("Error fetching CRL at {}", urls[i], e);
-            }
+            crl = this.crlCache.get(urls[i]);
         }
 
         return crl;
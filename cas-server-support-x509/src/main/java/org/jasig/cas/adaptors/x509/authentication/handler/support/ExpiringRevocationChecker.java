@@ -0,0 +1,42 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.adaptors.x509.authentication.handler.support;
+
+import java.security.cert.X509Certificate;
+
+
+/**
+ * Revocation checker that knows how long the revocation data behind a check stays current,
+ * so that callers can reuse the outcome of a check until then.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public interface ExpiringRevocationChecker extends RevocationChecker {
+    /**
+     * Gets the time the revocation data used to check the given certificate is due to be
+     * replaced, such as the nextUpdate time of a CRL or OCSP response.
+     *
+     * @param certificate Certificate that was checked.
+     *
+     * @return Time in milliseconds since the epoch, {@link Long#MAX_VALUE} if the outcome
+     * never changes, or -1 if unknown.
+     */
+    long getStatusExpiration(X509Certificate certificate);
+}
@@ -28,7 +28,7 @@ import java.security.cert.X509Certificate;
  * @author Marvin S. Addison
  * @since 3.4.6
  */
-public final class NoOpRevocationChecker implements RevocationChecker {
+public final class NoOpRevocationChecker implements ExpiringRevocationChecker {
 
     /**
      * NO-OP check implementation.
@@ -44,4 +44,13 @@ public final class NoOpRevocationChecker implements RevocationChecker {
         // NO-OP
     }
 
+    /**
+     * {@inheritDoc}
+     * The outcome of NO-OP checks never changes.
+     */
+    @Override
+    public long getStatusExpiration(final X509Certificate certificate) {
+        return Long.MAX_VALUE;
+    }
+
 }
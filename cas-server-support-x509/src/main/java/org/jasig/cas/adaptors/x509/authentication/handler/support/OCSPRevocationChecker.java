@@ -0,0 +1,649 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.adaptors.x509.authentication.handler.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.x500.X500Principal;
+import javax.validation.constraints.NotNull;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.ocsp.CertificateID;
+import org.jasig.cas.adaptors.x509.util.CertUtils;
+import org.jasig.cas.adaptors.x509.util.OCSPStatus;
+import org.jasig.cas.adaptors.x509.util.OCSPUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.io.Resource;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+
+/**
+ * Performs OCSP-based revocation checking of certificates issued by a set of configured issuers.
+ * <p>
+ * The responders named in the authorityInfoAccess extension of the certificate, along with any
+ * {@link #setResponderUrls(List) configured responders}, are queried in parallel, and the first
+ * verified response stating the certificate is good or revoked wins. Requests carry no nonce and
+ * are sent with GET when short enough, so that responders and HTTP caches in front of them can
+ * serve responses signed ahead of time. Responses are cached by issuer and serial number until
+ * their <code>nextUpdate</code> time, capped by {@link #setMaxAge(int) a maximum age}, and
+ * concurrent checks of a certificate that is not cached share a single query. Responses without
+ * <code>nextUpdate</code> time are only accepted while their <code>thisUpdate</code> time is
+ * within {@link #setMaxResponseAge(int) a maximum response age}.
+ * <p>
+ * Responders are queried by at most {@link #setQueryThreads(int) a fixed number of threads}, and
+ * responses larger than {@link #setMaxResponseSize(int) a maximum size} are rejected.
+ * <p>
+ * When no responder gives a verified answer, or the certificate is unknown to them, the check is
+ * handed to the {@link #setFallbackChecker(RevocationChecker) fallback checker}, typically one of
+ * the CRL checkers, which then applies its own policies. Without fallback checker the
+ * {@link #setUnavailableResponsePolicy(RevocationPolicy) unavailable response policy} applies.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class OCSPRevocationChecker implements ExpiringRevocationChecker, DisposableBean {
+
+    /** Default time to wait for a responder to answer, in milliseconds. */
+    public static final int DEFAULT_TIMEOUT = 5000;
+
+    /** Default maximum time responses are cached, in seconds. */
+    public static final int DEFAULT_MAX_AGE = 3600;
+
+    /** Default maximum age of responses without nextUpdate time, in seconds. */
+    public static final int DEFAULT_MAX_RESPONSE_AGE = 600;
+
+    /** Default number of threads querying responders. */
+    public static final int DEFAULT_QUERY_THREADS = 20;
+
+    /** Default maximum size of a response, in bytes. */
+    public static final int DEFAULT_MAX_RESPONSE_SIZE = 65536;
+
+    /** Number of queries waiting for a thread beyond which responders are not queried. */
+    private static final int QUERY_QUEUE_CAPACITY = 1000;
+
+    /** Time idle query threads are kept, in seconds. */
+    private static final int KEEP_ALIVE_SECONDS = 60;
+
+    /** Longest URL of requests sent with GET, per RFC 5019; longer requests are POSTed. */
+    private static final int MAX_GET_URL_LENGTH = 255;
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Certificates of the issuers whose certificates are checked, keyed by subject. */
+    private final Map<X500Principal, X509Certificate> issuers = new HashMap<X500Principal, X509Certificate>();
+
+    /** Cache of responses keyed by certificate ID. */
+    private final Cache responseCache;
+
+    /** Queries in progress keyed by certificate ID. */
+    private final ConcurrentMap<String, FutureTask<OCSPStatus>> queries =
+            new ConcurrentHashMap<String, FutureTask<OCSPStatus>>();
+
+    /** Executor querying responders. */
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_QUERY_THREADS, DEFAULT_QUERY_THREADS,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUERY_QUEUE_CAPACITY),
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "OCSPQuery-" + this.count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** Responders queried in addition to those named by certificates. */
+    @NotNull
+    private List<String> responderUrls = Collections.emptyList();
+
+    /** Checker used when OCSP status is not available. */
+    private RevocationChecker fallbackChecker;
+
+    /** Policy to apply when OCSP status is not available and there is no fallback checker. */
+    @NotNull
+    private RevocationPolicy<Void> unavailableResponsePolicy = new DenyRevocationPolicy();
+
+    /** Time to wait for a responder to answer, in milliseconds. */
+    private int timeout = DEFAULT_TIMEOUT;
+
+    /** Maximum time responses are cached, in seconds. */
+    private int maxAge = DEFAULT_MAX_AGE;
+
+    /** Maximum age of responses without nextUpdate time, in seconds. */
+    private int maxResponseAge = DEFAULT_MAX_RESPONSE_AGE;
+
+    /** Maximum size of a response, in bytes. */
+    private int maxResponseSize = DEFAULT_MAX_RESPONSE_SIZE;
+
+    /**
+     * Creates a new instance that checks certificates of the given issuers.
+     *
+     * @param issuers Certificates of the issuers.
+     * @param responseCache Cache for OCSP responses.
+     */
+    public OCSPRevocationChecker(final X509Certificate[] issuers, final Cache responseCache) {
+        if (responseCache == null) {
+            throw new IllegalArgumentException("Cache cannot be null.");
+        }
+        for (final X509Certificate issuer : issuers) {
+            this.issuers.put(issuer.getSubjectX500Principal(), issuer);
+        }
+        this.responseCache = responseCache;
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates a new instance that checks certificates of the issuers read from the given resources.
+     *
+     * @param issuers Resources of the certificates of the issuers.
+     * @param responseCache Cache for OCSP responses.
+     */
+    public OCSPRevocationChecker(final Resource[] issuers, final Cache responseCache) {
+        this(readCertificates(issuers), responseCache);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void check(final X509Certificate cert) throws GeneralSecurityException {
+        if (cert == null) {
+            throw new IllegalArgumentException("Certificate cannot be null.");
+        }
+        logger.debug("Evaluating certificate revocation status for {}", CertUtils.toString(cert));
+        final OCSPStatus status = getStatus(cert);
+        if (status == null || status.getStatus() == OCSPStatus.Status.UNKNOWN) {
+            if (this.fallbackChecker != null) {
+                logger.info("OCSP status is not available for {}, falling back to {}",
+                        CertUtils.toString(cert), this.fallbackChecker.getClass().getSimpleName());
+                this.fallbackChecker.check(cert);
+            } else {
+                logger.warn("OCSP status is not available for {}", CertUtils.toString(cert));
+                this.unavailableResponsePolicy.apply(null);
+            }
+            return;
+        }
+        if (status.getStatus() == OCSPStatus.Status.REVOKED) {
+            final int reason = status.getReason();
+            throw new RevokedCertificateException(status.getRevocationTime(), cert.getSerialNumber(),
+                    reason >= 0 && reason < RevokedCertificateException.Reason.values().length
+                            ? RevokedCertificateException.Reason.fromCode(reason) : null);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The outcome of a check holds until the cached response of the certificate expires. Checks
+     * relying on an uncached response or on the fallback checker have no known expiration.
+     */
+    @Override
+    public long getStatusExpiration(final X509Certificate cert) {
+        final X509Certificate issuer = this.issuers.get(cert.getIssuerX500Principal());
+        if (issuer == null) {
+            return -1;
+        }
+        try {
+            final CachedStatus cached = lookup(cacheKey(OCSPUtils.createCertificateID(issuer, cert.getSerialNumber())));
+            return cached != null ? cached.expires : -1;
+        } catch (final GeneralSecurityException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Sets responders to query in addition to those named in the authorityInfoAccess
+     * extension of certificates.
+     *
+     * @param urls Responder URLs.
+     */
+    public void setResponderUrls(final List<String> urls) {
+        this.responderUrls = urls;
+    }
+
+    /**
+     * Sets the checker to use when OCSP status is not available, such as a CRL checker.
+     *
+     * @param checker Fallback revocation checker.
+     */
+    public void setFallbackChecker(final RevocationChecker checker) {
+        this.fallbackChecker = checker;
+    }
+
+    /**
+     * Sets the policy to apply when OCSP status is not available and there is no fallback checker.
+     *
+     * @param policy Revocation policy.
+     */
+    public void setUnavailableResponsePolicy(final RevocationPolicy<Void> policy) {
+        this.unavailableResponsePolicy = policy;
+    }
+
+    /**
+     * Sets the time to wait for responders to answer.
+     *
+     * @param timeout Timeout in milliseconds.
+     */
+    public void setTimeout(final int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sets the maximum time responses are cached, even if their nextUpdate time is later.
+     * Responses without nextUpdate time are not cached.
+     *
+     * @param seconds Maximum age in seconds.
+     */
+    public void setMaxAge(final int seconds) {
+        this.maxAge = seconds;
+    }
+
+    /**
+     * Sets the maximum age of responses without nextUpdate time, which are rejected once their
+     * thisUpdate time is older.
+     *
+     * @param seconds Maximum age in seconds.
+     */
+    public void setMaxResponseAge(final int seconds) {
+        this.maxResponseAge = seconds;
+    }
+
+    /**
+     * Sets the maximum size of responses. Larger responses are rejected without being read entirely.
+     *
+     * @param bytes Maximum size in bytes.
+     */
+    public void setMaxResponseSize(final int bytes) {
+        this.maxResponseSize = bytes;
+    }
+
+    /**
+     * Sets the number of threads querying responders. Queries beyond those the threads and their
+     * queue can take are not sent.
+     *
+     * @param threads Number of threads.
+     */
+    public void setQueryThreads(final int threads) {
+        if (threads > this.executor.getMaximumPoolSize()) {
+            this.executor.setMaximumPoolSize(threads);
+            this.executor.setCorePoolSize(threads);
+        } else {
+            this.executor.setCorePoolSize(threads);
+            this.executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Gets the OCSP status of a certificate, from the cache or from the responders.
+     *
+     * @param cert Certificate to check.
+     *
+     * @return Verified status, or null if not available.
+     */
+    private OCSPStatus getStatus(final X509Certificate cert) {
+        final X509Certificate issuer = this.issuers.get(cert.getIssuerX500Principal());
+        if (issuer == null) {
+            logger.warn("Issuer of {} is not configured for OCSP checking", CertUtils.toString(cert));
+            return null;
+        }
+        final CertificateID certificateID;
+        try {
+            certificateID = OCSPUtils.createCertificateID(issuer, cert.getSerialNumber());
+        } catch (final GeneralSecurityException e) {
+            logger.error("Cannot create OCSP certificate ID for {}", CertUtils.toString(cert), e);
+            return null;
+        }
+
+        final String key = cacheKey(certificateID);
+        final CachedStatus cached = lookup(key);
+        if (cached != null) {
+            logger.debug("Found OCSP response in cache for {}", CertUtils.toString(cert));
+            return cached.status;
+        }
+
+        final FutureTask<OCSPStatus> task = new FutureTask<OCSPStatus>(new Callable<OCSPStatus>() {
+            @Override
+            public OCSPStatus call() {
+                return queryAndCache(cert, issuer, certificateID, key);
+            }
+        });
+        final FutureTask<OCSPStatus> current = this.queries.putIfAbsent(key, task);
+        if (current == null) {
+            try {
+                task.run();
+            } finally {
+                this.queries.remove(key, task);
+            }
+            return outcomeOf(task);
+        }
+        logger.debug("Waiting for the OCSP query of {} made by another thread", CertUtils.toString(cert));
+        return outcomeOf(current);
+    }
+
+    /**
+     * Gets the cache key of a certificate, made of the fields of its OCSP ID.
+     *
+     * @param certificateID OCSP ID of the certificate.
+     *
+     * @return Cache key of the certificate.
+     */
+    private static String cacheKey(final CertificateID certificateID) {
+        return certificateID.getHashAlgOID() + ':' + Hex.encodeHexString(certificateID.getIssuerNameHash())
+                + ':' + Hex.encodeHexString(certificateID.getIssuerKeyHash())
+                + ':' + certificateID.getSerialNumber().toString(16);
+    }
+
+    /**
+     * Looks up the cached response of a certificate, dropping it if expired.
+     *
+     * @param key Cache key of the certificate.
+     *
+     * @return Cached response, or null if none is current.
+     */
+    private CachedStatus lookup(final String key) {
+        final Element element = this.responseCache.get(key);
+        if (element == null) {
+            return null;
+        }
+        final CachedStatus cached = (CachedStatus) element.getObjectValue();
+        if (cached.expires > System.currentTimeMillis()) {
+            return cached;
+        }
+        this.responseCache.remove(key);
+        return null;
+    }
+
+    /**
+     * Queries the responders of a certificate in parallel and caches the first definite answer.
+     *
+     * @param cert Certificate to check.
+     * @param issuer Certificate of its issuer.
+     * @param certificateID OCSP ID of the certificate.
+     * @param key Cache key of the certificate.
+     *
+     * @return Verified status, or null if no responder answered.
+     */
+    private OCSPStatus queryAndCache(final X509Certificate cert, final X509Certificate issuer,
+                                     final CertificateID certificateID, final String key) {
+        final Set<String> urls = new LinkedHashSet<String>(this.responderUrls);
+        try {
+            urls.addAll(OCSPUtils.getResponderURLs(cert));
+        } catch (final GeneralSecurityException e) {
+            logger.error("Error reading authorityInfoAccess extension field on {}", CertUtils.toString(cert), e);
+        }
+        if (urls.isEmpty()) {
+            logger.warn("No OCSP responder for {}", CertUtils.toString(cert));
+            return null;
+        }
+
+        final byte[] request;
+        try {
+            request = OCSPUtils.createRequest(certificateID);
+        } catch (final GeneralSecurityException e) {
+            logger.error("Cannot create OCSP request for {}", CertUtils.toString(cert), e);
+            return null;
+        }
+        final CompletionService<OCSPStatus> completion = new ExecutorCompletionService<OCSPStatus>(this.executor);
+        final List<Future<OCSPStatus>> futures = new ArrayList<Future<OCSPStatus>>(urls.size());
+        final long responseAge = TimeUnit.SECONDS.toMillis(this.maxResponseAge);
+        for (final String url : urls) {
+            try {
+                futures.add(completion.submit(new Callable<OCSPStatus>() {
+                    @Override
+                    public OCSPStatus call() throws Exception {
+                        try {
+                            return OCSPUtils.readResponse(send(url, request), certificateID, issuer, responseAge);
+                        } catch (final Exception e) {
+                            logger.warn("Error querying OCSP responder {}: {}", url, e.getMessage());
+                            throw e;
+                        }
+                    }
+                }));
+            } catch (final RejectedExecutionException e) {
+                logger.warn("Too many OCSP queries in progress, not querying {}", url);
+            }
+        }
+
+        final long start = System.currentTimeMillis();
+        final long deadline = start + this.timeout;
+        OCSPStatus status = null;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                final Future<OCSPStatus> done = completion.poll(deadline - System.currentTimeMillis(),
+                        TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    logger.warn("OCSP responders did not answer within {} ms", this.timeout);
+                    break;
+                }
+                try {
+                    status = done.get();
+                } catch (final ExecutionException e) {
+                    continue;
+                }
+                if (status.getStatus() != OCSPStatus.Status.UNKNOWN) {
+                    break;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (final Future<OCSPStatus> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        if (status != null) {
+            logger.info("OCSP status of {} is {}, received in {} ms",
+                    CertUtils.toString(cert), status, System.currentTimeMillis() - start);
+            cache(key, status);
+        }
+        return status;
+    }
+
+    /**
+     * Caches a response until its nextUpdate time, capped by the maximum age.
+     *
+     * @param key Cache key of the certificate.
+     * @param status Status of the certificate.
+     */
+    private void cache(final String key, final OCSPStatus status) {
+        if (status.getNextUpdate() == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long expires = Math.min(status.getNextUpdate().getTime(), now + TimeUnit.SECONDS.toMillis(this.maxAge));
+        if (expires > now) {
+            final Element element = new Element(key, new CachedStatus(status, expires));
+            element.setTimeToLive((int) TimeUnit.MILLISECONDS.toSeconds(expires - now) + 1);
+            this.responseCache.put(element);
+        }
+    }
+
+    /**
+     * Sends a request to a responder, with GET if the encoded request is short enough.
+     *
+     * @param url Responder URL.
+     * @param request DER encoded request.
+     *
+     * @return DER encoded response.
+     *
+     * @throws IOException On IOErrors, or if the response is larger than the maximum size.
+     */
+    private byte[] send(final String url, final byte[] request) throws IOException {
+        final String getUrl = url + (url.endsWith("/") ? "" : "/")
+                + URLEncoder.encode(Base64.encodeBase64String(request), "UTF-8");
+        final HttpURLConnection http;
+        if (getUrl.length() <= MAX_GET_URL_LENGTH) {
+            http = (HttpURLConnection) new URL(getUrl).openConnection();
+        } else {
+            http = (HttpURLConnection) new URL(url).openConnection();
+            http.setRequestMethod("POST");
+            http.setRequestProperty("Content-Type", OCSPUtils.OCSP_REQUEST_TYPE);
+            http.setDoOutput(true);
+        }
+        http.setConnectTimeout(this.timeout);
+        http.setReadTimeout(this.timeout);
+        try {
+            if (http.getDoOutput()) {
+                final OutputStream out = http.getOutputStream();
+                try {
+                    out.write(request);
+                } finally {
+                    IOUtils.closeQuietly(out);
+                }
+            }
+            final int code = http.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response code " + code);
+            }
+            if (http.getContentLength() > this.maxResponseSize) {
+                throw new IOException("Response of " + http.getContentLength() + " bytes exceeds the maximum size");
+            }
+            final InputStream in = http.getInputStream();
+            try {
+                return readResponse(in);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        } finally {
+            http.disconnect();
+        }
+    }
+
+    /**
+     * Reads a response, up to the maximum size.
+     *
+     * @param in Stream of the response.
+     *
+     * @return DER encoded response.
+     *
+     * @throws IOException On IOErrors, or if the response is larger than the maximum size.
+     */
+    private byte[] readResponse(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            if (out.size() + count > this.maxResponseSize) {
+                throw new IOException("Response exceeds the maximum size of " + this.maxResponseSize + " bytes");
+            }
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Gets the outcome of a query.
+     *
+     * @param task The query.
+     *
+     * @return Its outcome, or null if it failed.
+     */
+    private OCSPStatus outcomeOf(final FutureTask<OCSPStatus> task) {
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (final ExecutionException e) {
+            logger.error("Error querying OCSP responders", e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Reads issuer certificates.
+     *
+     * @param resources Resources of the certificates.
+     *
+     * @return The certificates.
+     */
+    private static X509Certificate[] readCertificates(final Resource[] resources) {
+        final X509Certificate[] certificates = new X509Certificate[resources.length];
+        for (int i = 0; i < resources.length; i++) {
+            try {
+                certificates[i] = CertUtils.readCertificate(resources[i]);
+            } catch (final Exception e) {
+                throw new IllegalArgumentException("Cannot read issuer certificate " + resources[i], e);
+            }
+        }
+        return certificates;
+    }
+
+    /**
+     * A response along with the time it expires from the cache.
+     */
+    private static final class CachedStatus {
+
+        /** Status of the certificate. */
+        private final OCSPStatus status;
+
+        /** Time the status expires. */
+        private final long expires;
+
+        /**
+         * Creates a new cached status.
+         *
+         * @param status Status of the certificate.
+         * @param expires Time the status expires.
+         */
+        CachedStatus(final OCSPStatus status, final long expires) {
+            this.status = status;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,550 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.adaptors.x509.authentication.handler.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.cert.CRLException;
+import java.security.cert.X509CRL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+import org.jasig.cas.adaptors.x509.util.CertUtils;
+import org.jasig.cas.adaptors.x509.util.CompactX509CRL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.io.UrlResource;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+
+/**
+ * Cache of CRLs fetched from distribution point URLs, which keeps CRLs in use up to date in
+ * the background.
+ * <p>
+ * CRLs are held in an Ehcache instance keyed by URL. When a CRL is not cached, a single thread
+ * fetches it while concurrent lookups of the same URL wait for that fetch, instead of fetching
+ * it again. Once fetched, a CRL is refreshed by a background thread ahead of its
+ * <code>nextUpdate</code> time, or after {@link #setMaxAge(int) a maximum age}, as long as it
+ * was looked up since the previous refresh. Each URL has at most one refresh scheduled, which
+ * a new fetch replaces. The cached CRL is served until the refreshed one is
+ * available, and kept if the refresh fails. CRLs served over HTTP are fetched again with a
+ * conditional request, so that an unchanged CRL is not downloaded twice.
+ * <p>
+ * The last CRL fetched from each URL in use is also kept outside the Ehcache instance, whatever
+ * its expiry settings, until it is no longer looked up. A CRL that expired from the cache is
+ * fetched again conditionally, and served when the distribution point is unavailable. CRLs are read into
+ * {@link CompactX509CRL} instances, which only keep an index of their revoked serial numbers.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class RefreshingCRLCache implements DisposableBean {
+
+    /** Default time before nextUpdate at which CRLs are refreshed, in seconds. */
+    public static final int DEFAULT_REFRESH_AHEAD = 300;
+
+    /** Default maximum age of CRLs before they are refreshed, in seconds. */
+    public static final int DEFAULT_MAX_AGE = 3600;
+
+    /** Default time after which a failed refresh is tried again, in seconds. */
+    public static final int DEFAULT_RETRY_INTERVAL = 60;
+
+    /** Default timeout of connections to distribution points, in milliseconds. */
+    public static final int DEFAULT_TIMEOUT = 5000;
+
+    /** Logger instance. */
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** Cache of fetched CRLs keyed by URL. */
+    private final Cache cache;
+
+    /** Last CRL fetched from each URL in use, which outlives its cache entry. */
+    private final ConcurrentMap<URL, CachedCRL> lastFetched = new ConcurrentHashMap<URL, CachedCRL>();
+
+    /** Fetches in progress keyed by URL. */
+    private final ConcurrentMap<URL, FutureTask<CachedCRL>> fetches = new ConcurrentHashMap<URL, FutureTask<CachedCRL>>();
+
+    /** Executor refreshing CRLs in the background. */
+    private final ScheduledExecutorService scheduler;
+
+    /** Scheduled refreshes keyed by URL. */
+    private final ConcurrentMap<URL, ScheduledFuture<?>> refreshes = new ConcurrentHashMap<URL, ScheduledFuture<?>>();
+
+    /** Time before nextUpdate at which CRLs are refreshed, in seconds. */
+    private int refreshAhead = DEFAULT_REFRESH_AHEAD;
+
+    /** Maximum age of CRLs before they are refreshed, in seconds. */
+    private int maxAge = DEFAULT_MAX_AGE;
+
+    /** Time after which a failed refresh is tried again, in seconds. */
+    private int retryInterval = DEFAULT_RETRY_INTERVAL;
+
+    /** Connect and read timeout of distribution points, in milliseconds. */
+    private int timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * Creates a new instance that keeps CRLs in the given cache.
+     *
+     * @param cache Cache for CRL data.
+     */
+    public RefreshingCRLCache(final Cache cache) {
+        if (cache == null) {
+            throw new IllegalArgumentException("Cache cannot be null.");
+        }
+        this.cache = cache;
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "CRLRefresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+    }
+
+    /**
+     * Gets the cached CRL of a distribution point, without fetching it.
+     *
+     * @param url Distribution point URL.
+     *
+     * @return Cached CRL, or null if none is cached.
+     */
+    public X509CRL getCached(final URL url) {
+        final CachedCRL cached = lookup(url);
+        if (cached == null) {
+            return null;
+        }
+        cached.used = true;
+        return cached.crl;
+    }
+
+    /**
+     * Gets the CRL of a distribution point, fetching it if it is not cached.
+     *
+     * @param url Distribution point URL.
+     *
+     * @return CRL, or null if it could not be fetched.
+     */
+    public X509CRL get(final URL url) {
+        final X509CRL crl = getCached(url);
+        if (crl != null) {
+            return crl;
+        }
+        final CachedCRL fetched = fetch(url, this.lastFetched.get(url));
+        if (fetched == null) {
+            return null;
+        }
+        fetched.used = true;
+        return fetched.crl;
+    }
+
+    /**
+     * Gets how long ago the cached CRL of a distribution point was last fetched or found unchanged.
+     *
+     * @param url Distribution point URL.
+     *
+     * @return Staleness in milliseconds, or -1 if no CRL is cached.
+     */
+    public long getStaleness(final URL url) {
+        final CachedCRL cached = lookup(url);
+        return cached != null ? System.currentTimeMillis() - cached.fetchTime : -1;
+    }
+
+    /**
+     * Gets how long the last fetch of the cached CRL of a distribution point took.
+     *
+     * @param url Distribution point URL.
+     *
+     * @return Latency in milliseconds, or -1 if no CRL is cached.
+     */
+    public long getFetchLatency(final URL url) {
+        final CachedCRL cached = lookup(url);
+        return cached != null ? cached.latency : -1;
+    }
+
+    /**
+     * Sets the time before the nextUpdate of CRLs at which they are refreshed.
+     *
+     * @param seconds Time in seconds.
+     */
+    public void setRefreshAhead(final int seconds) {
+        this.refreshAhead = seconds;
+    }
+
+    /**
+     * Sets the maximum age of CRLs before they are refreshed, whatever their nextUpdate.
+     *
+     * @param seconds Age in seconds; MUST be positive integer.
+     */
+    public void setMaxAge(final int seconds) {
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("Maximum age must be positive integer.");
+        }
+        this.maxAge = seconds;
+    }
+
+    /**
+     * Sets the time after which a failed refresh is tried again.
+     *
+     * @param seconds Time in seconds; MUST be positive integer.
+     */
+    public void setRetryInterval(final int seconds) {
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("Retry interval must be positive integer.");
+        }
+        this.retryInterval = seconds;
+    }
+
+    /**
+     * Sets the connect and read timeout of distribution points.
+     *
+     * @param timeout Timeout in milliseconds.
+     */
+    public void setTimeout(final int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Stops refreshing CRLs.
+     */
+    @Override
+    public void destroy() {
+        this.scheduler.shutdownNow();
+        this.refreshes.clear();
+        this.lastFetched.clear();
+    }
+
+    /**
+     * Gets the number of URLs whose CRL refresh is scheduled.
+     *
+     * @return Number of scheduled refreshes.
+     */
+    int getScheduledRefreshCount() {
+        int count = 0;
+        for (final ScheduledFuture<?> refresh : this.refreshes.values()) {
+            if (!refresh.isDone()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Looks up the cached entry of a distribution point.
+     *
+     * @param url Distribution point URL.
+     *
+     * @return Cached entry, or null if none.
+     */
+    private CachedCRL lookup(final URL url) {
+        final Element element = this.cache.get(url);
+        return element != null ? (CachedCRL) element.getObjectValue() : null;
+    }
+
+    /**
+     * Fetches the CRL of a distribution point, unless it is already being fetched,
+     * in which case the outcome of that fetch is awaited.
+     *
+     * @param url Distribution point URL.
+     * @param previous Last fetched entry, if any.
+     *
+     * @return Fetched entry, the previous entry if the fetch failed, or null.
+     */
+    private CachedCRL fetch(final URL url, final CachedCRL previous) {
+        final FutureTask<CachedCRL> task = new FutureTask<CachedCRL>(new Callable<CachedCRL>() {
+            @Override
+            public CachedCRL call() {
+                return fetchAndCache(url, previous);
+            }
+        });
+        final FutureTask<CachedCRL> current = this.fetches.putIfAbsent(url, task);
+        if (current == null) {
+            try {
+                task.run();
+            } finally {
+                this.fetches.remove(url, task);
+            }
+            return outcomeOf(task);
+        }
+        logger.debug("Waiting for the CRL at {} being fetched by another thread", url);
+        return outcomeOf(current);
+    }
+
+    /**
+     * Fetches the CRL of a distribution point and caches it, then schedules its refresh.
+     *
+     * @param url Distribution point URL.
+     * @param previous Last fetched entry, if any.
+     *
+     * @return Fetched entry, the previous entry if the fetch failed, or null.
+     */
+    private CachedCRL fetchAndCache(final URL url, final CachedCRL previous) {
+        logger.info("Attempting to fetch CRL at {}", url);
+        final long start = System.currentTimeMillis();
+        final CachedCRL fetched;
+        try {
+            fetched = download(url, previous, start);
+        } catch (final Exception e) {
+            logger.error("Error fetching CRL at {}", url, e);
+            if (previous != null) {
+                // the previous entry may have expired from the cache meanwhile
+                this.cache.put(new Element(url, previous));
+                schedule(url, TimeUnit.SECONDS.toMillis(this.retryInterval));
+            }
+            return previous;
+        }
+
+        logger.info("Success. Caching fetched CRL from {} in {} ms.", url, fetched.latency);
+        this.cache.put(new Element(url, fetched));
+        this.lastFetched.put(url, fetched);
+        schedule(url, refreshDelay(fetched.crl, start));
+        return fetched;
+    }
+
+    /**
+     * Downloads the CRL of a distribution point. CRLs served over HTTP are only downloaded
+     * if they changed since the previous download. A CRL the compact reader does not support,
+     * such as an indirect CRL, is downloaded again and read by the default certificate factory,
+     * as are its later refreshes.
+     *
+     * @param url Distribution point URL.
+     * @param previous Currently cached entry, if any.
+     * @param start Start time of the fetch.
+     *
+     * @return The fetched entry.
+     *
+     * @throws IOException On IOErrors.
+     * @throws CRLException On CRL parse errors.
+     */
+    private CachedCRL download(final URL url, final CachedCRL previous, final long start)
+            throws IOException, CRLException {
+        final boolean compact = previous == null || previous.crl instanceof CompactX509CRL;
+        try {
+            return download(url, previous, start, compact);
+        } catch (final CRLException e) {
+            if (!compact) {
+                throw e;
+            }
+            logger.info("Reading CRL from {} with the default certificate factory: {}", url, e.getMessage());
+            return download(url, null, start, false);
+        }
+    }
+
+    /**
+     * Downloads the CRL of a distribution point.
+     *
+     * @param url Distribution point URL.
+     * @param previous Currently cached entry, if any.
+     * @param start Start time of the fetch.
+     * @param compact Whether to read a {@link CompactX509CRL} rather than use the default certificate factory.
+     *
+     * @return The fetched entry.
+     *
+     * @throws IOException On IOErrors.
+     * @throws CRLException On CRL parse errors.
+     */
+    private CachedCRL download(final URL url, final CachedCRL previous, final long start, final boolean compact)
+            throws IOException, CRLException {
+        final URLConnection connection = url.openConnection();
+        if (!(connection instanceof HttpURLConnection)) {
+            final UrlResource resource = new UrlResource(url);
+            final X509CRL crl = compact ? CertUtils.fetchCompactCRL(resource) : CertUtils.fetchCRL(resource);
+            return new CachedCRL(crl, null, 0, start, System.currentTimeMillis() - start);
+        }
+
+        final HttpURLConnection http = (HttpURLConnection) connection;
+        http.setConnectTimeout(this.timeout);
+        http.setReadTimeout(this.timeout);
+        if (previous != null) {
+            if (previous.etag != null) {
+                http.setRequestProperty("If-None-Match", previous.etag);
+            }
+            if (previous.lastModified > 0) {
+                http.setIfModifiedSince(previous.lastModified);
+            }
+        }
+        try {
+            final int code = http.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+                logger.debug("CRL at {} is not modified", url);
+                return new CachedCRL(previous.crl, previous.etag, previous.lastModified,
+                        start, System.currentTimeMillis() - start);
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response code " + code);
+            }
+            final InputStream in = http.getInputStream();
+            try {
+                final X509CRL crl = compact ? CompactX509CRL.read(in)
+                        : (X509CRL) CertUtils.getCertificateFactory().generateCRL(in);
+                return new CachedCRL(crl, http.getHeaderField("ETag"), http.getLastModified(),
+                        start, System.currentTimeMillis() - start);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        } finally {
+            http.disconnect();
+        }
+    }
+
+    /**
+     * Computes when a fetched CRL should be refreshed.
+     *
+     * @param crl The CRL.
+     * @param fetchTime Time it was fetched.
+     *
+     * @return Delay before refreshing in milliseconds.
+     */
+    private long refreshDelay(final X509CRL crl, final long fetchTime) {
+        long refreshTime = fetchTime + TimeUnit.SECONDS.toMillis(this.maxAge);
+        if (crl.getNextUpdate() != null) {
+            refreshTime = Math.min(refreshTime,
+                    crl.getNextUpdate().getTime() - TimeUnit.SECONDS.toMillis(this.refreshAhead));
+        }
+        // an expired CRL may not have been replaced yet, do not ask for it too often
+        return Math.max(refreshTime - System.currentTimeMillis(), TimeUnit.SECONDS.toMillis(this.retryInterval));
+    }
+
+    /**
+     * Schedules the refresh of a CRL, replacing the refresh scheduled for it, if any.
+     *
+     * @param url Distribution point URL.
+     * @param delay Delay in milliseconds.
+     */
+    private void schedule(final URL url, final long delay) {
+        if (this.scheduler.isShutdown()) {
+            return;
+        }
+        final AtomicReference<ScheduledFuture<?>> self = new AtomicReference<ScheduledFuture<?>>();
+        final ScheduledFuture<?> refresh = this.scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                refresh(url, self.get());
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        self.set(refresh);
+        final ScheduledFuture<?> replaced = this.refreshes.put(url, refresh);
+        if (replaced != null) {
+            // does not interrupt the refresh that scheduled this one
+            replaced.cancel(false);
+        }
+    }
+
+    /**
+     * Refreshes the last fetched CRL, if it was looked up since it was last refreshed.
+     * Otherwise the CRL is forgotten, and left to expire from the cache.
+     *
+     * @param url Distribution point URL.
+     * @param refresh The scheduled refresh being run.
+     */
+    private void refresh(final URL url, final ScheduledFuture<?> refresh) {
+        final CachedCRL cached = this.lastFetched.get(url);
+        if (cached == null || !cached.used) {
+            logger.debug("CRL at {} is not in use, not refreshing it", url);
+            if (cached != null) {
+                this.lastFetched.remove(url, cached);
+            }
+            if (refresh != null) {
+                this.refreshes.remove(url, refresh);
+            }
+            return;
+        }
+        // the CRL is kept when the refresh fails, it must be looked up again to be refreshed again
+        cached.used = false;
+        fetch(url, cached);
+    }
+
+    /**
+     * Gets the outcome of a fetch.
+     *
+     * @param task The fetch.
+     *
+     * @return The outcome, or null if interrupted.
+     */
+    private CachedCRL outcomeOf(final FutureTask<CachedCRL> task) {
+        try {
+            return task.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (final ExecutionException e) {
+            logger.error("Error fetching CRL", e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * A CRL along with the details of its fetch.
+     */
+    private static final class CachedCRL {
+
+        /** The CRL. */
+        private final X509CRL crl;
+
+        /** Entity tag of the CRL, if any. */
+        private final String etag;
+
+        /** Last modification time of the CRL, or 0 if unknown. */
+        private final long lastModified;
+
+        /** Time the CRL was fetched or found unchanged. */
+        private final long fetchTime;
+
+        /** Duration of the fetch, in milliseconds. */
+        private final long latency;
+
+        /** Whether the CRL was looked up since it was fetched or last refreshed. */
+        private volatile boolean used;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param crl The CRL.
+         * @param etag Entity tag of the CRL, if any.
+         * @param lastModified Last modification time of the CRL, or 0 if unknown.
+         * @param fetchTime Time the CRL was fetched.
+         * @param latency Duration of the fetch.
+         */
+        CachedCRL(final X509CRL crl, final String etag, final long lastModified,
+                  final long fetchTime, final long latency) {
+            this.crl = crl;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchTime = fetchTime;
+            this.latency = latency;
+        }
+    }
+}
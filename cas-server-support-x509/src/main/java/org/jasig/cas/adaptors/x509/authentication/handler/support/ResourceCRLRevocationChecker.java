@@ -42,6 +42,9 @@ import org.springframework.core.io.Resource;
  * local or remote CRL data periodically.  CRL resources should be supplied for
  * the issuers of all certificates (and intervening certificates for certificate
  * chains) that are expected to be presented to {@link X509CredentialsAuthenticationHandler}.
+ * CRLs are read into {@link org.jasig.cas.adaptors.x509.util.CompactX509CRL} instances, which
+ * only keep a sorted index of their revoked serial numbers, and replace the previous CRL of their
+ * issuer at once.
  *
  * @author Marvin S. Addison
  * @since 3.4.7
@@ -62,9 +65,11 @@ public class ResourceCRLRevocationChecker extends AbstractCRLRevocationChecker
     /** Handles fetching CRL data. */
     private final CRLFetcher fetcher;
 
-    /** Map of CRL issuer to CRL. */
-    private final Map<X500Principal, X509CRL> crlIssuerMap =
-            Collections.synchronizedMap(new HashMap<X500Principal, X509CRL>());
+    /** Map of CRL issuer to CRL, replaced as a whole when a CRL is added so that lookups do not lock. */
+    private volatile Map<X500Principal, X509CRL> crlIssuerMap = Collections.emptyMap();
+
+    /** Lock held while adding a CRL. */
+    private final Object crlIssuerMapLock = new Object();
 
     /**
      * Creates a new instance using the specified resource for CRL data.
@@ -132,7 +137,11 @@ public class ResourceCRLRevocationChecker extends AbstractCRLRevocationChecker
     protected void addCrl(final X509CRL crl) {
         final X500Principal issuer = crl.getIssuerX500Principal();
         logger.debug("Adding CRL for issuer {}", issuer);
-        this.crlIssuerMap.put(issuer, crl);
+        synchronized (this.crlIssuerMapLock) {
+            final Map<X500Principal, X509CRL> crls = new HashMap<X500Principal, X509CRL>(this.crlIssuerMap);
+            crls.put(issuer, crl);
+            this.crlIssuerMap = Collections.unmodifiableMap(crls);
+        }
     }
 
     /**
@@ -192,7 +201,7 @@ public class ResourceCRLRevocationChecker extends AbstractCRLRevocationChecker
             for (Resource r : this.resources) {
                 logger.debug("Fetching CRL data from {}", r);
                 try {
-                    addCrl(CertUtils.fetchCRL(r));
+                    addCrl(CertUtils.fetchCompactCRL(r));
                 } catch (final Exception e) {
                     if (throwOnError) {
                         throw new RuntimeException("Error fetching CRL from " + r, e);
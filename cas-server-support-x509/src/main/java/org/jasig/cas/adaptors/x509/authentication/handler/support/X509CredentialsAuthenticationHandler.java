@@ -19,11 +19,17 @@
 package org.jasig.cas.adaptors.x509.authentication.handler.support;
 
 import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.Principal;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
+import org.apache.commons.codec.binary.Hex;
 import org.jasig.cas.adaptors.x509.authentication.principal.X509CertificateCredential;
 import org.jasig.cas.adaptors.x509.util.CertUtils;
 import org.jasig.cas.authentication.HandlerResult;
@@ -48,6 +54,13 @@ import javax.validation.constraints.NotNull;
  * to specify a maximum pathLength for the SUPPLIED certificates. (note that
  * this does not include a pathLength check for the root certificate)
  * [PathLength is 0 for the CA certificate that issues the end-user certificate]
+ * <p>
+ * Since the same CA certificates come with the certificates of many users, a CA certificate that
+ * passed validation is not validated again until the revocation data it was checked against is
+ * due to be replaced, its notAfter date, or a {@link #setCaCacheTime(int) maximum time}, whichever
+ * comes first. This requires an {@link ExpiringRevocationChecker}; the outcome of other revocation
+ * checkers is never reused. Client certificates are always validated. The outcome of matching DN
+ * patterns is remembered per distinct DN.
  *
  * @author Scott Battaglia
  * @author Jan Van der Velpen
@@ -70,6 +83,12 @@ public class X509CredentialsAuthenticationHandler extends AbstractPreAndPostProc
     /** Default subject pattern match. */
     private static final Pattern DEFAULT_SUBJECT_DN_PATTERN = Pattern.compile(".*");
 
+    /** Default maximum time validated CA certificates are not validated again, in seconds. */
+    private static final int DEFAULT_CA_CACHE_TIME = 3600;
+
+    /** Default number of validated CA certificates and of matched DNs remembered. */
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+
     /** OID for KeyUsage X.509v3 extension field. */
     private static final String KEY_USAGE_OID = "2.5.29.15";
 
@@ -109,6 +128,18 @@ public class X509CredentialsAuthenticationHandler extends AbstractPreAndPostProc
     @NotNull
     private RevocationChecker revocationChecker = new NoOpRevocationChecker();
 
+    /** Maximum time validated CA certificates are not validated again, in seconds. */
+    private int caCacheTime = DEFAULT_CA_CACHE_TIME;
+
+    /** Validated CA certificates by fingerprint, with the time their validation expires. */
+    private Map<String, Long> validatedCACertificates = newCache(DEFAULT_CACHE_SIZE);
+
+    /** Outcome of matching DNs against the trusted issuer pattern. */
+    private Map<String, Boolean> trustedIssuerDnMatches = newCache(DEFAULT_CACHE_SIZE);
+
+    /** Outcome of matching DNs against the subject pattern. */
+    private Map<String, Boolean> subjectDnMatches = newCache(DEFAULT_CACHE_SIZE);
+
 
     @Override
     public boolean supports(final Credential credential) {
@@ -130,15 +161,23 @@ public class X509CredentialsAuthenticationHandler extends AbstractPreAndPostProc
             final X509Certificate certificate = certificates[i];
             logger.debug("Evaluating {}", CertUtils.toString(certificate));
 
-            validate(certificate);
+            // getBasicConstraints returns pathLenContraint which is generally
+            // >=0 when this is a CA cert and -1 when it's not
+            final int pathLength = certificate.getBasicConstraints();
+
+            // client certificates are always validated, CA certificates only when not validated recently
+            final String fingerprint = pathLength >= 0 && this.caCacheTime > 0 ? fingerprint(certificate) : null;
+            if (fingerprint == null || !isValidated(fingerprint)) {
+                validate(certificate);
+                if (fingerprint != null) {
+                    rememberValidated(fingerprint, certificate);
+                }
+            }
 
             if (!hasTrustedIssuer) {
                 hasTrustedIssuer = isCertificateFromTrustedIssuer(certificate);
             }
 
-            // getBasicConstraints returns pathLenContraint which is generally
-            // >=0 when this is a CA cert and -1 when it's not
-            final int pathLength = certificate.getBasicConstraints();
             if (pathLength < 0) {
                 logger.debug("Found valid client certificate");
                 clientCert = certificate;
@@ -155,6 +194,7 @@ public class X509CredentialsAuthenticationHandler extends AbstractPreAndPostProc
 
     public void setTrustedIssuerDnPattern(final String trustedIssuerDnPattern) {
         this.regExTrustedIssuerDnPattern = Pattern.compile(trustedIssuerDnPattern);
+        this.trustedIssuerDnMatches.clear();
     }
 
     /**
@@ -187,6 +227,7 @@ public class X509CredentialsAuthenticationHandler extends AbstractPreAndPostProc
 
     public void setSubjectDnPattern(final String subjectDnPattern) {
         this.regExSubjectDnPattern = Pattern.compile(subjectDnPattern);
+        this.subjectDnMatches.clear();
     }
 
     /**
@@ -199,6 +240,29 @@ public class X509CredentialsAuthenticationHandler extends AbstractPreAndPostProc
      */
     public void setRevocationChecker(final RevocationChecker checker) {
         this.revocationChecker = checker;
+        this.validatedCACertificates.clear();
+    }
+
+    /**
+     * Sets the maximum time a CA certificate that passed validation is not validated again.
+     * Zero validates CA certificates on every authentication.
+     *
+     * @param seconds Maximum time in seconds.
+     */
+    public void setCaCacheTime(final int seconds) {
+        this.caCacheTime = seconds;
+    }
+
+    /**
+     * Sets the number of validated CA certificates, and of DNs matched against each pattern,
+     * that are remembered.
+     *
+     * @param size Number of entries of each cache.
+     */
+    public void setCacheSize(final int size) {
+        this.validatedCACertificates = newCache(size);
+        this.trustedIssuerDnMatches = newCache(size);
+        this.subjectDnMatches = newCache(size);
     }
 
     /**
@@ -285,7 +349,7 @@ public class X509CredentialsAuthenticationHandler extends AbstractPreAndPostProc
      * @return true, if  certificate allowed
      */
     private boolean isCertificateAllowed(final X509Certificate cert) {
-        return doesNameMatchPattern(cert.getSubjectDN(), this.regExSubjectDnPattern);
+        return doesNameMatchPattern(cert.getSubjectDN(), this.regExSubjectDnPattern, this.subjectDnMatches);
     }
 
     /**
@@ -295,7 +359,7 @@ public class X509CredentialsAuthenticationHandler extends AbstractPreAndPostProc
      * @return true, if  certificate from trusted issuer
      */
     private boolean isCertificateFromTrustedIssuer(final X509Certificate cert) {
-        return doesNameMatchPattern(cert.getIssuerDN(), this.regExTrustedIssuerDnPattern);
+        return doesNameMatchPattern(cert.getIssuerDN(), this.regExTrustedIssuerDnPattern, this.trustedIssuerDnMatches);
     }
 
     /**
@@ -303,13 +367,112 @@ public class X509CredentialsAuthenticationHandler extends AbstractPreAndPostProc
      *
      * @param principal the principal
      * @param pattern the pattern
+     * @param matches the outcome of previous matches against the pattern, by name
      * @return true, if successful
      */
     private boolean doesNameMatchPattern(final Principal principal,
-            final Pattern pattern) {
+            final Pattern pattern, final Map<String, Boolean> matches) {
         final String name = principal.getName();
+        final Boolean cached = matches.get(name);
+        if (cached != null) {
+            return cached;
+        }
         final boolean result = pattern.matcher(name).matches();
-        logger.debug(String.format("%s matches %s == %s", pattern.pattern(), name, result));
+        logger.debug("{} matches {} == {}", pattern.pattern(), name, result);
+        matches.put(name, result);
         return result;
     }
+
+    /**
+     * Checks whether a CA certificate passed validation recently enough not to be validated again.
+     *
+     * @param fingerprint the fingerprint of the certificate
+     * @return true, if the outcome of its last validation still holds
+     */
+    private boolean isValidated(final String fingerprint) {
+        final Long expiration = this.validatedCACertificates.get(fingerprint);
+        if (expiration == null) {
+            return false;
+        }
+        if (expiration > System.currentTimeMillis()) {
+            logger.debug("CA certificate was validated recently");
+            return true;
+        }
+        this.validatedCACertificates.remove(fingerprint);
+        return false;
+    }
+
+    /**
+     * Remembers a CA certificate passed validation, until its revocation data is due to be replaced,
+     * it expires, or the maximum time elapses.
+     *
+     * @param fingerprint the fingerprint of the certificate
+     * @param cert the cert
+     */
+    private void rememberValidated(final String fingerprint, final X509Certificate cert) {
+        if (!(this.revocationChecker instanceof ExpiringRevocationChecker)) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long expiration = Math.min(
+                Math.min(now + TimeUnit.SECONDS.toMillis(this.caCacheTime), cert.getNotAfter().getTime()),
+                ((ExpiringRevocationChecker) this.revocationChecker).getStatusExpiration(cert));
+        if (expiration > now) {
+            this.validatedCACertificates.put(fingerprint, expiration);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 fingerprint of a certificate.
+     *
+     * @param cert the cert
+     * @return the fingerprint, or null if it cannot be computed
+     */
+    private String fingerprint(final X509Certificate cert) {
+        try {
+            return Hex.encodeHexString(MessageDigest.getInstance("SHA-256").digest(cert.getEncoded()));
+        } catch (final GeneralSecurityException e) {
+            logger.warn("Cannot compute fingerprint of {}", CertUtils.toString(cert), e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates a bounded, thread-safe LRU cache.
+     *
+     * @param <V> the type of values
+     * @param size the maximum number of entries
+     * @return the cache
+     */
+    private static <V> Map<String, V> newCache(final int size) {
+        return Collections.synchronizedMap(new LruCache<V>(size));
+    }
+
+    /**
+     * Access-ordered map that evicts its eldest entry past a fixed size.
+     *
+     * @param <V> the type of values
+     */
+    private static final class LruCache<V> extends LinkedHashMap<String, V> {
+
+        private static final long serialVersionUID = -4416408741624924314L;
+
+        /** The maximum number of entries. */
+        private final int maxSize;
+
+        /**
+         * Instantiates a new cache.
+         *
+         * @param maxSize the maximum number of entries
+         */
+        LruCache(final int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+            return size() > this.maxSize;
+        }
+    }
 }
@@ -0,0 +1,251 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.adaptors.x509.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.cert.CRLException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.commons.codec.binary.Base64InputStream;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1SequenceParser;
+import org.bouncycastle.asn1.ASN1StreamParser;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.ASN1TaggedObjectParser;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DEREncodable;
+import org.bouncycastle.asn1.DEREnumerated;
+import org.bouncycastle.asn1.DERGeneralizedTime;
+import org.bouncycastle.asn1.DERInteger;
+import org.bouncycastle.asn1.DERObject;
+import org.bouncycastle.asn1.DERObjectIdentifier;
+import org.bouncycastle.asn1.DERUTCTime;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.asn1.x509.X509Extension;
+import org.bouncycastle.asn1.x509.X509Extensions;
+
+/**
+ * Reads a DER or PEM encoded CRL from a stream in a single pass with the BouncyCastle ASN.1 stream parser,
+ * keeping the revoked serial numbers in a {@link RevokedSerialIndex} rather than as parsed entries: only one
+ * entry is decoded at a time. The signature of the CRL is not verified, as is the case with CRLs read by the
+ * default certificate factory.
+ * <p>
+ * The parser checks the length of each element against the element holding it, and the length of the CRL
+ * against the limit it is given, so the memory allocated for an element is bounded by that limit.
+ *
+ * @author agent
+ * @since 4.1
+ */
+final class CRLReader {
+
+    /** Tag number of the CRL extensions of a TBSCertList. */
+    private static final int CRL_EXTENSIONS = 0;
+
+    /** The stream parser. */
+    private final ASN1StreamParser parser;
+
+    /**
+     * Creates a new reader.
+     *
+     * @param in the stream of the CRL, DER or PEM encoded
+     * @param limit the largest number of bytes the DER encoding of the CRL may take
+     * @throws IOException on IO errors
+     */
+    CRLReader(final InputStream in, final int limit) throws IOException {
+        this.parser = new ASN1StreamParser(decodePEM(in instanceof BufferedInputStream ? in : new BufferedInputStream(in)),
+                limit);
+    }
+
+    /**
+     * Reads the CRL.
+     *
+     * @return the CRL
+     * @throws CRLException if the data is not a CRL this reader supports
+     * @throws IOException on IO errors, or if an element runs past the element holding it or the limit
+     */
+    CompactX509CRL read() throws CRLException, IOException {
+        try {
+            return readCertificateList();
+        } catch (final IllegalArgumentException e) {
+            throw new CRLException("Malformed CRL: " + e.getMessage());
+        } catch (final IllegalStateException e) {
+            // includes ASN1ParsingException
+            throw new CRLException("Malformed CRL: " + e.getMessage());
+        } catch (final ClassCastException e) {
+            throw new CRLException("Malformed CRL: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the CertificateList structure of the CRL.
+     *
+     * @return the CRL
+     * @throws CRLException if the CRL is not supported
+     * @throws IOException on IO errors
+     */
+    private CompactX509CRL readCertificateList() throws CRLException, IOException {
+        final ASN1SequenceParser certList = (ASN1SequenceParser) this.parser.readObject();
+        if (certList == null) {
+            throw new CRLException("Empty CRL");
+        }
+        final ASN1SequenceParser tbsCertList = (ASN1SequenceParser) certList.readObject();
+
+        int version = 1;
+        DEREncodable next = tbsCertList.readObject();
+        if (next instanceof DERInteger) {
+            version = ((DERInteger) next).getValue().intValue() + 1;
+            next = tbsCertList.readObject();
+        }
+        // the signature algorithm is repeated after the TBSCertList, it is only read to move past it
+        toDERObject((ASN1SequenceParser) next);
+        final X500Principal issuer = new X500Principal(
+                toDERObject((ASN1SequenceParser) tbsCertList.readObject()).getEncoded(ASN1Encodable.DER));
+        final long thisUpdate = Time.getInstance(tbsCertList.readObject()).getDate().getTime();
+
+        long nextUpdate = -1;
+        final RevokedSerialIndex.Builder entries = new RevokedSerialIndex.Builder();
+        final Set<String> criticalExtensions = new HashSet<String>();
+        final Map<String, byte[]> extensions = new HashMap<String, byte[]>();
+        while ((next = tbsCertList.readObject()) != null) {
+            if (next instanceof DERUTCTime || next instanceof DERGeneralizedTime) {
+                nextUpdate = Time.getInstance(next).getDate().getTime();
+            } else if (next instanceof ASN1SequenceParser) {
+                readEntries((ASN1SequenceParser) next, entries);
+            } else if (next instanceof ASN1TaggedObjectParser
+                    && ((ASN1TaggedObjectParser) next).getTagNo() == CRL_EXTENSIONS) {
+                readExtensions(X509Extensions.getInstance((ASN1TaggedObject) toDERObject(next), true),
+                        criticalExtensions, extensions);
+            } else {
+                throw new CRLException("Unexpected element " + next.getClass().getSimpleName() + " in CRL");
+            }
+        }
+
+        final AlgorithmIdentifier algorithm = AlgorithmIdentifier.getInstance(
+                toDERObject((ASN1SequenceParser) certList.readObject()));
+        final byte[] sigAlgParams = algorithm.getParameters() != null
+                ? algorithm.getParameters().getDERObject().getEncoded(ASN1Encodable.DER) : null;
+        final byte[] signature = ((DERBitString) certList.readObject()).getBytes();
+
+        return new CompactX509CRL(version, issuer, thisUpdate, nextUpdate, entries.build(),
+                Collections.unmodifiableSet(criticalExtensions), Collections.unmodifiableMap(extensions),
+                algorithm.getObjectId().getId(), sigAlgParams, signature);
+    }
+
+    /**
+     * Reads the revoked certificates, decoding one entry at a time.
+     *
+     * @param revokedCertificates the parser of the revoked certificates
+     * @param entries the builder collecting the entries
+     * @throws CRLException if an entry is not supported
+     * @throws IOException on IO errors
+     */
+    private static void readEntries(final ASN1SequenceParser revokedCertificates,
+            final RevokedSerialIndex.Builder entries) throws CRLException, IOException {
+        DEREncodable next;
+        while ((next = revokedCertificates.readObject()) != null) {
+            final ASN1Sequence entry = (ASN1Sequence) toDERObject(next);
+            final DERInteger serial = DERInteger.getInstance(entry.getObjectAt(0));
+            final long date = Time.getInstance(entry.getObjectAt(1)).getDate().getTime();
+            byte reason = RevokedSerialIndex.NO_REASON;
+            if (entry.size() > 2) {
+                final X509Extensions entryExtensions = X509Extensions.getInstance(entry.getObjectAt(2));
+                if (entryExtensions.getExtension(X509Extensions.CertificateIssuer) != null) {
+                    throw new CRLException("Indirect CRLs are not supported");
+                }
+                final X509Extension reasonCode = entryExtensions.getExtension(X509Extensions.ReasonCode);
+                if (reasonCode != null) {
+                    reason = DEREnumerated.getInstance(X509Extension.convertValueToObject(reasonCode))
+                            .getValue().byteValue();
+                }
+            }
+            entries.add(serial.getValue().toByteArray(), date, reason);
+        }
+    }
+
+    /**
+     * Reads the rest of an element as a DER object. The stream parsers report the IO errors of
+     * {@link DEREncodable#getDERObject()}, such as a truncated element, as an IllegalStateException
+     * holding only the message, which is turned back into an IOException.
+     *
+     * @param parser the parser of the element
+     * @return the element
+     * @throws IOException on IO errors
+     */
+    private static DERObject toDERObject(final DEREncodable parser) throws IOException {
+        try {
+            return parser.getDERObject();
+        } catch (final IllegalStateException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the extensions of the CRL.
+     *
+     * @param crlExtensions the extensions
+     * @param critical collects the OIDs of critical extensions
+     * @param extensions collects the DER encoded OCTET STRING value of each extension
+     * @throws IOException if an extension cannot be encoded
+     */
+    private static void readExtensions(final X509Extensions crlExtensions, final Set<String> critical,
+            final Map<String, byte[]> extensions) throws IOException {
+        final Enumeration<?> oids = crlExtensions.oids();
+        while (oids.hasMoreElements()) {
+            final DERObjectIdentifier oid = (DERObjectIdentifier) oids.nextElement();
+            final X509Extension extension = crlExtensions.getExtension(oid);
+            if (extension.isCritical()) {
+                critical.add(oid.getId());
+            }
+            extensions.put(oid.getId(), extension.getValue().getEncoded(ASN1Encodable.DER));
+        }
+    }
+
+    /**
+     * Decodes the stream of a PEM encoded CRL, as it starts with a header line rather than a SEQUENCE.
+     * The footer need not be skipped, as reading stops at the end of the DER encoding.
+     *
+     * @param in the buffered stream
+     * @return a stream of the DER encoding
+     * @throws IOException on IO errors
+     */
+    private static InputStream decodePEM(final InputStream in) throws IOException {
+        in.mark(1);
+        final int first = in.read();
+        in.reset();
+        if (first != '-') {
+            return in;
+        }
+        int c;
+        do {
+            c = in.read();
+        } while (c >= 0 && c != '\n');
+        return new BufferedInputStream(new Base64InputStream(in));
+    }
+}
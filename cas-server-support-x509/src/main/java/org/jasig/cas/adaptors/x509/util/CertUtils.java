@@ -20,6 +20,7 @@ package org.jasig.cas.adaptors.x509.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URLConnection;
 import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
@@ -89,6 +90,52 @@ public final class CertUtils {
         }
     }
 
+    /**
+     * Fetches an X.509 CRL from a resource such as a file or URL, reading it in a single pass
+     * into a {@link CompactX509CRL} that only keeps an index of its revoked serial numbers.
+     * CRLs the compact reader does not support, such as indirect CRLs, are fetched again and
+     * read by the default certificate factory. When the resource tells its length, no element
+     * of the CRL longer than that is allocated.
+     *
+     * @param resource Resource descriptor.
+     *
+     * @return X.509 CRL
+     *
+     * @throws IOException On IOErrors.
+     * @throws CRLException On CRL parse errors.
+     */
+    public static X509CRL fetchCompactCRL(final Resource resource) throws CRLException, IOException {
+        final URLConnection connection = resource.getURL().openConnection();
+        final InputStream in = connection.getInputStream();
+        try {
+            final long length = connection.getContentLengthLong();
+            return CompactX509CRL.read(in, length > 0 && length < Integer.MAX_VALUE ? (int) length : Integer.MAX_VALUE);
+        } catch (final CRLException e) {
+            return fetchCRL(resource);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Reads an X.509 certificate from a resource such as a file or URL.
+     *
+     * @param resource Resource descriptor.
+     *
+     * @return X.509 certificate
+     *
+     * @throws IOException On IOErrors.
+     * @throws CertificateException On certificate parse errors.
+     */
+    public static X509Certificate readCertificate(final Resource resource) throws CertificateException, IOException {
+        final InputStream in = resource.getInputStream();
+        try {
+            return (X509Certificate) CertUtils.getCertificateFactory().generateCertificate(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
     /**
      * Creates a unique and human-readable representation of the given certificate.
      *
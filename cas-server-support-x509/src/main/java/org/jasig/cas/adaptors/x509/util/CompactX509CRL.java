@@ -0,0 +1,388 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.adaptors.x509.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.Principal;
+import java.security.PublicKey;
+import java.security.cert.CRLException;
+import java.security.cert.CRLReason;
+import java.security.cert.Certificate;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * A CRL read in a single pass from its DER encoding, which keeps its revoked serial numbers in a
+ * compact sorted index instead of parsed entries. A CRL with millions of entries takes a few tens
+ * of bytes per entry, and looking up a certificate is a binary search that does not lock.
+ * <p>
+ * The encoding of the CRL is not retained: {@link #getEncoded()}, {@link #getTBSCertList()} and
+ * the <code>verify</code> methods are not supported. Extensions of entries other than the reason
+ * code are dropped, and indirect CRLs cannot be read: {@link CertUtils#fetchCompactCRL(org.springframework.core.io.Resource)}
+ * reads those with the default certificate factory instead.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class CompactX509CRL extends X509CRL {
+
+    /** Version of the CRL. */
+    private final int version;
+
+    /** Issuer of the CRL. */
+    private final X500Principal issuer;
+
+    /** Time this CRL was issued. */
+    private final long thisUpdate;
+
+    /** Time the next CRL is due, or -1. */
+    private final long nextUpdate;
+
+    /** Revoked serial numbers. */
+    private final RevokedSerialIndex index;
+
+    /** OIDs of the critical extensions of the CRL. */
+    private final Set<String> criticalExtensions;
+
+    /** DER encoded values of the extensions of the CRL, by OID. */
+    private final Map<String, byte[]> extensions;
+
+    /** OID of the signature algorithm. */
+    private final String sigAlgOID;
+
+    /** DER encoded parameters of the signature algorithm, if any. */
+    private final byte[] sigAlgParams;
+
+    /** The signature. */
+    private final byte[] signature;
+
+    /**
+     * Creates a new CRL.
+     *
+     * @param version the version
+     * @param issuer the issuer
+     * @param thisUpdate the time the CRL was issued
+     * @param nextUpdate the time the next CRL is due, or -1
+     * @param index the revoked serial numbers
+     * @param criticalExtensions the OIDs of critical extensions
+     * @param extensions the DER encoded values of extensions
+     * @param sigAlgOID the OID of the signature algorithm
+     * @param sigAlgParams the parameters of the signature algorithm, if any
+     * @param signature the signature
+     */
+    CompactX509CRL(final int version, final X500Principal issuer, final long thisUpdate, final long nextUpdate,
+                   final RevokedSerialIndex index, final Set<String> criticalExtensions,
+                   final Map<String, byte[]> extensions, final String sigAlgOID, final byte[] sigAlgParams,
+                   final byte[] signature) {
+        this.version = version;
+        this.issuer = issuer;
+        this.thisUpdate = thisUpdate;
+        this.nextUpdate = nextUpdate;
+        this.index = index;
+        this.criticalExtensions = criticalExtensions;
+        this.extensions = extensions;
+        this.sigAlgOID = sigAlgOID;
+        this.sigAlgParams = sigAlgParams;
+        this.signature = signature;
+    }
+
+    /**
+     * Reads a DER or PEM encoded CRL.
+     *
+     * @param in the stream of the CRL, which is not closed
+     * @return the CRL
+     * @throws CRLException if the data is not a supported CRL
+     * @throws IOException on IO errors, or if the encoding declares an element longer than the element holding it
+     */
+    public static CompactX509CRL read(final InputStream in) throws CRLException, IOException {
+        return read(in, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads a DER or PEM encoded CRL whose size is known, so that no element longer than that size is allocated.
+     *
+     * @param in the stream of the CRL, which is not closed
+     * @param limit the largest number of bytes the CRL may take
+     * @return the CRL
+     * @throws CRLException if the data is not a supported CRL
+     * @throws IOException on IO errors, or if the encoding declares an element longer than the element holding it
+     *                     or the limit
+     */
+    public static CompactX509CRL read(final InputStream in, final int limit) throws CRLException, IOException {
+        return new CRLReader(in, limit).read();
+    }
+
+    /**
+     * Gets the number of revoked serial numbers.
+     *
+     * @return the count
+     */
+    public int getRevokedCount() {
+        return this.index.size();
+    }
+
+    @Override
+    public X509CRLEntry getRevokedCertificate(final BigInteger serialNumber) {
+        final int position = this.index.indexOf(serialNumber);
+        return position >= 0 ? new Entry(this.index, position) : null;
+    }
+
+    @Override
+    public X509CRLEntry getRevokedCertificate(final X509Certificate certificate) {
+        if (!this.issuer.equals(certificate.getIssuerX500Principal())) {
+            return null;
+        }
+        return getRevokedCertificate(certificate.getSerialNumber());
+    }
+
+    @Override
+    public boolean isRevoked(final Certificate cert) {
+        return cert instanceof X509Certificate && getRevokedCertificate((X509Certificate) cert) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The set is built on every call, which is expensive for large CRLs.
+     */
+    @Override
+    public Set<? extends X509CRLEntry> getRevokedCertificates() {
+        final int size = this.index.size();
+        if (size == 0) {
+            return null;
+        }
+        final Set<X509CRLEntry> entries = new HashSet<X509CRLEntry>(size * 2);
+        for (int i = 0; i < size; i++) {
+            entries.add(new Entry(this.index, i));
+        }
+        return Collections.unmodifiableSet(entries);
+    }
+
+    @Override
+    public X500Principal getIssuerX500Principal() {
+        return this.issuer;
+    }
+
+    @Override
+    public Principal getIssuerDN() {
+        return this.issuer;
+    }
+
+    @Override
+    public int getVersion() {
+        return this.version;
+    }
+
+    @Override
+    public Date getThisUpdate() {
+        return new Date(this.thisUpdate);
+    }
+
+    @Override
+    public Date getNextUpdate() {
+        return this.nextUpdate >= 0 ? new Date(this.nextUpdate) : null;
+    }
+
+    @Override
+    public byte[] getEncoded() throws CRLException {
+        throw new CRLException("The encoding of compact CRLs is not retained");
+    }
+
+    @Override
+    public byte[] getTBSCertList() throws CRLException {
+        throw new CRLException("The encoding of compact CRLs is not retained");
+    }
+
+    @Override
+    public void verify(final PublicKey key) throws CRLException {
+        throw new CRLException("Compact CRLs cannot be verified");
+    }
+
+    @Override
+    public void verify(final PublicKey key, final String sigProvider) throws CRLException {
+        throw new CRLException("Compact CRLs cannot be verified");
+    }
+
+    @Override
+    public byte[] getSignature() {
+        return this.signature.clone();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Compact CRLs do not map algorithm OIDs to names, the OID is returned instead.
+     */
+    @Override
+    public String getSigAlgName() {
+        return this.sigAlgOID;
+    }
+
+    @Override
+    public String getSigAlgOID() {
+        return this.sigAlgOID;
+    }
+
+    @Override
+    public byte[] getSigAlgParams() {
+        return this.sigAlgParams != null ? this.sigAlgParams.clone() : null;
+    }
+
+    @Override
+    public boolean hasUnsupportedCriticalExtension() {
+        return !this.criticalExtensions.isEmpty();
+    }
+
+    @Override
+    public Set<String> getCriticalExtensionOIDs() {
+        return this.extensions.isEmpty() ? null : this.criticalExtensions;
+    }
+
+    @Override
+    public Set<String> getNonCriticalExtensionOIDs() {
+        if (this.extensions.isEmpty()) {
+            return null;
+        }
+        final Set<String> oids = new HashSet<String>(this.extensions.keySet());
+        oids.removeAll(this.criticalExtensions);
+        return oids;
+    }
+
+    @Override
+    public byte[] getExtensionValue(final String oid) {
+        final byte[] value = this.extensions.get(oid);
+        return value != null ? value.clone() : null;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return this == other;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("X.509 CRL v%s, Issuer=%s, ThisUpdate=%s, NextUpdate=%s, Entries=%s",
+                this.version, this.issuer, getThisUpdate(), getNextUpdate(), this.index.size());
+    }
+
+    /**
+     * An entry of a compact CRL, created on lookup.
+     */
+    private static final class Entry extends X509CRLEntry {
+
+        /** OID of the reasonCode extension. */
+        private static final String REASON_CODE_OID = "2.5.29.21";
+
+        /** The index holding the entry. */
+        private final RevokedSerialIndex index;
+
+        /** Position of the entry in the index. */
+        private final int position;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param index the index holding the entry
+         * @param position the position of the entry
+         */
+        Entry(final RevokedSerialIndex index, final int position) {
+            this.index = index;
+            this.position = position;
+        }
+
+        @Override
+        public BigInteger getSerialNumber() {
+            return this.index.getSerial(this.position);
+        }
+
+        @Override
+        public Date getRevocationDate() {
+            return new Date(this.index.getDate(this.position));
+        }
+
+        @Override
+        public CRLReason getRevocationReason() {
+            final byte reason = this.index.getReason(this.position);
+            return reason >= 0 && reason < CRLReason.values().length ? CRLReason.values()[reason] : null;
+        }
+
+        @Override
+        public boolean hasExtensions() {
+            return this.index.getReason(this.position) != RevokedSerialIndex.NO_REASON;
+        }
+
+        @Override
+        public byte[] getEncoded() throws CRLException {
+            throw new CRLException("The encoding of compact CRL entries is not retained");
+        }
+
+        @Override
+        public boolean hasUnsupportedCriticalExtension() {
+            return false;
+        }
+
+        @Override
+        public Set<String> getCriticalExtensionOIDs() {
+            return hasExtensions() ? Collections.<String>emptySet() : null;
+        }
+
+        @Override
+        public Set<String> getNonCriticalExtensionOIDs() {
+            return hasExtensions() ? Collections.singleton(REASON_CODE_OID) : null;
+        }
+
+        @Override
+        public byte[] getExtensionValue(final String oid) {
+            if (!REASON_CODE_OID.equals(oid) || !hasExtensions()) {
+                return null;
+            }
+            // OCTET STRING holding the ENUMERATED reason code
+            return new byte[] {0x04, 0x03, 0x0a, 0x01, this.index.getReason(this.position)};
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Entry && ((Entry) other).index == this.index
+                    && ((Entry) other).position == this.position;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.index) * 31 + this.position;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("SerialNumber=%s, RevocationDate=%s", getSerialNumber(), getRevocationDate());
+        }
+    }
+}
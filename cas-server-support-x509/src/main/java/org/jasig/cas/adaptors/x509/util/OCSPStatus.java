@@ -0,0 +1,116 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.adaptors.x509.util;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Status of a certificate as stated by a verified OCSP response.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class OCSPStatus implements Serializable {
+
+    /** Reason code of revocations without a reason. */
+    public static final int NO_REASON = -1;
+
+    private static final long serialVersionUID = -2791836478263912087L;
+
+    /** Certificate status values of RFC 2560. */
+    public enum Status {
+        /** The certificate is not revoked. */
+        GOOD,
+
+        /** The certificate is revoked. */
+        REVOKED,
+
+        /** The responder does not know about the certificate. */
+        UNKNOWN
+    }
+
+    /** The status. */
+    private final Status status;
+
+    /** Time the status was known to be correct. */
+    private final long thisUpdate;
+
+    /** Time newer status will be available, or -1. */
+    private final long nextUpdate;
+
+    /** Time the certificate was revoked, or -1. */
+    private final long revocationTime;
+
+    /** Revocation reason code, or {@link #NO_REASON}. */
+    private final int reason;
+
+    /**
+     * Creates a new status.
+     *
+     * @param status the status
+     * @param thisUpdate time the status was known to be correct
+     * @param nextUpdate time newer status will be available, or -1
+     * @param revocationTime time the certificate was revoked, or -1
+     * @param reason revocation reason code, or {@link #NO_REASON}
+     */
+    public OCSPStatus(final Status status, final long thisUpdate, final long nextUpdate,
+                      final long revocationTime, final int reason) {
+        this.status = status;
+        this.thisUpdate = thisUpdate;
+        this.nextUpdate = nextUpdate;
+        this.revocationTime = revocationTime;
+        this.reason = reason;
+    }
+
+    public Status getStatus() {
+        return this.status;
+    }
+
+    public Date getThisUpdate() {
+        return new Date(this.thisUpdate);
+    }
+
+    /**
+     * Gets the time newer status will be available.
+     *
+     * @return the time, or null if newer status is always available
+     */
+    public Date getNextUpdate() {
+        return this.nextUpdate >= 0 ? new Date(this.nextUpdate) : null;
+    }
+
+    /**
+     * Gets the time the certificate was revoked.
+     *
+     * @return the time, or null if it is not revoked
+     */
+    public Date getRevocationTime() {
+        return this.revocationTime >= 0 ? new Date(this.revocationTime) : null;
+    }
+
+    public int getReason() {
+        return this.reason;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, ThisUpdate=%s, NextUpdate=%s", this.status, getThisUpdate(), getNextUpdate());
+    }
+}
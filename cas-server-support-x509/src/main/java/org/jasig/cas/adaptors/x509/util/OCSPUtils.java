@@ -0,0 +1,319 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.adaptors.x509.util;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.DERIA5String;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.ocsp.BasicOCSPResp;
+import org.bouncycastle.ocsp.CertificateID;
+import org.bouncycastle.ocsp.OCSPException;
+import org.bouncycastle.ocsp.OCSPReqGenerator;
+import org.bouncycastle.ocsp.OCSPResp;
+import org.bouncycastle.ocsp.OCSPRespStatus;
+import org.bouncycastle.ocsp.RevokedStatus;
+import org.bouncycastle.ocsp.SingleResp;
+import org.bouncycastle.ocsp.UnknownStatus;
+import org.bouncycastle.x509.extension.X509ExtensionUtil;
+
+/**
+ * Utility class for the OCSP messages of RFC 2560, built on the BouncyCastle OCSP types: creates requests
+ * without nonce, so that the responses, which are often signed ahead of time by responders, can be reused
+ * until their <code>nextUpdate</code> time, and reads and verifies basic responses. The default JCA providers
+ * are used for digests and signatures.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class OCSPUtils {
+
+    /** MIME type of OCSP requests. */
+    public static final String OCSP_REQUEST_TYPE = "application/ocsp-request";
+
+    /** MIME type of OCSP responses. */
+    public static final String OCSP_RESPONSE_TYPE = "application/ocsp-response";
+
+    /** Tolerated clock skew between responders and this host, in milliseconds. */
+    private static final long CLOCK_SKEW = TimeUnit.MINUTES.toMillis(5);
+
+    /** OID of the OCSPSigning extended key usage. */
+    private static final String OCSP_SIGNING_OID = "1.3.6.1.5.5.7.3.9";
+
+    /**
+     * Instantiates a new OCSP utils instance.
+     */
+    private OCSPUtils() {}
+
+    /**
+     * Creates the SHA-1 certificate ID by which requests and responses designate a certificate.
+     *
+     * @param issuer Certificate of the issuer of the certificate.
+     * @param serial Serial number of the certificate.
+     *
+     * @return The certificate ID.
+     *
+     * @throws GeneralSecurityException If the issuer key cannot be hashed.
+     */
+    public static CertificateID createCertificateID(final X509Certificate issuer, final BigInteger serial)
+            throws GeneralSecurityException {
+        try {
+            return new CertificateID(CertificateID.HASH_SHA1, issuer, serial, null);
+        } catch (final OCSPException e) {
+            throw new GeneralSecurityException("Cannot create OCSP certificate ID", e);
+        }
+    }
+
+    /**
+     * Creates an unsigned OCSP request for a single certificate, without nonce.
+     *
+     * @param certificateID ID of the certificate, see {@link #createCertificateID(X509Certificate, BigInteger)}.
+     *
+     * @return The DER encoded request.
+     *
+     * @throws GeneralSecurityException If the request cannot be encoded.
+     */
+    public static byte[] createRequest(final CertificateID certificateID) throws GeneralSecurityException {
+        final OCSPReqGenerator generator = new OCSPReqGenerator();
+        generator.addRequest(certificateID);
+        try {
+            return generator.generate().getEncoded();
+        } catch (final OCSPException e) {
+            throw new GeneralSecurityException("Cannot create OCSP request", e);
+        } catch (final IOException e) {
+            throw new GeneralSecurityException("Cannot encode OCSP request", e);
+        }
+    }
+
+    /**
+     * Reads an OCSP response and verifies it is signed by the issuer of the certificate, or by a
+     * responder the issuer delegated to, and that it is current. A response without
+     * <code>nextUpdate</code> time is current until its <code>thisUpdate</code> time is older than
+     * the given maximum age.
+     *
+     * @param response The DER encoded response.
+     * @param certificateID ID of the certificate that was asked for.
+     * @param issuer Certificate of the issuer of the certificate.
+     * @param maxAge Maximum age of responses without nextUpdate time, in milliseconds.
+     *
+     * @return Status of the certificate.
+     *
+     * @throws GeneralSecurityException If the response is not successful, malformed, not current,
+     * not properly signed or does not concern the certificate.
+     */
+    public static OCSPStatus readResponse(final byte[] response, final CertificateID certificateID,
+                                          final X509Certificate issuer, final long maxAge)
+            throws GeneralSecurityException {
+        try {
+            final OCSPResp ocspResponse = new OCSPResp(response);
+            if (ocspResponse.getStatus() != OCSPRespStatus.SUCCESSFUL) {
+                throw new GeneralSecurityException("OCSP responder returned status " + ocspResponse.getStatus());
+            }
+            final Object responseObject = ocspResponse.getResponseObject();
+            if (!(responseObject instanceof BasicOCSPResp)) {
+                throw new CertificateParsingException("Unsupported OCSP response type");
+            }
+            final BasicOCSPResp basicResponse = (BasicOCSPResp) responseObject;
+            verifySignature(basicResponse, issuer);
+
+            for (final SingleResp single : basicResponse.getResponses()) {
+                if (isSameCertificateID(single.getCertID(), certificateID)) {
+                    return readSingleResponse(single, maxAge);
+                }
+            }
+            throw new GeneralSecurityException("OCSP response does not concern the requested certificate");
+        } catch (final IOException e) {
+            throw new CertificateParsingException("Malformed OCSP response: " + e.getMessage());
+        } catch (final OCSPException e) {
+            throw new CertificateParsingException("Malformed OCSP response: " + e.getMessage());
+        } catch (final IllegalArgumentException e) {
+            throw new CertificateParsingException("Malformed OCSP response: " + e.getMessage());
+        } catch (final IllegalStateException e) {
+            throw new CertificateParsingException("Malformed OCSP response: " + e.getMessage());
+        } catch (final ClassCastException e) {
+            throw new CertificateParsingException("Malformed OCSP response: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the OCSP responder URLs of the authorityInfoAccess extension of a certificate.
+     *
+     * @param cert The certificate.
+     *
+     * @return The URLs, empty if there are none.
+     *
+     * @throws CertificateParsingException If the extension is malformed.
+     */
+    public static List<String> getResponderURLs(final X509Certificate cert) throws CertificateParsingException {
+        final byte[] value = cert.getExtensionValue(X509Extensions.AuthorityInfoAccess.getId());
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        final List<String> urls = new ArrayList<String>();
+        try {
+            final AuthorityInformationAccess access = AuthorityInformationAccess.getInstance(
+                    X509ExtensionUtil.fromExtensionValue(value));
+            for (final AccessDescription description : access.getAccessDescriptions()) {
+                final GeneralName location = description.getAccessLocation();
+                if (AccessDescription.id_ad_ocsp.equals(description.getAccessMethod())
+                        && location.getTagNo() == GeneralName.uniformResourceIdentifier) {
+                    urls.add(DERIA5String.getInstance(location.getName()).getString());
+                }
+            }
+        } catch (final IOException e) {
+            throw new CertificateParsingException("Malformed authorityInfoAccess extension: " + e.getMessage());
+        } catch (final IllegalArgumentException e) {
+            throw new CertificateParsingException("Malformed authorityInfoAccess extension: " + e.getMessage());
+        }
+        return urls;
+    }
+
+    /**
+     * Reads a SingleResponse and checks it is current.
+     *
+     * @param single The SingleResponse.
+     * @param maxAge Maximum age of the response if it has no nextUpdate time, in milliseconds.
+     *
+     * @return Status of the certificate.
+     *
+     * @throws GeneralSecurityException If the response is malformed or not current.
+     */
+    private static OCSPStatus readSingleResponse(final SingleResp single, final long maxAge)
+            throws GeneralSecurityException {
+        final long thisUpdate = single.getThisUpdate().getTime();
+        final long nextUpdate = single.getNextUpdate() != null ? single.getNextUpdate().getTime() : -1;
+        final long now = System.currentTimeMillis();
+        if (thisUpdate > now + CLOCK_SKEW || nextUpdate >= 0 && nextUpdate < now - CLOCK_SKEW
+                || nextUpdate < 0 && thisUpdate < now - maxAge - CLOCK_SKEW) {
+            throw new GeneralSecurityException(String.format(
+                    "OCSP response is not current, thisUpdate=%s, nextUpdate=%s",
+                    new Date(thisUpdate), nextUpdate >= 0 ? new Date(nextUpdate) : null));
+        }
+
+        final Object status = single.getCertStatus();
+        if (status == null) {
+            // CertificateStatus.GOOD
+            return new OCSPStatus(OCSPStatus.Status.GOOD, thisUpdate, nextUpdate, -1, OCSPStatus.NO_REASON);
+        } else if (status instanceof UnknownStatus) {
+            return new OCSPStatus(OCSPStatus.Status.UNKNOWN, thisUpdate, nextUpdate, -1, OCSPStatus.NO_REASON);
+        } else if (status instanceof RevokedStatus) {
+            final RevokedStatus revoked = (RevokedStatus) status;
+            return new OCSPStatus(OCSPStatus.Status.REVOKED, thisUpdate, nextUpdate,
+                    revoked.getRevocationTime().getTime(),
+                    revoked.hasRevocationReason() ? revoked.getRevocationReason() : OCSPStatus.NO_REASON);
+        }
+        throw new CertificateParsingException("Unexpected certificate status " + status);
+    }
+
+    /**
+     * Compares two certificate IDs, field by field, as the hash algorithm parameters may be encoded
+     * differently, which {@link CertificateID#equals(Object)} does not allow for.
+     *
+     * @param a The first certificate ID.
+     * @param b The second certificate ID.
+     *
+     * @return True if they designate the same certificate.
+     */
+    private static boolean isSameCertificateID(final CertificateID a, final CertificateID b) {
+        return a.getHashAlgOID().equals(b.getHashAlgOID())
+                && Arrays.equals(a.getIssuerNameHash(), b.getIssuerNameHash())
+                && Arrays.equals(a.getIssuerKeyHash(), b.getIssuerKeyHash())
+                && a.getSerialNumber().equals(b.getSerialNumber());
+    }
+
+    /**
+     * Verifies the signature of a response was made by the issuer, or by one of the certificates
+     * included in the response that the issuer authorized to sign responses.
+     *
+     * @param response The basic response.
+     * @param issuer Certificate of the issuer.
+     *
+     * @throws GeneralSecurityException If the signature cannot be verified.
+     * @throws OCSPException If the certificates of the response cannot be read.
+     */
+    private static void verifySignature(final BasicOCSPResp response, final X509Certificate issuer)
+            throws GeneralSecurityException, OCSPException {
+        if (isSignedBy(response, issuer.getPublicKey())) {
+            return;
+        }
+        for (final X509Certificate responder : response.getCerts(null)) {
+            if (isAuthorizedResponder(responder, issuer) && isSignedBy(response, responder.getPublicKey())) {
+                return;
+            }
+        }
+        throw new SignatureException("OCSP response is not signed by the issuer or a responder it authorized");
+    }
+
+    /**
+     * Determines whether a certificate is a valid OCSP signing certificate issued by the issuer.
+     *
+     * @param responder The responder certificate.
+     * @param issuer Certificate of the issuer.
+     *
+     * @return True if the issuer delegated signing responses to the responder.
+     */
+    private static boolean isAuthorizedResponder(final X509Certificate responder, final X509Certificate issuer) {
+        try {
+            final List<String> usages = responder.getExtendedKeyUsage();
+            if (!issuer.getSubjectX500Principal().equals(responder.getIssuerX500Principal())
+                    || usages == null || !usages.contains(OCSP_SIGNING_OID)) {
+                return false;
+            }
+            responder.checkValidity();
+            responder.verify(issuer.getPublicKey());
+            return true;
+        } catch (final GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Verifies the signature of a response.
+     *
+     * @param response The basic response.
+     * @param key The public key of the signer.
+     *
+     * @return True if the signature is valid.
+     */
+    private static boolean isSignedBy(final BasicOCSPResp response, final PublicKey key) {
+        try {
+            return response.verify(key, null);
+        } catch (final OCSPException e) {
+            // the key does not suit the signature algorithm, or the algorithm is not supported
+            return false;
+        } catch (final GeneralSecurityException e) {
+            return false;
+        }
+    }
+}
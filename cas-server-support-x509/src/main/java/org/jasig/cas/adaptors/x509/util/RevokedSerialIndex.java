@@ -0,0 +1,344 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.adaptors.x509.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable index of the serial numbers revoked by a CRL, along with their revocation date and reason.
+ * <p>
+ * Serial numbers are stored as unsigned big-endian magnitudes padded to the width of the longest one,
+ * back to back in a single sorted byte array, so that a CRL with millions of entries takes a few bytes
+ * per entry instead of several objects, and lookups are a binary search. Negative serial numbers, which
+ * are not valid but found in the wild, are kept apart.
+ *
+ * @author agent
+ * @since 4.1
+ */
+final class RevokedSerialIndex {
+
+    /** Reason code of entries without a reason. */
+    static final byte NO_REASON = -1;
+
+    /** Sorted serial numbers, each {@link #width} bytes wide. */
+    private final byte[] serials;
+
+    /** Width of each serial number. */
+    private final int width;
+
+    /** Revocation dates, in the order of the serial numbers. */
+    private final long[] dates;
+
+    /** Revocation reason codes, in the order of the serial numbers. */
+    private final byte[] reasons;
+
+    /** Negative serial numbers, sorted. */
+    private final BigInteger[] negativeSerials;
+
+    /** Revocation dates of negative serial numbers. */
+    private final long[] negativeDates;
+
+    /** Revocation reason codes of negative serial numbers. */
+    private final byte[] negativeReasons;
+
+    /**
+     * Creates a new index.
+     *
+     * @param builder the builder holding the entries
+     */
+    private RevokedSerialIndex(final Builder builder) {
+        final int count = builder.count;
+        int max = 0;
+        for (int i = 0, offset = 0; i < count; i++) {
+            final int length = builder.data[offset];
+            max = Math.max(max, length);
+            offset += length + 1;
+        }
+        this.width = max;
+
+        // lay the magnitudes out right-aligned, so that unsigned byte order is numeric order
+        final byte[] unsorted = new byte[count * max];
+        for (int i = 0, offset = 0; i < count; i++) {
+            final int length = builder.data[offset];
+            System.arraycopy(builder.data, offset + 1, unsorted, (i + 1) * max - length, length);
+            offset += length + 1;
+        }
+        final int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        sort(order, new int[count], 0, count, unsorted, max);
+
+        this.serials = new byte[count * max];
+        this.dates = new long[count];
+        this.reasons = new byte[count];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(unsorted, order[i] * max, this.serials, i * max, max);
+            this.dates[i] = builder.dates[order[i]];
+            this.reasons[i] = builder.reasons[order[i]];
+        }
+
+        final int negatives = builder.negativeSerials.size();
+        final Integer[] negativeOrder = new Integer[negatives];
+        for (int i = 0; i < negatives; i++) {
+            negativeOrder[i] = i;
+        }
+        Arrays.sort(negativeOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                return builder.negativeSerials.get(a).compareTo(builder.negativeSerials.get(b));
+            }
+        });
+        this.negativeSerials = new BigInteger[negatives];
+        this.negativeDates = new long[negatives];
+        this.negativeReasons = new byte[negatives];
+        for (int i = 0; i < negatives; i++) {
+            this.negativeSerials[i] = builder.negativeSerials.get(negativeOrder[i]);
+            this.negativeDates[i] = builder.negativeDates.get(negativeOrder[i]);
+            this.negativeReasons[i] = builder.negativeReasons.get(negativeOrder[i]);
+        }
+    }
+
+    /**
+     * Gets the number of revoked serial numbers.
+     *
+     * @return the count
+     */
+    int size() {
+        return this.dates.length + this.negativeSerials.length;
+    }
+
+    /**
+     * Looks up a serial number.
+     *
+     * @param serial the serial number
+     * @return position of the entry, to be passed to the other methods, or -1 if the serial is not revoked
+     */
+    int indexOf(final BigInteger serial) {
+        if (serial.signum() < 0) {
+            final int index = Arrays.binarySearch(this.negativeSerials, serial);
+            return index >= 0 ? this.dates.length + index : -1;
+        }
+
+        final byte[] encoded = serial.toByteArray();
+        final byte[] magnitude = magnitudeOf(encoded, 0, encoded.length);
+        if (magnitude.length > this.width) {
+            return -1;
+        }
+        final byte[] key = new byte[this.width];
+        System.arraycopy(magnitude, 0, key, this.width - magnitude.length, magnitude.length);
+        int low = 0;
+        int high = this.dates.length - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = compare(this.serials, middle * this.width, key, 0, this.width);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the serial number of an entry.
+     *
+     * @param index position of the entry
+     * @return the serial number
+     */
+    BigInteger getSerial(final int index) {
+        if (index >= this.dates.length) {
+            return this.negativeSerials[index - this.dates.length];
+        }
+        return new BigInteger(1, Arrays.copyOfRange(this.serials, index * this.width, (index + 1) * this.width));
+    }
+
+    /**
+     * Gets the revocation date of an entry.
+     *
+     * @param index position of the entry
+     * @return the date in milliseconds since the epoch
+     */
+    long getDate(final int index) {
+        return index >= this.dates.length ? this.negativeDates[index - this.dates.length] : this.dates[index];
+    }
+
+    /**
+     * Gets the revocation reason code of an entry.
+     *
+     * @param index position of the entry
+     * @return the reason code, or {@link #NO_REASON}
+     */
+    byte getReason(final int index) {
+        return index >= this.dates.length ? this.negativeReasons[index - this.dates.length] : this.reasons[index];
+    }
+
+    /**
+     * Strips the sign byte and leading zeros off a positive two's complement integer.
+     *
+     * @param value the encoded integer
+     * @param offset start of the integer
+     * @param length length of the integer
+     * @return the unsigned magnitude
+     */
+    private static byte[] magnitudeOf(final byte[] value, final int offset, final int length) {
+        int start = offset;
+        while (start < offset + length && value[start] == 0) {
+            start++;
+        }
+        return Arrays.copyOfRange(value, start, offset + length);
+    }
+
+    /**
+     * Compares two unsigned big-endian numbers of the same width.
+     *
+     * @param a the first array
+     * @param aOffset start of the first number
+     * @param b the second array
+     * @param bOffset start of the second number
+     * @param width the width
+     * @return the comparison
+     */
+    private static int compare(final byte[] a, final int aOffset, final byte[] b, final int bOffset, final int width) {
+        for (int i = 0; i < width; i++) {
+            final int difference = (a[aOffset + i] & 0xff) - (b[bOffset + i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Merge sorts record numbers by the serial numbers they refer to, without boxing them.
+     *
+     * @param order the record numbers
+     * @param buffer scratch space as large as the record numbers
+     * @param from start of the range to sort
+     * @param to end of the range to sort
+     * @param records the records
+     * @param width the width of each record
+     */
+    private static void sort(final int[] order, final int[] buffer, final int from, final int to,
+                             final byte[] records, final int width) {
+        if (to - from < 2) {
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        sort(order, buffer, from, middle, records, width);
+        sort(order, buffer, middle, to, records, width);
+        if (compare(records, order[middle - 1] * width, records, order[middle] * width, width) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < middle
+                    && compare(records, buffer[left] * width, records, buffer[right] * width, width) <= 0) {
+                order[i] = buffer[left++];
+            } else {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+
+    /**
+     * Collects the entries of a CRL as they are read.
+     */
+    static final class Builder {
+
+        /** Initial capacity, in entries. */
+        private static final int INITIAL_CAPACITY = 64;
+
+        /** Magnitudes of serial numbers, each preceded by its length. */
+        private byte[] data = new byte[INITIAL_CAPACITY * 16];
+
+        /** Used length of {@link #data}. */
+        private int length;
+
+        /** Revocation dates. */
+        private long[] dates = new long[INITIAL_CAPACITY];
+
+        /** Revocation reason codes. */
+        private byte[] reasons = new byte[INITIAL_CAPACITY];
+
+        /** Number of entries with a positive serial number. */
+        private int count;
+
+        /** Negative serial numbers. */
+        private final List<BigInteger> negativeSerials = new ArrayList<BigInteger>();
+
+        /** Revocation dates of negative serial numbers. */
+        private final List<Long> negativeDates = new ArrayList<Long>();
+
+        /** Revocation reason codes of negative serial numbers. */
+        private final List<Byte> negativeReasons = new ArrayList<Byte>();
+
+        /**
+         * Adds an entry.
+         *
+         * @param serial the DER content of the serial number, in two's complement
+         * @param date the revocation date in milliseconds since the epoch
+         * @param reason the revocation reason code, or {@link RevokedSerialIndex#NO_REASON}
+         */
+        void add(final byte[] serial, final long date, final byte reason) {
+            if (serial.length > 0 && serial[0] < 0) {
+                this.negativeSerials.add(new BigInteger(serial));
+                this.negativeDates.add(date);
+                this.negativeReasons.add(reason);
+                return;
+            }
+
+            final byte[] magnitude = magnitudeOf(serial, 0, serial.length);
+            if (magnitude.length > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("Serial number is too long");
+            }
+            if (this.count == this.dates.length) {
+                this.dates = Arrays.copyOf(this.dates, this.count * 2);
+                this.reasons = Arrays.copyOf(this.reasons, this.count * 2);
+            }
+            if (this.length + magnitude.length + 1 > this.data.length) {
+                this.data = Arrays.copyOf(this.data, Math.max(this.data.length * 2, this.length + magnitude.length + 1));
+            }
+            this.data[this.length++] = (byte) magnitude.length;
+            System.arraycopy(magnitude, 0, this.data, this.length, magnitude.length);
+            this.length += magnitude.length;
+            this.dates[this.count] = date;
+            this.reasons[this.count] = reason;
+            this.count++;
+        }
+
+        /**
+         * Builds the index.
+         *
+         * @return the index
+         */
+        RevokedSerialIndex build() {
+            return new RevokedSerialIndex(this);
+        }
+    }
+}
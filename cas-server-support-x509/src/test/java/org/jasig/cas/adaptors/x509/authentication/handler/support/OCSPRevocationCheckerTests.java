@@ -0,0 +1,182 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.adaptors.x509.authentication.handler.support;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.ehcache.Cache;
+import org.jasig.cas.adaptors.x509.util.MockOCSPResponder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link OCSPRevocationChecker} class.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class OCSPRevocationCheckerTests {
+
+    private MockOCSPResponder responder;
+
+    private OCSPRevocationChecker checker;
+
+    @Before
+    public void setUp() throws Exception {
+        this.responder = new MockOCSPResponder();
+        this.responder.start();
+        this.checker = new OCSPRevocationChecker(new X509Certificate[] {this.responder.getCACertificate()},
+                new Cache("ocspResponseCache", 100, false, false, 20, 10));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.checker.destroy();
+        this.responder.stop();
+    }
+
+    @Test
+    public void verifyGoodCertificateIsCached() throws Exception {
+        final X509Certificate cert = this.responder.issue(BigInteger.valueOf(100), this.responder.getUrl());
+        this.checker.check(cert);
+        this.checker.check(cert);
+        assertEquals(1, this.responder.getRequestCount());
+    }
+
+    @Test
+    public void verifyRevokedCertificate() throws Exception {
+        final X509Certificate cert = this.responder.issue(BigInteger.valueOf(101), this.responder.getUrl());
+        this.responder.revoke(cert.getSerialNumber(), 1);
+        try {
+            this.checker.check(cert);
+            fail("Revoked certificate passed the check");
+        } catch (final RevokedCertificateException e) {
+            assertEquals(cert.getSerialNumber(), e.getSerial());
+            assertEquals(RevokedCertificateException.Reason.KeyCompromise, e.getReason());
+        }
+    }
+
+    @Test
+    public void verifyResponseIsNotReusedAfterNextUpdate() throws Exception {
+        final X509Certificate cert = this.responder.issue(BigInteger.valueOf(102), this.responder.getUrl());
+        this.responder.setNextUpdateDelay(1000);
+        this.checker.check(cert);
+        Thread.sleep(1200);
+        this.checker.check(cert);
+        assertEquals(2, this.responder.getRequestCount());
+    }
+
+    @Test
+    public void verifyStaleResponseWithoutNextUpdateIsRejected() throws Exception {
+        final X509Certificate cert = this.responder.issue(BigInteger.valueOf(108), this.responder.getUrl());
+        this.responder.setNextUpdateDelay(-1);
+        this.checker.setMaxResponseAge(60);
+        this.checker.check(cert);
+        assertEquals(1, this.responder.getRequestCount());
+
+        this.responder.setThisUpdateAge(TimeUnit.HOURS.toMillis(1));
+        try {
+            this.checker.check(cert);
+            fail("Stale response without nextUpdate was accepted");
+        } catch (final GeneralSecurityException e) {
+            assertFalse(e instanceof RevokedCertificateException);
+        }
+    }
+
+    @Test
+    public void verifyOversizedResponseIsRejected() throws Exception {
+        final X509Certificate cert = this.responder.issue(BigInteger.valueOf(109), this.responder.getUrl());
+        this.checker.setMaxResponseSize(100);
+        try {
+            this.checker.check(cert);
+            fail("Oversized response was accepted");
+        } catch (final GeneralSecurityException e) {
+            assertFalse(e instanceof RevokedCertificateException);
+        }
+        assertEquals(1, this.responder.getRequestCount());
+    }
+
+    @Test
+    public void verifyFirstResponseWins() throws Exception {
+        final MockOCSPResponder slow = new MockOCSPResponder();
+        slow.setDelay(3000);
+        slow.start();
+        try {
+            final X509Certificate cert = this.responder.issue(BigInteger.valueOf(103), slow.getUrl());
+            this.checker.setResponderUrls(Arrays.asList(this.responder.getUrl()));
+            final long start = System.currentTimeMillis();
+            this.checker.check(cert);
+            assertTrue(System.currentTimeMillis() - start < 2000);
+            assertEquals(1, this.responder.getRequestCount());
+        } finally {
+            slow.stop();
+        }
+    }
+
+    @Test
+    public void verifyDelegatedResponder() throws Exception {
+        final X509Certificate cert = this.responder.issue(BigInteger.valueOf(104), this.responder.getUrl());
+        this.responder.setSigner(MockOCSPResponder.Signer.DELEGATE);
+        this.checker.check(cert);
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void verifyForgedResponseIsRejected() throws Exception {
+        final X509Certificate cert = this.responder.issue(BigInteger.valueOf(105), this.responder.getUrl());
+        this.responder.setSigner(MockOCSPResponder.Signer.ROGUE);
+        this.checker.check(cert);
+    }
+
+    @Test
+    public void verifyUnavailableResponderFallsBack() throws Exception {
+        final X509Certificate cert = this.responder.issue(BigInteger.valueOf(106), this.responder.getUrl());
+        this.responder.stop();
+        final AtomicInteger fallbacks = new AtomicInteger();
+        this.checker.setFallbackChecker(new RevocationChecker() {
+            @Override
+            public void check(final X509Certificate certificate) {
+                fallbacks.incrementAndGet();
+            }
+        });
+        this.checker.check(cert);
+        assertEquals(1, fallbacks.get());
+    }
+
+    @Test
+    public void verifyUnavailableResponderPolicy() throws Exception {
+        final X509Certificate cert = this.responder.issue(BigInteger.valueOf(107), this.responder.getUrl());
+        this.responder.stop();
+        try {
+            this.checker.check(cert);
+            fail("Check passed without OCSP status");
+        } catch (final GeneralSecurityException e) {
+            assertFalse(e instanceof RevokedCertificateException);
+        }
+        this.checker.setUnavailableResponsePolicy(new AllowRevocationPolicy());
+        this.checker.check(cert);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.adaptors.x509.authentication.handler.support;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.cert.X509CRL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.sf.ehcache.Cache;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link RefreshingCRLCache} class.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class RefreshingCRLCacheTests {
+
+    private static final String ETAG = "\"userCA-1\"";
+
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    private HttpServer server;
+
+    private URL url;
+
+    private RefreshingCRLCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        final byte[] crl = IOUtils.toByteArray(getClass().getResourceAsStream("/userCA-valid.crl"));
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                downloads.incrementAndGet();
+                try {
+                    // slow enough for concurrent lookups to overlap
+                    Thread.sleep(200);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.getResponseHeaders().add("ETag", ETAG);
+                exchange.sendResponseHeaders(200, crl.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(crl);
+                out.close();
+            }
+        });
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+        this.url = new URL("http://localhost:" + this.server.getAddress().getPort() + "/userCA.crl");
+        this.cache = new RefreshingCRLCache(new Cache("refreshingCrlCache", 100, false, false, 20, 10));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.cache.destroy();
+        this.server.stop(0);
+    }
+
+    @Test
+    public void verifyConcurrentLookupsShareOneFetch() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(10);
+        final List<Future<X509CRL>> results = new ArrayList<Future<X509CRL>>();
+        for (int i = 0; i < 10; i++) {
+            results.add(executor.submit(new Callable<X509CRL>() {
+                @Override
+                public X509CRL call() throws Exception {
+                    return cache.get(url);
+                }
+            }));
+        }
+        for (final Future<X509CRL> result : results) {
+            assertNotNull(result.get());
+        }
+        executor.shutdown();
+        assertEquals(1, this.downloads.get());
+        assertNotNull(this.cache.getCached(this.url));
+        assertTrue(this.cache.getFetchLatency(this.url) >= 0);
+    }
+
+    @Test
+    public void verifyRefreshUsesConditionalRequest() throws Exception {
+        this.cache.setMaxAge(1);
+        this.cache.setRetryInterval(1);
+        final X509CRL crl = this.cache.get(this.url);
+        assertNotNull(crl);
+
+        Thread.sleep(1500);
+        assertEquals(1, this.downloads.get());
+        assertEquals(1, this.notModified.get());
+        assertSame(crl, this.cache.getCached(this.url));
+        assertTrue(this.cache.getStaleness(this.url) < 1000);
+    }
+
+    @Test
+    public void verifyOneRefreshIsScheduledPerUrl() throws Exception {
+        final Cache ehcache = new Cache("refreshingCrlCache", 100, false, false, 20, 10);
+        this.cache.destroy();
+        this.cache = new RefreshingCRLCache(ehcache);
+        assertNotNull(this.cache.get(this.url));
+        assertEquals(1, this.cache.getScheduledRefreshCount());
+
+        // the CRL expired from the cache and is fetched again, conditionally
+        ehcache.remove(this.url);
+        assertNotNull(this.cache.get(this.url));
+        assertEquals(1, this.downloads.get());
+        assertEquals(1, this.notModified.get());
+        assertEquals(1, this.cache.getScheduledRefreshCount());
+    }
+
+    @Test
+    public void verifyLastCRLIsServedAfterCacheExpiry() throws Exception {
+        final Cache ehcache = new Cache("refreshingCrlCache", 100, false, false, 20, 10);
+        this.cache.destroy();
+        this.cache = new RefreshingCRLCache(ehcache);
+        final X509CRL crl = this.cache.get(this.url);
+        assertNotNull(crl);
+        this.server.stop(0);
+
+        // the CRL expired from the cache before the distribution point became unavailable
+        ehcache.remove(this.url);
+        assertSame(crl, this.cache.get(this.url));
+        assertSame(crl, this.cache.getCached(this.url));
+        assertEquals(1, this.cache.getScheduledRefreshCount());
+    }
+
+    @Test
+    public void verifyUnusedCRLIsNotRefreshed() throws Exception {
+        this.cache.setMaxAge(1);
+        this.cache.setRetryInterval(1);
+        final X509CRL crl = this.cache.get(this.url);
+        assertNotNull(crl);
+        this.server.stop(0);
+
+        // the failed refresh is tried again once, then no longer since the CRL was not looked up
+        Thread.sleep(3500);
+        assertEquals(0, this.cache.getScheduledRefreshCount());
+        assertSame(crl, this.cache.getCached(this.url));
+    }
+
+    @Test
+    public void verifyUnavailableCRL() throws Exception {
+        this.server.stop(0);
+        assertNull(this.cache.get(this.url));
+        assertNull(this.cache.getCached(this.url));
+        assertEquals(-1, this.cache.getStaleness(this.url));
+    }
+
+    @Test
+    public void verifyFileCRL() throws Exception {
+        final URL file = getClass().getResource("/userCA-valid.crl");
+        assertNotNull(this.cache.get(file));
+        assertEquals(0, this.downloads.get());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.adaptors.x509.authentication.handler.support;
+
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jasig.cas.adaptors.x509.authentication.principal.X509CertificateCredential;
+import org.jasig.cas.adaptors.x509.util.CertUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for the caching of CA certificate validation by {@link X509CredentialsAuthenticationHandler}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class X509CredentialsAuthenticationHandlerCachingTests {
+
+    private final Map<String, AtomicInteger> checks = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private X509CredentialsAuthenticationHandler handler;
+
+    private X509Certificate user;
+
+    private X509Certificate userCA;
+
+    @Before
+    public void setUp() throws Exception {
+        this.handler = new X509CredentialsAuthenticationHandler();
+        this.handler.setTrustedIssuerDnPattern(".*");
+        this.handler.setMaxPathLengthAllowUnspecified(true);
+        this.user = CertUtils.readCertificate(new ClassPathResource("user-valid.crt"));
+        this.userCA = CertUtils.readCertificate(new ClassPathResource("userCA.crt"));
+    }
+
+    @Test
+    public void verifyCACertificateIsValidatedOnce() throws Exception {
+        this.handler.setRevocationChecker(new CountingChecker(System.currentTimeMillis() + 60000));
+        authenticate();
+        authenticate();
+        assertEquals(2, checksOf(this.user));
+        assertEquals(1, checksOf(this.userCA));
+    }
+
+    @Test
+    public void verifyStaleRevocationDataIsNotReused() throws Exception {
+        this.handler.setRevocationChecker(new CountingChecker(-1));
+        authenticate();
+        authenticate();
+        assertEquals(2, checksOf(this.userCA));
+    }
+
+    @Test
+    public void verifyCachingCanBeDisabled() throws Exception {
+        this.handler.setRevocationChecker(new CountingChecker(Long.MAX_VALUE));
+        this.handler.setCaCacheTime(0);
+        authenticate();
+        authenticate();
+        assertEquals(2, checksOf(this.userCA));
+    }
+
+    private void authenticate() throws Exception {
+        assertNotNull(this.handler.authenticate(
+                new X509CertificateCredential(new X509Certificate[] {this.user, this.userCA})));
+    }
+
+    private int checksOf(final X509Certificate cert) {
+        final AtomicInteger count = this.checks.get(cert.getSubjectDN().getName());
+        return count != null ? count.get() : 0;
+    }
+
+    private class CountingChecker implements ExpiringRevocationChecker {
+
+        private final long expiration;
+
+        CountingChecker(final long expiration) {
+            this.expiration = expiration;
+        }
+
+        @Override
+        public void check(final X509Certificate certificate) throws GeneralSecurityException {
+            final String name = certificate.getSubjectDN().getName();
+            checks.putIfAbsent(name, new AtomicInteger());
+            checks.get(name).incrementAndGet();
+        }
+
+        @Override
+        public long getStatusExpiration(final X509Certificate certificate) {
+            return this.expiration;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.adaptors.x509.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.cert.CRLException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.junit.Test;
+import org.springframework.core.io.FileSystemResource;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link CompactX509CRL} class.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class CompactX509CRLTests {
+
+    @Test
+    public void verifyCRLsMatchDefaultParser() throws Exception {
+        for (final String name : new String[] {
+                "userCA-valid.crl", "userCA-expired.crl", "rootCA-valid.crl",
+                "intermediateCA-valid.crl", "intermediateCA-expired.crl"}) {
+            final X509CRL expected = (X509CRL) CertUtils.getCertificateFactory().generateCRL(open(name));
+            final CompactX509CRL crl = CompactX509CRL.read(open(name));
+            assertCRLsMatch(expected, crl);
+        }
+    }
+
+    @Test
+    public void verifyLargeCRL() throws Exception {
+        final Random random = new Random(0);
+        final Set<BigInteger> serials = new LinkedHashSet<BigInteger>();
+        final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        for (int i = 0; i < 20000; i++) {
+            // mix of short serials and long random ones, as issued by different CAs over time
+            final BigInteger serial = i % 3 == 0
+                    ? BigInteger.valueOf(i) : new BigInteger(8 * (1 + random.nextInt(20)), random);
+            if (!serials.add(serial)) {
+                continue;
+            }
+            final byte[] extensions = i % 5 == 0
+                    ? der(0x30, der(0x30, der(0x06, new byte[] {0x55, 0x1d, 0x15}),
+                            der(0x04, der(0x0a, new byte[] {(byte) (i % 10)}))))
+                    : new byte[0];
+            entries.write(der(0x30, der(0x02, serial.toByteArray()), utcTime("140101120000Z"), extensions));
+        }
+        serials.add(BigInteger.valueOf(-42));
+        entries.write(der(0x30, der(0x02, BigInteger.valueOf(-42).toByteArray()), utcTime("140101120000Z")));
+
+        final byte[] encoded = crl(entries.toByteArray());
+        final X509CRL expected = (X509CRL) CertUtils.getCertificateFactory().generateCRL(
+                new ByteArrayInputStream(encoded));
+        final CompactX509CRL crl = CompactX509CRL.read(new ByteArrayInputStream(encoded));
+        assertEquals(serials.size(), crl.getRevokedCount());
+        int withReason = 0;
+        for (final BigInteger serial : serials) {
+            final X509CRLEntry entry = crl.getRevokedCertificate(serial);
+            assertNotNull(entry);
+            assertEquals(serial, entry.getSerialNumber());
+            assertEquals(expected.getRevokedCertificate(serial).getRevocationDate(), entry.getRevocationDate());
+            assertEquals(expected.getRevokedCertificate(serial).getRevocationReason(), entry.getRevocationReason());
+            if (entry.getRevocationReason() != null) {
+                withReason++;
+            }
+        }
+        assertTrue(withReason > 0);
+        for (int i = 0; i < 1000; i++) {
+            final BigInteger serial = new BigInteger(8 * (1 + random.nextInt(20)), random);
+            assertEquals(expected.getRevokedCertificate(serial) != null, crl.getRevokedCertificate(serial) != null);
+        }
+    }
+
+    @Test
+    public void verifyTruncatedCRL() throws Exception {
+        final byte[] encoded = crl(der(0x30, der(0x02, new byte[] {1}), utcTime("140101120000Z")));
+        try {
+            CompactX509CRL.read(new ByteArrayInputStream(Arrays.copyOf(encoded, encoded.length - 10)));
+            fail("Truncated CRL was read");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("truncated"));
+        }
+    }
+
+    @Test
+    public void verifyLengthPastEndOfCRL() throws Exception {
+        final byte[] encoded = crl(der(0x30, new byte[] {0x02, (byte) 0x84, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1}));
+        try {
+            CompactX509CRL.read(new ByteArrayInputStream(encoded));
+            fail("CRL with an element longer than the CRL was read");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("out of bounds"));
+        }
+    }
+
+    @Test
+    public void verifyIndirectCRLIsReadByDefaultFactory() throws Exception {
+        final X500Principal certificateIssuer = new X500Principal("CN=Other CA,O=Jasig");
+        final byte[] encoded = crl(der(0x30, der(0x02, new byte[] {7}), utcTime("140101120000Z"),
+                der(0x30, der(0x30, der(0x06, new byte[] {0x55, 0x1d, 0x1d}),
+                        der(0x04, der(0x30, der(0xa4, certificateIssuer.getEncoded())))))));
+        try {
+            CompactX509CRL.read(new ByteArrayInputStream(encoded));
+            fail("Indirect CRL was read compactly");
+        } catch (final CRLException e) {
+            assertTrue(e.getMessage().contains("Indirect"));
+        }
+
+        final File file = File.createTempFile("indirect", ".crl");
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(encoded);
+            } finally {
+                out.close();
+            }
+            final X509CRL crl = CertUtils.fetchCompactCRL(new FileSystemResource(file));
+            assertFalse(crl instanceof CompactX509CRL);
+            final X509CRLEntry entry = crl.getRevokedCertificates().iterator().next();
+            assertEquals(BigInteger.valueOf(7), entry.getSerialNumber());
+            assertEquals(certificateIssuer, entry.getCertificateIssuer());
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    private static void assertCRLsMatch(final X509CRL expected, final CompactX509CRL crl) {
+        assertEquals(expected.getIssuerX500Principal(), crl.getIssuerX500Principal());
+        assertEquals(expected.getThisUpdate(), crl.getThisUpdate());
+        assertEquals(expected.getNextUpdate(), crl.getNextUpdate());
+        assertEquals(expected.getVersion(), crl.getVersion());
+        assertEquals(expected.getSigAlgOID(), crl.getSigAlgOID());
+        assertArrayEquals(expected.getSignature(), crl.getSignature());
+        if (expected.getRevokedCertificates() == null) {
+            assertEquals(0, crl.getRevokedCount());
+            return;
+        }
+        assertEquals(expected.getRevokedCertificates().size(), crl.getRevokedCount());
+        for (final X509CRLEntry entry : expected.getRevokedCertificates()) {
+            final X509CRLEntry actual = crl.getRevokedCertificate(entry.getSerialNumber());
+            assertNotNull(actual);
+            assertEquals(entry.getRevocationDate(), actual.getRevocationDate());
+        }
+    }
+
+    private static InputStream open(final String name) {
+        return CompactX509CRLTests.class.getResourceAsStream("/" + name);
+    }
+
+    private static byte[] crl(final byte[] entries) throws Exception {
+        final byte[] algorithm = der(0x30, der(0x06, new byte[] {0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7,
+                0x0d, 0x01, 0x01, 0x0b}), der(0x05, new byte[0]));
+        final byte[] tbs = der(0x30,
+                der(0x02, new byte[] {1}),
+                algorithm,
+                new X500Principal("CN=Test CA,O=Jasig").getEncoded(),
+                utcTime("140101000000Z"),
+                utcTime("491231000000Z"),
+                der(0x30, entries));
+        return der(0x30, tbs, algorithm, der(0x03, new byte[] {0, 1, 2, 3, 4}));
+    }
+
+    private static byte[] utcTime(final String time) throws Exception {
+        return der(0x17, time.getBytes("ASCII"));
+    }
+
+    private static byte[] der(final int tag, final byte[]... parts) throws Exception {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (final byte[] part : parts) {
+            content.write(part);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        final int length = content.size();
+        if (length < 0x80) {
+            out.write(length);
+        } else if (length < 0x100) {
+            out.write(0x81);
+            out.write(length);
+        } else if (length < 0x10000) {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length);
+        } else {
+            out.write(0x83);
+            out.write(length >> 16);
+            out.write(length >> 8);
+            out.write(length);
+        }
+        content.writeTo(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.adaptors.x509.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.x500.X500Principal;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.DEREncodable;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.X509Extensions;
+import org.bouncycastle.ocsp.BasicOCSPRespGenerator;
+import org.bouncycastle.ocsp.CertificateID;
+import org.bouncycastle.ocsp.CertificateStatus;
+import org.bouncycastle.ocsp.OCSPReq;
+import org.bouncycastle.ocsp.OCSPRespGenerator;
+import org.bouncycastle.ocsp.RevokedStatus;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+
+/**
+ * Provides an in-process OCSP responder, along with a test CA whose certificates point to it.
+ * Responses are signed on every request by the CA, a delegated responder or a rogue key.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class MockOCSPResponder {
+
+    /** Who signs responses. */
+    public enum Signer {
+        /** The CA itself. */
+        CA,
+
+        /** A responder certificate issued by the CA for OCSP signing. */
+        DELEGATE,
+
+        /** A key the CA does not know about. */
+        ROGUE
+    }
+
+    private static final String SHA256_WITH_RSA = "SHA256withRSA";
+
+    private final KeyPair caKeys = generateKeys();
+
+    private final X509Certificate caCertificate;
+
+    private final KeyPair delegateKeys = generateKeys();
+
+    private final X509Certificate delegateCertificate;
+
+    private final KeyPair rogueKeys = generateKeys();
+
+    private final Map<BigInteger, Integer> revoked = new ConcurrentHashMap<BigInteger, Integer>();
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final HttpServer server;
+
+    private volatile Signer signer = Signer.CA;
+
+    private volatile long nextUpdateDelay = TimeUnit.HOURS.toMillis(1);
+
+    private volatile long delay;
+
+    private volatile long thisUpdateAge;
+
+    /**
+     * Creates a new responder listening on a free local port.
+     *
+     * @throws Exception if the CA cannot be created
+     */
+    public MockOCSPResponder() throws Exception {
+        final X500Principal ca = new X500Principal("CN=OCSP Test CA,O=Jasig");
+        this.caCertificate = createCertificate(BigInteger.ONE, ca, ca, this.caKeys,
+                X509Extensions.BasicConstraints.getId(), true, new BasicConstraints(true));
+        this.delegateCertificate = createCertificate(BigInteger.valueOf(2), new X500Principal("CN=OCSP Responder,O=Jasig"),
+                ca, this.delegateKeys, X509Extensions.ExtendedKeyUsage.getId(), false,
+                new ExtendedKeyUsage(KeyPurposeId.id_kp_OCSPSigning));
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+        this.server.setExecutor(Executors.newCachedThreadPool());
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + this.server.getAddress().getPort() + "/ocsp";
+    }
+
+    public X509Certificate getCACertificate() {
+        return this.caCertificate;
+    }
+
+    public int getRequestCount() {
+        return this.requests.get();
+    }
+
+    public void setSigner(final Signer signer) {
+        this.signer = signer;
+    }
+
+    public void setNextUpdateDelay(final long millis) {
+        this.nextUpdateDelay = millis;
+    }
+
+    /**
+     * Sets how long before the response its thisUpdate time is.
+     *
+     * @param millis age of responses
+     */
+    public void setThisUpdateAge(final long millis) {
+        this.thisUpdateAge = millis;
+    }
+
+    public void setDelay(final long millis) {
+        this.delay = millis;
+    }
+
+    /**
+     * Marks a certificate as revoked.
+     *
+     * @param serial serial number of the certificate
+     * @param reason CRL reason code
+     */
+    public void revoke(final BigInteger serial, final int reason) {
+        this.revoked.put(serial, reason);
+    }
+
+    /**
+     * Issues a user certificate naming the given responders in its authorityInfoAccess extension.
+     *
+     * @param serial serial number
+     * @param responderUrls responder URLs
+     * @return the certificate
+     * @throws Exception on errors
+     */
+    public X509Certificate issue(final BigInteger serial, final String... responderUrls) throws Exception {
+        final ASN1EncodableVector descriptions = new ASN1EncodableVector();
+        for (final String url : responderUrls) {
+            descriptions.add(new AccessDescription(AccessDescription.id_ad_ocsp,
+                    new GeneralName(GeneralName.uniformResourceIdentifier, url)));
+        }
+        return createCertificate(serial, new X500Principal("CN=user" + serial + ",O=Jasig"),
+                this.caCertificate.getSubjectX500Principal(), generateKeys(),
+                X509Extensions.AuthorityInfoAccess.getId(), false, new DERSequence(descriptions));
+    }
+
+    private void respond(final HttpExchange exchange) throws IOException {
+        this.requests.incrementAndGet();
+        try {
+            if (this.delay > 0) {
+                Thread.sleep(this.delay);
+            }
+            final byte[] request;
+            if ("GET".equals(exchange.getRequestMethod())) {
+                final String path = exchange.getRequestURI().getRawPath();
+                request = Base64.decodeBase64(URLDecoder.decode(path.substring(path.lastIndexOf('/') + 1), "UTF-8"));
+            } else {
+                request = IOUtils.toByteArray(exchange.getRequestBody());
+            }
+            final byte[] response = createResponse(request);
+            exchange.getResponseHeaders().add("Content-Type", OCSPUtils.OCSP_RESPONSE_TYPE);
+            exchange.sendResponseHeaders(200, response.length);
+            final OutputStream out = exchange.getResponseBody();
+            out.write(response);
+            out.close();
+        } catch (final Exception e) {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        }
+    }
+
+    private byte[] createResponse(final byte[] request) throws Exception {
+        final CertificateID certificateID = new OCSPReq(request).getRequestList()[0].getCertID();
+        final BigInteger serial = certificateID.getSerialNumber();
+        final CertificateStatus status;
+        if (this.revoked.containsKey(serial)) {
+            status = new RevokedStatus(new Date(System.currentTimeMillis() - 60000), this.revoked.get(serial));
+        } else {
+            status = CertificateStatus.GOOD;
+        }
+        final KeyPair keys;
+        X509Certificate[] chain = null;
+        if (this.signer == Signer.CA) {
+            keys = this.caKeys;
+        } else if (this.signer == Signer.DELEGATE) {
+            keys = this.delegateKeys;
+            chain = new X509Certificate[] {this.delegateCertificate};
+        } else {
+            keys = this.rogueKeys;
+        }
+        final long now = System.currentTimeMillis();
+        final BasicOCSPRespGenerator generator = new BasicOCSPRespGenerator(keys.getPublic());
+        // a negative delay leaves nextUpdate out
+        generator.addResponse(certificateID, status, new Date(now - this.thisUpdateAge),
+                this.nextUpdateDelay < 0 ? null : new Date(now + this.nextUpdateDelay), null);
+        return new OCSPRespGenerator().generate(OCSPRespGenerator.SUCCESSFUL,
+                generator.generate(SHA256_WITH_RSA, keys.getPrivate(), chain, new Date(now), null)).getEncoded();
+    }
+
+    private X509Certificate createCertificate(final BigInteger serial, final X500Principal subject,
+                                              final X500Principal issuer, final KeyPair keys, final String extensionOID,
+                                              final boolean critical, final DEREncodable extension) throws Exception {
+        final long now = System.currentTimeMillis();
+        final X509V3CertificateGenerator generator = new X509V3CertificateGenerator();
+        generator.setSerialNumber(serial);
+        generator.setIssuerDN(issuer);
+        generator.setSubjectDN(subject);
+        generator.setNotBefore(new Date(now - TimeUnit.DAYS.toMillis(1)));
+        generator.setNotAfter(new Date(now + TimeUnit.DAYS.toMillis(365)));
+        generator.setPublicKey(keys.getPublic());
+        generator.setSignatureAlgorithm(SHA256_WITH_RSA);
+        generator.addExtension(extensionOID, critical, extension);
+        final PrivateKey key = issuer.equals(subject) ? keys.getPrivate() : this.caKeys.getPrivate();
+        final byte[] encoded = generator.generate(key).getEncoded();
+        return (X509Certificate) CertUtils.getCertificateFactory().generateCertificate(new ByteArrayInputStream(encoded));
+    }
+
+    private static KeyPair generateKeys() {
+        try {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
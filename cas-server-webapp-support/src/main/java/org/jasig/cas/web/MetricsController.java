@@ -0,0 +1,101 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jasig.cas.monitor.LatencyHistogram;
+import org.jasig.cas.monitor.MetricsRegistry;
+import org.jasig.cas.monitor.OperationMetrics;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.AbstractController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.constraints.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the latency, throughput and error metrics of CAS operations held by a {@link MetricsRegistry}
+ * as a JSON object keyed by operation name. Latencies are given in microseconds.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class MetricsController extends AbstractController {
+
+    /** Maps the metrics to JSON. */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @NotNull
+    private final MetricsRegistry metricsRegistry;
+
+    /**
+     * Instantiates a new metrics controller.
+     *
+     * @param metricsRegistry the metrics registry
+     */
+    public MetricsController(final MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected ModelAndView handleRequestInternal(
+            final HttpServletRequest request, final HttpServletResponse response)
+            throws Exception {
+
+        final Map<String, Object> operations = new LinkedHashMap<String, Object>();
+        for (final OperationMetrics metrics : this.metricsRegistry.getOperations()) {
+            final LatencyHistogram latencies = metrics.getLatencies();
+            final Map<String, Object> latency = new LinkedHashMap<String, Object>();
+            latency.put("mean", micros(latencies.getMean()));
+            latency.put("p50", micros(latencies.getPercentile(50)));
+            latency.put("p99", micros(latencies.getPercentile(99)));
+            latency.put("p999", micros(latencies.getPercentile(99.9)));
+            latency.put("max", micros(latencies.getMax()));
+
+            final Map<String, Object> operation = new LinkedHashMap<String, Object>();
+            operation.put("count", metrics.getCount());
+            operation.put("errors", metrics.getErrorCount());
+            operation.put("throughput", metrics.getThroughput());
+            operation.put("latency", latency);
+            operations.put(metrics.getName(), operation);
+        }
+
+        response.setContentType("application/json");
+        response.setHeader("Cache-Control", "no-cache");
+        this.objectMapper.writeValue(response.getOutputStream(), operations);
+
+        // Return null to signal MVC framework that we handled response directly
+        return null;
+    }
+
+    /**
+     * Converts nanoseconds to microseconds.
+     *
+     * @param nanos the time in nanoseconds
+     * @return the time in microseconds
+     */
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
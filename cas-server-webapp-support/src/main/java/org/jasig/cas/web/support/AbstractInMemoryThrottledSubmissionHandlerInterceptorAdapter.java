@@ -18,19 +18,22 @@
  */
 package org.jasig.cas.web.support;
 
-import java.util.Date;
-import java.util.Iterator;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import com.github.inspektr.common.web.ClientInfoHolder;
+
 import javax.servlet.http.HttpServletRequest;
+import javax.validation.constraints.Min;
 
 /**
- * Implementation of a HandlerInterceptorAdapter that keeps track of a mapping
- * of IP Addresses to number of failures to authenticate.
+ * Implementation of a HandlerInterceptorAdapter that keeps track in memory of the failures to authenticate
+ * per key, such as an IP Address.
+ * <p>
+ * Failures are counted over a sliding window of {@link #setFailureRangeInSeconds(int) failure range} seconds,
+ * and submissions are throttled once {@link #setFailureThreshold(int) failure threshold} failures were counted
+ * for the key. Submissions can also be limited per IP Address and per username, whatever the key, by setting
+ * {@link #setIpAddressFailureThreshold(int)} and {@link #setUsernameFailureThreshold(int)}.
  * <p>
- * Note, this class relies on an external method for decrementing the counts
- * (i.e. a Quartz Job) and runs independent of the threshold of the parent.
+ * Counters expire on their own, and at most {@link #setMaxTrackedKeys(int) a given number} of keys are
+ * tracked per limit, forgetting the keys that failed least recently first.
  *
  * @author Scott Battaglia
  * @since 3.0.5
@@ -38,20 +41,59 @@ import javax.servlet.http.HttpServletRequest;
 public abstract class AbstractInMemoryThrottledSubmissionHandlerInterceptorAdapter
                 extends AbstractThrottledSubmissionHandlerInterceptorAdapter {
 
-    private final ConcurrentMap<String, Date> ipMap = new ConcurrentHashMap<String, Date>();
+    /** Maximum number of keys tracked per limit. */
+    @Min(1)
+    private int maxTrackedKeys = SlidingWindowFailureCounter.DEFAULT_MAX_KEYS;
+
+    /** Number of failures per IP Address that triggers throttling; 0 to disable. */
+    @Min(0)
+    private int ipAddressFailureThreshold;
+
+    /** Number of failures per username that triggers throttling; 0 to disable. */
+    @Min(0)
+    private int usernameFailureThreshold;
+
+    /** Failures per key. */
+    private volatile SlidingWindowFailureCounter failures = newCounter();
+
+    /** Failures per IP Address. */
+    private volatile SlidingWindowFailureCounter ipAddressFailures = newCounter();
+
+    /** Failures per username. */
+    private volatile SlidingWindowFailureCounter usernameFailures = newCounter();
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        super.afterPropertiesSet();
+        this.failures = newCounter();
+        this.ipAddressFailures = newCounter();
+        this.usernameFailures = newCounter();
+    }
 
     @Override
     protected final boolean exceedsThreshold(final HttpServletRequest request) {
-        final Date last = this.ipMap.get(constructKey(request));
-        if (last == null) {
-            return false;
+        if (exceeds(this.failures, constructKey(request), getFailureThreshold())) {
+            return true;
+        }
+        if (this.ipAddressFailureThreshold > 0
+                && exceeds(this.ipAddressFailures, ipAddressOf(), this.ipAddressFailureThreshold)) {
+            return true;
         }
-        return submissionRate(new Date(), last) > getThresholdRate();
+        final String username = usernameOf(request);
+        return this.usernameFailureThreshold > 0 && username != null
+                && exceeds(this.usernameFailures, username, this.usernameFailureThreshold);
     }
 
     @Override
     protected final void recordSubmissionFailure(final HttpServletRequest request) {
-        this.ipMap.put(constructKey(request), new Date());
+        this.failures.record(constructKey(request));
+        if (this.ipAddressFailureThreshold > 0) {
+            this.ipAddressFailures.record(ipAddressOf());
+        }
+        final String username = usernameOf(request);
+        if (this.usernameFailureThreshold > 0 && username != null) {
+            this.usernameFailures.record(username);
+        }
     }
 
     /**
@@ -63,33 +105,89 @@ public abstract class AbstractInMemoryThrottledSubmissionHandlerInterceptorAdapt
     protected abstract String constructKey(HttpServletRequest request);
 
     /**
-     * This class relies on an external configuration to clean it up. It ignores the threshold data in the parent class.
+     * Sets the number of failures per IP Address, whatever the username, that triggers throttling.
+     *
+     * @param ipAddressFailureThreshold the number of failures, or 0 not to limit failures per IP Address.
      */
+    public final void setIpAddressFailureThreshold(final int ipAddressFailureThreshold) {
+        this.ipAddressFailureThreshold = ipAddressFailureThreshold;
+    }
+
+    /**
+     * Sets the number of failures per username, whatever the IP Address, that triggers throttling.
+     *
+     * @param usernameFailureThreshold the number of failures, or 0 not to limit failures per username.
+     */
+    public final void setUsernameFailureThreshold(final int usernameFailureThreshold) {
+        this.usernameFailureThreshold = usernameFailureThreshold;
+    }
+
+    /**
+     * Sets the maximum number of keys tracked per limit, which bounds the memory used.
+     * Takes effect once {@link #afterPropertiesSet()} is called.
+     *
+     * @param maxTrackedKeys the maximum number of keys
+     */
+    public final void setMaxTrackedKeys(final int maxTrackedKeys) {
+        this.maxTrackedKeys = maxTrackedKeys;
+    }
+
+    /**
+     * Used to clean up counters. Counters now expire on their own, so this does nothing; it is kept so that
+     * existing scheduler configurations keep working.
+     * <p>
+     * Note that throttling itself changed along with it: submissions used to be throttled when the rate
+     * between the last failure and the submission exceeded <code>failureThreshold / failureRangeInSeconds</code>,
+     * so two quick failures could trigger it; they are now throttled once <code>failureThreshold</code> failures
+     * were counted within the last <code>failureRangeInSeconds</code>. Deployments that tuned the threshold for the
+     * former rate may need to review it.
+     *
+     * @deprecated No longer required, as counters expire on their own.
+     */
+    @Deprecated
     public final void decrementCounts() {
-        final Set<String> keys = this.ipMap.keySet();
-        logger.debug("Decrementing counts for throttler.  Starting key count: {}", keys.size());
-
-        final Date now = new Date();
-        String key;
-        for (final Iterator<String> iter = keys.iterator(); iter.hasNext();) {
-            key = iter.next();
-            if (submissionRate(now, this.ipMap.get(key)) < getThresholdRate()) {
-                logger.trace("Removing entry for key {}", key);
-                iter.remove();
-            }
-        }
-        logger.debug("Done decrementing count for throttler.");
+        logger.debug("Throttler counters expire on their own; tracking {} keys.", this.failures.size());
+    }
+
+    /**
+     * Creates a counter over the failure range.
+     *
+     * @return the counter
+     */
+    private SlidingWindowFailureCounter newCounter() {
+        return new SlidingWindowFailureCounter(getFailureRangeInSeconds() * 1000L, this.maxTrackedKeys);
     }
 
     /**
-     * Computes the instantaneous rate in between two given dates corresponding to two submissions.
+     * Tells whether the failures counted for a key reach a threshold.
      *
-     * @param a First date.
-     * @param b Second date.
+     * @param counter the counter
+     * @param key the key
+     * @param threshold the number of failures that triggers throttling
+     * @return true, if the key failed at least once and reached the threshold
+     */
+    private static boolean exceeds(final SlidingWindowFailureCounter counter, final String key, final int threshold) {
+        final double count = counter.count(key);
+        return count > 0 && count >= threshold;
+    }
+
+    /**
+     * Gets the IP Address of the client.
      *
-     * @return  Instantaneous submission rate in submissions/sec, e.g. <code>a - b</code>.
+     * @return the IP Address
+     */
+    private static String ipAddressOf() {
+        return ClientInfoHolder.getClientInfo().getClientIpAddress();
+    }
+
+    /**
+     * Gets the submitted username, ignoring case.
+     *
+     * @param request the request
+     * @return the username, or null if none was submitted.
      */
-    private double submissionRate(final Date a, final Date b) {
-        return 1000.0 / (a.getTime() - b.getTime());
+    private String usernameOf(final HttpServletRequest request) {
+        final String username = request.getParameter(getUsernameParameter());
+        return username != null ? username.toLowerCase() : null;
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.web.support;
+
+import java.util.Map;
+
+/**
+ * Shared store of login failure counts, which lets the nodes of a cluster throttle submissions
+ * on the failures seen by all of them.
+ * <p>
+ * Failures are counted per key, such as an IP Address and username, and per window, a window
+ * being identified by its index since the epoch. Nodes add the failures they saw in batches.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public interface FailureCountStore {
+
+    /**
+     * Adds failures seen during a window to the counts of their keys.
+     *
+     * @param window the index of the window
+     * @param failures the number of failures per key
+     */
+    void addFailures(long window, Map<String, Integer> failures);
+
+    /**
+     * Gets the failures of a key over a range of windows.
+     *
+     * @param key the key
+     * @param fromWindow the index of the first window
+     * @param toWindow the index of the last window
+     * @return the number of failures per window index; windows without failures may be missing.
+     */
+    Map<Long, Integer> getFailures(String key, long fromWindow, long toWindow);
+
+    /**
+     * Removes the failures of the windows before a given window.
+     *
+     * @param window the index of the first window to keep
+     */
+    void removeFailuresBefore(long window);
+}
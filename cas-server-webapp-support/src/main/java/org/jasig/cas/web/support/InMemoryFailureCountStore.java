@@ -0,0 +1,84 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.web.support;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps failure counts in memory. Intended for tests and for single node deployments.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class InMemoryFailureCountStore implements FailureCountStore {
+
+    /** Failure counts per window, then per key. */
+    private final ConcurrentMap<Long, ConcurrentMap<String, AtomicInteger>> windows =
+            new ConcurrentHashMap<Long, ConcurrentMap<String, AtomicInteger>>();
+
+    @Override
+    public void addFailures(final long window, final Map<String, Integer> failures) {
+        ConcurrentMap<String, AtomicInteger> counts = this.windows.get(window);
+        if (counts == null) {
+            final ConcurrentMap<String, AtomicInteger> created = new ConcurrentHashMap<String, AtomicInteger>();
+            counts = this.windows.putIfAbsent(window, created);
+            if (counts == null) {
+                counts = created;
+            }
+        }
+        for (final Map.Entry<String, Integer> entry : failures.entrySet()) {
+            AtomicInteger count = counts.get(entry.getKey());
+            if (count == null) {
+                final AtomicInteger created = new AtomicInteger();
+                count = counts.putIfAbsent(entry.getKey(), created);
+                if (count == null) {
+                    count = created;
+                }
+            }
+            count.addAndGet(entry.getValue());
+        }
+    }
+
+    @Override
+    public Map<Long, Integer> getFailures(final String key, final long fromWindow, final long toWindow) {
+        final Map<Long, Integer> failures = new HashMap<Long, Integer>();
+        for (long window = fromWindow; window <= toWindow; window++) {
+            final ConcurrentMap<String, AtomicInteger> counts = this.windows.get(window);
+            final AtomicInteger count = counts != null ? counts.get(key) : null;
+            if (count != null) {
+                failures.put(window, count.get());
+            }
+        }
+        return failures;
+    }
+
+    @Override
+    public void removeFailuresBefore(final long window) {
+        for (final Iterator<Long> iter = this.windows.keySet().iterator(); iter.hasNext();) {
+            if (iter.next() < window) {
+                iter.remove();
+            }
+        }
+    }
+}
@@ -18,22 +18,23 @@
  */
 package org.jasig.cas.web.support;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.sql.Types;
-import java.util.Calendar;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.http.HttpServletRequest;
 import javax.sql.DataSource;
+import javax.validation.constraints.Min;
 
 import com.github.inspektr.audit.AuditActionContext;
 import com.github.inspektr.audit.AuditPointRuntimeInfo;
 import com.github.inspektr.audit.AuditTrailManager;
 import com.github.inspektr.common.web.ClientInfo;
 import com.github.inspektr.common.web.ClientInfoHolder;
-import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.RowMapper;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
  * Works in conjunction with the Inspektr Library to block attempts to dictionary attack users.
@@ -41,68 +42,202 @@ import org.springframework.jdbc.core.RowMapper;
  * Defines a new Inspektr Action "THROTTLED_LOGIN_ATTEMPT" which keeps track of failed login attempts that don't result
  * in AUTHENTICATION_FAILED methods
  * <p>
- * This relies on the default Inspektr table layout and username construction.  The username construction can be overriden
- * in a subclass.
+ * Failures are counted per IP Address and username in a {@link FailureCountStore} shared by all nodes, by default
+ * a {@link JdbcFailureCountStore} table, over a sliding window of {@link #setFailureRangeInSeconds(int) failure range}
+ * seconds. Submissions are throttled once {@link #setFailureThreshold(int) failure threshold} failures were counted.
+ * Each node buffers its failures and adds them to the store in batches every
+ * {@link #setFlushIntervalInMillis(long) flush interval}, so that a request only reads the aggregated counts
+ * of its key. The audit trail is only written to.
+ * <p>
+ * The username construction can be overriden in a subclass.
  *
  * @author Scott Battaglia
  * @since 3.3.5
  */
 public class InspektrThrottledSubmissionByIpAddressAndUsernameHandlerInterceptorAdapter
-            extends AbstractThrottledSubmissionHandlerInterceptorAdapter {
+            extends AbstractThrottledSubmissionHandlerInterceptorAdapter implements DisposableBean {
 
     private static final String DEFAULT_APPLICATION_CODE = "CAS";
 
-    private static final String DEFAULT_AUTHN_FAILED_ACTION = "AUTHENTICATION_FAILED";
-
     private static final String INSPEKTR_ACTION = "THROTTLED_LOGIN_ATTEMPT";
 
+    private static final long DEFAULT_FLUSH_INTERVAL_IN_MILLIS = 1000;
+
     private final AuditTrailManager auditTrailManager;
 
-    private final JdbcTemplate jdbcTemplate;
+    private final FailureCountStore failureCountStore;
+
+    /** Failures not yet added to the store, per window and then per key; guarded by itself. */
+    private final Map<Long, Map<String, Integer>> pendingFailures = new HashMap<Long, Map<String, Integer>>();
 
     private String applicationCode = DEFAULT_APPLICATION_CODE;
 
-    private String authenticationFailureCode = DEFAULT_AUTHN_FAILED_ACTION;
+    @Min(1)
+    private long flushIntervalInMillis = DEFAULT_FLUSH_INTERVAL_IN_MILLIS;
+
+    /** Oldest window whose failures may still be in the store. */
+    private long oldestWindow;
+
+    /** Executor adding pending failures to the store. */
+    private ScheduledExecutorService flushExecutor;
 
     /**
-     * Instantiates a new inspektr throttled submission by ip address and username handler interceptor adapter.
+     * Instantiates a new inspektr throttled submission by ip address and username handler interceptor adapter
+     * that counts failures in a {@link JdbcFailureCountStore}.
      *
      * @param auditTrailManager the audit trail manager
      * @param dataSource the data source
      */
     public InspektrThrottledSubmissionByIpAddressAndUsernameHandlerInterceptorAdapter(final AuditTrailManager auditTrailManager,
             final DataSource dataSource) {
+        this(auditTrailManager, new JdbcFailureCountStore(dataSource));
+    }
+
+    /**
+     * Instantiates a new inspektr throttled submission by ip address and username handler interceptor adapter.
+     *
+     * @param auditTrailManager the audit trail manager
+     * @param failureCountStore the store of failure counts shared by all nodes
+     */
+    public InspektrThrottledSubmissionByIpAddressAndUsernameHandlerInterceptorAdapter(final AuditTrailManager auditTrailManager,
+            final FailureCountStore failureCountStore) {
         this.auditTrailManager = auditTrailManager;
-        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.failureCountStore = failureCountStore;
     }
 
     @Override
-    protected boolean exceedsThreshold(final HttpServletRequest request) {
-        final String query = "SELECT AUD_DATE FROM COM_AUDIT_TRAIL WHERE AUD_CLIENT_IP = ? AND AUD_USER = ? "
-                + "AND AUD_ACTION = ? AND APPLIC_CD = ? AND AUD_DATE >= ? ORDER BY AUD_DATE DESC";
-        final String userToUse = constructUsername(request, getUsernameParameter());
-        final Calendar cutoff = Calendar.getInstance();
-        cutoff.add(Calendar.SECOND, -1 * getFailureRangeInSeconds());
-        final List<Timestamp> failures = this.jdbcTemplate.query(
-                query,
-                new Object[] {request.getRemoteAddr(), userToUse, this.authenticationFailureCode, this.applicationCode, cutoff.getTime()},
-                new int[] {Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.TIMESTAMP},
-                new RowMapper<Timestamp>() {
-                    @Override
-                    public Timestamp mapRow(final ResultSet resultSet, final int i) throws SQLException {
-                        return resultSet.getTimestamp(1);
-                    }
-                });
-        if (failures.size() < 2) {
-            return false;
+    public void afterPropertiesSet() throws Exception {
+        super.afterPropertiesSet();
+        synchronized (this.pendingFailures) {
+            if (this.flushExecutor != null) {
+                return;
+            }
+            this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "ThrottledSubmissionFlusher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
         }
-        // Compute rate in submissions/sec between last two authn failures and compare with threshold
-        return 1000.0 / (failures.get(0).getTime() - failures.get(1).getTime()) > getThresholdRate();
+        this.flushExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushFailures();
+                } catch (final RuntimeException e) {
+                    logger.error("Failed to add login failures to the failure count store", e);
+                }
+            }
+        }, this.flushIntervalInMillis, this.flushIntervalInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        final ScheduledExecutorService executor;
+        synchronized (this.pendingFailures) {
+            executor = this.flushExecutor;
+            this.flushExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(this.flushIntervalInMillis, TimeUnit.MILLISECONDS);
+        }
+        flushFailures();
+    }
+
+    @Override
+    protected boolean exceedsThreshold(final HttpServletRequest request) {
+        final String key = constructKey(request);
+        final long now = System.currentTimeMillis();
+        final long rangeInMillis = rangeInMillis();
+        final long window = now / rangeInMillis;
+        final Map<Long, Integer> failures = this.failureCountStore.getFailures(key, window - 1, window);
+        final double count = SlidingWindowFailureCounter.estimate(
+                countOf(failures, window - 1) + pendingCountOf(key, window - 1),
+                countOf(failures, window) + pendingCountOf(key, window), now, rangeInMillis);
+        return count > 0 && count >= getFailureThreshold();
     }
 
     @Override
     protected void recordSubmissionFailure(final HttpServletRequest request) {
-        // No internal counters to update
+        final String key = constructKey(request);
+        final long window = System.currentTimeMillis() / rangeInMillis();
+        synchronized (this.pendingFailures) {
+            Map<String, Integer> failures = this.pendingFailures.get(window);
+            if (failures == null) {
+                failures = new HashMap<String, Integer>();
+                this.pendingFailures.put(window, failures);
+            }
+            final Integer count = failures.get(key);
+            failures.put(key, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Adds the pending failures to the store, and removes the failures of windows that are over from the store.
+     * Failures the store fails to add are kept for the next flush.
+     */
+    protected final void flushFailures() {
+        final Map<Long, Map<String, Integer>> failures;
+        synchronized (this.pendingFailures) {
+            if (this.pendingFailures.isEmpty()) {
+                failures = null;
+            } else {
+                failures = new HashMap<Long, Map<String, Integer>>(this.pendingFailures);
+                this.pendingFailures.clear();
+            }
+        }
+
+        // failures are only read for the current and previous windows
+        final long oldestUsedWindow = System.currentTimeMillis() / rangeInMillis() - 1;
+        if (failures != null) {
+            final Iterator<Map.Entry<Long, Map<String, Integer>>> iterator = failures.entrySet().iterator();
+            try {
+                while (iterator.hasNext()) {
+                    final Map.Entry<Long, Map<String, Integer>> entry = iterator.next();
+                    if (entry.getKey() >= oldestUsedWindow) {
+                        this.failureCountStore.addFailures(entry.getKey(), entry.getValue());
+                    }
+                    iterator.remove();
+                }
+            } catch (final RuntimeException e) {
+                requeueFailures(failures, oldestUsedWindow);
+                throw e;
+            }
+        }
+
+        if (oldestUsedWindow > this.oldestWindow) {
+            this.failureCountStore.removeFailuresBefore(oldestUsedWindow);
+            this.oldestWindow = oldestUsedWindow;
+        }
+    }
+
+    /**
+     * Adds failures that could not be added to the store back to the pending failures, so that the next flush
+     * adds them again. The failures of windows that are no longer read are dropped.
+     *
+     * @param failures the failures per window and then per key
+     * @param oldestUsedWindow the oldest window whose failures are read
+     */
+    private void requeueFailures(final Map<Long, Map<String, Integer>> failures, final long oldestUsedWindow) {
+        synchronized (this.pendingFailures) {
+            for (final Map.Entry<Long, Map<String, Integer>> entry : failures.entrySet()) {
+                if (entry.getKey() < oldestUsedWindow) {
+                    continue;
+                }
+                final Map<String, Integer> pending = this.pendingFailures.get(entry.getKey());
+                if (pending == null) {
+                    this.pendingFailures.put(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                for (final Map.Entry<String, Integer> failure : entry.getValue().entrySet()) {
+                    final Integer count = pending.get(failure.getKey());
+                    pending.put(failure.getKey(), count == null ? failure.getValue() : count + failure.getValue());
+                }
+            }
+        }
     }
 
     @Override
@@ -134,8 +269,36 @@ public class InspektrThrottledSubmissionByIpAddressAndUsernameHandlerInterceptor
         this.applicationCode = applicationCode;
     }
 
+    /**
+     * Used to set the Inspektr action of authentication failures, which were read from the audit trail.
+     * Failures are now counted in the failure count store, so this does nothing.
+     *
+     * @param authenticationFailureCode the action code
+     * @deprecated No longer used, as the audit trail is not read anymore.
+     */
+    @Deprecated
     public final void setAuthenticationFailureCode(final String authenticationFailureCode) {
-        this.authenticationFailureCode = authenticationFailureCode;
+        logger.debug("Ignoring authentication failure code {}; the audit trail is not read anymore.",
+                authenticationFailureCode);
+    }
+
+    /**
+     * Sets how often the failures seen by this node are added to the failure count store.
+     *
+     * @param flushIntervalInMillis the interval in milliseconds
+     */
+    public final void setFlushIntervalInMillis(final long flushIntervalInMillis) {
+        this.flushIntervalInMillis = flushIntervalInMillis;
+    }
+
+    /**
+     * Construct the key failures are counted for.
+     *
+     * @param request the request
+     * @return the key
+     */
+    private String constructKey(final HttpServletRequest request) {
+        return request.getRemoteAddr() + ';' + constructUsername(request, getUsernameParameter());
     }
 
     /**
@@ -149,4 +312,40 @@ public class InspektrThrottledSubmissionByIpAddressAndUsernameHandlerInterceptor
         final String username = request.getParameter(usernameParameter);
         return "[username: " + (username != null ? username : "") + "]";
     }
+
+    /**
+     * Gets the length of the windows failures are counted over.
+     *
+     * @return the length in milliseconds
+     */
+    private long rangeInMillis() {
+        return Math.max(getFailureRangeInSeconds(), 1) * 1000L;
+    }
+
+    /**
+     * Gets the failures of a window that are not added to the store yet.
+     *
+     * @param key the key
+     * @param window the index of the window
+     * @return the number of failures
+     */
+    private int pendingCountOf(final String key, final long window) {
+        synchronized (this.pendingFailures) {
+            final Map<String, Integer> failures = this.pendingFailures.get(window);
+            return failures != null ? countOf(failures, key) : 0;
+        }
+    }
+
+    /**
+     * Gets a count from a map of counts.
+     *
+     * @param counts the counts
+     * @param key the key of the count
+     * @param <K> the type of the keys
+     * @return the count, or 0 if there is none.
+     */
+    private static <K> int countOf(final Map<K, Integer> counts, final K key) {
+        final Integer count = counts.get(key);
+        return count != null ? count : 0;
+    }
 }
@@ -0,0 +1,181 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.web.support;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import javax.validation.constraints.NotNull;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps failure counts in a small dedicated table, one row per key and window:
+ * <pre>
+ * CREATE TABLE CAS_THROTTLE_FAILURES (
+ *   THROTTLE_KEY VARCHAR(255) NOT NULL,
+ *   WINDOW_INDEX BIGINT NOT NULL,
+ *   FAILURES INTEGER NOT NULL,
+ *   PRIMARY KEY (THROTTLE_KEY, WINDOW_INDEX));
+ *
+ * CREATE INDEX CAS_THROTTLE_FAILURES_WINDOW ON CAS_THROTTLE_FAILURES (WINDOW_INDEX);
+ * </pre>
+ * The script <code>org/jasig/cas/web/support/throttle-failures-schema.sql</code> in this module creates both;
+ * <code>throttle-failures-add-window-index.sql</code> adds the index to a table created without it, which
+ * {@link #removeFailuresBefore(long)} needs not to scan the whole table.
+ * Counts are added in one transaction with a batch of updates followed by a batch of inserts of the rows
+ * that do not exist yet, so either all counts of a call are added or none are. When another node inserted
+ * one of the rows first, the transaction is rolled back and run again. Reads go through the primary key.
+ * <p>
+ * Keys longer than the column are stored as their first characters followed by the SHA-256 hash of the whole key.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class JdbcFailureCountStore implements FailureCountStore {
+
+    /** Default name of the table. */
+    public static final String DEFAULT_TABLE_NAME = "CAS_THROTTLE_FAILURES";
+
+    /** Length of the key column. */
+    private static final int MAX_KEY_LENGTH = 255;
+
+    /** Length of the hex encoded SHA-256 hash replacing the end of longer keys. */
+    private static final int HASH_LENGTH = 64;
+
+    /** Number of times the counts are added before giving up on rows inserted concurrently by other nodes. */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    @NotNull
+    private String tableName = DEFAULT_TABLE_NAME;
+
+    /**
+     * Instantiates a new store.
+     *
+     * @param dataSource the data source of the database holding the table
+     */
+    public JdbcFailureCountStore(final DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    @Override
+    public void addFailures(final long window, final Map<String, Integer> failures) {
+        final List<Object[]> rows = new ArrayList<Object[]>(failures.size());
+        for (final Map.Entry<String, Integer> entry : failures.entrySet()) {
+            rows.add(new Object[] {entry.getValue(), toColumnKey(entry.getKey()), window});
+        }
+        for (int attempt = 1;; attempt++) {
+            try {
+                this.transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                    @Override
+                    protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                        addRows(rows);
+                    }
+                });
+                return;
+            } catch (final DuplicateKeyException e) {
+                // another node inserted one of the rows in the meantime, which the next attempt updates
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of existing rows and inserts the other rows.
+     *
+     * @param rows the count, key and window of each row
+     */
+    private void addRows(final List<Object[]> rows) {
+        final int[] counts = this.jdbcTemplate.batchUpdate("UPDATE " + this.tableName + " SET FAILURES = FAILURES + ? "
+                + "WHERE THROTTLE_KEY = ? AND WINDOW_INDEX = ?", rows);
+
+        // only a row count of zero tells that the row is missing, Statement.SUCCESS_NO_INFO counts as updated
+        final List<Object[]> missingRows = new ArrayList<Object[]>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                missingRows.add(rows.get(i));
+            }
+        }
+        if (!missingRows.isEmpty()) {
+            this.jdbcTemplate.batchUpdate("INSERT INTO " + this.tableName
+                    + " (FAILURES, THROTTLE_KEY, WINDOW_INDEX) VALUES (?, ?, ?)", missingRows);
+        }
+    }
+
+    @Override
+    public Map<Long, Integer> getFailures(final String key, final long fromWindow, final long toWindow) {
+        final Map<Long, Integer> failures = new HashMap<Long, Integer>();
+        this.jdbcTemplate.query("SELECT WINDOW_INDEX, FAILURES FROM " + this.tableName
+                + " WHERE THROTTLE_KEY = ? AND WINDOW_INDEX BETWEEN ? AND ?",
+                new Object[] {toColumnKey(key), fromWindow, toWindow},
+                new RowCallbackHandler() {
+                    @Override
+                    public void processRow(final ResultSet resultSet) throws SQLException {
+                        failures.put(resultSet.getLong(1), resultSet.getInt(2));
+                    }
+                });
+        return failures;
+    }
+
+    @Override
+    public void removeFailuresBefore(final long window) {
+        this.jdbcTemplate.update("DELETE FROM " + this.tableName + " WHERE WINDOW_INDEX < ?", window);
+    }
+
+    /**
+     * Shortens the keys that do not fit in the key column, keeping them distinct.
+     *
+     * @param key the throttle key
+     * @return the key stored in the table
+     */
+    private static String toColumnKey(final String key) {
+        if (key.length() <= MAX_KEY_LENGTH) {
+            return key;
+        }
+        return key.substring(0, MAX_KEY_LENGTH - HASH_LENGTH) + DigestUtils.sha256Hex(key);
+    }
+
+    /**
+     * Sets the name of the table.
+     *
+     * @param tableName the table name
+     */
+    public void setTableName(final String tableName) {
+        this.tableName = tableName;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.web.support;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts failures per key over a sliding window, within a fixed memory budget.
+ * <p>
+ * Each key holds the number of failures of the current and of the previous fixed window. The number of
+ * failures over the sliding window is estimated by weighting the previous count by the part of the previous
+ * window that still overlaps the sliding window, which takes constant memory and time per key. Counts of
+ * windows that are over are dropped when the key is next touched, so no sweep is needed.
+ * <p>
+ * At most {@link #DEFAULT_MAX_KEYS} keys, or the configured maximum, are tracked. When the maximum is
+ * reached the least recently used keys are forgotten, which are the keys that failed least recently.
+ * Keys are spread over independently locked segments to limit contention.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public final class SlidingWindowFailureCounter {
+
+    /** Default maximum number of keys tracked. */
+    public static final int DEFAULT_MAX_KEYS = 100000;
+
+    /** Number of segments; a power of two. */
+    private static final int SEGMENT_COUNT = 16;
+
+    /** Length of the window in milliseconds. */
+    private final long windowInMillis;
+
+    /** Segments keys are spread over. */
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    /**
+     * Instantiates a new counter tracking at most {@link #DEFAULT_MAX_KEYS} keys.
+     *
+     * @param windowInMillis the length of the window in milliseconds
+     */
+    public SlidingWindowFailureCounter(final long windowInMillis) {
+        this(windowInMillis, DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * Instantiates a new counter.
+     *
+     * @param windowInMillis the length of the window in milliseconds
+     * @param maxKeys the maximum number of keys tracked
+     */
+    public SlidingWindowFailureCounter(final long windowInMillis, final int maxKeys) {
+        this.windowInMillis = Math.max(windowInMillis, 1);
+        final int maxKeysPerSegment = Math.max(maxKeys / SEGMENT_COUNT, 1);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            this.segments[i] = new Segment(maxKeysPerSegment);
+        }
+    }
+
+    /**
+     * Records a failure.
+     *
+     * @param key the key the failure is counted for
+     */
+    public void record(final String key) {
+        record(key, System.currentTimeMillis());
+    }
+
+    /**
+     * Estimates the number of failures over the last window.
+     *
+     * @param key the key
+     * @return the number of failures, or 0 if the key is not tracked.
+     */
+    public double count(final String key) {
+        return count(key, System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the number of keys tracked, including keys whose failures are over.
+     *
+     * @return the number of keys
+     */
+    public int size() {
+        int size = 0;
+        for (final Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Records a failure at a given time.
+     *
+     * @param key the key the failure is counted for
+     * @param now the time in milliseconds
+     */
+    void record(final String key, final long now) {
+        final Segment segment = segmentOf(key);
+        synchronized (segment) {
+            Window window = segment.get(key);
+            if (window == null) {
+                window = new Window();
+                segment.put(key, window);
+            }
+            window.roll(now / this.windowInMillis);
+            window.current++;
+        }
+    }
+
+    /**
+     * Estimates the number of failures over the window ending at a given time.
+     *
+     * @param key the key
+     * @param now the time in milliseconds
+     * @return the number of failures
+     */
+    double count(final String key, final long now) {
+        final Segment segment = segmentOf(key);
+        synchronized (segment) {
+            final Window window = segment.get(key);
+            if (window == null) {
+                return 0;
+            }
+            window.roll(now / this.windowInMillis);
+            return estimate(window.previous, window.current, now, this.windowInMillis);
+        }
+    }
+
+    /**
+     * Estimates the number of failures over a sliding window from the failures of the current and previous
+     * fixed windows, assuming the failures of the previous window were evenly spread.
+     *
+     * @param previous failures in the previous fixed window
+     * @param current failures in the current fixed window
+     * @param now the time in milliseconds
+     * @param windowInMillis the length of the window in milliseconds
+     * @return the number of failures
+     */
+    static double estimate(final int previous, final int current, final long now, final long windowInMillis) {
+        final double overlap = (double) (windowInMillis - now % windowInMillis) / windowInMillis;
+        return previous * overlap + current;
+    }
+
+    /**
+     * Gets the segment of a key.
+     *
+     * @param key the key
+     * @return the segment
+     */
+    private Segment segmentOf(final String key) {
+        final int hash = key.hashCode();
+        return this.segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+    /**
+     * Failure counts of a key in the current and previous fixed windows.
+     */
+    private static final class Window {
+
+        /** Index of the current window. */
+        private long index;
+
+        /** Failures in the current window. */
+        private int current;
+
+        /** Failures in the previous window. */
+        private int previous;
+
+        /**
+         * Moves to the given window, dropping counts of windows that are over.
+         *
+         * @param newIndex the index of the window
+         */
+        private void roll(final long newIndex) {
+            if (newIndex == this.index) {
+                return;
+            }
+            this.previous = newIndex == this.index + 1 ? this.current : 0;
+            this.current = 0;
+            this.index = newIndex;
+        }
+    }
+
+    /**
+     * Map of keys to windows, in least recently used order, that forgets its eldest key when full.
+     */
+    private static final class Segment extends LinkedHashMap<String, Window> {
+
+        private static final long serialVersionUID = -4226420165485036521L;
+
+        /** Maximum number of keys. */
+        private final int maxKeys;
+
+        /**
+         * Instantiates a new segment.
+         *
+         * @param maxKeys the maximum number of keys
+         */
+        Segment(final int maxKeys) {
+            super(16, 0.75f, true);
+            this.maxKeys = maxKeys;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Window> eldest) {
+            return size() > this.maxKeys;
+        }
+    }
+}
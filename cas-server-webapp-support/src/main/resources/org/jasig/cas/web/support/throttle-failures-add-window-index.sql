@@ -0,0 +1,23 @@
+--
+-- Licensed to Jasig under one or more contributor license
+-- agreements. See the NOTICE file distributed with this work
+-- for additional information regarding copyright ownership.
+-- Jasig licenses this file to you under the Apache License,
+-- Version 2.0 (the "License"); you may not use this file
+-- except in compliance with the License.  You may obtain a
+-- copy of the License at the following location:
+--
+--   http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing,
+-- software distributed under the License is distributed on an
+-- "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+-- KIND, either express or implied.  See the License for the
+-- specific language governing permissions and limitations
+-- under the License.
+--
+
+-- Migrates a CAS_THROTTLE_FAILURES table created without the index on WINDOW_INDEX, which the
+-- periodic removal of the counts of past windows needs not to scan the whole table.
+
+CREATE INDEX CAS_THROTTLE_FAILURES_WINDOW ON CAS_THROTTLE_FAILURES (WINDOW_INDEX);
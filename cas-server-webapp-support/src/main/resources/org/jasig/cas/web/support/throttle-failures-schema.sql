@@ -0,0 +1,30 @@
+--
+-- Licensed to Jasig under one or more contributor license
+-- agreements. See the NOTICE file distributed with this work
+-- for additional information regarding copyright ownership.
+-- Jasig licenses this file to you under the Apache License,
+-- Version 2.0 (the "License"); you may not use this file
+-- except in compliance with the License.  You may obtain a
+-- copy of the License at the following location:
+--
+--   http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing,
+-- software distributed under the License is distributed on an
+-- "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+-- KIND, either express or implied.  See the License for the
+-- specific language governing permissions and limitations
+-- under the License.
+--
+
+-- Table of JdbcFailureCountStore, which counts failed logins per throttle key and window.
+-- Reads and updates go through the primary key; the index on WINDOW_INDEX serves the periodic
+-- removal of the counts of past windows, which would otherwise scan the whole table.
+
+CREATE TABLE CAS_THROTTLE_FAILURES (
+  THROTTLE_KEY VARCHAR(255) NOT NULL,
+  WINDOW_INDEX BIGINT NOT NULL,
+  FAILURES INTEGER NOT NULL,
+  PRIMARY KEY (THROTTLE_KEY, WINDOW_INDEX));
+
+CREATE INDEX CAS_THROTTLE_FAILURES_WINDOW ON CAS_THROTTLE_FAILURES (WINDOW_INDEX);
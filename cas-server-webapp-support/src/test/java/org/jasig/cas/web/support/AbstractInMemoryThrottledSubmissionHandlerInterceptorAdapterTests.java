@@ -18,11 +18,17 @@
  */
 package org.jasig.cas.web.support;
 
+import com.github.inspektr.common.web.ClientInfo;
+import com.github.inspektr.common.web.ClientInfoHolder;
+import org.junit.After;
+import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.test.MockRequestContext;
 
+import static org.junit.Assert.assertEquals;
+
 /**
  * Base class for in-memory throttled submission handlers.
  *
@@ -31,6 +37,69 @@ import org.springframework.webflow.test.MockRequestContext;
 public abstract class AbstractInMemoryThrottledSubmissionHandlerInterceptorAdapterTests
 extends AbstractThrottledSubmissionHandlerInterceptorAdapterTests {
 
+    private static final int LIMIT = 3;
+
+    @After
+    public void resetLimits() throws Exception {
+        getInMemoryThrottle().setIpAddressFailureThreshold(0);
+        getInMemoryThrottle().setUsernameFailureThreshold(0);
+        getInMemoryThrottle().afterPropertiesSet();
+    }
+
+    @Test
+    public void testIpAddressThresholdAppliesAcrossUsernames() throws Exception {
+        getInMemoryThrottle().setFailureRangeInSeconds(FAILURE_RANGE);
+        getInMemoryThrottle().setFailureThreshold(FAILURE_THRESHOLD);
+        getInMemoryThrottle().setIpAddressFailureThreshold(LIMIT);
+        getInMemoryThrottle().afterPropertiesSet();
+        waitForStartOfWindow();
+
+        for (int i = 0; i < LIMIT; i++) {
+            assertEquals(200, loginUnsuccessfully("user" + i, IP_ADDRESS).getStatus());
+        }
+        // a new username from the same address is throttled, though no key reached the failure threshold
+        assertEquals(403, loginUnsuccessfully("other", IP_ADDRESS).getStatus());
+
+        // the username limit is not set, so the same usernames from another address are not throttled
+        ClientInfoHolder.setClientInfo(new ClientInfo(IP_ADDRESS, "5.6.7.8"));
+        assertEquals(200, loginUnsuccessfully("user0", "5.6.7.8").getStatus());
+    }
+
+    @Test
+    public void testUsernameThresholdAppliesAcrossIpAddresses() throws Exception {
+        getInMemoryThrottle().setFailureRangeInSeconds(FAILURE_RANGE);
+        getInMemoryThrottle().setFailureThreshold(FAILURE_THRESHOLD);
+        getInMemoryThrottle().setUsernameFailureThreshold(LIMIT);
+        getInMemoryThrottle().afterPropertiesSet();
+        waitForStartOfWindow();
+
+        for (int i = 0; i < LIMIT; i++) {
+            assertEquals(200, loginUnsuccessfullyFrom("mog", "10.0.0." + i).getStatus());
+        }
+        // the same username from a new address is throttled, ignoring case
+        assertEquals(403, loginUnsuccessfullyFrom("MOG", "10.0.0.100").getStatus());
+
+        // the address limit is not set, so another username from the same addresses is not throttled
+        assertEquals(200, loginUnsuccessfullyFrom("other", "10.0.0.0").getStatus());
+    }
+
+    private MockHttpServletResponse loginUnsuccessfullyFrom(final String username, final String fromAddress)
+            throws Exception {
+        ClientInfoHolder.setClientInfo(new ClientInfo(IP_ADDRESS, fromAddress));
+        return loginUnsuccessfully(username, fromAddress);
+    }
+
+    private AbstractInMemoryThrottledSubmissionHandlerInterceptorAdapter getInMemoryThrottle() {
+        return (AbstractInMemoryThrottledSubmissionHandlerInterceptorAdapter) getThrottle();
+    }
+
+    private static void waitForStartOfWindow() throws InterruptedException {
+        // failures of the previous fixed window fade as the window slides, so start in the first half of one
+        while (System.currentTimeMillis() % (FAILURE_RANGE * 1000) > FAILURE_RANGE * 1000 / 2) {
+            Thread.sleep(100);
+        }
+    }
+
     @Override
     protected MockHttpServletResponse loginUnsuccessfully(final String username, final String fromAddress) throws Exception {
         final MockHttpServletRequest request = new MockHttpServletRequest();
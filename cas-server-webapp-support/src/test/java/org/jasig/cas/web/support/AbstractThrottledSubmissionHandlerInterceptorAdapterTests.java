@@ -58,37 +58,22 @@ public abstract class AbstractThrottledSubmissionHandlerInterceptorAdapterTests
 
     @Test
     public void testThrottle() throws Exception {
-        final double rate = (double) FAILURE_THRESHOLD / (double) FAILURE_RANGE;
         getThrottle().setFailureRangeInSeconds(FAILURE_RANGE);
         getThrottle().setFailureThreshold(FAILURE_THRESHOLD);
         getThrottle().afterPropertiesSet();
 
-        // Ensure that repeated logins BELOW threshold rate are allowed
-        // Wait 7% more than threshold period
-        int wait = (int) (1000.0 * 1.07 / rate);
-        failLoop(3, wait, 200);
-
-        // Ensure that repeated logins ABOVE threshold rate are throttled
-        // Wait 7% less than threshold period
-        wait = (int) (1000.0 * 0.93 / rate);
-        failLoop(3, wait, 403);
-
-        // Ensure that slowing down relieves throttle
-        // Wait 7% more than threshold period
-        wait = (int) (1000.0 * 1.07 / rate);
-        Thread.sleep(wait);
-        failLoop(3, wait, 200);
-    }
-
+        // Start well before the end of a fixed window, after which earlier failures start to fade
+        while (System.currentTimeMillis() % (FAILURE_RANGE * 1000) > FAILURE_RANGE * 1000 / 2) {
+            Thread.sleep(100);
+        }
 
-    private void failLoop(final int trials, final int period, final int expected) throws Exception {
-        // Seed with something to compare against
-        loginUnsuccessfully("mog", "1.2.3.4").getStatus();
-        for (int i = 0; i < trials; i++) {
-            logger.debug("Waiting for {} ms", period);
-            Thread.sleep(period);
-            assertEquals(expected, loginUnsuccessfully("mog", "1.2.3.4").getStatus());
+        // Ensure that failures below the threshold are allowed, however fast they come
+        for (int i = 0; i < FAILURE_THRESHOLD; i++) {
+            assertEquals(200, loginUnsuccessfully("mog", IP_ADDRESS).getStatus());
         }
+
+        // Ensure that reaching the threshold within the range is throttled
+        assertEquals(403, loginUnsuccessfully("mog", IP_ADDRESS).getStatus());
     }
 
 
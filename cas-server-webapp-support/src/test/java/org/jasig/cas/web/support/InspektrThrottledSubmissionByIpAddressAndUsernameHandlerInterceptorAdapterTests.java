@@ -29,7 +29,10 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.context.ContextConfiguration;
@@ -73,6 +76,8 @@ AbstractThrottledSubmissionHandlerInterceptorAdapterTests {
                 + "AUD_ACTION    VARCHAR(100)  NOT NULL, "
                 + "APPLIC_CD     VARCHAR(5)    NOT NULL, "
                 + "AUD_DATE      TIMESTAMP      NOT NULL)");
+        DatabasePopulatorUtils.execute(new ResourceDatabasePopulator(
+                new ClassPathResource("org/jasig/cas/web/support/throttle-failures-schema.sql")), dataSource);
     }
 
     @Override
@@ -0,0 +1,97 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.web.support;
+
+import org.hsqldb.jdbcDriver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link JdbcFailureCountStore}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class JdbcFailureCountStoreTests {
+
+    private final SimpleDriverDataSource dataSource =
+            new SimpleDriverDataSource(new jdbcDriver(), "jdbc:hsqldb:mem:cas-throttle", "sa", "");
+
+    private final JdbcFailureCountStore store = new JdbcFailureCountStore(this.dataSource);
+
+    @Before
+    public void setUp() throws Exception {
+        DatabasePopulatorUtils.execute(new ResourceDatabasePopulator(
+                new ClassPathResource("org/jasig/cas/web/support/throttle-failures-schema.sql")), this.dataSource);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        new JdbcTemplate(this.dataSource).execute("DROP TABLE CAS_THROTTLE_FAILURES");
+    }
+
+    @Test
+    public void verifyFailuresAreAddedUp() {
+        final Map<String, Integer> failures = new HashMap<String, Integer>();
+        failures.put("1.2.3.4;[username: mog]", 2);
+        failures.put("1.2.3.4;[username: bob]", 1);
+        this.store.addFailures(10, failures);
+        this.store.addFailures(10, Collections.singletonMap("1.2.3.4;[username: mog]", 3));
+        this.store.addFailures(11, Collections.singletonMap("1.2.3.4;[username: mog]", 1));
+
+        final Map<Long, Integer> counts = this.store.getFailures("1.2.3.4;[username: mog]", 10, 11);
+        assertEquals(Integer.valueOf(5), counts.get(10L));
+        assertEquals(Integer.valueOf(1), counts.get(11L));
+        assertEquals(Collections.singletonMap(10L, 1), this.store.getFailures("1.2.3.4;[username: bob]", 9, 10));
+    }
+
+    @Test
+    public void verifyFailuresOfPastWindowsAreRemoved() {
+        this.store.addFailures(10, Collections.singletonMap("key", 1));
+        this.store.addFailures(11, Collections.singletonMap("key", 1));
+        this.store.removeFailuresBefore(11);
+        assertEquals(Collections.singletonMap(11L, 1), this.store.getFailures("key", 10, 11));
+    }
+
+    @Test
+    public void verifyKeysLongerThanTheColumnAreKeptApart() {
+        final StringBuilder prefix = new StringBuilder("1.2.3.4;[username: ");
+        while (prefix.length() < 300) {
+            prefix.append('x');
+        }
+        this.store.addFailures(10, Collections.singletonMap(prefix + "a]", 1));
+        this.store.addFailures(10, Collections.singletonMap(prefix + "b]", 2));
+        this.store.addFailures(10, Collections.singletonMap(prefix + "b]", 1));
+
+        assertEquals(Collections.singletonMap(10L, 1), this.store.getFailures(prefix + "a]", 10, 10));
+        assertEquals(Collections.singletonMap(10L, 3), this.store.getFailures(prefix + "b]", 10, 10));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.cas.web.support;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for {@link SlidingWindowFailureCounter}.
+ *
+ * @author agent
+ * @since 4.1
+ */
+public class SlidingWindowFailureCounterTests {
+
+    private static final long WINDOW = 10000;
+
+    private final SlidingWindowFailureCounter counter = new SlidingWindowFailureCounter(WINDOW, 16);
+
+    @Test
+    public void verifyFailuresAreCountedOverSlidingWindow() {
+        for (int i = 0; i < 10; i++) {
+            this.counter.record("key", 5000 + i);
+        }
+        assertEquals(10, this.counter.count("key", 9999), 0);
+        assertEquals(0, this.counter.count("other", 9999), 0);
+
+        // failures of the previous window fade as the sliding window moves on
+        assertEquals(10, this.counter.count("key", WINDOW), 0);
+        assertEquals(5, this.counter.count("key", WINDOW + WINDOW / 2), 0);
+        this.counter.record("key", WINDOW + WINDOW / 2);
+        assertEquals(6, this.counter.count("key", WINDOW + WINDOW / 2), 0);
+
+        // and are forgotten once two windows are over
+        assertEquals(1, this.counter.count("key", 2 * WINDOW), 0);
+        assertEquals(0, this.counter.count("key", 3 * WINDOW), 0);
+    }
+
+    @Test
+    public void verifyMemoryIsBounded() {
+        for (int i = 0; i < 1000; i++) {
+            this.counter.record("key" + i, 0);
+        }
+        assertTrue(this.counter.size() <= 16);
+        assertEquals(1, this.counter.count("key999", 0), 0);
+    }
+}